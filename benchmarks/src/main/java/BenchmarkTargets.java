@@ -0,0 +1,152 @@
+import dfs.benchmarks.Targets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Gives the benchmarks (in a named package) the hot paths of the system (in the default package).
+ * The LIST replies are built the same way as in the Controllers connection handler, as its methods are private to it.
+ */
+public class BenchmarkTargets implements Targets {
+
+    /**
+     * The number of virtual nodes each Dstore has on the hash ring (the same as the Controller).
+     */
+    private final static int VIRTUAL_NODE_COUNT = 160;
+
+    /**
+     * A cluster to plan a rebalance of.
+     * @param placement Where the files are.
+     * @param files The files which are kept.
+     * @param replicationFactor The replication factor.
+     * @param strategy The placement strategy holding every Dstore.
+     */
+    private record Cluster(PlacementIndex placement, Set<String> files, int replicationFactor, PlacementStrategy strategy) {}
+
+    public String[] splitLine(String line) {
+        return line.split(" ");
+    }
+
+    public ByteBuffer encodeFrame(String[] message) {
+        return BinaryProtocol.encode(message);
+    }
+
+    public Object newDecoder() {
+        return new BinaryProtocol.Decoder();
+    }
+
+    public int decodeFrames(Object decoder, ByteBuffer frames) throws IOException {
+        int[] count = {0};
+        ((BinaryProtocol.Decoder) decoder).feed(frames, message -> count[0]++);
+        return count[0];
+    }
+
+    public Object newCluster(int dstores, int files, int replicationFactor) {
+        // Places every file on the Dstores which were there before the last one joined, then adds the last one empty.
+        PlacementIndex placement = new PlacementIndex();
+        ConsistentHashRing ring = new ConsistentHashRing(VIRTUAL_NODE_COUNT);
+        for (int port = 1; port < dstores; port++) { placement.addDstore(port); ring.addDstore(port); }
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < files; i++) {
+            String file = "file-" + i + ".bin";
+            names.add(file);
+            for (Integer port : ring.choose(file, replicationFactor)) { placement.addReplica(file, port); }
+        }
+        placement.addDstore(dstores);
+        ring.addDstore(dstores);
+        return new Cluster(placement, names, replicationFactor, ring);
+    }
+
+    public int planRebalance(Object cluster) {
+        Cluster state = (Cluster) cluster;
+        return RebalancePlanner.plan(state.placement(), state.files(), state.replicationFactor(), state.strategy()).getTransferCount();
+    }
+
+    public String[] rebalanceMessage(Object cluster) {
+        Cluster state = (Cluster) cluster;
+        RebalancePlanner.Plan plan = RebalancePlanner.plan(state.placement(), state.files(), state.replicationFactor(), state.strategy());
+        ArrayList<String> largest = new ArrayList<>();
+        for (Integer store : plan.getDstores()) {
+            ArrayList<String> arguments = plan.toArguments(store);
+            if (arguments.size() > largest.size()) { largest = arguments; }
+        }
+        largest.add(0, Protocol.REBALANCE_TOKEN);
+        return largest.toArray(new String[0]);
+    }
+
+    public Object newMetadata(int files) {
+        MetadataStore metadata = new MetadataStore();
+        for (int i = 0; i < files; i++) {
+            String file = "file-" + i + ".bin";
+            MetadataStore.FileRecord record = metadata.beginStore(file, "1048576", new AsyncLatch(0));
+            metadata.completeStore(file, record).join();
+            metadata.endOperation(file, record);
+        }
+        return metadata;
+    }
+
+    public int listReply(Object metadata) {
+        MetadataStore store = (MetadataStore) metadata;
+        ArrayList<String> allFiles = new ArrayList<>();
+        store.filenames().forEach(file -> { if (Index.STORE_COMPLETE_TOKEN.equals(store.getIndex(file))) { allFiles.add(file); } });
+        return encodeLine(Protocol.LIST_TOKEN, allFiles);
+    }
+
+    public int listPageReply(Object metadata, int pageSize) {
+        MetadataStore.Page page = ((MetadataStore) metadata).completedPage("", null, pageSize, 1024 * 1024);
+        ArrayList<String> arguments = new ArrayList<>();
+        arguments.add(page.more() ? Protocol.LIST_PAGE_MORE : Protocol.LIST_PAGE_END);
+        arguments.addAll(page.files());
+        return encodeLine(Protocol.LIST_PAGE_TOKEN, arguments);
+    }
+
+    public long copyStream(InputStream input, OutputStream output, long size) throws IOException {
+        return FileTransfer.copyStream(input, output, size);
+    }
+
+    public Object newStorage(String engine, Path folder, int files, int fileBytes) throws IOException {
+        StorageEngine storage = engine.equals("chunked") ? new ChunkStorage(folder.toString()) : new FileStorage(folder.toString(), 0);
+        byte[] data = new byte[fileBytes];
+        for (int i = 0; i < files; i++) {
+            String file = "file-" + i + ".bin";
+            data[0] = (byte) i;
+            Path incoming = storage.incoming(file);
+            Files.write(incoming, data);
+            storage.commit(file, incoming);
+        }
+        return storage;
+    }
+
+    public long listStorage(Object storage) throws IOException {
+        // Walks the listing the same way the Dstore streams it to the Controller.
+        long count = 0;
+        try (Stream<String> files = ((StorageEngine) storage).list()) {
+            for (Iterator<String> iterator = files.iterator(); iterator.hasNext(); iterator.next()) { count++; }
+        }
+        return count;
+    }
+
+    /**
+     * Encodes a message as a text line, the same way a connection does before writing it.
+     * @param protocol The token of the message.
+     * @param arguments The arguments after the token.
+     * @return The length of the line in bytes.
+     */
+    private static int encodeLine(String protocol, List<String> arguments) {
+        ArrayList<String> output = new ArrayList<>();
+        output.add(protocol);
+        arguments.forEach(argument -> output.add(String.valueOf(argument)));
+        return (String.join(" ", output) + System.lineSeparator()).getBytes(StandardCharsets.UTF_8).length;
+    }
+}
@@ -0,0 +1,169 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Client which measures how the Controller copes as the number of open client connections grows, every connection takes turns sending LIST and waiting for the reply.
+ * Usage: java ControllerLoadBenchmark cport [seconds] [connections...].
+ */
+public class ControllerLoadBenchmark {
+
+    /**
+     * The most threads sending requests, each looping over its share of the connections.
+     */
+    private final static int MAX_WORKERS = 32;
+
+    /**
+     * The longest wait for a reply before the benchmark fails.
+     */
+    private final static int TIMEOUT_MILLISECONDS = 30000;
+
+    /**
+     * Opens each number of connections in turn, loading the Controller through all of them and printing the connect time, throughput and latency of each.
+     * @param args The arguments of the benchmark (controller port and optionally the seconds to load for and the numbers of connections).
+     */
+    public static void main(String[] args) {
+        // Try's to parse the arguments, if not possible it lets the user know the usage and stops.
+        int controllerPort;
+        int seconds;
+        List<Integer> connectionCounts = new ArrayList<>();
+        try {
+            controllerPort = Integer.parseInt(args[0]);
+            seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+            for (int i = 2; i < args.length; i++) { connectionCounts.add(Integer.parseInt(args[i])); }
+            if (connectionCounts.isEmpty()) { connectionCounts.addAll(List.of(10, 100, 1000, 5000)); }
+        }
+        catch (RuntimeException exception) { System.err.println("Error: usage is 'java ControllerLoadBenchmark cport [seconds] [connections...]'."); return; }
+
+        System.out.printf("%12s %12s %12s %10s %10s %10s%n", "connections", "connect ms", "requests/s", "p50 ms", "p99 ms", "max ms");
+        for (int connections : connectionCounts) {
+            ArrayList<Client> clients = new ArrayList<>();
+            try {
+                // Opens every connection before any requests are sent, so they are all open while the load runs.
+                long start = System.nanoTime();
+                for (int i = 0; i < connections; i++) { clients.add(new Client(controllerPort)); }
+                long connectNanos = System.nanoTime() - start;
+
+                long[] latencies = load(clients, seconds);
+                Arrays.sort(latencies);
+                System.out.printf("%12d %12.1f %12.0f %10.2f %10.2f %10.2f%n", connections, connectNanos / 1_000_000.0, latencies.length / (double) seconds,
+                    percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 1.0));
+            }
+            catch (IOException exception) { System.err.println("Error: (" + exception + ") with " + connections + " connections, benchmark stopped."); return; }
+
+            // Try's to close every connection before the next count.
+            finally {
+                for (Client client : clients) {
+                    try { client.socket.close(); }
+                    catch (IOException exception) { System.err.println("Error: unable to close a connection."); }
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends LIST over every connection in turn from a few threads until the time is up.
+     * @param clients The open connections.
+     * @param seconds How long to send requests for.
+     * @return The latency of every request in nanoseconds.
+     * @throws IOException Occours when a request fails.
+     */
+    private static long[] load(List<Client> clients, int seconds) throws IOException {
+        int workerCount = Math.min(MAX_WORKERS, clients.size());
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        ArrayList<long[]> results = new ArrayList<>();
+        IOException[] failure = new IOException[1];
+        ArrayList<Thread> workers = new ArrayList<>();
+
+        // Each worker takes every workerCount'th connection, sending one request on each before going round again.
+        for (int w = 0; w < workerCount; w++) {
+            int worker = w;
+            Thread thread = new Thread(() -> {
+                long[] latencies = new long[1024];
+                int count = 0;
+                try {
+                    while (System.nanoTime() < end) {
+                        for (int i = worker; i < clients.size() && System.nanoTime() < end; i += workerCount) {
+                            if (count == latencies.length) { latencies = Arrays.copyOf(latencies, count * 2); }
+                            latencies[count++] = clients.get(i).list();
+                        }
+                    }
+                }
+                catch (IOException exception) { synchronized (failure) { failure[0] = exception; } }
+                synchronized (results) { results.add(Arrays.copyOf(latencies, count)); }
+            });
+            thread.start();
+            workers.add(thread);
+        }
+        for (Thread thread : workers) {
+            try { thread.join(); }
+            catch (InterruptedException exception) { Thread.currentThread().interrupt(); }
+        }
+        if (failure[0] != null) { throw failure[0]; }
+
+        return results.stream().flatMapToLong(Arrays::stream).toArray();
+    }
+
+    /**
+     * Gets a percentile of some sorted latencies in milliseconds.
+     * @param sorted The latencies in nanoseconds, in ascending order.
+     * @param fraction The percentile as a fraction (1.0 for the largest).
+     * @return The latency in milliseconds, or 0 if there are none.
+     */
+    private static double percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) { return 0; }
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1)] / 1_000_000.0;
+    }
+
+    /**
+     * A client connection to the Controller.
+     */
+    private static class Client {
+
+        /**
+         * The socket connected to the Controller.
+         */
+        private final Socket socket;
+
+        /**
+         * Where replies are read from.
+         */
+        private final BufferedReader input;
+
+        /**
+         * Where requests are written to.
+         */
+        private final OutputStream output;
+
+        /**
+         * Connects to the Controller.
+         * @param controllerPort The port of the Controller.
+         * @throws IOException Occours when the connection can't be made.
+         */
+        private Client(int controllerPort) throws IOException {
+            socket = new Socket(InetAddress.getLocalHost(), controllerPort);
+            socket.setSoTimeout(TIMEOUT_MILLISECONDS);
+            input = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            output = socket.getOutputStream();
+        }
+
+        /**
+         * Sends LIST and waits for the reply.
+         * @return The time taken in nanoseconds.
+         * @throws IOException Occours when the connection fails or closes.
+         */
+        private long list() throws IOException {
+            long start = System.nanoTime();
+            output.write((Protocol.LIST_TOKEN + "\n").getBytes(StandardCharsets.UTF_8));
+            if (input.readLine() == null) { throw new IOException("the Controller closed the connection"); }
+            return System.nanoTime() - start;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Client which measures how a Dstore copes with more and more readers loading the same file from it at once, run it against a Dstore started with and without "virtual" to see what virtual threads change.
+ * The file is stored through the Controller first, so the Dstore should be one the Controller stores it on (e.g. the only Dstore with a replication factor of 1).
+ * Usage: java DstoreConcurrencyBenchmark cport dport [seconds] [readers...].
+ */
+public class DstoreConcurrencyBenchmark {
+
+    /**
+     * The name of the file which is stored then loaded.
+     */
+    private final static String FILENAME = "concurrency-benchmark.bin";
+
+    /**
+     * The size of the file which is stored then loaded.
+     */
+    private final static int FILE_SIZE = 64 * 1024;
+
+    /**
+     * The longest wait for the system before the benchmark fails.
+     */
+    private final static int TIMEOUT_MILLISECONDS = 30000;
+
+    /**
+     * Stores the file then loads it from the Dstore with each number of readers in turn, printing the throughput and latency of each.
+     * @param args The arguments of the benchmark (controller port, Dstore port and optionally the seconds to load for and the numbers of readers).
+     */
+    public static void main(String[] args) {
+        // Try's to parse the arguments, if not possible it lets the user know the usage and stops.
+        int controllerPort;
+        int dstorePort;
+        int seconds;
+        List<Integer> readerCounts = new ArrayList<>();
+        try {
+            controllerPort = Integer.parseInt(args[0]);
+            dstorePort = Integer.parseInt(args[1]);
+            seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+            for (int i = 3; i < args.length; i++) { readerCounts.add(Integer.parseInt(args[i])); }
+            if (readerCounts.isEmpty()) { readerCounts.addAll(List.of(10, 100, 1000, 4000)); }
+        }
+        catch (RuntimeException exception) { System.err.println("Error: usage is 'java DstoreConcurrencyBenchmark cport dport [seconds] [readers...]'."); return; }
+
+        try { store(controllerPort); }
+        catch (IOException exception) { System.err.println("Error: (" + exception + ") storing '" + FILENAME + "', benchmark stopped."); return; }
+
+        System.out.printf("%8s %12s %10s %10s%n", "readers", "loads/s", "p50 ms", "p99 ms");
+        for (int readers : readerCounts) {
+            long[] latencies = load(dstorePort, readers, seconds);
+            System.out.printf("%8d %12.0f %10.2f %10.2f%n", readers, latencies.length / (double) seconds, percentile(latencies, 0.5), percentile(latencies, 0.99));
+        }
+    }
+
+    /**
+     * Stores the file through the Controller (an existing copy from an earlier run is used as it is).
+     * @param controllerPort The port of the Controller.
+     * @throws IOException Occours when the file can't be stored.
+     */
+    private static void store(int controllerPort) throws IOException {
+        try (Socket controller = new Socket(InetAddress.getLocalHost(), controllerPort)) {
+            controller.setSoTimeout(TIMEOUT_MILLISECONDS);
+            BufferedReader input = new BufferedReader(new InputStreamReader(controller.getInputStream(), StandardCharsets.UTF_8));
+            OutputStream output = controller.getOutputStream();
+            output.write((Protocol.STORE_TOKEN + " " + FILENAME + " " + FILE_SIZE + "\n").getBytes(StandardCharsets.UTF_8));
+
+            String[] reply = readReply(input).split(" ");
+            if (reply[0].equals(Protocol.ERROR_FILE_ALREADY_EXISTS_TOKEN)) { return; }
+            if (!reply[0].equals(Protocol.STORE_TO_TOKEN)) { throw new IOException("unexpected reply [" + String.join(" ", reply) + "]"); }
+
+            // Sends the file to every Dstore the Controller gave, then waits for the Controller to say it is stored.
+            byte[] data = new byte[FILE_SIZE];
+            for (int i = 1; i < reply.length; i++) {
+                try (Socket dstore = new Socket(InetAddress.getLocalHost(), Integer.parseInt(reply[i]))) {
+                    dstore.setSoTimeout(TIMEOUT_MILLISECONDS);
+                    BufferedReader dstoreInput = new BufferedReader(new InputStreamReader(dstore.getInputStream(), StandardCharsets.UTF_8));
+                    dstore.getOutputStream().write((Protocol.STORE_TOKEN + " " + FILENAME + " " + FILE_SIZE + "\n").getBytes(StandardCharsets.UTF_8));
+                    if (!readReply(dstoreInput).equals(Protocol.ACK_TOKEN)) { throw new IOException("Dstore " + reply[i] + " didn't acknowledge the store"); }
+                    dstore.getOutputStream().write(data);
+                }
+            }
+            String complete = readReply(input);
+            if (!complete.equals(Protocol.STORE_COMPLETE_TOKEN)) { throw new IOException("unexpected reply [" + complete + "]"); }
+        }
+    }
+
+    /**
+     * Reads a reply line, failing if the connection closed first.
+     * @param input Where the line is read from.
+     * @return The line.
+     * @throws IOException Occours when the connection fails or closes.
+     */
+    private static String readReply(BufferedReader input) throws IOException {
+        String line = input.readLine();
+        if (line == null) { throw new IOException("connection closed before a reply"); }
+        return line;
+    }
+
+    /**
+     * Has a number of readers each load the file from a Dstore over and over until the time is up.
+     * @param port The port of the Dstore.
+     * @param readers The number of readers loading at once.
+     * @param seconds How long to load for.
+     * @return The latency of every load in nanoseconds (failed loads are left out and counted on standard error), sorted.
+     */
+    private static long[] load(int port, int readers, int seconds) {
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        ArrayList<long[]> results = new ArrayList<>();
+        int[] failures = {0};
+        ArrayList<Thread> threads = new ArrayList<>();
+
+        for (int r = 0; r < readers; r++) {
+            Thread thread = new Thread(() -> {
+                long[] latencies = new long[256];
+                int count = 0;
+                byte[] buffer = new byte[FILE_SIZE];
+                while (System.nanoTime() < end) {
+                    // Try's a whole load, a failed one is counted rather than stopping the reader.
+                    long start = System.nanoTime();
+                    try (Socket socket = new Socket(InetAddress.getLocalHost(), port)) {
+                        socket.setSoTimeout(TIMEOUT_MILLISECONDS);
+                        socket.getOutputStream().write((Protocol.LOAD_DATA_TOKEN + " " + FILENAME + "\n").getBytes(StandardCharsets.UTF_8));
+                        InputStream input = socket.getInputStream();
+                        long received = 0;
+                        for (int bytesRead; (bytesRead = input.read(buffer)) != -1; ) { received += bytesRead; }
+                        if (received != FILE_SIZE) { throw new IOException("got " + received + " of " + FILE_SIZE + " bytes"); }
+                    }
+                    catch (IOException exception) { synchronized (failures) { failures[0]++; } continue; }
+                    if (count == latencies.length) { latencies = Arrays.copyOf(latencies, count * 2); }
+                    latencies[count++] = System.nanoTime() - start;
+                }
+                synchronized (results) { results.add(Arrays.copyOf(latencies, count)); }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            try { thread.join(); }
+            catch (InterruptedException exception) { Thread.currentThread().interrupt(); }
+        }
+        if (failures[0] > 0) { System.err.println("Error: " + failures[0] + " loads from Dstore " + port + " with " + readers + " readers failed."); }
+
+        long[] latencies = results.stream().flatMapToLong(Arrays::stream).toArray();
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    /**
+     * Gets a percentile of some sorted latencies in milliseconds.
+     * @param sorted The latencies in nanoseconds, in ascending order.
+     * @param fraction The percentile as a fraction.
+     * @return The latency in milliseconds, or 0 if there are none.
+     */
+    private static double percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) { return 0; }
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1)] / 1_000_000.0;
+    }
+}
@@ -0,0 +1,161 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Measures the CPU time a Dstore spends per GB sending a large file, through a 2KB read/write loop (how the Dstore first sent files) and from the whole file engine with zero-copy transfers and from a shared memory mapping.
+ * The file is sent over loopback to a peer which discards it, only the CPU time of the sending thread (user and system) is counted so the peer isn't.
+ * Usage: java MappedSendBenchmark [fileSize] [rounds].
+ */
+public class MappedSendBenchmark {
+
+    /**
+     * The name the file is stored under.
+     */
+    private final static String FILENAME = "mapped-benchmark.bin";
+
+    /**
+     * The size of the buffer the peer reads through.
+     */
+    private final static int PEER_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * The size of the buffer the Dstore first copied files through.
+     */
+    private final static int COPY_BUFFER_SIZE = 2048;
+
+    /**
+     * Stores the file with both engines then sends it each way in turn, printing the throughput and CPU time per GB of each.
+     * @param args The arguments of the benchmark (optionally the size of the file in bytes and the number of timed sends each way).
+     */
+    public static void main(String[] args) {
+        // Try's to parse the arguments, if not possible it lets the user know the usage and stops.
+        long fileSize;
+        int rounds;
+        try {
+            fileSize = args.length > 0 ? Long.parseLong(args[0]) : 1L << 30;
+            rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        }
+        catch (RuntimeException exception) { System.err.println("Error: usage is 'java MappedSendBenchmark [fileSize] [rounds]'."); return; }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Path folder = null;
+        try {
+            // Stores the file once with transfers and once with mappings, each engine in its own folder.
+            folder = Files.createTempDirectory("mapped-benchmark");
+            StorageEngine[] engines = {new FileStorage(folder.resolve("transfer").toString(), 0), new FileStorage(folder.resolve("mapped").toString(), 1)};
+            for (StorageEngine engine : engines) { store(engine, fileSize); }
+
+            // Sends once each way untimed, then rotates which goes first each round.
+            Path copied = folder.resolve("transfer").resolve(FILENAME);
+            long[] wallNanos = new long[3];
+            long[] cpuNanos = new long[3];
+            try (Socket socket = connect()) {
+                for (int path = 0; path < 3; path++) { send(path, engines, copied, socket); }
+                for (int round = 0; round < rounds; round++) {
+                    for (int i = 0; i < 3; i++) {
+                        int path = (round + i) % 3;
+                        long cpuStart = threads.getCurrentThreadCpuTime();
+                        long start = System.nanoTime();
+                        send(path, engines, copied, socket);
+                        wallNanos[path] += System.nanoTime() - start;
+                        cpuNanos[path] += threads.getCurrentThreadCpuTime() - cpuStart;
+                    }
+                }
+            }
+
+            double gigabytes = (double) fileSize * rounds / (1L << 30);
+            System.out.printf("%d sends of %d bytes%n", rounds, fileSize);
+            System.out.printf("%-10s %12s %14s%n", "path", "MB/s", "CPU-s per GB");
+            String[] names = {"2KB copy", "transfer", "mmap"};
+            for (int path = 0; path < 3; path++) {
+                System.out.printf("%-10s %12.0f %14.3f%n", names[path], gigabytes * 1024 / (wallNanos[path] / 1e9), cpuNanos[path] / 1e9 / gigabytes);
+            }
+        }
+        catch (IOException exception) { System.err.println("Error: (" + exception + "), benchmark stopped."); }
+
+        // Try's to remove every file once the sends are done.
+        finally {
+            if (folder != null) {
+                try (Stream<Path> paths = Files.walk(folder)) {
+                    for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) { Files.deleteIfExists(path); }
+                }
+                catch (IOException exception) { System.err.println("Error: unable to remove '" + folder + "'."); }
+            }
+        }
+    }
+
+    /**
+     * Sends the file one of the ways.
+     * @param path The way it is sent (0 through the 2KB loop, 1 from the transfer engine, 2 from the mapping engine).
+     * @param engines The transfer engine and the mapping engine.
+     * @param copied The path of the file the 2KB loop reads.
+     * @param socket The socket which the file is being sent on.
+     * @throws IOException Occours when the file can't be read or the socket can't be written to.
+     */
+    private static void send(int path, StorageEngine[] engines, Path copied, Socket socket) throws IOException {
+        if (path > 0) { engines[path - 1].send(FILENAME, socket); return; }
+        try (InputStream input = Files.newInputStream(copied)) {
+            OutputStream output = socket.getOutputStream();
+            byte[] buf = new byte[COPY_BUFFER_SIZE];
+            int bytesRead;
+            while ((bytesRead = input.read(buf)) != -1) { output.write(buf, 0, bytesRead); }
+        }
+    }
+
+    /**
+     * Stores the file in an engine, written in 1MB blocks of changing bytes.
+     * @param engine The engine it is stored in.
+     * @param fileSize The size of the file.
+     * @throws IOException Occours when the file can't be written.
+     */
+    private static void store(StorageEngine engine, long fileSize) throws IOException {
+        Path incoming = engine.incoming(FILENAME);
+        byte[] block = new byte[1024 * 1024];
+        try (OutputStream output = Files.newOutputStream(incoming)) {
+            for (long written = 0; written < fileSize; written += block.length) {
+                for (int i = 0; i < block.length; i += 4096) { block[i]++; }
+                output.write(block, 0, (int) Math.min(block.length, fileSize - written));
+            }
+        }
+        engine.commit(FILENAME, incoming);
+    }
+
+    /**
+     * Opens a loopback connection whose Dstore end has a channel, with a peer on the other end which discards everything it reads.
+     * @return The Dstores end of the connection.
+     * @throws IOException Occours when the connection can't be made.
+     */
+    private static Socket connect() throws IOException {
+        Socket local;
+        Socket peer;
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            local = SocketChannel.open(server.getLocalAddress()).socket();
+            peer = server.accept().socket();
+        }
+
+        // Reads until the connection is closed, stopping quietly then.
+        Thread reader = new Thread(() -> {
+            try {
+                InputStream input = peer.getInputStream();
+                byte[] buffer = new byte[PEER_BUFFER_SIZE];
+                while (input.read(buffer) != -1) { }
+            }
+            catch (IOException exception) { }
+        }, "mapped-benchmark-reader");
+        reader.setDaemon(true);
+        reader.start();
+        return local;
+    }
+}
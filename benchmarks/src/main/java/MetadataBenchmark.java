@@ -0,0 +1,108 @@
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures several threads at once storing and removing their own files in the Controllers metadata while reading the index of others, with the metadata stores per file concurrency and with every change behind one lock (what a global lock on the old maps would give).
+ * The gap between the two only shows with as many cores as threads.
+ * Usage: java MetadataBenchmark [threads] [seconds] [files].
+ */
+public class MetadataBenchmark {
+
+    /**
+     * Runs both operations both ways in turn, printing the throughput of each.
+     * @param args The arguments of the benchmark (optionally the number of threads, the seconds to run each for and the number of files already stored).
+     */
+    public static void main(String[] args) {
+        // Try's to parse the arguments, if not possible it lets the user know the usage and stops.
+        int threads;
+        int seconds;
+        int files;
+        try {
+            threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+            seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+            files = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+        }
+        catch (RuntimeException exception) { System.err.println("Error: usage is 'java MetadataBenchmark [threads] [seconds] [files]'."); return; }
+
+        MetadataStore metadata = new MetadataStore();
+        for (int i = 0; i < files; i++) {
+            String file = "file-" + i + ".bin";
+            MetadataStore.FileRecord record = metadata.beginStore(file, "1048576", new AsyncLatch(0));
+            metadata.completeStore(file, record).join();
+        }
+
+        // Runs each once untimed first so both ways are compiled before either is measured.
+        System.out.printf("%d threads, %d files%n", threads, files);
+        System.out.printf("%-16s %12s %12s%n", "ops/ms", "striped", "locked");
+        for (String operation : new String[] {"storeAndRemove", "readIndex"}) {
+            run(metadata, operation, false, threads, 1, files);
+            run(metadata, operation, true, threads, 1, files);
+            double striped = run(metadata, operation, false, threads, seconds, files);
+            double locked = run(metadata, operation, true, threads, seconds, files);
+            System.out.printf("%-16s %12.0f %12.0f%n", operation, striped, locked);
+        }
+    }
+
+    /**
+     * Has every thread run an operation over and over until the time is up.
+     * @param metadata The Controllers metadata.
+     * @param operation The operation ("storeAndRemove" on the threads own file or "readIndex" of the stored files).
+     * @param locked If every operation runs behind one shared lock.
+     * @param threads The number of threads.
+     * @param seconds How long to run for.
+     * @param files The number of files already stored.
+     * @return The operations completed per millisecond.
+     */
+    private static double run(MetadataStore metadata, String operation, boolean locked, int threads, int seconds, int files) {
+        Object globalLock = new Object();
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong completed = new AtomicLong();
+        ArrayList<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String ownFile = "thread-" + t + ".bin";
+            int first = t * 7919;
+            Thread thread = new Thread(() -> {
+                long count = 0;
+                int next = first;
+                while (running.get()) {
+                    if (operation.equals("storeAndRemove")) {
+                        if (locked) { synchronized (globalLock) { storeAndRemove(metadata, ownFile); } }
+                        else { storeAndRemove(metadata, ownFile); }
+                    }
+                    else {
+                        next = (next + 7919) % files;
+                        String file = "file-" + next + ".bin";
+                        if (locked) { synchronized (globalLock) { metadata.getIndex(file); } }
+                        else { metadata.getIndex(file); }
+                    }
+                    count++;
+                }
+                completed.addAndGet(count);
+            });
+            thread.start();
+            workers.add(thread);
+        }
+
+        // Try's to wait out the time then every thread, a thread which is interrupted leaves the rest to finish on their own.
+        try {
+            Thread.sleep(seconds * 1000L);
+            running.set(false);
+            for (Thread thread : workers) { thread.join(); }
+        }
+        catch (InterruptedException exception) { running.set(false); Thread.currentThread().interrupt(); }
+        return completed.get() / (seconds * 1000.0);
+    }
+
+    /**
+     * Stores then removes a file, going through every step of the metadata the Controller does.
+     * @param metadata The Controllers metadata.
+     * @param file The name of the file.
+     */
+    private static void storeAndRemove(MetadataStore metadata, String file) {
+        MetadataStore.FileRecord record = metadata.beginStore(file, "1048576", new AsyncLatch(0));
+        if (record == null || !metadata.completeStore(file, record).join()) { throw new IllegalStateException("store of '" + file + "' didn't go through"); }
+        record = metadata.beginRemove(file, new AsyncLatch(0));
+        if (record == null || !metadata.completeRemove(file, record).join()) { throw new IllegalStateException("removal of '" + file + "' didn't go through"); }
+    }
+}
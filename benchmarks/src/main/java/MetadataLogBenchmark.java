@@ -0,0 +1,116 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * Measures how many store completions a second the metadata log can make durable with and without group commit, then how long a large namespace takes to recover.
+ * Usage: java MetadataLogBenchmark folder [threads] [commitsPerThread] [files].
+ */
+public class MetadataLogBenchmark {
+
+    /**
+     * Runs the commit benchmark in both modes then the recovery benchmark, printing the results of each.
+     * @param args The arguments of the benchmark (the folder to write logs in and optionally the number of threads, commits per thread and files to recover).
+     */
+    public static void main(String[] args) {
+        // Try's to parse the arguments, if not possible it lets the user know the usage and stops.
+        Path folder;
+        int threads;
+        int commitsPerThread;
+        int files;
+        try {
+            folder = Paths.get(args[0]);
+            threads = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+            commitsPerThread = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+            files = args.length > 3 ? Integer.parseInt(args[3]) : 1_000_000;
+        }
+        catch (RuntimeException exception) { System.err.println("Error: usage is 'java MetadataLogBenchmark folder [threads] [commitsPerThread] [files]'."); return; }
+
+        try {
+            // Each thread waits for every commit before making the next, like a client waiting for STORE_COMPLETE.
+            double single = commitRate(folder.resolve("single"), false, threads, commitsPerThread);
+            double grouped = commitRate(folder.resolve("grouped"), true, threads, commitsPerThread);
+            System.out.printf("%d threads x %d commits%n", threads, commitsPerThread);
+            System.out.printf("sync per commit: %.0f commits/s%n", single);
+            System.out.printf("group commit:    %.0f commits/s (%.1fx)%n", grouped, grouped / single);
+
+            // Logs the files then recovers them from the log alone, then from a snapshot of them.
+            Path recovery = folder.resolve("recovery");
+            MetadataLog log = new MetadataLog(recovery, true);
+            log.recover((file, size) -> {});
+            log.start(action -> { for (int i = 0; i < files; i++) { action.accept("file-" + i, "1048576"); } });
+            CompletableFuture<Boolean> last = null;
+            for (int i = 0; i < files; i++) {
+                log.append(MetadataLog.STORE_PROGRESS, "file-" + i, "1048576");
+                last = log.append(MetadataLog.STORE_COMPLETE, "file-" + i, "1048576");
+            }
+            if (last != null) { last.join(); }
+            log.close();
+            System.out.printf("recover %d files from the log:      %d ms%n", files, recoverMillis(recovery));
+
+            log = new MetadataLog(recovery, true);
+            log.recover((file, size) -> {});
+            log.start(action -> { for (int i = 0; i < files; i++) { action.accept("file-" + i, "1048576"); } });
+            log.snapshot().join();
+            log.close();
+            System.out.printf("recover %d files from a snapshot:   %d ms%n", files, recoverMillis(recovery));
+        }
+        catch (IOException exception) { System.err.println("Error: (" + exception + "), benchmark stopped."); }
+
+        // Try's to remove the logs which were written.
+        finally {
+            try (Stream<Path> paths = Files.walk(folder)) { paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete()); }
+            catch (IOException exception) { System.err.println("Error: unable to remove '" + folder + "'."); }
+        }
+    }
+
+    /**
+     * Has many threads each make commits one after another.
+     * @param folder The folder to write the log in.
+     * @param groupCommit If the log syncs commits together.
+     * @param threads The number of threads making commits.
+     * @param commitsPerThread The number of commits each thread makes.
+     * @return The number of commits made durable a second.
+     * @throws IOException Occours when the log can't be made.
+     */
+    private static double commitRate(Path folder, boolean groupCommit, int threads, int commitsPerThread) throws IOException {
+        MetadataLog log = new MetadataLog(folder, groupCommit);
+        log.recover((file, size) -> {});
+        log.start(action -> {});
+
+        ArrayList<Thread> workers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            Thread worker = new Thread(() -> {
+                for (int i = 0; i < commitsPerThread; i++) { log.append(MetadataLog.STORE_COMPLETE, "file-" + thread + "-" + i, "1024").join(); }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            try { worker.join(); }
+            catch (InterruptedException exception) { Thread.currentThread().interrupt(); }
+        }
+        long nanos = System.nanoTime() - start;
+        log.close();
+        return (double) threads * commitsPerThread / (nanos / 1_000_000_000.0);
+    }
+
+    /**
+     * Recovers a log, timing how long it takes.
+     * @param folder The folder the log is in.
+     * @return The time taken in milliseconds.
+     * @throws IOException Occours when the log can't be read.
+     */
+    private static long recoverMillis(Path folder) throws IOException {
+        long start = System.nanoTime();
+        new MetadataLog(folder, true).recover((file, size) -> {});
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
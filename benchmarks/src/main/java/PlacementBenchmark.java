@@ -0,0 +1,118 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * Measures finding a files replicas through the Controllers placement index against scanning every Dstore for it (over a set of files each, how the Controller did before the index, and over a list of files each, how it first did), and updating the index as acks arrive.
+ * The cluster with a million files needs a larger heap than the default (e.g. -Xmx3g).
+ * Usage: java PlacementBenchmark [dstores] [files...].
+ */
+public class PlacementBenchmark {
+
+    /**
+     * The replication factor.
+     */
+    private final static int REPLICATION_FACTOR = 3;
+
+    /**
+     * The number of files which are looked up from, each sampled at random from every file.
+     */
+    private final static int SAMPLE_COUNT = 4096;
+
+    /**
+     * How long each operation is run for, once untimed then once timed.
+     */
+    private final static long RUN_NANOS = 1_000_000_000L;
+
+    /**
+     * Builds a cluster for each number of files in turn, printing the average time of each operation on it.
+     * @param args The arguments of the benchmark (optionally the number of Dstores and the numbers of files).
+     */
+    public static void main(String[] args) {
+        // Try's to parse the arguments, if not possible it lets the user know the usage and stops.
+        int dstores;
+        List<Integer> fileCounts = new ArrayList<>();
+        try {
+            dstores = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+            for (int i = 1; i < args.length; i++) { fileCounts.add(Integer.parseInt(args[i])); }
+            if (fileCounts.isEmpty()) { fileCounts.addAll(List.of(10000, 1000000)); }
+            if (dstores < REPLICATION_FACTOR) { throw new IllegalArgumentException("too few Dstores"); }
+        }
+        catch (RuntimeException exception) { System.err.println("Error: usage is 'java PlacementBenchmark [dstores] [files...]', with at least 3 Dstores."); return; }
+
+        System.out.printf("%10s %14s %14s %14s %14s%n", "files", "index ns", "scan sets ns", "scan lists ns", "toggle ns");
+        for (int files : fileCounts) {
+            // Spreads the files round robin, which is enough to give every Dstore the same share.
+            PlacementIndex index = new PlacementIndex();
+            HashMap<Integer, Set<String>> sets = new HashMap<>();
+            HashMap<Integer, ArrayList<String>> lists = new HashMap<>();
+            for (int port = 1; port <= dstores; port++) { index.addDstore(port); sets.put(port, ConcurrentHashMap.newKeySet()); lists.put(port, new ArrayList<>()); }
+            for (int i = 0; i < files; i++) {
+                String file = "file-" + i + ".bin";
+                for (int replica = 0; replica < REPLICATION_FACTOR; replica++) {
+                    int port = (i + replica) % dstores + 1;
+                    index.addReplica(file, port);
+                    sets.get(port).add(file);
+                    lists.get(port).add(file);
+                }
+            }
+
+            Random random = new Random(42);
+            String[] samples = new String[SAMPLE_COUNT];
+            for (int i = 0; i < SAMPLE_COUNT; i++) { samples[i] = "file-" + random.nextInt(files) + ".bin"; }
+
+            double indexNanos = time(samples, file -> index.getReplicas(file).size());
+            double setNanos = time(samples, file -> scan(sets, file));
+            double listNanos = time(samples, file -> scan(lists, file));
+            double toggleNanos = time(samples, file -> {
+                int port = Math.floorMod(file.hashCode(), dstores) + 1;
+                if (index.getReplicas(file).contains(port)) { index.removeReplica(file, port); }
+                else { index.addReplica(file, port); }
+                return index.getReplicas(file).size();
+            });
+            System.out.printf("%10d %14.0f %14.0f %14.0f %14.0f%n", files, indexNanos, setNanos, listNanos, toggleNanos);
+        }
+    }
+
+    /**
+     * Finds the Dstores holding a file by checking the files of every Dstore.
+     * @param dstores The files of each Dstore.
+     * @param file The name of the file.
+     * @return The number of Dstores which hold the file.
+     */
+    private static int scan(Map<Integer, ? extends Collection<String>> dstores, String file) {
+        int[] count = {0};
+        dstores.forEach((port, files) -> { if (files.contains(file)) { count[0]++; } });
+        return count[0];
+    }
+
+    /**
+     * Runs an operation over the sampled files until the time is up, once to warm up and once timed.
+     * @param samples The files the operation is run on, in turn.
+     * @param operation The operation, which returns a count so it can't be optimised away.
+     * @return The average time of the operation in nanoseconds.
+     */
+    private static double time(String[] samples, ToIntFunction<String> operation) {
+        double nanos = 0;
+        long sink = 0;
+        for (int run = 0; run < 2; run++) {
+            long operations = 0;
+            long start = System.nanoTime();
+            long now = start;
+            // Reads the clock every 64 operations, as reading it costs about as much as an index lookup.
+            while (now - start < RUN_NANOS) {
+                sink += operation.applyAsInt(samples[(int) (operations++ % SAMPLE_COUNT)]);
+                if (operations % 64 == 0) { now = System.nanoTime(); }
+            }
+            nanos = (now - start) / (double) operations;
+        }
+        if (sink == 42) { System.out.print(""); }
+        return nanos;
+    }
+}
@@ -0,0 +1,71 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Measures how long the RebalancePlanner takes to plan the rebalance after a new Dstore joins a cluster, for growing numbers of files (the time should grow in line with them).
+ * The clusters with a million files need a larger heap than the default (e.g. -Xmx3g).
+ * Usage: java PlannerBenchmark [dstores] [rounds] [files...].
+ */
+public class PlannerBenchmark {
+
+    /**
+     * The replication factor.
+     */
+    private final static int REPLICATION_FACTOR = 3;
+
+    /**
+     * The number of points each Dstore has on the hash ring.
+     */
+    private final static int VIRTUAL_NODE_COUNT = 160;
+
+    /**
+     * Builds a cluster for each number of files in turn, planning its rebalance a number of times and printing the median time.
+     * @param args The arguments of the benchmark (optionally the number of Dstores once the new one has joined, the number of plans timed and the numbers of files).
+     */
+    public static void main(String[] args) {
+        // Try's to parse the arguments, if not possible it lets the user know the usage and stops.
+        int dstores;
+        int rounds;
+        List<Integer> fileCounts = new ArrayList<>();
+        try {
+            dstores = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+            rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+            for (int i = 2; i < args.length; i++) { fileCounts.add(Integer.parseInt(args[i])); }
+            if (fileCounts.isEmpty()) { fileCounts.addAll(List.of(10000, 100000, 1000000)); }
+            if (dstores <= REPLICATION_FACTOR || rounds < 1) { throw new IllegalArgumentException("out of range"); }
+        }
+        catch (RuntimeException exception) { System.err.println("Error: usage is 'java PlannerBenchmark [dstores] [rounds] [files...]', with more than 3 Dstores."); return; }
+
+        System.out.printf("%d Dstores (one just joined), R=%d%n", dstores, REPLICATION_FACTOR);
+        System.out.printf("%10s %12s %12s %12s%n", "files", "median ms", "us per file", "transfers");
+        for (int files : fileCounts) {
+            // Places the files with the hash ring over every Dstore but the last, which then joins empty.
+            PlacementIndex placement = new PlacementIndex();
+            ConsistentHashRing ring = new ConsistentHashRing(VIRTUAL_NODE_COUNT);
+            for (int port = 1; port < dstores; port++) { placement.addDstore(port); ring.addDstore(port); }
+            Set<String> names = new HashSet<>();
+            for (int i = 0; i < files; i++) {
+                String file = "file-" + i + ".bin";
+                names.add(file);
+                for (Integer port : ring.choose(file, REPLICATION_FACTOR)) { placement.addReplica(file, port); }
+            }
+            placement.addDstore(dstores);
+            ring.addDstore(dstores);
+
+            // Plans once untimed so the planner is compiled before it is measured.
+            int transfers = RebalancePlanner.plan(placement, names, REPLICATION_FACTOR, ring).getTransferCount();
+            long[] times = new long[rounds];
+            for (int round = 0; round < rounds; round++) {
+                long start = System.nanoTime();
+                RebalancePlanner.plan(placement, names, REPLICATION_FACTOR, ring);
+                times[round] = System.nanoTime() - start;
+            }
+            Arrays.sort(times);
+            double median = times[rounds / 2] / 1_000_000.0;
+            System.out.printf("%10d %12.1f %12.2f %12d%n", files, median, median * 1000 / files, transfers);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Client which measures how long a rebalance takes to send its files to other Dstores with the transfers run one at a time (how rebalances used to send) and in parallel through a TransferScheduler, for different numbers of files and peers.
+ * Each peer gets an even share of the files, split into one batch per transfer allowed to it at once, as a Dstores rebalance does.
+ * The files are stored on the Dstores under names the Controller doesn't know, so the next rebalance removes them.
+ * Usage: java RebalanceScheduleBenchmark dport[,dport...] [fileSize] [files...].
+ */
+public class RebalanceScheduleBenchmark {
+
+    /**
+     * The longest wait for a Dstore before the benchmark fails.
+     */
+    private final static int TIMEOUT_MILLISECONDS = 30000;
+
+    /**
+     * The most transfers at once in total and to a single peer when in parallel (the Dstores defaults).
+     */
+    private final static int GLOBAL_LIMIT = 8, PER_PEER_LIMIT = 4;
+
+    /**
+     * Sends each number of files to each number of the peers both one at a time and in parallel, printing the time each took.
+     * @param args The arguments of the benchmark (the ports of the Dstores to send to and optionally the size of each file and the numbers of files).
+     */
+    public static void main(String[] args) {
+        // Try's to parse the arguments, if not possible it lets the user know the usage and stops.
+        List<Integer> dstorePorts = new ArrayList<>();
+        int fileSize;
+        List<Integer> fileCounts = new ArrayList<>();
+        try {
+            for (String port : args[0].split(",")) { dstorePorts.add(Integer.parseInt(port)); }
+            fileSize = args.length > 1 ? Integer.parseInt(args[1]) : 64 * 1024;
+            for (int i = 2; i < args.length; i++) { fileCounts.add(Integer.parseInt(args[i])); }
+            if (fileCounts.isEmpty()) { fileCounts.addAll(List.of(100, 1000)); }
+        }
+        catch (RuntimeException exception) { System.err.println("Error: usage is 'java RebalanceScheduleBenchmark dport[,dport...] [fileSize] [files...]'."); return; }
+
+        System.out.printf("files of %d bytes, parallel is %d at once (%d per peer)%n", fileSize, GLOBAL_LIMIT, PER_PEER_LIMIT);
+        System.out.printf("%8s %6s %14s %14s %8s%n", "files", "peers", "one at a time", "parallel", "speedup");
+        Path data = null;
+        try {
+            data = Files.createTempFile("schedule-benchmark", ".bin");
+            Files.write(data, new byte[fileSize]);
+            for (int files : fileCounts) {
+                for (int peers = 1; peers <= dstorePorts.size(); peers++) {
+                    List<Integer> targets = dstorePorts.subList(0, peers);
+                    String prefix = "schedule-" + files + "-" + peers + "-";
+                    double sequential = rebalanceMillis(new TransferScheduler(1, 1), targets, prefix + "sequential-", files, data);
+                    double parallel = rebalanceMillis(new TransferScheduler(GLOBAL_LIMIT, PER_PEER_LIMIT), targets, prefix + "parallel-", files, data);
+                    System.out.printf("%8d %6d %11.1f ms %11.1f ms %7.2fx%n", files, peers, sequential, parallel, sequential / parallel);
+                }
+            }
+        }
+        catch (IOException exception) { System.err.println("Error: (" + exception + "), benchmark stopped."); }
+
+        // Try's to remove the file once every run is done.
+        finally {
+            try { if (data != null) { Files.deleteIfExists(data); } }
+            catch (IOException exception) { System.err.println("Error: unable to remove '" + data + "'."); }
+        }
+    }
+
+    /**
+     * Sends the files split evenly between the peers through a scheduler, waiting for every batch to be acknowledged.
+     * @param scheduler The scheduler which runs the transfers (its per peer limit is the number of batches each peer gets).
+     * @param peers The ports of the Dstores the files are sent to.
+     * @param prefix The start of the name of each file.
+     * @param files The number of files.
+     * @param data The file whose contents every file has.
+     * @return The time taken in milliseconds.
+     * @throws IOException Occours when a batch isn't acknowledged.
+     */
+    private static double rebalanceMillis(TransferScheduler scheduler, List<Integer> peers, String prefix, int files, Path data) throws IOException {
+        PeerConnectionPool pool = new PeerConnectionPool(scheduler.getPerPeerLimit(), TIMEOUT_MILLISECONDS);
+        ArrayList<CompletableFuture<Boolean>> acknowledgements = new ArrayList<>();
+        long start = System.nanoTime();
+
+        // Gives each peer its share of the files then splits that into batches, each batch being one transfer.
+        int sent = 0;
+        for (int peer = 0; peer < peers.size(); peer++) {
+            int peerFiles = (files - sent) / (peers.size() - peer);
+            int batches = Math.max(1, Math.min(scheduler.getPerPeerLimit(), peerFiles));
+            int batchSent = 0;
+            for (int batch = 0; batch < batches; batch++) {
+                int batchFiles = (peerFiles - batchSent) / (batches - batch);
+                Integer port = peers.get(peer);
+                String batchPrefix = prefix + port + "-" + batch + "-";
+                acknowledgements.add(scheduler.schedule(port, () -> {
+                    // Try's to send the batch, a failure is reported through the acknowledgement.
+                    try { RebalanceTransferBenchmark.sendBatched(pool, port, batchPrefix, batchFiles, 1, data); return true; }
+                    catch (IOException exception) { System.err.println("Error: (" + exception + ") sending to Dstore " + port + "."); return false; }
+                }));
+                batchSent += batchFiles;
+            }
+            sent += peerFiles;
+        }
+
+        CompletableFuture.allOf(acknowledgements.toArray(new CompletableFuture<?>[0])).join();
+        long nanos = System.nanoTime() - start;
+        peers.forEach(pool::closePeer);
+        if (acknowledgements.stream().anyMatch(acknowledgement -> !acknowledgement.join())) { throw new IOException("a batch wasn't acknowledged"); }
+        return nanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,144 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Client which measures how long it takes to move many small files onto a Dstore as a rebalance does, over a new connection for each file (how rebalances used to send) and in batches over one pooled connection.
+ * The files are stored on the Dstore under names the Controller doesn't know, so the next rebalance removes them (each file sent on its own connection uses up a local port for a while, so keep files times rounds well below the number of local ports).
+ * Usage: java RebalanceTransferBenchmark dport [files] [fileSize] [batches] [rounds].
+ */
+public class RebalanceTransferBenchmark {
+
+    /**
+     * The longest wait for the Dstore before the benchmark fails.
+     */
+    private final static int TIMEOUT_MILLISECONDS = 30000;
+
+    /**
+     * Sends the files both ways each round (alternating which goes first), printing the average time each took.
+     * @param args The arguments of the benchmark (the port of the Dstore and optionally the number of files, their size, the number of batches and the number of rounds).
+     */
+    public static void main(String[] args) {
+        // Try's to parse the arguments, if not possible it lets the user know the usage and stops.
+        int dstorePort;
+        int files;
+        int fileSize;
+        int batches;
+        int rounds;
+        try {
+            dstorePort = Integer.parseInt(args[0]);
+            files = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+            fileSize = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+            batches = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+            rounds = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+        }
+        catch (RuntimeException exception) { System.err.println("Error: usage is 'java RebalanceTransferBenchmark dport [files] [fileSize] [batches] [rounds]'."); return; }
+
+        PeerConnectionPool pool = new PeerConnectionPool(batches, TIMEOUT_MILLISECONDS);
+        Path data = null;
+        long perFileNanos = 0;
+        long batchedNanos = 0;
+        try {
+            data = Files.createTempFile("rebalance-benchmark", ".bin");
+            Files.write(data, new byte[fileSize]);
+            for (int round = 0; round < rounds; round++) {
+                String prefix = "rebalance-benchmark-" + round + "-";
+                if (round % 2 == 0) {
+                    perFileNanos += sendPerFile(dstorePort, prefix + "single-", files, data);
+                    batchedNanos += sendBatched(pool, dstorePort, prefix + "batch-", files, batches, data);
+                }
+                else {
+                    batchedNanos += sendBatched(pool, dstorePort, prefix + "batch-", files, batches, data);
+                    perFileNanos += sendPerFile(dstorePort, prefix + "single-", files, data);
+                }
+            }
+        }
+        catch (IOException exception) { System.err.println("Error: (" + exception + "), benchmark stopped."); return; }
+
+        // Try's to remove the file once every round is done.
+        finally {
+            pool.closePeer(dstorePort);
+            try { if (data != null) { Files.deleteIfExists(data); } }
+            catch (IOException exception) { System.err.println("Error: unable to remove '" + data + "'."); }
+        }
+
+        double perFile = perFileNanos / 1_000_000.0 / rounds;
+        double batched = batchedNanos / 1_000_000.0 / rounds;
+        System.out.printf("%d files of %d bytes to Dstore %d (%d rounds)%n", files, fileSize, dstorePort, rounds);
+        System.out.printf("connection per file:        %10.1f ms (%.0f files/s)%n", perFile, files / (perFile / 1000));
+        System.out.printf("pooled, %4d batch(es):     %10.1f ms (%.0f files/s, %.1fx)%n", batches, batched, files / (batched / 1000), perFile / batched);
+    }
+
+    /**
+     * Sends each file on its own new connection with REBALANCE_STORE, waiting for the Dstore to finish with each connection.
+     * @param dstorePort The port of the Dstore.
+     * @param prefix The start of the name of each file.
+     * @param files The number of files.
+     * @param data The file whose contents every file has.
+     * @return The time taken in nanoseconds.
+     * @throws IOException Occours when a file isn't taken.
+     */
+    private static long sendPerFile(int dstorePort, String prefix, int files, Path data) throws IOException {
+        long size = Files.size(data);
+        long start = System.nanoTime();
+        for (int i = 0; i < files; i++) {
+            try (Socket socket = new Socket(InetAddress.getLocalHost(), dstorePort)) {
+                socket.setSoTimeout(TIMEOUT_MILLISECONDS);
+                InputStream input = socket.getInputStream();
+                socket.getOutputStream().write((Protocol.REBALANCE_STORE_TOKEN + " " + prefix + i + " " + size + "\n").getBytes(StandardCharsets.UTF_8));
+                if (!Protocol.ACK_TOKEN.equals(FileTransfer.readLine(input))) { throw new IOException("the Dstore didn't acknowledge file " + i); }
+                FileTransfer.send(data, socket);
+
+                // The Dstore closes its side once it has stored the file and found nothing else on the connection.
+                socket.shutdownOutput();
+                while (input.read() != -1) { }
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Sends the files in batches with REBALANCE_STORE_BATCH over a pooled connection, waiting for the Dstore to acknowledge each batch (also used by RebalanceScheduleBenchmark).
+     * @param pool The pool the connection is borrowed from (and given back to).
+     * @param dstorePort The port of the Dstore.
+     * @param prefix The start of the name of each file.
+     * @param files The number of files.
+     * @param batches The number of batches the files are split into.
+     * @param data The file whose contents every file has.
+     * @return The time taken in nanoseconds.
+     * @throws IOException Occours when a batch isn't acknowledged.
+     */
+    static long sendBatched(PeerConnectionPool pool, int dstorePort, String prefix, int files, int batches, Path data) throws IOException {
+        long size = Files.size(data);
+        long start = System.nanoTime();
+        int sent = 0;
+        for (int batch = 0; batch < batches; batch++) {
+            int batchFiles = (files - sent) / (batches - batch);
+            PeerConnectionPool.PeerConnection peer = pool.borrow(dstorePort);
+            try {
+                Socket socket = peer.getSocket();
+                socket.getOutputStream().write((Protocol.REBALANCE_STORE_BATCH_TOKEN + " " + batchFiles + "\n").getBytes(StandardCharsets.UTF_8));
+                for (int i = sent; i < sent + batchFiles; i++) {
+                    ByteArrayOutputStream header = new ByteArrayOutputStream();
+                    DataOutputStream headerData = new DataOutputStream(header);
+                    headerData.writeUTF(prefix + i);
+                    headerData.writeLong(size);
+                    socket.getOutputStream().write(header.toByteArray());
+                    FileTransfer.send(data, socket);
+                }
+                String reply = peer.readLine();
+                if (!Protocol.ACK_TOKEN.equals(reply)) { throw new IOException("the Dstore didn't acknowledge batch " + batch + " (reply: " + reply + ")"); }
+                pool.release(peer);
+            }
+            catch (IOException exception) { peer.close(); throw exception; }
+            sent += batchFiles;
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,146 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Simulates clients loading files from Dstores which each serve one load at a time, some of them slower than the rest and some files far more popular than the rest, to compare how replicas are chosen.
+ * Compares always taking the first replica (what the old LOAD_FROM did), a random replica and the ReplicaSelector, printing the load latency percentiles of each.
+ * Usage: java ReplicaSelectionBenchmark [dstores] [slowDstores] [utilisation] [loads].
+ */
+public class ReplicaSelectionBenchmark {
+
+    /**
+     * The number of Dstores each file is on.
+     */
+    private final static int REPLICATION_FACTOR = 3;
+
+    /**
+     * The number of files loaded from.
+     */
+    private final static int FILE_COUNT = 10000;
+
+    /**
+     * The number of hot files.
+     */
+    private final static int HOT_FILE_COUNT = 10;
+
+    /**
+     * The share of loads which are of one of the hot files.
+     */
+    private final static double HOT_SHARE = 0.2;
+
+    /**
+     * The size of every file.
+     */
+    private final static long FILE_SIZE = 1024 * 1024;
+
+    /**
+     * The time a normal Dstore takes to serve a file on average, and how many times longer a slow one takes.
+     */
+    private final static long SERVICE_NANOS = 10_000_000, SLOW_FACTOR = 2;
+
+    /**
+     * Runs the simulation once for each way of choosing, with the same files, Dstores and clients, printing the latencies.
+     * @param args The arguments of the simulation (optionally the number of Dstores, how many of them are slow, how busy the Dstores are on average and the number of loads).
+     */
+    public static void main(String[] args) {
+        // Try's to parse the arguments, if not possible it lets the user know the usage and stops.
+        int dstores;
+        int slowDstores;
+        double utilisation;
+        int loads;
+        try {
+            dstores = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+            slowDstores = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+            utilisation = args.length > 2 ? Double.parseDouble(args[2]) : 0.5;
+            loads = args.length > 3 ? Integer.parseInt(args[3]) : 1_000_000;
+            if (dstores < REPLICATION_FACTOR || slowDstores > dstores || utilisation <= 0 || utilisation >= 1) { throw new IllegalArgumentException("out of range"); }
+        }
+        catch (RuntimeException exception) { System.err.println("Error: usage is 'java ReplicaSelectionBenchmark [dstores] [slowDstores] [utilisation] [loads]', with at least 3 Dstores and a utilisation between 0 and 1."); return; }
+
+        System.out.printf("%d Dstores (%d slow), %.0f%% busy, %d loads%n", dstores, slowDstores, utilisation * 100, loads);
+        System.out.printf("%-10s %10s %10s %10s %10s%n", "choice", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (String policy : new String[] {"first", "random", "selector"}) {
+            long[] latencies = simulate(policy, dstores, slowDstores, utilisation, loads);
+            System.out.printf("%-10s %10.1f %10.1f %10.1f %10.1f%n", policy, percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 0.999), percentile(latencies, 1.0));
+        }
+    }
+
+    /**
+     * Simulates every load in order of arrival, each Dstore serving the loads sent to it one after another.
+     * @param policy How a replica is chosen ("first", "random" or "selector").
+     * @param dstores The number of Dstores.
+     * @param slowDstores The number of Dstores which are slower.
+     * @param utilisation How busy the Dstores are on average if loads were spread perfectly.
+     * @param loads The number of loads.
+     * @return The latency of every load in nanoseconds, sorted.
+     */
+    private static long[] simulate(String policy, int dstores, int slowDstores, double utilisation, int loads) {
+        // Uses the same seed for every policy so each sees the same files, Dstores and arrivals (random choices come from their own generator so they don't change the rest).
+        Random random = new Random(42);
+        Random choices = new Random(7);
+        long[] serviceNanos = new long[dstores];
+        for (int port = 0; port < dstores; port++) { serviceNanos[port] = port < slowDstores ? SERVICE_NANOS * SLOW_FACTOR : SERVICE_NANOS; }
+
+        ArrayList<List<Integer>> replicas = new ArrayList<>();
+        for (int file = 0; file < FILE_COUNT; file++) {
+            ArrayList<Integer> ports = new ArrayList<>();
+            while (ports.size() < REPLICATION_FACTOR) {
+                int port = random.nextInt(dstores);
+                if (!ports.contains(port)) { ports.add(port); }
+            }
+            replicas.add(ports);
+        }
+
+        // Works out the arrival rate which keeps the Dstores as busy as asked (the capacity being the loads every Dstore can serve a second together).
+        double capacity = 0;
+        for (long service : serviceNanos) { capacity += 1.0 / service; }
+        double meanGapNanos = 1 / (capacity * utilisation);
+
+        ReplicaSelector selector = new ReplicaSelector(SERVICE_NANOS * SLOW_FACTOR * 10 / 1_000_000);
+        long[] freeAt = new long[dstores];
+        PriorityQueue<long[]> inFlight = new PriorityQueue<>((first, second) -> Long.compare(first[0], second[0]));
+        long[] latencies = new long[loads];
+        long now = 0;
+
+        for (int load = 0; load < loads; load++) {
+            now += (long) (-Math.log(1 - random.nextDouble()) * meanGapNanos);
+
+            // Finishes every load which has ended by now, so the selector only sees what a Controller would have.
+            while (!inFlight.isEmpty() && inFlight.peek()[0] <= now) {
+                long[] finished = inFlight.poll();
+                selector.loadFinished((int) finished[1], finished[0] - finished[2], FILE_SIZE, true);
+            }
+
+            List<Integer> candidates = replicas.get(random.nextDouble() < HOT_SHARE ? random.nextInt(HOT_FILE_COUNT) : random.nextInt(FILE_COUNT));
+            int port = switch (policy) {
+                case "first" -> candidates.get(0);
+                case "random" -> candidates.get(choices.nextInt(candidates.size()));
+                default -> selector.choose(candidates);
+            };
+
+            // Serves the load once the Dstore has finished the loads before it, taking a random time around the Dstores average.
+            long start = Math.max(now, freeAt[port]);
+            long end = start + (long) (-Math.log(1 - random.nextDouble()) * serviceNanos[port]);
+            freeAt[port] = end;
+            latencies[load] = end - now;
+            selector.loadStarted(port);
+            inFlight.add(new long[] {end, port, now});
+        }
+
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    /**
+     * Gets a percentile of some sorted latencies in milliseconds.
+     * @param sorted The latencies in nanoseconds, in ascending order.
+     * @param fraction The percentile as a fraction (1.0 for the largest).
+     * @return The latency in milliseconds.
+     */
+    private static double percentile(long[] sorted, double fraction) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1)] / 1_000_000.0;
+    }
+}
@@ -0,0 +1,74 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Client which measures how much faster a striped load is than loading a file from a single replica.
+ * Usage: java StripedLoadBenchmark cport timeout filename [rounds].
+ */
+public class StripedLoadBenchmark {
+
+    /**
+     * Loads the file from only the cheapest replica then from every replica, repeating both and printing the average throughput of each.
+     * @param args The arguments of the benchmark (controller port, timeout, filename and optionally the number of rounds).
+     */
+    public static void main(String[] args) {
+        // Try's to parse the arguments, if not possible it lets the user know the usage and stops.
+        int controllerPort;
+        int timeoutMilliseconds;
+        String filename;
+        int rounds;
+        try {
+            controllerPort = Integer.parseInt(args[0]);
+            timeoutMilliseconds = Integer.parseInt(args[1]);
+            filename = args[2];
+            rounds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        }
+        catch (RuntimeException exception) { System.err.println("Error: usage is 'java StripedLoadBenchmark cport timeout filename [rounds]'."); return; }
+
+        // Finds the replicas once so both modes load from the same Dstores, then alternates the modes each round so neither gets a warmer disk cache.
+        StripedLoader loader = new StripedLoader(controllerPort, timeoutMilliseconds, StripedLoader.DEFAULT_MIN_STRIPE_SIZE);
+        Path destination = null;
+        try {
+            StripedLoader.Replicas replicas = loader.locate(filename);
+            destination = Files.createTempFile("striped", ".load");
+            long singleNanos = 0;
+            long stripedNanos = 0;
+            for (int round = 0; round < rounds; round++) {
+                long start = System.nanoTime();
+                loader.fetch(filename, replicas.size(), List.of(replicas.ports().get(0)), destination);
+                singleNanos += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                loader.fetch(filename, replicas.size(), replicas.ports(), destination);
+                stripedNanos += System.nanoTime() - start;
+            }
+
+            double single = throughput(replicas.size() * rounds, singleNanos);
+            double striped = throughput(replicas.size() * rounds, stripedNanos);
+            System.out.printf("'%s' (%d bytes, %d replicas, %d rounds)%n", filename, replicas.size(), replicas.ports().size(), rounds);
+            System.out.printf("single replica: %.1f MB/s%n", single);
+            System.out.printf("striped:        %.1f MB/s (%.2fx)%n", striped, striped / single);
+        }
+        catch (IOException exception) { System.err.println("Error: (" + exception + "), benchmark stopped."); }
+
+        // Try's to remove the loaded copy of the file.
+        finally {
+            if (destination != null) {
+                try { Files.deleteIfExists(destination); }
+                catch (IOException exception) { System.err.println("Error: unable to remove '" + destination + "'."); }
+            }
+        }
+    }
+
+    /**
+     * Works out a throughput in megabytes per second.
+     * @param bytes The number of bytes loaded.
+     * @param nanos The time taken.
+     * @return The throughput.
+     */
+    private static double throughput(long bytes, long nanos) {
+        return bytes / (1024.0 * 1024.0) / (nanos / 1_000_000_000.0);
+    }
+}
@@ -0,0 +1,158 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the Dstores file transfers over loopback, sending a file to a peer which discards it and receiving one from a peer which never stops sending.
+ * The channel path is taken when the Dstores socket has a channel, the stream path (the heap buffer copy) when it is a plain socket.
+ * Usage: java TransferBenchmark [rounds] [sizes...].
+ */
+public class TransferBenchmark {
+
+    /**
+     * The size of the buffer the peers read and write through.
+     */
+    private final static int PEER_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * The longest wait for new data while receiving.
+     */
+    private final static int TIMEOUT_MILLISECONDS = 10000;
+
+    /**
+     * The transfers made before timing starts, so both paths are compiled.
+     */
+    private final static int WARMUP_ROUNDS = 5;
+
+    /**
+     * Sends and receives a file of each size over both paths, printing the average time and throughput of each.
+     * @param args The arguments of the benchmark (optionally the number of timed rounds and the sizes of the file in bytes).
+     */
+    public static void main(String[] args) {
+        // Try's to parse the arguments, if not possible it lets the user know the usage and stops.
+        int rounds;
+        List<Integer> sizes = new ArrayList<>();
+        try {
+            rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+            for (int i = 1; i < args.length; i++) { sizes.add(Integer.parseInt(args[i])); }
+            if (sizes.isEmpty()) { sizes.addAll(List.of(1024 * 1024, 64 * 1024 * 1024)); }
+        }
+        catch (RuntimeException exception) { System.err.println("Error: usage is 'java TransferBenchmark [rounds] [sizes...]'."); return; }
+
+        System.out.printf("%-8s %12s %12s %12s %12s%n", "path", "bytes", "send ms", "receive ms", "send MB/s");
+        Path folder = null;
+        try {
+            folder = Files.createTempDirectory("transfer-benchmark");
+            Path source = folder.resolve("source.bin");
+            Path destination = folder.resolve("destination.bin");
+            for (int size : sizes) {
+                byte[] data = new byte[size];
+                for (int i = 0; i < size; i++) { data[i] = (byte) i; }
+                Files.write(source, data);
+
+                for (String path : new String[] {"channel", "stream"}) {
+                    try (Socket sendSocket = connect(path); Socket receiveSocket = connect(path)) {
+                        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                            FileTransfer.send(source, sendSocket);
+                            FileTransfer.receive(receiveSocket, destination, size, TIMEOUT_MILLISECONDS);
+                        }
+
+                        long start = System.nanoTime();
+                        for (int i = 0; i < rounds; i++) { FileTransfer.send(source, sendSocket); }
+                        double sendMillis = (System.nanoTime() - start) / 1_000_000.0 / rounds;
+                        start = System.nanoTime();
+                        for (int i = 0; i < rounds; i++) { FileTransfer.receive(receiveSocket, destination, size, TIMEOUT_MILLISECONDS); }
+                        double receiveMillis = (System.nanoTime() - start) / 1_000_000.0 / rounds;
+                        System.out.printf("%-8s %12d %12.2f %12.2f %12.0f%n", path, size, sendMillis, receiveMillis, size / 1_048_576.0 / (sendMillis / 1000));
+                    }
+                }
+            }
+        }
+        catch (IOException exception) { System.err.println("Error: (" + exception + "), benchmark stopped."); }
+
+        // Try's to remove the files once every size is done.
+        finally {
+            if (folder != null) {
+                try {
+                    Files.deleteIfExists(folder.resolve("source.bin"));
+                    Files.deleteIfExists(folder.resolve("destination.bin"));
+                    Files.deleteIfExists(folder);
+                }
+                catch (IOException exception) { System.err.println("Error: unable to remove '" + folder + "'."); }
+            }
+        }
+    }
+
+    /**
+     * Opens a loopback connection, the Dstores end having a channel or not depending on the path, with a peer on the other end which discards what it reads and sends without stopping.
+     * @param path The transfer path ("channel" or "stream").
+     * @return The Dstores end of the connection.
+     * @throws IOException Occours when the connection can't be made.
+     */
+    private static Socket connect(String path) throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        Socket local;
+        Socket peer;
+        if (path.equals("channel")) {
+            try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress(loopback, 0))) {
+                local = SocketChannel.open(server.getLocalAddress()).socket();
+                peer = server.accept().socket();
+            }
+        }
+        else {
+            try (ServerSocket server = new ServerSocket(0, 1, loopback)) {
+                local = new Socket(loopback, server.getLocalPort());
+                peer = server.accept();
+            }
+        }
+
+        // Runs both sides of the peer until the connection is closed.
+        startPeer("transfer-benchmark-reader", () -> {
+            InputStream input = peer.getInputStream();
+            byte[] buffer = new byte[PEER_BUFFER_SIZE];
+            while (input.read(buffer) != -1) { }
+        });
+        startPeer("transfer-benchmark-writer", () -> {
+            OutputStream output = peer.getOutputStream();
+            byte[] buffer = new byte[PEER_BUFFER_SIZE];
+            while (true) { output.write(buffer); }
+        });
+        return local;
+    }
+
+    /**
+     * Starts a daemon thread for one side of a peer, which stops quietly once the connection closes.
+     * @param name The name of the thread.
+     * @param loop What the side does.
+     */
+    private static void startPeer(String name, PeerLoop loop) {
+        Thread thread = new Thread(() -> {
+            try { loop.run(); }
+            catch (IOException exception) { }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * One side of a peer, which runs until its connection fails.
+     */
+    private interface PeerLoop {
+
+        /**
+         * Runs the side.
+         * @throws IOException Occours when the connection fails or is closed.
+         */
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,56 @@
+package dfs.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the Dstores stream copy loop (used for rebalance batches and anywhere a socket isn't a channel) from memory to a discarding stream.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CopyBenchmark {
+
+    /**
+     * The number of bytes copied.
+     */
+    @Param({"65536", "16777216"})
+    public int bytes;
+
+    /**
+     * The hot paths being measured.
+     */
+    private Targets targets;
+
+    /**
+     * The data which is copied.
+     */
+    private byte[] data;
+
+    /**
+     * Creates the data.
+     */
+    @Setup
+    public void setup() {
+        targets = Targets.load();
+        data = new byte[bytes];
+        for (int i = 0; i < bytes; i++) { data[i] = (byte) i; }
+    }
+
+    /**
+     * Copies the data.
+     * @return The number of bytes copied.
+     * @throws IOException Occours when the copy fails.
+     */
+    @Benchmark
+    public long copyStream() throws IOException {
+        return targets.copyStream(new ByteArrayInputStream(data), OutputStream.nullOutputStream(), bytes);
+    }
+}
@@ -0,0 +1,66 @@
+package dfs.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the Controller building a LIST reply (every file) and a LIST_PAGE reply (one page) for a client.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ListBenchmark {
+
+    /**
+     * The number of files in the system.
+     */
+    @Param({"1000", "100000"})
+    public int files;
+
+    /**
+     * The number of files in a page.
+     */
+    @Param({"1000"})
+    public int pageSize;
+
+    /**
+     * The hot paths being measured.
+     */
+    private Targets targets;
+
+    /**
+     * The Controllers metadata.
+     */
+    private Object metadata;
+
+    /**
+     * Stores the files.
+     */
+    @Setup
+    public void setup() {
+        targets = Targets.load();
+        metadata = targets.newMetadata(files);
+    }
+
+    /**
+     * Builds and encodes the LIST reply.
+     * @return The length of the reply in bytes.
+     */
+    @Benchmark
+    public int listReply() {
+        return targets.listReply(metadata);
+    }
+
+    /**
+     * Builds and encodes the first LIST_PAGE reply.
+     * @return The length of the reply in bytes.
+     */
+    @Benchmark
+    public int listPageReply() {
+        return targets.listPageReply(metadata, pageSize);
+    }
+}
@@ -0,0 +1,164 @@
+package dfs.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures turning messages into arguments (and back) the way both message parsers get them, for a STORE, for a LIST reply of many files and for the largest REBALANCE message of a cluster of as many files.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProtocolBenchmark {
+
+    /**
+     * The number of files in the LIST reply (and in the cluster being rebalanced).
+     */
+    @Param({"1000", "100000"})
+    public int listFiles;
+
+    /**
+     * The number of Dstores in the cluster being rebalanced (the last of which has just joined).
+     */
+    private final static int REBALANCE_DSTORES = 5;
+
+    /**
+     * The replication factor of the cluster being rebalanced.
+     */
+    private final static int REPLICATION_FACTOR = 3;
+
+    /**
+     * The hot paths being measured.
+     */
+    private Targets targets;
+
+    /**
+     * The messages as text lines.
+     */
+    private String storeLine, listLine, rebalanceLine;
+
+    /**
+     * The messages split into their arguments.
+     */
+    private String[] storeMessage, listMessage, rebalanceMessage;
+
+    /**
+     * The messages as binary frames.
+     */
+    private ByteBuffer storeFrame, listFrame, rebalanceFrame;
+
+    /**
+     * Decodes the frames, reused like a connections decoder.
+     */
+    private Object decoder;
+
+    /**
+     * Builds the messages in each form.
+     */
+    @Setup
+    public void setup() {
+        targets = Targets.load();
+        storeLine = "STORE holiday-photos-2024-0001.jpg 1048576";
+        StringBuilder list = new StringBuilder("LIST");
+        for (int i = 0; i < listFiles; i++) { list.append(" file-").append(i).append(".bin"); }
+        listLine = list.toString();
+        rebalanceMessage = targets.rebalanceMessage(targets.newCluster(REBALANCE_DSTORES, listFiles, REPLICATION_FACTOR));
+        rebalanceLine = String.join(" ", rebalanceMessage);
+        storeMessage = targets.splitLine(storeLine);
+        listMessage = targets.splitLine(listLine);
+        storeFrame = targets.encodeFrame(storeMessage);
+        listFrame = targets.encodeFrame(listMessage);
+        rebalanceFrame = targets.encodeFrame(rebalanceMessage);
+        decoder = targets.newDecoder();
+    }
+
+    /**
+     * Splits a STORE line.
+     * @return The arguments.
+     */
+    @Benchmark
+    public String[] splitStoreLine() {
+        return targets.splitLine(storeLine);
+    }
+
+    /**
+     * Splits a LIST line of many files.
+     * @return The arguments.
+     */
+    @Benchmark
+    public String[] splitListLine() {
+        return targets.splitLine(listLine);
+    }
+
+    /**
+     * Splits a REBALANCE line.
+     * @return The arguments.
+     */
+    @Benchmark
+    public String[] splitRebalanceLine() {
+        return targets.splitLine(rebalanceLine);
+    }
+
+    /**
+     * Encodes a STORE message as a frame.
+     * @return The frame.
+     */
+    @Benchmark
+    public ByteBuffer encodeStoreFrame() {
+        return targets.encodeFrame(storeMessage);
+    }
+
+    /**
+     * Encodes a LIST message of many files as a frame.
+     * @return The frame.
+     */
+    @Benchmark
+    public ByteBuffer encodeListFrame() {
+        return targets.encodeFrame(listMessage);
+    }
+
+    /**
+     * Encodes a REBALANCE message as a frame.
+     * @return The frame.
+     */
+    @Benchmark
+    public ByteBuffer encodeRebalanceFrame() {
+        return targets.encodeFrame(rebalanceMessage);
+    }
+
+    /**
+     * Decodes a STORE frame.
+     * @return The number of messages decoded.
+     * @throws IOException Occours when the frame is malformed.
+     */
+    @Benchmark
+    public int decodeStoreFrame() throws IOException {
+        return targets.decodeFrames(decoder, storeFrame.duplicate());
+    }
+
+    /**
+     * Decodes a LIST frame of many files.
+     * @return The number of messages decoded.
+     * @throws IOException Occours when the frame is malformed.
+     */
+    @Benchmark
+    public int decodeListFrame() throws IOException {
+        return targets.decodeFrames(decoder, listFrame.duplicate());
+    }
+
+    /**
+     * Decodes a REBALANCE frame.
+     * @return The number of messages decoded.
+     * @throws IOException Occours when the frame is malformed.
+     */
+    @Benchmark
+    public int decodeRebalanceFrame() throws IOException {
+        return targets.decodeFrames(decoder, rebalanceFrame.duplicate());
+    }
+}
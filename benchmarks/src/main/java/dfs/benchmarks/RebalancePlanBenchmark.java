@@ -0,0 +1,64 @@
+package dfs.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures planning the rebalance after a Dstore joins an otherwise balanced cluster, at different numbers of files and Dstores.
+ * The cluster with a million files needs a few GB of heap, so the fork is given more than the default.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class RebalancePlanBenchmark {
+
+    /**
+     * The number of Dstores (including the one which just joined).
+     */
+    @Param({"5", "50"})
+    public int dstores;
+
+    /**
+     * The number of files.
+     */
+    @Param({"10000", "100000", "1000000"})
+    public int files;
+
+    /**
+     * The replication factor.
+     */
+    @Param({"3"})
+    public int replicationFactor;
+
+    /**
+     * The hot paths being measured.
+     */
+    private Targets targets;
+
+    /**
+     * The cluster which is planned (planning doesn't change it).
+     */
+    private Object cluster;
+
+    /**
+     * Builds the cluster.
+     */
+    @Setup
+    public void setup() {
+        targets = Targets.load();
+        cluster = targets.newCluster(dstores, files, replicationFactor);
+    }
+
+    /**
+     * Plans the rebalance.
+     * @return The number of transfers planned.
+     */
+    @Benchmark
+    public int planAfterJoin() {
+        return targets.planRebalance(cluster);
+    }
+}
@@ -0,0 +1,79 @@
+package dfs.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures a Dstore listing every file it holds to answer the Controllers LIST, for each storage engine.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StorageListBenchmark {
+
+    /**
+     * The storage engine.
+     */
+    @Param({"file", "chunked"})
+    public String engine;
+
+    /**
+     * The number of files stored.
+     */
+    @Param({"1000", "10000"})
+    public int files;
+
+    /**
+     * The hot paths being measured.
+     */
+    private Targets targets;
+
+    /**
+     * The folder the files are stored in.
+     */
+    private Path folder;
+
+    /**
+     * The storage holding the files.
+     */
+    private Object storage;
+
+    /**
+     * Stores the files in a new folder.
+     * @throws IOException Occours when the files can't be stored.
+     */
+    @Setup
+    public void setup() throws IOException {
+        targets = Targets.load();
+        folder = Files.createTempDirectory("dfs-storage-list");
+        storage = targets.newStorage(engine, folder, files, 1024);
+    }
+
+    /**
+     * Removes the folder.
+     * @throws IOException Occours when the folder can't be walked.
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(folder)) { paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete()); }
+    }
+
+    /**
+     * Lists the files.
+     * @return The number of files.
+     * @throws IOException Occours when the storage can't be listed.
+     */
+    @Benchmark
+    public long listStorage() throws IOException {
+        return targets.listStorage(storage);
+    }
+}
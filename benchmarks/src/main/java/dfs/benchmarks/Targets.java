@@ -0,0 +1,127 @@
+package dfs.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * The hot paths of the Controller and Dstore which are benchmarked.
+ * The system is in the default package, which can't be imported from a named package (and JMH won't generate benchmarks in the default package), so the benchmarks reach it through this interface.
+ * It is implemented by BenchmarkTargets in the default package, the state objects it gives out are passed back to it untouched.
+ */
+public interface Targets {
+
+    /**
+     * Gets the implementation from the default package.
+     * @return The targets.
+     */
+    static Targets load() {
+        try { return (Targets) Class.forName("BenchmarkTargets").getDeclaredConstructor().newInstance(); }
+        catch (ReflectiveOperationException exception) { throw new IllegalStateException("BenchmarkTargets isn't on the classpath", exception); }
+    }
+
+    /**
+     * Splits a text protocol line into its arguments, as both message parsers get them.
+     * @param line The line (without its line ending).
+     * @return The arguments.
+     */
+    String[] splitLine(String line);
+
+    /**
+     * Encodes a message as a binary frame.
+     * @param message The message split into its arguments.
+     * @return The frame.
+     */
+    ByteBuffer encodeFrame(String[] message);
+
+    /**
+     * Creates a binary frame decoder, as each connection has.
+     * @return The decoder.
+     */
+    Object newDecoder();
+
+    /**
+     * Decodes every frame in some bytes.
+     * @param decoder The decoder.
+     * @param frames The bytes (all of them are taken).
+     * @return The number of messages decoded.
+     * @throws IOException Occours when a frame is malformed.
+     */
+    int decodeFrames(Object decoder, ByteBuffer frames) throws IOException;
+
+    /**
+     * Creates a cluster where a Dstore has just joined with no files, the others holding every file replication factor times.
+     * @param dstores The number of Dstores (including the new one).
+     * @param files The number of files.
+     * @param replicationFactor The replication factor.
+     * @return The cluster.
+     */
+    Object newCluster(int dstores, int files, int replicationFactor);
+
+    /**
+     * Plans a rebalance of a cluster, as the Controllers rebalance does.
+     * @param cluster The cluster.
+     * @return The number of transfers planned.
+     */
+    int planRebalance(Object cluster);
+
+    /**
+     * Plans a rebalance of a cluster and builds the largest REBALANCE message it sends a Dstore, as the Controller sends it.
+     * @param cluster The cluster.
+     * @return The message split into its arguments.
+     */
+    String[] rebalanceMessage(Object cluster);
+
+    /**
+     * Creates the Controllers metadata with every file completely stored.
+     * @param files The number of files.
+     * @return The metadata.
+     */
+    Object newMetadata(int files);
+
+    /**
+     * Builds the LIST reply to a client and encodes it as a text line, as the Controller does.
+     * @param metadata The metadata.
+     * @return The length of the line in bytes.
+     */
+    int listReply(Object metadata);
+
+    /**
+     * Builds the first LIST_PAGE reply to a client and encodes it as a text line, as the Controller does.
+     * @param metadata The metadata.
+     * @param pageSize The number of files asked for.
+     * @return The length of the line in bytes.
+     */
+    int listPageReply(Object metadata, int pageSize);
+
+    /**
+     * Copies data with the Dstores stream copy loop.
+     * @param input Where the data comes from.
+     * @param output Where the data goes.
+     * @param size The number of bytes to copy.
+     * @return The number of bytes copied.
+     * @throws IOException Occours when the input ends early or either stream fails.
+     */
+    long copyStream(InputStream input, OutputStream output, long size) throws IOException;
+
+    /**
+     * Creates a Dstores storage engine in a folder and stores files in it.
+     * @param engine The engine ("file" or "chunked").
+     * @param folder The folder.
+     * @param files The number of files.
+     * @param fileBytes The size of each file.
+     * @return The storage.
+     * @throws IOException Occours when the files can't be stored.
+     */
+    Object newStorage(String engine, Path folder, int files, int fileBytes) throws IOException;
+
+    /**
+     * Lists every file in a Dstores storage, as the Dstore does to answer the Controllers LIST.
+     * @param storage The storage.
+     * @return The number of files.
+     * @throws IOException Occours when the storage can't be listed.
+     */
+    long listStorage(Object storage) throws IOException;
+}
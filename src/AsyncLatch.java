@@ -0,0 +1,53 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A count down latch which runs a continuation once it reaches zero (or times out), so no thread has to be parked waiting for it.
+ */
+public class AsyncLatch {
+
+    /**
+     * The number of count downs left before the latch completes.
+     */
+    private final AtomicLong count;
+
+    /**
+     * Completed with true when the count reaches zero or false when the timeout passes first.
+     */
+    private final CompletableFuture<Boolean> completion = new CompletableFuture<>();
+
+    /**
+     * Creates a latch which completes after a given number of count downs.
+     * @param count The number of count downs needed.
+     */
+    public AsyncLatch(long count) {
+        this.count = new AtomicLong(count);
+        if (count <= 0) { completion.complete(true); }
+    }
+
+    /**
+     * Counts down the latch, completing it if this was the last count down needed.
+     */
+    public void countDown() {
+        if (count.getAndUpdate(current -> Math.max(current - 1, 0)) == 1) { completion.complete(true); }
+    }
+
+    /**
+     * Gets the number of count downs left.
+     * @return The current count.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Gets a future for the latch which gives false if it hasn't reached zero within the timeout.
+     * @param timeout The longest time to wait for.
+     * @param unit The unit of the timeout.
+     * @return The future which completes with whether the latch reached zero in time.
+     */
+    public CompletableFuture<Boolean> await(long timeout, TimeUnit unit) {
+        return completion.completeOnTimeout(false, timeout, unit);
+    }
+}
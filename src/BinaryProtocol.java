@@ -0,0 +1,279 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.function.Consumer;
+
+/**
+ * A binary framing of the same messages as {@link Protocol}, which a connection can switch to after agreeing on it with a PROTOCOL line.
+ * Each frame is a varint body length then the body, which is an opcode byte, a varint argument count and each argument as a varint length followed by its UTF-8 bytes.
+ * Arguments are never split on spaces, so filenames with spaces survive, and lists are sent as one argument per item instead of one long line.
+ */
+public abstract class BinaryProtocol {
+
+    /**
+     * The version of the framing, sent with the PROTOCOL line so both sides know they agree.
+     */
+    public final static int VERSION = 1;
+
+    /**
+     * The largest frame which is accepted (bigger ones are taken as a broken connection).
+     */
+    public final static int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * The opcode for a token which has no opcode of its own, the token is then sent as the first argument.
+     */
+    private final static int RAW_OPCODE = 0;
+
+    /**
+     * The token of each opcode, the index being the opcode (new tokens must only ever be added to the end).
+     */
+    private final static String[] TOKENS = {
+        null,
+        Protocol.LIST_TOKEN, Protocol.STORE_TOKEN, Protocol.STORE_CHAIN_TOKEN, Protocol.LOAD_TOKEN, Protocol.LOAD_DATA_TOKEN, Protocol.LOAD_STRIPED_TOKEN, Protocol.RELOAD_TOKEN, Protocol.REMOVE_TOKEN,
+        Protocol.STORE_TO_TOKEN, Protocol.STORE_COMPLETE_TOKEN, Protocol.LOAD_FROM_TOKEN, Protocol.REMOVE_COMPLETE_TOKEN, Protocol.REBALANCE_TOKEN,
+        Protocol.ERROR_FILE_DOES_NOT_EXISTS_TOKEN, Protocol.ERROR_FILE_ALREADY_EXISTS_TOKEN, Protocol.ERROR_NOT_ENOUGH_DSTORES_TOKEN, Protocol.ERROR_LOAD_TOKEN,
+        Protocol.ACK_TOKEN, Protocol.STORE_ACK_TOKEN, Protocol.REMOVE_ACK_TOKEN, Protocol.JOIN_TOKEN, Protocol.REBALANCE_STORE_TOKEN, Protocol.REBALANCE_STORE_BATCH_TOKEN,
+        Protocol.REBALANCE_CHUNK_BATCH_TOKEN, Protocol.REBALANCE_COMPLETE_TOKEN, Protocol.LIST_PAGE_TOKEN, Protocol.LIST_PART_TOKEN,
+        Protocol.HEARTBEAT_TOKEN
+    };
+
+    /**
+     * The opcode of each token.
+     * HashMap paring goes as follows [TOKEN, OPCODE].
+     */
+    private final static HashMap<String, Integer> OPCODES = new HashMap<>();
+    static { for (int i = 1; i < TOKENS.length; i++) { OPCODES.put(TOKENS[i], i); } }
+
+    /**
+     * Gets the PROTOCOL line which asks for (and agrees to) the binary framing.
+     * @return The line without its line ending.
+     */
+    public static String negotiationLine() {
+        return Protocol.PROTOCOL_TOKEN + " " + VERSION;
+    }
+
+    /**
+     * Encodes a message as a single frame.
+     * @param message The token of the message followed by its arguments.
+     * @return A buffer holding the whole frame, ready to be written.
+     */
+    public static ByteBuffer encode(String[] message) {
+        // Sizes the body first so the frame is a single allocation (the token is an argument when it has no opcode).
+        Integer opcode = OPCODES.get(message[0]);
+        int firstArgument = opcode == null ? 0 : 1;
+        int bodyLength = 1 + varintLength(message.length - firstArgument);
+        for (int i = firstArgument; i < message.length; i++) {
+            int length = utf8Length(message[i]);
+            bodyLength += varintLength(length) + length;
+        }
+
+        // Writes each argument straight into the frame without encoding it to its own array first.
+        ByteBuffer frame = ByteBuffer.allocate(varintLength(bodyLength) + bodyLength);
+        putVarint(frame, bodyLength);
+        frame.put((byte) (opcode == null ? RAW_OPCODE : opcode));
+        putVarint(frame, message.length - firstArgument);
+        for (int i = firstArgument; i < message.length; i++) {
+            putVarint(frame, utf8Length(message[i]));
+            putUtf8(frame, message[i]);
+        }
+        return frame.flip();
+    }
+
+    /**
+     * Gets how many bytes a string takes in UTF-8 (unpaired surrogates take one byte, as they are written as '?').
+     * @param text The string.
+     * @return The number of bytes.
+     */
+    private static int utf8Length(String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char character = text.charAt(i);
+            if (character < 0x80) { length++; }
+            else if (character < 0x800) { length += 2; }
+            else if (Character.isHighSurrogate(character) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) { length += 4; i++; }
+            else if (Character.isSurrogate(character)) { length++; }
+            else { length += 3; }
+        }
+        return length;
+    }
+
+    /**
+     * Writes a string as UTF-8 straight into the buffers array (unpaired surrogates are written as '?').
+     * @param buffer The heap buffer written to.
+     * @param text The string.
+     */
+    private static void putUtf8(ByteBuffer buffer, String text) {
+        byte[] array = buffer.array();
+        int index = buffer.arrayOffset() + buffer.position();
+        for (int i = 0; i < text.length(); i++) {
+            char character = text.charAt(i);
+            if (character < 0x80) { array[index++] = (byte) character; }
+            else if (character < 0x800) { array[index++] = (byte) (0xC0 | (character >> 6)); array[index++] = (byte) (0x80 | (character & 0x3F)); }
+            else if (Character.isHighSurrogate(character) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(character, text.charAt(++i));
+                array[index++] = (byte) (0xF0 | (codePoint >> 18));
+                array[index++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                array[index++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                array[index++] = (byte) (0x80 | (codePoint & 0x3F));
+            }
+            else if (Character.isSurrogate(character)) { array[index++] = (byte) '?'; }
+            else { array[index++] = (byte) (0xE0 | (character >> 12)); array[index++] = (byte) (0x80 | ((character >> 6) & 0x3F)); array[index++] = (byte) (0x80 | (character & 0x3F)); }
+        }
+        buffer.position(index - buffer.arrayOffset());
+    }
+
+    /**
+     * Gets how many bytes a value takes as a varint.
+     * @param value The value (not negative).
+     * @return The number of bytes.
+     */
+    private static int varintLength(int value) {
+        int length = 1;
+        while ((value >>>= 7) != 0) { length++; }
+        return length;
+    }
+
+    /**
+     * Writes a value as a varint, seven bits per byte with the top bit set on every byte but the last.
+     * @param buffer The buffer written to.
+     * @param value The value (not negative).
+     */
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) { buffer.put((byte) ((value & 0x7F) | 0x80)); value >>>= 7; }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Decodes frames into messages, reusing one buffer for every frame on a connection.
+     */
+    public static class Decoder {
+
+        /**
+         * Holds the bytes of frames which havn't been decoded yet (grows to fit the largest frame seen).
+         */
+        private ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+
+        /**
+         * Adds newly read bytes and passes every whole frame they finish to the consumer (used by non-blocking readers).
+         * @param data The bytes which were read (all of them are taken).
+         * @param onMessage Given each decoded message.
+         * @throws IOException Occours when a frame is malformed or too large.
+         */
+        public void feed(ByteBuffer data, Consumer<String[]> onMessage) throws IOException {
+            ensureSpace(data.remaining());
+            buffer.put(data);
+            buffer.flip();
+
+            // Decodes frames until only a partial one is left, which is kept at the start of the buffer.
+            while (true) {
+                int frameStart = buffer.position();
+                int bodyLength = readVarint(buffer);
+                if (bodyLength == -1) { buffer.position(frameStart); break; }
+                if (bodyLength <= 0) { throw new IOException("malformed frame of " + bodyLength + " bytes"); }
+                if (bodyLength > MAX_FRAME_BYTES) { throw new IOException("frame of " + bodyLength + " bytes is too large"); }
+                if (buffer.remaining() < bodyLength) { buffer.position(frameStart); break; }
+                onMessage.accept(decodeBody(buffer, bodyLength));
+            }
+            buffer.compact();
+        }
+
+        /**
+         * Reads the next whole frame from a stream (used by blocking readers, none of the bytes after the frame are taken).
+         * @param input The stream the frame is read from.
+         * @return The decoded message, or null if the stream ended before the frame started.
+         * @throws IOException Occours when the stream fails or ends part way through, or the frame is malformed or too large.
+         */
+        public String[] read(InputStream input) throws IOException {
+            // Reads the varint length a byte at a time.
+            int bodyLength = 0;
+            for (int shift = 0; ; shift += 7) {
+                int nextByte = input.read();
+                if (nextByte == -1) {
+                    if (shift == 0) { return null; }
+                    throw new EOFException("stream ended inside a frame length");
+                }
+                if (shift > 28) { throw new IOException("frame length is too long"); }
+                bodyLength |= (nextByte & 0x7F) << shift;
+                if ((nextByte & 0x80) == 0) { break; }
+            }
+            if (bodyLength <= 0) { throw new IOException("malformed frame of " + bodyLength + " bytes"); }
+            if (bodyLength > MAX_FRAME_BYTES) { throw new IOException("frame of " + bodyLength + " bytes is too large"); }
+
+            // Fills the reused buffer with the body then decodes it in place.
+            buffer.clear();
+            ensureSpace(bodyLength);
+            int filled = 0;
+            while (filled < bodyLength) {
+                int bytesRead = input.read(buffer.array(), filled, bodyLength - filled);
+                if (bytesRead == -1) { throw new EOFException("stream ended after " + filled + " of " + bodyLength + " frame bytes"); }
+                filled += bytesRead;
+            }
+            buffer.limit(bodyLength);
+            return decodeBody(buffer, bodyLength);
+        }
+
+        /**
+         * Grows the buffer (keeping what is in it) if it doesn't have room for more bytes.
+         * @param needed The number of bytes which are about to be added.
+         */
+        private void ensureSpace(int needed) {
+            if (buffer.remaining() >= needed) { return; }
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+
+        /**
+         * Decodes a frames body, leaving the buffer just after it.
+         * @param body The buffer positioned at the start of the body.
+         * @param bodyLength The length of the body.
+         * @return The message (token followed by its arguments).
+         * @throws IOException Occours when the body is malformed.
+         */
+        private static String[] decodeBody(ByteBuffer body, int bodyLength) throws IOException {
+            int end = body.position() + bodyLength;
+            int opcode = body.get() & 0xFF;
+            if (opcode >= TOKENS.length) { throw new IOException("unknown opcode " + opcode); }
+            int argumentCount = readVarint(body);
+            if (argumentCount < 0 || argumentCount > bodyLength) { throw new IOException("malformed argument count"); }
+
+            // The token fills the first slot, unless it was sent raw as the first argument.
+            String[] message = new String[opcode == RAW_OPCODE ? argumentCount : argumentCount + 1];
+            int next = 0;
+            if (opcode != RAW_OPCODE) { message[next++] = TOKENS[opcode]; }
+            for (int i = 0; i < argumentCount; i++) {
+                int length = readVarint(body);
+                if (length < 0 || body.position() + length > end) { throw new IOException("argument runs past the end of its frame"); }
+                message[next++] = new String(body.array(), body.arrayOffset() + body.position(), length, StandardCharsets.UTF_8);
+                body.position(body.position() + length);
+            }
+            if (body.position() != end || message.length == 0) { throw new IOException("malformed frame body"); }
+            return message;
+        }
+
+        /**
+         * Reads a varint from the buffer.
+         * @param buffer The buffer to read from.
+         * @return The value, or -1 if the buffer ends before the varint does.
+         * @throws IOException Occours when the varint is longer than an int or is negative (which a length or count never is).
+         */
+        private static int readVarint(ByteBuffer buffer) throws IOException {
+            int value = 0;
+            for (int shift = 0; buffer.hasRemaining(); shift += 7) {
+                if (shift > 28) { throw new IOException("varint is too long"); }
+                byte nextByte = buffer.get();
+                value |= (nextByte & 0x7F) << shift;
+                if ((nextByte & 0x80) == 0) {
+                    if (value < 0) { throw new IOException("varint is negative"); }
+                    return value;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * Wraps another storage engine with a read cache, small and medium files are served from memory once read and everything else goes straight to the wrapped engine.
+ * Every commit and delete goes through here, so a replaced or removed file is always dropped from the cache.
+ */
+public class CachingStorage implements StorageEngine {
+
+    /**
+     * The engine which actually stores the files.
+     */
+    private final StorageEngine engine;
+
+    /**
+     * The cache of file data.
+     */
+    private final ReadCache cache;
+
+    /**
+     * The largest file which is cached (bigger files are always sent from the wrapped engine).
+     */
+    private final long maxFileBytes;
+
+    /**
+     * Creates a cache in front of an engine.
+     * @param engine The engine which actually stores the files.
+     * @param capacityBytes The most bytes of files which can be cached in total.
+     * @param maxFileBytes The largest file which is cached.
+     */
+    public CachingStorage(StorageEngine engine, long capacityBytes, long maxFileBytes) {
+        this.engine = engine;
+        this.cache = new ReadCache(capacityBytes);
+        this.maxFileBytes = Math.min(maxFileBytes, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Gets the cache (so its counters can be read).
+     * @return The cache.
+     */
+    public ReadCache getCache() {
+        return cache;
+    }
+
+    public StorageEngine unwrap() { return engine.unwrap(); }
+
+    public Path incoming(String filename) throws IOException { return engine.incoming(filename); }
+
+    /**
+     * Commits the file to the wrapped engine, dropping any cached older version.
+     * @param filename The name of the file.
+     * @param incoming The path the data was written to.
+     * @throws IOException Occours when the data can't be stored.
+     */
+    public void commit(String filename, Path incoming) throws IOException {
+        cache.invalidate(filename);
+        engine.commit(filename, incoming);
+        cache.invalidate(filename);
+    }
+
+    /**
+     * Sends the whole file, from the cache if it is (or now gets) cached.
+     * @param filename The name of the file.
+     * @param socket The socket which the file is being sent on.
+     * @return The number of bytes which were sent.
+     * @throws IOException Occours when the file doesn't exist, can't be read or the socket can't be written to.
+     */
+    public long send(String filename, Socket socket) throws IOException {
+        return send(filename, 0, Long.MAX_VALUE, socket);
+    }
+
+    /**
+     * Sends a range of the file, from the cache if it is (or now gets) cached.
+     * @param filename The name of the file.
+     * @param offset The byte of the file the range starts at.
+     * @param length The most bytes to send (the range stops early at the end of the file).
+     * @param socket The socket which the range is being sent on.
+     * @return The number of bytes which were sent.
+     * @throws IOException Occours when the file doesn't exist, the offset is past its end, it can't be read or the socket can't be written to.
+     */
+    public long send(String filename, long offset, long length, Socket socket) throws IOException {
+        ByteBuffer data = socket.getChannel() == null ? null : cached(filename);
+        if (data == null) { return engine.send(filename, offset, length, socket); }
+        if (offset < 0 || offset > data.capacity()) { throw new EOFException("offset " + offset + " is outside of " + filename + " (" + data.capacity() + " bytes)"); }
+        return FileTransfer.send(data, (int) offset, (int) Math.min(length, data.capacity() - offset), socket);
+    }
+
+    /**
+     * Gets a file from the cache, reading it into the cache first if it isn't there but is small enough to be.
+     * @param filename The name of the file.
+     * @return The files data, or null if it is too big to cache.
+     * @throws IOException Occours when the file doesn't exist or can't be read.
+     */
+    private ByteBuffer cached(String filename) throws IOException {
+        ByteBuffer data = cache.get(filename);
+        if (data != null) { return data; }
+
+        // Takes the generation before reading so the file isn't cached if it was replaced or removed while being read.
+        long generation = cache.generation();
+        long size = engine.size(filename);
+        if (size > maxFileBytes) { return null; }
+        data = ByteBuffer.allocateDirect((int) size);
+        try (ReadableByteChannel channel = engine.open(filename)) {
+            while (data.hasRemaining()) {
+                if (channel.read(data) == -1) { throw new EOFException("'" + filename + "' ended after " + data.position() + " of " + size + " bytes"); }
+            }
+        }
+        data.flip();
+        cache.put(filename, data, generation);
+        return data;
+    }
+
+    public ReadableByteChannel open(String filename) throws IOException { return engine.open(filename); }
+
+    public boolean exists(String filename) { return engine.exists(filename); }
+
+    public long size(String filename) throws IOException { return engine.size(filename); }
+
+    /**
+     * Deletes the file from the wrapped engine and the cache.
+     * @param filename The name of the file.
+     * @return If the file existed and was removed.
+     */
+    public boolean delete(String filename) {
+        cache.invalidate(filename);
+        boolean deleted = engine.delete(filename);
+        cache.invalidate(filename);
+        return deleted;
+    }
+
+    public Stream<String> list() throws IOException { return engine.list(); }
+}
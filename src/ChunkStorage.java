@@ -0,0 +1,591 @@
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Stores files as content-defined chunks keyed by their SHA-256 hash, with a manifest per file listing its chunks in order.
+ * Chunk boundaries are found with a rolling (gear) hash over the data, so an edit only changes the chunks around it and identical data anywhere in any file is stored once.
+ * Chunks are reference counted across manifests and deleted once no file uses them.
+ * Chunks and manifests are synced to disk before they are moved into place (and their folders after), and a chunk is always on disk before any manifest using it, so a manifest loaded after a crash only names chunks which were fully written.
+ */
+public class ChunkStorage implements StorageEngine {
+
+    /**
+     * The name of the folder of manifests in the Dstores folder.
+     */
+    public final static String MANIFEST_FOLDER = ".manifests";
+
+    /**
+     * No chunk boundary is placed before this many bytes (stops tiny chunks).
+     */
+    private final static int MIN_CHUNK_SIZE = 16 * 1024;
+
+    /**
+     * A boundary is forced at this many bytes.
+     */
+    private final static int MAX_CHUNK_SIZE = 256 * 1024;
+
+    /**
+     * A boundary is placed where the rolling hash has these bits clear, giving chunks of about 64KB on average.
+     */
+    private final static long BOUNDARY_MASK = (1L << 16) - 1;
+
+    /**
+     * The random value each byte adds to the rolling hash (seeded so every Dstore cuts the same data in the same places).
+     */
+    private final static long[] GEAR = new SplittableRandom(0x5EED_C0DEL).longs(256).toArray();
+
+    /**
+     * The folders of the chunks, the manifests and the data which hasn't been committed yet.
+     */
+    private final Path chunkFolder, manifestFolder, incomingFolder;
+
+    /**
+     * The manifest of every stored file.
+     * HashMap paring goes as follows [FILE, MANIFEST].
+     */
+    private final ConcurrentHashMap<String, Manifest> manifests = new ConcurrentHashMap<>();
+
+    /**
+     * The number of uses of each stored chunk (only used while holding the lock on the map), a chunk is only in the map while its file is fully written.
+     * HashMap paring goes as follows [CHUNK_HASH, USES].
+     */
+    private final HashMap<String, Integer> references = new HashMap<>();
+
+    /**
+     * The number of locks chunks are striped over by their hash.
+     */
+    private final static int CHUNK_LOCK_COUNT = 64;
+
+    /**
+     * The locks held while a chunk is first used or last given back, so writing or deleting its file happens along with the change to its uses.
+     */
+    private final Object[] chunkLocks = new Object[CHUNK_LOCK_COUNT];
+
+    /**
+     * Creates the engine for a folder, loading any manifests already in it.
+     * @param fileFolder The folder the chunks and manifests are kept in.
+     * @throws IOException Occours when the folders can't be made or a manifest can't be read.
+     */
+    public ChunkStorage(String fileFolder) throws IOException {
+        chunkFolder = Files.createDirectories(Paths.get(fileFolder, ".chunks"));
+        manifestFolder = Files.createDirectories(Paths.get(fileFolder, MANIFEST_FOLDER));
+        incomingFolder = Files.createDirectories(Paths.get(fileFolder, ".incoming"));
+        for (int i = 0; i < CHUNK_LOCK_COUNT; i++) { chunkLocks[i] = new Object(); }
+
+        // Removes data (and manifests) which were still being written when the Dstore last stopped.
+        try (Stream<Path> leftovers = Files.list(incomingFolder)) { for (Path leftover : (Iterable<Path>) leftovers::iterator) { Files.deleteIfExists(leftover); } }
+
+        // Rebuilds the manifests and chunk uses from what is on disk, dropping any manifest which can't be read or names a chunk that isn't there (the Controller repairs it like any other missing replica).
+        HashSet<String> present = new HashSet<>();
+        try (var paths = Files.walk(manifestFolder)) {
+            for (Path path : (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator) {
+                String filename = manifestFolder.relativize(path).toString().replace(File.separatorChar, '/');
+                Manifest manifest;
+                try { manifest = Manifest.read(path); }
+                catch (IOException exception) { manifest = null; }
+                if (manifest == null || !chunksExist(manifest, present)) {
+                    Log.warn("Dropping the manifest of '" + filename + "' as it is unreadable or missing chunks.");
+                    Files.deleteIfExists(path);
+                    continue;
+                }
+                manifests.put(filename, manifest);
+                manifest.chunks.forEach(chunk -> references.merge(chunk.hash, 1, Integer::sum));
+            }
+        }
+    }
+
+    /**
+     * Checks every chunk of a manifest has its file, with a single stat for each chunk not already seen.
+     * @param manifest The manifest.
+     * @param present The chunks already found to exist (added to as more are found).
+     * @return If every chunk exists with its length.
+     */
+    private boolean chunksExist(Manifest manifest, Set<String> present) {
+        for (Chunk chunk : manifest.chunks) {
+            if (present.contains(chunk.hash)) { continue; }
+            // Try's reading the size of the chunk, if it can't be read the chunk is missing.
+            try { if (Files.size(chunkPath(chunk.hash)) != chunk.length) { return false; } }
+            catch (IOException exception) { return false; }
+            present.add(chunk.hash);
+        }
+        return true;
+    }
+
+    /**
+     * Gets a new path in the incoming folder for the data of a file.
+     * @param filename The name of the file.
+     * @return The path to write to.
+     * @throws IOException Occours when the path can't be made.
+     */
+    public Path incoming(String filename) throws IOException {
+        return Files.createTempFile(incomingFolder, "incoming", ".data");
+    }
+
+    /**
+     * Splits the incoming data into chunks, stores the ones which aren't already stored then replaces the files manifest.
+     * @param filename The name of the file.
+     * @param incoming The path the data was written to.
+     * @throws IOException Occours when the data can't be read or the chunks and manifest can't be written.
+     */
+    public void commit(String filename, Path incoming) throws IOException {
+        ArrayList<Chunk> chunks = new ArrayList<>();
+        HashSet<Path> written = new HashSet<>();
+        long size = 0;
+        try (FileChannel input = FileChannel.open(incoming, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+            ByteArrayOutputStream chunk = new ByteArrayOutputStream(MAX_CHUNK_SIZE);
+            long rollingHash = 0;
+
+            // Runs the rolling hash over every byte, cutting a chunk where it matches the boundary mask (or the chunk reaches its maximum size).
+            while (input.read(buffer) != -1) {
+                buffer.flip();
+                byte[] data = buffer.array();
+                int start = 0;
+                for (int i = 0; i < buffer.limit(); i++) {
+                    rollingHash = (rollingHash << 1) + GEAR[data[i] & 0xff];
+                    int length = chunk.size() + (i - start) + 1;
+                    if ((length >= MIN_CHUNK_SIZE && (rollingHash & BOUNDARY_MASK) == 0) || length >= MAX_CHUNK_SIZE) {
+                        chunk.write(data, start, i - start + 1);
+                        chunks.add(storeChunk(chunk.toByteArray(), written));
+                        size += chunk.size();
+                        chunk.reset();
+                        rollingHash = 0;
+                        start = i + 1;
+                    }
+                }
+                chunk.write(data, start, buffer.limit() - start);
+                buffer.clear();
+            }
+            if (chunk.size() > 0) { chunks.add(storeChunk(chunk.toByteArray(), written)); size += chunk.size(); }
+            written.forEach(ChunkStorage::syncFolder);
+        }
+        catch (IOException exception) { release(chunks); throw exception; }
+        finally { Files.deleteIfExists(incoming); }
+
+        try { install(filename, new Manifest(size, chunks)); }
+        catch (IOException exception) { release(chunks); throw exception; }
+    }
+
+    /**
+     * Sends every chunk of the file in order, each with a zero-copy transfer.
+     * @param filename The name of the file.
+     * @param socket The socket which the file is being sent on.
+     * @return The number of bytes which were sent.
+     * @throws IOException Occours when the file doesn't exist, a chunk can't be read or the socket can't be written to.
+     */
+    public long send(String filename, Socket socket) throws IOException {
+        long sent = 0;
+        for (Chunk chunk : getManifest(filename).chunks) { sent += FileTransfer.send(chunkPath(chunk.hash), socket); }
+        return sent;
+    }
+
+    /**
+     * Sends a range of the file, skipping the chunks before the offset and sending only the overlapping part of the chunks at either end.
+     * @param filename The name of the file.
+     * @param offset The byte of the file the range starts at.
+     * @param length The most bytes to send (the range stops early at the end of the file).
+     * @param socket The socket which the range is being sent on.
+     * @return The number of bytes which were sent.
+     * @throws IOException Occours when the file doesn't exist, the offset is past its end, a chunk can't be read or the socket can't be written to.
+     */
+    public long send(String filename, long offset, long length, Socket socket) throws IOException {
+        Manifest manifest = getManifest(filename);
+        if (offset < 0 || offset > manifest.size) { throw new EOFException("offset " + offset + " is outside of " + filename + " (" + manifest.size + " bytes)"); }
+        long end = offset + Math.min(length, manifest.size - offset);
+
+        // Walks the chunks keeping track of where each starts in the file, sending the part of each which is inside the range.
+        long sent = 0;
+        long chunkStart = 0;
+        for (Chunk chunk : manifest.chunks) {
+            long chunkEnd = chunkStart + chunk.length;
+            if (chunkStart >= end) { break; }
+            if (chunkEnd > offset) {
+                long from = Math.max(offset, chunkStart) - chunkStart;
+                sent += FileTransfer.send(chunkPath(chunk.hash), from, Math.min(end, chunkEnd) - chunkStart - from, socket);
+            }
+            chunkStart = chunkEnd;
+        }
+        return sent;
+    }
+
+    /**
+     * Opens the file as a channel which reads its chunks one after another.
+     * @param filename The name of the file.
+     * @return A channel of the file.
+     * @throws IOException Occours when the file doesn't exist.
+     */
+    public ReadableByteChannel open(String filename) throws IOException {
+        return new ChunkChannel(getManifest(filename).chunks.iterator());
+    }
+
+    /**
+     * Checks if the file has a manifest.
+     * @param filename The name of the file.
+     * @return If the file is stored.
+     */
+    public boolean exists(String filename) {
+        return manifests.containsKey(filename);
+    }
+
+    /**
+     * Gets the size of the file from its manifest.
+     * @param filename The name of the file.
+     * @return The size in bytes.
+     * @throws IOException Occours when the file doesn't exist.
+     */
+    public long size(String filename) throws IOException {
+        return getManifest(filename).size;
+    }
+
+    /**
+     * Removes the files manifest, deleting any of its chunks no other file uses.
+     * @param filename The name of the file.
+     * @return If the file existed and was removed.
+     */
+    public boolean delete(String filename) {
+        Manifest manifest = manifests.remove(filename);
+        if (manifest == null) { return false; }
+        try { Files.deleteIfExists(manifestFolder.resolve(filename)); }
+        catch (IOException exception) { Log.error("Error: (" + exception + "), unable to delete the manifest of '" + filename + "'."); }
+        release(manifest.chunks);
+        return true;
+    }
+
+    /**
+     * Streams the names of every file with a manifest.
+     * @return The filenames.
+     */
+    public Stream<String> list() {
+        return manifests.keySet().stream();
+    }
+
+    /**
+     * Sends a batch of files to another Dstore using this engine, only the chunks it doesn't already have are sent.
+     * The manifests of the files go first, the other Dstore replies with the chunks it is missing, then those chunks are sent and the batch is acknowledged.
+     * @param socket The socket the batch is sent on.
+     * @param replies The buffered input of the socket the replies are read from.
+     * @param filenames The names of the files being sent.
+     * @return The number of chunks sent (out of every chunk in the batch).
+     * @throws IOException Occours when a file doesn't exist or the socket fails.
+     */
+    public int sendBatch(Socket socket, InputStream replies, List<String> filenames) throws IOException {
+        // Writes the line starting the batch then the manifest of every file.
+        ArrayList<Manifest> batch = new ArrayList<>();
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        header.write((Protocol.REBALANCE_CHUNK_BATCH_TOKEN + " " + filenames.size() + System.lineSeparator()).getBytes());
+        DataOutputStream headerData = new DataOutputStream(header);
+        for (String filename : filenames) {
+            Manifest manifest = getManifest(filename);
+            batch.add(manifest);
+            headerData.writeUTF(filename);
+            manifest.write(headerData);
+        }
+        socket.getOutputStream().write(header.toByteArray());
+
+        // Reads which chunks the other Dstore wants, then sends them in that order.
+        DataInputStream input = new DataInputStream(replies);
+        int wantedCount = input.readInt();
+        for (int i = 0; i < wantedCount; i++) { FileTransfer.send(chunkPath(input.readUTF()), socket); }
+        return wantedCount;
+    }
+
+    /**
+     * Receives a batch of files sent with {@link #sendBatch}, asking only for the chunks this Dstore doesn't already have.
+     * @param input The buffered input the batch is read from.
+     * @param socket The socket the wanted chunks are asked for on.
+     * @param fileCount The number of files in the batch.
+     * @throws IOException Occours when the socket fails or a chunk doesn't match its hash.
+     */
+    public void receiveBatch(InputStream input, Socket socket, int fileCount) throws IOException {
+        DataInputStream data = new DataInputStream(input);
+        LinkedHashMap<String, Manifest> batch = new LinkedHashMap<>();
+        for (int i = 0; i < fileCount; i++) { batch.put(data.readUTF(), Manifest.read(data)); }
+
+        // Takes a use of every chunk already stored (so it can't be deleted while the batch arrives), the rest are asked for once each.
+        // A chunk in the map is always fully written, one still being written by another store is asked for and waits on its lock when it arrives.
+        LinkedHashMap<String, Integer> wanted = new LinkedHashMap<>();
+        ArrayList<Chunk> held = new ArrayList<>(), missing = new ArrayList<>();
+        synchronized (references) {
+            for (Manifest manifest : batch.values()) {
+                for (Chunk chunk : manifest.chunks) {
+                    if (references.containsKey(chunk.hash)) { references.merge(chunk.hash, 1, Integer::sum); held.add(chunk); }
+                    else { missing.add(chunk); wanted.putIfAbsent(chunk.hash, chunk.length); }
+                }
+            }
+        }
+
+        try {
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            DataOutputStream requestData = new DataOutputStream(request);
+            requestData.writeInt(wanted.size());
+            for (String hash : wanted.keySet()) { requestData.writeUTF(hash); }
+            socket.getOutputStream().write(request.toByteArray());
+
+            // Stores each wanted chunk as it arrives (checking it against its hash), storing takes the use for its first time in the batch.
+            HashSet<Path> written = new HashSet<>();
+            for (Map.Entry<String, Integer> entry : wanted.entrySet()) {
+                byte[] bytes = data.readNBytes(entry.getValue());
+                if (bytes.length != entry.getValue()) { throw new EOFException("chunk " + entry.getKey() + " ended early"); }
+                Chunk chunk = storeChunk(bytes, written);
+                held.add(chunk);
+                if (!chunk.hash.equals(entry.getKey())) { throw new IOException("chunk " + entry.getKey() + " didn't match its hash"); }
+            }
+            written.forEach(ChunkStorage::syncFolder);
+
+            // Takes a use for every other time the batch uses a chunk which was sent.
+            HashSet<String> firstUses = new HashSet<>();
+            synchronized (references) {
+                for (Chunk chunk : missing) {
+                    if (!firstUses.add(chunk.hash)) { references.merge(chunk.hash, 1, Integer::sum); held.add(chunk); }
+                }
+            }
+        }
+
+        // Gives back every use taken if the batch fails part way.
+        catch (IOException exception) { release(held); throw exception; }
+
+        batch.forEach((filename, manifest) -> {
+            try { install(filename, manifest); }
+            catch (IOException exception) { Log.error("Error: (" + exception + "), unable to store the manifest of '" + filename + "'."); release(manifest.chunks); }
+        });
+    }
+
+    /**
+     * Gets the manifest of a file.
+     * @param filename The name of the file.
+     * @return The manifest.
+     * @throws IOException Occours when the file isn't stored.
+     */
+    private Manifest getManifest(String filename) throws IOException {
+        Manifest manifest = manifests.get(filename);
+        if (manifest == null) { throw new NoSuchFileException(filename); }
+        return manifest;
+    }
+
+    /**
+     * Writes a files manifest to disk (synced then moved into place atomically) and makes it the files current manifest, giving back the uses of the chunks in its older manifest.
+     * The uses of the new manifests chunks must already have been taken.
+     * @param filename The name of the file.
+     * @param manifest The new manifest.
+     * @throws IOException Occours when the manifest can't be written.
+     */
+    private void install(String filename, Manifest manifest) throws IOException {
+        Path path = manifestFolder.resolve(filename);
+        Files.createDirectories(path.getParent());
+        Path temporary = Files.createTempFile(incomingFolder, "manifest", ".tmp");
+        try (FileOutputStream fileOutput = new FileOutputStream(temporary.toFile())) {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput));
+            manifest.write(output);
+            output.flush();
+            fileOutput.getFD().sync();
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncFolder(path.getParent());
+
+        Manifest older = manifests.put(filename, manifest);
+        if (older != null) { release(older.chunks); }
+    }
+
+    /**
+     * Stores a chunk if it isn't already stored and takes a use of it.
+     * The chunks lock is held while its file is written, so another store of the same chunk waits until it is on disk and a release can't delete it part way.
+     * @param bytes The data of the chunk.
+     * @param written The folders of chunks written by this call are added to this, to be synced before a manifest uses them.
+     * @return The chunk.
+     * @throws IOException Occours when the chunk can't be written (no use is taken).
+     */
+    private Chunk storeChunk(byte[] bytes, Set<Path> written) throws IOException {
+        Chunk chunk = new Chunk(hash(bytes), bytes.length);
+        synchronized (chunkLock(chunk.hash)) {
+            synchronized (references) {
+                if (references.computeIfPresent(chunk.hash, (hash, uses) -> uses + 1) != null) { return chunk; }
+            }
+
+            // Writes new chunks to a synced temporary file first so a chunk is never seen half written, it is only counted once it is in place.
+            Path path = chunkPath(chunk.hash);
+            Files.createDirectories(path.getParent());
+            Path temporary = Files.createTempFile(incomingFolder, "chunk", ".tmp");
+            try (FileChannel output = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) { output.write(buffer); }
+                output.force(false);
+                Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (IOException exception) { Files.deleteIfExists(temporary); throw exception; }
+            written.add(path.getParent());
+
+            synchronized (references) { references.put(chunk.hash, 1); }
+        }
+        return chunk;
+    }
+
+    /**
+     * Gives back a use of each chunk, deleting any which are no longer used.
+     * A chunks file is deleted while holding its lock, so a store of the same chunk can't write it back until the delete is done.
+     * @param chunks The chunks being given back (once for each use).
+     */
+    private void release(List<Chunk> chunks) {
+        for (Chunk chunk : chunks) {
+            synchronized (chunkLock(chunk.hash)) {
+                synchronized (references) {
+                    if (references.computeIfPresent(chunk.hash, (hash, uses) -> uses > 1 ? uses - 1 : null) != null) { continue; }
+                }
+                try { Files.deleteIfExists(chunkPath(chunk.hash)); }
+                catch (IOException exception) { Log.error("Error: (" + exception + "), unable to delete chunk '" + chunk.hash + "'."); }
+            }
+        }
+    }
+
+    /**
+     * Gets the lock of a chunk.
+     * @param hash The hash of the chunk.
+     * @return The lock.
+     */
+    private Object chunkLock(String hash) {
+        return chunkLocks[(hash.hashCode() & 0x7fffffff) % CHUNK_LOCK_COUNT];
+    }
+
+    /**
+     * Syncs a folder so the files moved into it survive a crash, some platforms can't open a folder to sync it so they are left to the file system.
+     * @param folder The folder.
+     */
+    private static void syncFolder(Path folder) {
+        try (FileChannel channel = FileChannel.open(folder, StandardOpenOption.READ)) { channel.force(true); }
+        catch (IOException exception) {}
+    }
+
+    /**
+     * Gets the path of a chunk, spread over folders by the start of its hash so no folder gets too large.
+     * @param hash The hash of the chunk.
+     * @return The path of the chunk.
+     */
+    private Path chunkPath(String hash) {
+        return chunkFolder.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    /**
+     * Hashes a chunk with SHA-256.
+     * @param bytes The data of the chunk.
+     * @return The hash as lowercase hex.
+     */
+    private static String hash(byte[] bytes) {
+        try { return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes)); }
+        catch (NoSuchAlgorithmException exception) { throw new IllegalStateException("SHA-256 isn't available", exception); }
+    }
+
+    /**
+     * Reads a files chunks in order, each chunk file is only opened once the one before it has been read.
+     */
+    private class ChunkChannel implements ReadableByteChannel {
+
+        /**
+         * The chunks which havn't been opened yet.
+         */
+        private final Iterator<Chunk> chunks;
+
+        /**
+         * The chunk currently being read (null before the first and after the last).
+         */
+        private FileChannel current = null;
+
+        /**
+         * If the channel has been closed.
+         */
+        private boolean closed = false;
+
+        /**
+         * Creates the channel.
+         * @param chunks The chunks of the file in order.
+         */
+        private ChunkChannel(Iterator<Chunk> chunks) {
+            this.chunks = chunks;
+        }
+
+        /**
+         * Reads from the current chunk, moving on to the next chunk once it ends.
+         * @param destination The buffer read into.
+         * @return The number of bytes read, or -1 once every chunk has been read.
+         * @throws IOException Occours when a chunk can't be read.
+         */
+        public int read(ByteBuffer destination) throws IOException {
+            if (closed) { throw new ClosedChannelException(); }
+            while (true) {
+                if (current == null) {
+                    if (!chunks.hasNext()) { return -1; }
+                    current = FileChannel.open(chunkPath(chunks.next().hash), StandardOpenOption.READ);
+                }
+                int bytesRead = current.read(destination);
+                if (bytesRead != -1) { return bytesRead; }
+                current.close();
+                current = null;
+            }
+        }
+
+        public boolean isOpen() { return !closed; }
+
+        public void close() throws IOException {
+            closed = true;
+            if (current != null) { current.close(); }
+        }
+    }
+
+    /**
+     * A single chunk of a file.
+     * @param hash The hash of the chunks data.
+     * @param length The length of the chunk in bytes.
+     */
+    private record Chunk(String hash, int length) {}
+
+    /**
+     * The chunks which make up a file, in order.
+     * @param size The size of the file in bytes.
+     * @param chunks The chunks of the file.
+     */
+    private record Manifest(long size, List<Chunk> chunks) {
+
+        /**
+         * Writes the manifest as its size, its chunk count then each chunks hash and length.
+         * @param output The stream the manifest is written to.
+         * @throws IOException Occours when the stream fails.
+         */
+        void write(DataOutputStream output) throws IOException {
+            output.writeLong(size);
+            output.writeInt(chunks.size());
+            for (Chunk chunk : chunks) { output.writeUTF(chunk.hash); output.writeInt(chunk.length); }
+        }
+
+        /**
+         * Reads a manifest written by {@link #write}.
+         * @param input The stream the manifest is read from.
+         * @return The manifest.
+         * @throws IOException Occours when the stream fails or ends early.
+         */
+        static Manifest read(DataInputStream input) throws IOException {
+            long size = input.readLong();
+            int count = input.readInt();
+            ArrayList<Chunk> chunks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) { chunks.add(new Chunk(input.readUTF(), input.readInt())); }
+            return new Manifest(size, chunks);
+        }
+
+        /**
+         * Reads a manifest from a file.
+         * @param path The path of the manifest.
+         * @return The manifest.
+         * @throws IOException Occours when the file can't be read.
+         */
+        static Manifest read(Path path) throws IOException {
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) { return read(input); }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Places files with consistent hashing, each Dstore is put on a hash ring many times (virtual nodes) and a file goes on the first distinct Dstores found walking clockwise from its hash.
+ * A Dstore joining or leaving only changes the placement of the files next to its own points, so roughly 1/N of the files move.
+ * The ring is rebuilt on each (rare) membership change and swapped in whole, so lookups never lock.
+ */
+public class ConsistentHashRing implements PlacementStrategy {
+
+    /**
+     * The number of points each Dstore has on the ring.
+     */
+    private final int virtualNodes;
+
+    /**
+     * The ports of the Dstores on the ring.
+     */
+    private final TreeSet<Integer> members = new TreeSet<>();
+
+    /**
+     * The current ring, replaced whenever a Dstore joins or leaves.
+     */
+    private volatile Ring ring = new Ring(new long[0], new int[0], 0);
+
+    /**
+     * Creates an empty ring.
+     * @param virtualNodes The number of points each Dstore has on the ring (more gives a more even spread).
+     */
+    public ConsistentHashRing(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * Adds a Dstore to the ring.
+     * @param port The port of the Dstore.
+     */
+    public synchronized void addDstore(Integer port) {
+        if (members.add(port)) { rebuild(); }
+    }
+
+    /**
+     * Removes a Dstore from the ring.
+     * @param port The port of the Dstore.
+     */
+    public synchronized void removeDstore(Integer port) {
+        if (members.remove(port)) { rebuild(); }
+    }
+
+    /**
+     * Gets the first distinct Dstores clockwise from the files hash.
+     * @param filename The name of the file.
+     * @param count The number of Dstores wanted.
+     * @return Up to count distinct Dstore ports, most preferred first.
+     */
+    public List<Integer> choose(String filename, int count) {
+        Ring current = ring;
+        int wanted = Math.min(count, current.memberCount);
+        ArrayList<Integer> chosen = new ArrayList<>(wanted);
+        if (wanted == 0) { return chosen; }
+
+        // Walks clockwise from the files hash, only a few Dstores are ever chosen so they are checked directly rather than through a set (this runs for every file in a rebalance).
+        int position = current.start(hash(filename));
+        for (int visited = 0; chosen.size() < wanted; visited++) {
+            Integer owner = current.owners[(position + visited) % current.owners.length];
+            if (!chosen.contains(owner)) { chosen.add(owner); }
+        }
+        return chosen;
+    }
+
+    /**
+     * Walks the ring clockwise from the files hash giving each Dstore the first time one of its points is passed.
+     * @param filename The name of the file.
+     * @return An iterator over the distinct Dstore ports.
+     */
+    public Iterator<Integer> preferenceOrder(String filename) {
+        Ring current = ring;
+        long hash = hash(filename);
+
+        return new Iterator<Integer>() {
+            // Starts at the first point at or after the files hash (wrapping back to the start of the ring).
+            int position = current.start(hash), visited = 0;
+            final HashSet<Integer> seen = new HashSet<>();
+
+            public boolean hasNext() {
+                return seen.size() < current.memberCount;
+            }
+
+            public Integer next() {
+                if (!hasNext()) { throw new NoSuchElementException(); }
+                while (true) {
+                    int owner = current.owners[(position + visited++) % current.owners.length];
+                    if (seen.add(owner)) { return owner; }
+                }
+            }
+        };
+    }
+
+    /**
+     * Rebuilds the ring from the current members (called while holding the lock).
+     */
+    private void rebuild() {
+        // Hashes every virtual node of every Dstore, sorting the points by hash.
+        long[][] points = new long[members.size() * virtualNodes][];
+        int i = 0;
+        for (Integer port : members) {
+            for (int node = 0; node < virtualNodes; node++) { points[i++] = new long[] {hash(port + "#" + node), port}; }
+        }
+        Arrays.sort(points, (first, second) -> first[0] != second[0] ? Long.compare(first[0], second[0]) : Long.compare(first[1], second[1]));
+
+        // Splits the points into two flat arrays which are quick to search.
+        long[] hashes = new long[points.length];
+        int[] owners = new int[points.length];
+        for (i = 0; i < points.length; i++) { hashes[i] = points[i][0]; owners[i] = (int) points[i][1]; }
+        ring = new Ring(hashes, owners, members.size());
+    }
+
+    /**
+     * Hashes a key onto the ring (64 bit FNV-1a, then mixed so similar keys spread out).
+     * @param key The key being hashed.
+     * @return The position of the key on the ring.
+     */
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) { hash = (hash ^ (b & 0xff)) * 0x100000001b3L; }
+
+        // Murmur3's finaliser, spreads the small differences between keys like "file1" and "file2" over every bit.
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * A snapshot of the ring, the points sorted by hash and the Dstore which owns each.
+     * @param hashes The hash of each point in ascending order.
+     * @param owners The port of the Dstore which owns each point.
+     * @param memberCount The number of distinct Dstores on the ring.
+     */
+    private record Ring(long[] hashes, int[] owners, int memberCount) {
+
+        /**
+         * Finds the first point at or after a hash.
+         * @param hash The hash being looked up.
+         * @return The index of the point (0 when the hash is past the last point).
+         */
+        int start(long hash) {
+            int index = Arrays.binarySearch(hashes, hash);
+            if (index < 0) { index = -index - 1; }
+            return index >= hashes.length ? 0 : index;
+        }
+    }
+}
@@ -3,9 +3,10 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.lang.reflect.Array;import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;import java.sql.Time;import java.util.*;
+import java.nio.file.Paths;import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;import java.util.concurrent.ScheduledExecutorService;import java.util.concurrent.TimeUnit;import java.util.stream.Collectors;
 
@@ -15,9 +16,84 @@ import java.util.concurrent.Executors;import java.util.concurrent.ScheduledExecu
 public class Controller {
 
     /**
-     * The server socket which the controller is using to communicate with different clients and Dstores.
+     * The number of event loops which handle all the connections to the controller.
      */
-    private static ServerSocket controllerSocket;
+    private final static int EVENT_LOOP_COUNT = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The number of points each Dstore has on the placement hash ring.
+     */
+    private final static int VIRTUAL_NODE_COUNT = 160;
+
+    /**
+     * The most names sent in a single LIST_PAGE reply.
+     */
+    private final static int MAX_LIST_PAGE_FILES = 10000;
+
+    /**
+     * The most characters of names sent in a single LIST_PAGE reply (at least one name is always sent).
+     */
+    private final static int MAX_LIST_PAGE_CHARS = 1024 * 1024;
+
+    /**
+     * The folder the metadata log is kept in, the metadata only lives in memory (and is lost on a restart) when this isn't set.
+     */
+    private final static String METADATA_FOLDER = System.getProperty("controller.metadata.dir");
+
+    /**
+     * If the metadata log syncs changes from concurrent operations together, else every change is synced on its own.
+     */
+    private final static boolean METADATA_GROUP_COMMIT = Boolean.parseBoolean(System.getProperty("controller.metadata.groupCommit", "true"));
+
+    /**
+     * The phi above which a Dstore is suspected of having failed (so no new stores or loads are sent to it).
+     */
+    private final static double FAILURE_THRESHOLD = Double.parseDouble(System.getProperty("controller.failure.phi", "8"));
+
+    /**
+     * The port the metrics are served on over HTTP, they aren't served when this isn't set.
+     */
+    private final static Integer METRICS_PORT = Integer.getInteger("controller.metrics.port");
+
+    /**
+     * The time each successful client operation takes from its request to its reply (STORE and REMOVE include every Dstore acknowledging), and the time each rebalance takes.
+     */
+    private final static Metrics.Histogram STORE_SECONDS = Metrics.histogram("dfs_controller_operation_seconds", "Time from a request to its reply.", "op", "STORE");
+    private final static Metrics.Histogram LOAD_SECONDS = Metrics.histogram("dfs_controller_operation_seconds", "Time from a request to its reply.", "op", "LOAD");
+    private final static Metrics.Histogram REMOVE_SECONDS = Metrics.histogram("dfs_controller_operation_seconds", "Time from a request to its reply.", "op", "REMOVE");
+    private final static Metrics.Histogram LIST_SECONDS = Metrics.histogram("dfs_controller_operation_seconds", "Time from a request to its reply.", "op", "LIST");
+    private final static Metrics.Histogram REBALANCE_SECONDS = Metrics.histogram("dfs_controller_operation_seconds", "Time from a request to its reply.", "op", "REBALANCE");
+
+    /**
+     * The number of client operations (and rebalances) which failed, either with an error reply or by timing out.
+     */
+    private final static Metrics.Counter STORE_FAILURES = Metrics.counter("dfs_controller_operation_failures_total", "Operations which failed or timed out.", "op", "STORE");
+    private final static Metrics.Counter LOAD_FAILURES = Metrics.counter("dfs_controller_operation_failures_total", "Operations which failed or timed out.", "op", "LOAD");
+    private final static Metrics.Counter REMOVE_FAILURES = Metrics.counter("dfs_controller_operation_failures_total", "Operations which failed or timed out.", "op", "REMOVE");
+    private final static Metrics.Counter LIST_FAILURES = Metrics.counter("dfs_controller_operation_failures_total", "Operations which failed or timed out.", "op", "LIST");
+    private final static Metrics.Counter REBALANCE_FAILURES = Metrics.counter("dfs_controller_operation_failures_total", "Operations which failed or timed out.", "op", "REBALANCE");
+
+    /**
+     * The number of files moved between Dstores by rebalances.
+     */
+    private final static Metrics.Counter REBALANCE_TRANSFERS = Metrics.counter("dfs_controller_rebalance_transfers_total", "Files sent between dstores by rebalances.");
+
+    /**
+     * The bytes each Dstore has acknowledged storing, with the time from the start of each store to its acknowledgement.
+     */
+    private final static Metrics.Family<Metrics.Counter> DSTORE_STORED_BYTES = Metrics.counterFamily("dfs_controller_dstore_stored_bytes_total", "Bytes each dstore acknowledged storing.", "dstore");
+    private final static Metrics.Family<Metrics.Histogram> DSTORE_STORE_SECONDS = Metrics.histogramFamily("dfs_controller_dstore_store_seconds", "Time from a store starting to each dstore acknowledging it.", "dstore");
+
+    /**
+     * The bytes clients have loaded from each Dstore, with the time from each LOAD_FROM to the clients next message (as the controller never sees the load itself).
+     */
+    private final static Metrics.Family<Metrics.Counter> DSTORE_LOADED_BYTES = Metrics.counterFamily("dfs_controller_dstore_loaded_bytes_total", "Bytes clients loaded from each dstore.", "dstore");
+    private final static Metrics.Family<Metrics.Histogram> DSTORE_LOAD_SECONDS = Metrics.histogramFamily("dfs_controller_dstore_load_seconds", "Time from sending LOAD_FROM to the client finishing the load.", "dstore");
+
+    /**
+     * The reactor which the controller is using to communicate with different clients and Dstores.
+     */
+    private static ControllerReactor reactor;
 
     /**
      * The number of Dstores which should be used to store a file.
@@ -35,14 +111,9 @@ public class Controller {
     private static Integer rebalancePeriod;
 
     /**
-     * A value which store the current number of store and remove operations that are going on.
-     */
-    private static Integer currentStoreRemoveCount;
-
-    /**
-     * A value which lets threads know if the system is currently going under a rebalance.
+     * Counts the store and remove operations that are going on and holds back client operations while the system is going under a rebalance.
      */
-    private static Boolean isSystemRebalancing;
+    private static RebalanceGate rebalanceGate;
 
     /**
      * Is used when verifying that all dstores have returned there files lists to the controller.
@@ -55,35 +126,50 @@ public class Controller {
     private static CountDownLatch rebalanceComplete;
 
     /**
-     * Contains all the current files in the system and the size of the given file.
-     * HashMap paring goes as follows [FILE, SIZE].
+     * Contains all the current files in the system with their index, size, replicas and the latch of the operation they are going under.
      */
-    private static HashMap<String,String> fileSize;
+    private static MetadataStore metadata;
 
     /**
-     * Contains all the current files in the system and the current operations they are going under.
-     * HashMap paring goes as follows [FILE, CONTEXT].
+     * Contains all the ports for the connected Dstore's, the files each Dstore has and the Dstores each file is on.
      */
-    private static HashMap<String,String> indexes;
+    private static PlacementIndex dstores;
 
     /**
-     * Contains all the current files which are undergoing an operation and there CountDownLatch
-     * HashMap paring goes as follows [FILE, LATCH].
+     * Decides which Dstores new files are stored on and where files should be moved to in a rebalance.
      */
-    private static HashMap<String,CountDownLatch> fileLatches;
+    private static PlacementStrategy placementStrategy;
 
     /**
-     * Contains all the ports for the connected Dstore's and the files each Dstore has.
-     * HashMap paring goes as follows [DSTORE_PORT, FILES].
+     * Chooses which replica each client load is sent to, based on how busy and slow each Dstore is.
      */
-    private static HashMap<Integer,ArrayList<String>> dstores;
+    private static ReplicaSelector replicaSelector;
 
+    /**
+     * Suspects Dstores whose heartbeats are late, and holds the free space each last reported.
+     */
+    private static FailureDetector failureDetector;
 
-    private static HashMap<Integer, Socket> dstoreSockets;
+    /**
+     * Contains the connections the controller uses to send messages to each Dstore.
+     * HashMap paring goes as follows [DSTORE_PORT, CONNECTION].
+     */
+    private static ConcurrentHashMap<Integer, ControllerReactor.Connection> dstoreSockets;
 
-    private static Timer rebalanceTimer;
+    /**
+     * Runs rebalances off the event loops, both the periodic ones and those started by a Dstore joining.
+     */
+    private static ScheduledExecutorService rebalanceScheduler;
 
-    private static Long lastRebalance;
+    /**
+     * The time the last rebalance finished.
+     */
+    private static volatile Long lastRebalance;
+
+    /**
+     * Until this time rebalances only list the Dstores (unless every recovered file has all its replicas back), as the Dstores holding them may not have rejoined.
+     */
+    private static volatile long recoveryDeadline = 0;
 
     /**
      * Main setup of the controller, setups up its main values then stats the programs main loop.
@@ -99,73 +185,108 @@ public class Controller {
             replicationFactor = Integer.parseInt(args[1]);
             timeoutMilliseconds = Integer.parseInt(args[2]);
             rebalancePeriod = Integer.parseInt(args[3]);
-            currentStoreRemoveCount = 0;
-            isSystemRebalancing = false;
-            fileSize = new HashMap<>();
-            indexes = new HashMap<>();
-            fileLatches = new HashMap<>();
-            dstores = new HashMap<>();
-            dstoreSockets = new HashMap<>();
-            rebalanceTimer = new Timer();
+            rebalanceGate = new RebalanceGate();
+            dstores = new PlacementIndex();
+            placementStrategy = new ConsistentHashRing(VIRTUAL_NODE_COUNT);
+            replicaSelector = new ReplicaSelector(timeoutMilliseconds);
+            failureDetector = new FailureDetector(FAILURE_THRESHOLD);
+            dstoreSockets = new ConcurrentHashMap<>();
+            rebalanceScheduler = Executors.newSingleThreadScheduledExecutor();
         }
 
         // Returns when incorrect arguements are inputted on the command line.
         catch (Exception exception) {
-            System.err.println("Error: (" + exception + "), arguments are either of wrong type or not inputted at all.");
+            Log.error("Error: (" + exception + "), arguments are either of wrong type or not inputted at all.");
             return;
         }
 
-        // Sets up a schedule for running a rebalance (with code inside).
-        lastRebalance = System.currentTimeMillis();
-
-        /*rebalanceTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                // Only rebalances the system when no rebalance operation is ongoing.
-                if (System.currentTimeMillis() - lastRebalance >= (1000*rebalancePeriod)) {
-                    synchronized (this) {storageRebalanceOperation();}
-                }
+        // Trys recovering the metadata from its log (if the controller has one), giving the Dstores a rebalance period to rejoin before recovered files are dropped.
+        try {
+            metadata = METADATA_FOLDER == null ? new MetadataStore() : new MetadataStore(new MetadataLog(Paths.get(METADATA_FOLDER), METADATA_GROUP_COMMIT));
+            if (metadata.getRecoveredCount() > 0) {
+                recoveryDeadline = System.currentTimeMillis() + (1000L * rebalancePeriod);
+                Log.info("Recovered " + metadata.getRecoveredCount() + " files from the metadata log.");
             }
-        }, (1000*rebalancePeriod));*/
+        }
+
+        // Returns when the log can't be read, rather than starting with a namespace which is missing files.
+        catch (IOException exception) {
+            Log.error("Error: (" + exception + "), unable to recover the metadata from '" + METADATA_FOLDER + "'.");
+            return;
+        }
+
+        // Trys serving the metrics (if a port has been given), the controller carries on without them if the port can't be bound.
+        if (METRICS_PORT != null) {
+            Metrics.gauge("dfs_controller_dstores", "Dstores which have joined.", () -> dstores.dstoreCount());
+            Metrics.gauge("dfs_controller_files", "Files with metadata (in any state).", () -> metadata.size());
+            try { Metrics.serve(METRICS_PORT); }
+            catch (IOException exception) { Log.error("Error: (" + exception + "), unable to serve metrics on port " + METRICS_PORT + "."); }
+        }
+
+        // Sets up a schedule for running a rebalance, skipped when one has happened (e.g. from a Dstore joining) within the last period.
+        lastRebalance = System.currentTimeMillis();
+        rebalanceScheduler.scheduleWithFixedDelay(() -> {
+            if (System.currentTimeMillis() - lastRebalance >= (1000L * rebalancePeriod)) { storageRebalanceOperation(); }
+        }, rebalancePeriod, 1, TimeUnit.SECONDS);
 
-        // Trys binding the server socket to the port before starting the controllers main loop.
+        // Trys binding the port and starting the event loops before running the controllers main (accept) loop.
         try {
-            controllerSocket = new ServerSocket(controllerPort);
-            while(true) { socketLoop(); }
+            reactor = new ControllerReactor(controllerPort, EVENT_LOOP_COUNT);
+            reactor.acceptLoop(ConnectionHandler::new);
         }
 
         // Returns an error if a problem happens trying to bind the port before the loop.
         catch (Exception exception){
-            System.err.println("Error: (" + exception + "), unable to bind the port.");
+            Log.error("Error: (" + exception + "), unable to bind the port.");
         }
 
         // Clean up code which runs after the final try catch to close the port.
         finally{
-            if (!controllerSocket.isClosed()) {
-                try {controllerSocket.close();}
-                catch(IOException exception) {System.err.println("Error: (" + exception + "), couldn't close port.");}
-            }
+            if (reactor != null) { reactor.close(); }
 
-            // Stops the timer as the program is over.
-            rebalanceTimer.cancel();
+            // Stops the rebalance schedule as the program is over, then writes out the rest of the metadata log.
+            rebalanceScheduler.shutdownNow();
+            metadata.close();
         }
     }
 
     /**
-     * Used to rebalance the storage system. (IMPROVE DESCRIPTION LATER)
+     * Used to rebalance the storage system, gets every Dstores files then moves and removes files so each is stored replication factor times with the Dstores balanced.
      */
     private synchronized static void storageRebalanceOperation() {
-        // Loops rebalance until no store or remove operations occour
-        while (currentStoreRemoveCount > 0) {}
+        // Stops a rebalance from throwing in the scheduler (which would cancel every future rebalance).
+        try { rebalance(); }
+        catch (Exception exception) { Log.error("Error: (" + exception + "), happend during a rebalance."); }
+    }
 
-        // Lets the system know that a rebalance has just started (stops all future commands until its false).
-        isSystemRebalancing = true;
+    /**
+     * Closes the rebalance gate, rebalances the Dstores then opens the gate again.
+     */
+    private static void rebalance() {
+        // Lets the system know that a rebalance has just started (holds back all future client commands until the gate opens), then waits until no store or remove operations occour.
+        rebalanceGate.close();
+        long started = System.nanoTime();
+
+        // Rebalances the Dstores, then lets the system know the rebalance has ended (even if it failed part way).
+        try { rebalanceDstores(); }
+        catch (RuntimeException exception) { REBALANCE_FAILURES.increment(); throw exception; }
+        finally {
+            REBALANCE_SECONDS.recordSince(started);
+            lastRebalance = System.currentTimeMillis();
+            rebalanceGate.open();
+            Log.info("Rebalance gate (" + rebalanceGate.getStatistics() + ").");
+        }
+    }
 
+    /**
+     * Carries out a rebalance while the rebalance gate is closed.
+     */
+    private static void rebalanceDstores() {
         // Creates a new latch for getting all the current files in each dstore.
-        rebalanceList = new CountDownLatch(dstores.size());
+        rebalanceList = new CountDownLatch(dstores.dstoreCount());
 
         // Goes through all Dstores sending the command for gettings its current files.
-        Set<Integer> dstoreNameSet = new HashSet<Integer>(dstores.keySet());
+        Set<Integer> dstoreNameSet = new HashSet<Integer>(dstores.dstorePorts());
         for (Integer store : dstoreNameSet) {
             // Creates the socket for the next Dstore and sends a message to it asking for its current files.
             try {
@@ -173,178 +294,140 @@ public class Controller {
             }
             // Catches any issue that could occour when connecting to the Dstore.
             catch (Exception exception) {
-                System.err.println("Error: (" + exception + "), unable to join dstore.");
-                dstores.remove(store);
-                dstoreSockets.remove(store);
+                Log.error("Error: (" + exception + "), unable to join dstore.");
+                forgetDstore(store);
             }
         }
 
         // Trys checking if all Dstores have recieved the message, if so it log's it (If not the rebalance process still continues but an error is logged).
-        try { if (rebalanceList.await(timeoutMilliseconds, TimeUnit.MILLISECONDS)) { System.out.println("Successfully updated file data for all dstores.");} }
+        try { if (rebalanceList.await(timeoutMilliseconds, TimeUnit.MILLISECONDS)) { Log.info("Successfully updated file data for all dstores.");} }
 
         // Sends error if not all dstores have updated there lists (or acknowledged it to the controller).
-        catch (Exception exception) { System.err.println("Error: Unable to get all updated list, a dstore may have failed (exception: " + exception + ")."); }
+        catch (Exception exception) { Log.error("Error: Unable to get all updated list, a dstore may have failed (exception: " + exception + ")."); }
 
-        // Extracts each arraylist of the dstore, extracts there files names then adds ones which are unique.
-        ArrayList<String> storedFiles = new ArrayList<>();
-        dstores.values().forEach((arrayList) -> arrayList.forEach((value) -> { if(!storedFiles.contains(value)) {storedFiles.add(value);}; }));
+        // While the metadata has just been recovered the rebalance only lists the Dstores, as the ones holding the other replicas may still be rejoining (kept files then never move).
+        // Recovery ends once every file has all its replicas back, or once the rebalance period has passed.
+        boolean recovering = System.currentTimeMillis() < recoveryDeadline;
+        if (recovering && metadata.filenames().stream().allMatch(file -> dstores.getReplicas(file).size() >= replicationFactor)) { recoveryDeadline = 0; recovering = false; }
+        if (recovering) { Log.info("Rebalance only listed the dstores, as not every replica of the recovered files has rejoined yet."); return; }
 
         // Removes indexes of files which are not in any dstores.
-        indexes.keySet().removeIf(file -> !(storedFiles.contains(file)));
-
-        // Gets the files which needed to be removed from dstores (have files still but should have had a completed removal).
-        ArrayList<String> filesToRemove = new ArrayList<>();
-        indexes.keySet().forEach(file -> { if(indexes.get(file).equals(Index.REMOVE_COMPLETE_TOKEN) || indexes.get(file).equals(Index.REMOVE_PROGRESS_TOKEN)) filesToRemove.add(file);} );
-
-        // Removes all the unneeded files from the index.
-        indexes.keySet().removeIf(file -> filesToRemove.contains(file));
-
-        // Creates an Hashmap for allocating the new dstores and an array of its ports so files can be easily allocated to it.
-        HashMap<Integer,ArrayList<String>> newDstores = new HashMap<>();
-        dstores.keySet().forEach((dstore) -> newDstores.put(dstore, new ArrayList<String>()));
-        Set<Integer> newDstoreNameSet = newDstores.keySet();
-        ArrayList<Integer> newDstoreNames = new ArrayList<>();
-        newDstoreNameSet.forEach(name -> newDstoreNames.add(name));
-
-        // Goes through each files the system has (thats valid) and allocates them to their new Dstores.
-        int position = 0;
-        for (String file : indexes.keySet()) {
-            // Repeats the same file based on the replication factor of the controller
-            for (int i = 0; i < replicationFactor; i++) {
-                // Adds the file to the current Dstore in the list.
-                newDstores.get(newDstoreNames.get(position)).add(file);
-
-                // Changes the Dstore we add a file to, if adding to it will make it an out of range it resets the position (else it adds).
-                if (position == (newDstoreNames.size() - 1)) {position = 0;}
-                else {position++;}
-            }
-        }
+        Set<String> storedFiles = dstores.storedFiles();
+        metadata.removeIf((file, record) -> !(storedFiles.contains(file)));
 
-        // Creates an ArrayList for storing files and how they need to move, adds the first value to each files ArrayList so we know which Dstore the files coming from.
-        HashMap<String, ArrayList<Integer>> filesMoving = new HashMap<>();
-        indexes.keySet().forEach(file -> filesMoving.put(file, new ArrayList<>()));
-        indexes.keySet().forEach(file -> filesMoving.get(file).add(newDstores.keySet().stream().filter(storeName -> newDstores.get(storeName).contains(file)).findFirst().orElse(1))); //Uses orElse for syntax (will always return a Port).
-
-        // Goes through the new Dstores, adds the store to a hash value in filesMoving if it is suppossed to contain the files, the store doesn't already have the file and if the store isn't already in said files filesMoving.
-        newDstores.keySet().forEach(store -> { indexes.keySet().forEach(file -> { if (newDstores.get(store).contains(file) && !dstores.get(store).contains(file) && !filesMoving.get(file).contains(store)) filesMoving.get(file).add(store); }); });
-
-        // DeepCopies the old dstores hashmap, loops through it and removes files which are still in the new ones store.
-        HashMap<Integer, ArrayList<String>> portFilesToRemove = new HashMap<>(dstores);
-        dstores.keySet().forEach(store -> dstores.get(store).forEach(file -> { if (newDstores.get(store).contains(file)) {portFilesToRemove.get(store).remove(file);} }));
-
-        // Sends the rebalance command to each Dstore.
-        for (Integer store : newDstores.keySet() ) {
-            // Sets up the base values for the Loop.
-            String argumentMove = "";
-            Integer moveCount = 0;
-            ArrayList<String> filesToMove = new ArrayList<>(filesMoving.keySet());
-
-            // Loops through all the files adding any moves to argumentMove when its ok to.
-            for (String file : filesToMove) {
-                // Only adds moving for this Dstore if the first value it has is the same as the current store (e.g. its for said store).
-                if (filesMoving.get(file).get(0) == store) {
-                    argumentMove += store + " "; // Adds the name of the store to the argument.
-                    filesMoving.get(file).remove(0); // Removes the store the move is for as its no longer needed.
-                    argumentMove += + filesMoving.get(file).size() + " " + filesMoving.get(file).stream().map(Object::toString).collect(Collectors.joining(" ")) + " "; // Adds the number of files and the files themself to the argument.
-                    moveCount += 1; // Counts the number of file the argument wants to move.
-                }
-            };
+        // Removes all the files from the index which dstores still have but should have had a completed removal.
+        metadata.removeIf((file, record) -> record.getIndex().equals(Index.REMOVE_COMPLETE_TOKEN) || record.getIndex().equals(Index.REMOVE_PROGRESS_TOKEN));
 
-            // Extracts all the values for this store that need to be removed and gets the number of files this includes.
-            String argumentRemove = String.join(" ",portFilesToRemove.get(store));
-            Integer removeCount = portFilesToRemove.get(store).size();
+        // Plans the fewest moves and removals which give every remaining file its replication factor with the Dstores balanced.
+        RebalancePlanner.Plan plan = RebalancePlanner.plan(dstores, new HashSet<>(metadata.filenames()), replicationFactor, placementStrategy);
+        Set<Integer> rebalancingDstores = plan.getDstores();
+        Log.info("Rebalance planned " + plan.getTransferCount() + " transfers across " + rebalancingDstores.size() + " dstores.");
+        REBALANCE_TRANSFERS.add(plan.getTransferCount());
 
-            // Try's sending to the dstore the arguments for the rebalance.
-            try {
-                // Generates the arguments for the message (so it works when either move count or remove count are zero).
-                String finalMess = new String();
-                if ((moveCount == 0) && (removeCount == 0)) {finalMess = ("0 0");}
-                else if (removeCount == 0) {finalMess = (moveCount + " " + argumentMove + " 0");}
-                else if (moveCount == 0) {finalMess = ("0 " + removeCount + " " + argumentRemove);}
-                else  {finalMess = (moveCount + " " + argumentMove + " " + removeCount + " " + argumentRemove);}
-
-                // Sends the message to the Dstore.
-                sendMessage(Protocol.REBALANCE_TOKEN, finalMess, dstoreSockets.get(store));
-            }
+        // Creates a latch for completing the rebalance on all dstores which have something to do (before sending so no completion is missed).
+        rebalanceComplete = new CountDownLatch(rebalancingDstores.size());
 
-            // Lets the user know if a rebalance isn't possible
-            catch (Exception exception) {System.err.println("Error: unable to rebalance Dstore with port '" + store +"'.");}
-        };
+        // Sends the rebalance command to each Dstore which has something to do.
+        for (Integer store : rebalancingDstores) {
+            try { sendMessage(Protocol.REBALANCE_TOKEN, plan.toArguments(store), dstoreSockets.get(store)); }
 
-        // Creates a latch for completing the rebalance on all dstores.
-        rebalanceComplete = new CountDownLatch(newDstores.size());
+            // Lets the user know if a rebalance isn't possible
+            catch (Exception exception) {Log.error("Error: unable to rebalance Dstore with port '" + store +"'.");}
+        }
 
         // Trys checking if all Dstores have recieved the message
         try {
             // If the dstores are all rebalanced then it updates all the indexes noting that all files that exists in the system are complete.
-            if (rebalanceComplete.await(timeoutMilliseconds*newDstores.size(), TimeUnit.MILLISECONDS)) {
-                indexes.replaceAll((file,index) -> index = Index.STORE_COMPLETE_TOKEN);
-                System.out.println("------------------ITS COMPLET THE REBALANCE IS COMPLET------------------");
+            if (rebalanceComplete.await((long) timeoutMilliseconds * Math.max(rebalancingDstores.size(), 1), TimeUnit.MILLISECONDS)) {
+                metadata.completeAll();
+                Log.info("Rebalance complete.");
             }
 
             // Happens if any dstore doesn't respond in time.
-            else { System.err.println("Error: unable to complete rebalance operation."); System.out.println("Latch Count: " + rebalanceComplete.getCount() + "Initial Count: " + newDstores.size());}
+            else { REBALANCE_FAILURES.increment(); Log.error("Error: unable to complete rebalance operation."); Log.info("Latch Count: " + rebalanceComplete.getCount() + " Initial Count: " + rebalancingDstores.size());}
         }
 
         // Sends error if an error occurs during the latching.
         catch (Exception exception) {
-            System.err.println("Error: Unable to makesure all rebalancing occoured (exception: " + exception + ").");
+            REBALANCE_FAILURES.increment();
+            Log.error("Error: Unable to makesure all rebalancing occoured (exception: " + exception + ").");
         }
 
-        // Makes sure that the new rebalanced dstores are thought of as the new setup (even if some dstore rebalances fail), then lets the system know the rebalance has ended.
+        // Makes sure that the new rebalanced dstores are thought of as the new setup (even if some dstore rebalances fail).
         finally{
-            dstores = new HashMap<>(newDstores);
-            isSystemRebalancing = false;
-            lastRebalance = System.currentTimeMillis();
+            plan.getNewPlacement().forEach((store, files) -> dstores.replaceFiles(store, files));
         }
-
-        //AFTER ADD NEEDED CODE TO MAKES THIS FUNCTION ONLY WHEN NO STORE OR REMOVE ARE IN ACTION, ALSO ADD PAUSE ON THREADS WHILE ITS ONGOING (MAYBE BOOLEAN WHICH IS TRUE DURING REBALANCE WHICH STOPS NEW PARSING TILL FALSE).
     }
 
     /**
-     * Function which is used to send a particular message to a given socket.
+     * Function which is used to send a particular message to a given connection.
      * @param protocol The type of message which is being sent.
-     * @param parameters The values which are contained in the message.
-     * @param socket The socket we are trying to send said message on.
-     * @throws IOException Occours when an error occours with the {@link PrintWriter}.
+     * @param parameters The arguments which are contained in the message, one per item (null when it has none).
+     * @param connection The connection we are trying to send said message on.
+     * @throws IOException Occours when the connection has already closed.
      */
-    private static void sendMessage(String protocol, Object parameters, Socket socket) throws IOException {
-        // Creates a new print writer for the given socket which auto flushes its inputs.
-        PrintWriter socketOut = new PrintWriter(socket.getOutputStream(), true);
-
-        // Creates the standard output, if its parameter is not null then its modified.
-        String output = protocol;
-        if (parameters != null) {output = protocol + " " + parameters;}
-
-        // Sends the message then terminates the line before automatically flushing it so it gets to its destination.
-        socketOut.println(output);
+    private static void sendMessage(String protocol, Collection<?> parameters, ControllerReactor.Connection connection) throws IOException {
+        // Creates the standard output, if its parameters are not null then each one is added after the protocol as its own argument (so a filename is never broken up in a frame).
+        ArrayList<String> output = new ArrayList<>();
+        output.add(protocol);
+        if (parameters != null) { parameters.forEach(item -> output.add(String.valueOf(item))); }
+
+        // Queues the message on the connection, its event loop then writes it to its destination (as a line or a binary frame).
+        connection.send(output.toArray(new String[0]));
     }
 
     /**
-     * Main loop for the controller, trys to connect new sockets to the system then starts there own thread.
+     * Gets the Dstores a new file should be stored on, in the placement strategies order for the file but skipping Dstores which are suspected of failing or don't have the space for it.
+     * @param filename The name of the file.
+     * @param filesize The size of the file.
+     * @return Up to replication factor Dstore ports, most preferred first.
      */
-    private static void socketLoop(){
-        // Trys accepting the new socket before running its own thread.
-        try {
-            Socket newConnection = controllerSocket.accept();
-            new Thread(new ControllerThread(newConnection)).start();
+    private static List<Integer> chooseTargets(String filename, String filesize) {
+        long size;
+        try { size = Long.parseLong(filesize); }
+        catch (NumberFormatException exception) { size = 0; }
+
+        ArrayList<Integer> targets = new ArrayList<>(replicationFactor);
+        Iterator<Integer> order = placementStrategy.preferenceOrder(filename);
+        while (targets.size() < replicationFactor && order.hasNext()) {
+            Integer store = order.next();
+            if (!failureDetector.isSuspect(store) && failureDetector.getFreeBytes(store) >= size) { targets.add(store); }
         }
+        return targets;
+    }
 
-        // Catches any errors that occour with the IO during the connection.
-        catch (IOException exception){
-            System.err.println("Error: (" + exception + "), happend on the current thread with its IO.");
-        }
+    /**
+     * Forgets a Dstore which has left (or can no longer be messaged), so it isn't listed, placed on, loaded from or suspected of failing any more.
+     * @param port The port of the Dstore.
+     */
+    private static void forgetDstore(Integer port) {
+        dstores.removeDstore(port);
+        placementStrategy.removeDstore(port);
+        replicaSelector.removeDstore(port);
+        failureDetector.removeDstore(port);
+        dstoreSockets.remove(port);
     }
 
     /**
-     * Thread for the controller, handles a socket until connection is lost.
+     * Leaves out the Dstores which are suspected of failing, unless every one is suspected (as a load from them may still work).
+     * @param candidates The Dstores which could be used.
+     * @return The Dstores which aren't suspected, or all of them if they all are.
      */
-    static class ControllerThread implements Runnable {
+    private static ArrayList<Integer> withoutSuspects(Collection<Integer> candidates) {
+        ArrayList<Integer> healthy = new ArrayList<>(candidates);
+        healthy.removeIf(failureDetector::isSuspect);
+        return healthy.isEmpty() ? new ArrayList<>(candidates) : healthy;
+    }
+
+    /**
+     * Handler for a connection to the controller, parses each message on the connections event loop until the connection is lost.
+     */
+    static class ConnectionHandler implements ControllerReactor.Handler {
 
         /**
-         * Stores the socket which is being managed by this current thread.
+         * Stores the connection which is being managed by this handler.
          */
-        private Socket connectedSocket;
+        private ControllerReactor.Connection connection;
 
         /**
          * A value which lets the rest of the thread know if its a Dstore (by default set to false).
@@ -362,134 +445,175 @@ public class Controller {
         private ArrayList<Integer> loadedFromPorts = new ArrayList<>();
 
         /**
-         * Used when initilising the thread, sets the socket before the threads main loop starts in run.
-         * @param inputtedSocket The socket which the thread is connected to.
+         * Used by dstore's, holds the parts of its file list which have been streamed so far.
          */
-        ControllerThread(Socket inputtedSocket) {
-            connectedSocket = inputtedSocket;
+        private ArrayList<String> listedFiles = new ArrayList<>();
+
+        /**
+         * The Dstore the client was last told to load from, with when and the size of the file (null port when there is no load pending).
+         */
+        private Integer pendingLoadPort;
+        private long pendingLoadStart, pendingLoadSize;
+
+        /**
+         * Put before each line logged about the connection, built once so logging a message doesn't build it again.
+         */
+        private final String logPrefix;
+
+        /**
+         * Used when initilising the handler, sets the connection before any of its messages arrive.
+         * @param inputtedConnection The connection which the handler is for.
+         */
+        ConnectionHandler(ControllerReactor.Connection inputtedConnection) {
+            connection = inputtedConnection;
+            logPrefix = reactor.getLocalPort() + " " + connection.getLocalPort() + ") ";
         }
 
         /**
-         * Main loop which is ran until the connection to the port is lost or the controller crashes.
+         * Called by the event loop for each message sent (client messages are held back during a rebalance operation, Dstore messages aren't as the rebalance needs them).
+         * @param currentMessage The message which was recieved, split into its arguments.
          */
-        public void run(){
-            // Trys to create a reader for the input stream and then parse the messages its recieves from the socket.
-            try {
-                BufferedReader reader = new BufferedReader(new InputStreamReader(connectedSocket.getInputStream()));
-                String currentMessage;
+        public void onMessage(String[] currentMessage) {
+            // Heartbeats are recorded straight away without being logged, as they arrive many times a second (ones which arrive before the JOIN has been handled are dropped).
+            if (currentMessage[0].equals(Protocol.HEARTBEAT_TOKEN)) { if (isDstore) { dstoreHeartbeat(currentMessage); } }
+            else if (isDstore) { parseMessage(currentMessage); }
+            else { rebalanceGate.execute(() -> parseMessage(currentMessage)); }
+        }
 
-                // Loops through each newline sent (Pauses during a rebalance operation).
-                while((currentMessage = reader.readLine()) != null){
-                    while(isSystemRebalancing) {}
-                    messageParser(currentMessage);
-                }
-                connectedSocket.close();
-            }
+        /**
+         * Trys to parse the message, if the program encounters an excpetion an error is flagged (the connection is kept).
+         * @param currentMessage The message which was recieved, split into its arguments.
+         */
+        private void parseMessage(String[] currentMessage) {
+            // Any message from a client means its last load has finished, it only failed if the client is asking to reload.
+            if (!isDstore) { finishPendingLoad(!currentMessage[0].equals(Protocol.RELOAD_TOKEN)); }
 
-            // If the program encounters an excpetion an error is flagged.
-            catch(Exception e) { System.err.println("Error: -------------------------" ); e.printStackTrace();}
+            try { messageParser(currentMessage); }
+            catch(Exception e) { Log.error("Error: -------------------------", e); }
+        }
 
-            // If the thread is for a Dstore then it removes it from the list on disconnect to help with all operations (including rebalance).
-            finally { if (isDstore) {dstores.remove(dstorePort); dstoreSockets.remove(dstorePort);} }
-            System.out.println(controllerSocket.getLocalPort() + " PARSE DONE");
+        /**
+         * Called by the event loop once the connection is lost.
+         */
+        public void onClose() {
+            // If the handler is for a Dstore then it removes it from the list on disconnect to help with all operations (including rebalance).
+            if (isDstore) { forgetDstore(dstorePort); }
+            else { finishPendingLoad(true); }
+            Log.debug(logPrefix, "PARSE DONE");
         }
 
         /**
          * Function which is used to parse the messages sent by a Client or Dstore.
-         * @param message The message which is being sent by the Client or Dstore.
+         * @param messageArgs The message which is being sent by the Client or Dstore, split into its arguments.
          */
-        private void messageParser(String message) {
-            // Splits the inputted message into an array.
-            String messageArgs[] = message.split(" ");
-            System.out.println(controllerSocket.getLocalPort() + " " + connectedSocket.getLocalPort() + ") " + String.join(" ", messageArgs));
+        private void messageParser(String[] messageArgs) {
+            Log.debug(logPrefix, messageArgs);
 
             // Uses switch to check which message the port sent and run the required function.
             switch(messageArgs[0]) {
                 case Protocol.STORE_TOKEN -> clientStore(messageArgs[1], messageArgs[2]);                       // When a client wants a files to be store in the system.
+                case Protocol.STORE_CHAIN_TOKEN -> clientStore(messageArgs[1], messageArgs[2]);                 // When a client wants a file to be stored by a chain of Dstores (STORE_TO gives the chain in order).
                 case Protocol.LOAD_TOKEN -> clientLoad(messageArgs[1]);                                         // When a client wants to get a file from the system.
+                case Protocol.LOAD_STRIPED_TOKEN -> clientLoadStriped(messageArgs[1]);                          // When a client wants to get a file from every Dstore which has it at once.
                 case Protocol.RELOAD_TOKEN -> clientReload(messageArgs[1]);                                     // Whem a client wants a file from the system but the given Dstore doesn't work.
                 case Protocol.REMOVE_TOKEN -> clientRemove(messageArgs[1]);                                     // When a client wants a file to be removed from the system.
                 case Protocol.LIST_TOKEN -> { if(isDstore) {dstoreListAck(messageArgs);} else {clientList();}}  // When a client wants a list of all files in the system or a dstore is returning a list of all files it has.
+                case Protocol.LIST_PAGE_TOKEN -> clientListPage(messageArgs);                                   // When a client wants a single page of the (sorted) files in the system.
+                case Protocol.LIST_PART_TOKEN -> dstoreListPart(messageArgs);                                   // When a dstore is streaming part of its list of files before the final LIST.
                 case Protocol.JOIN_TOKEN -> dstoreJoin(messageArgs[1]);                                         // When a Dstore joins the controller.
                 case Protocol.STORE_ACK_TOKEN -> dstoreStoreAck(messageArgs[1]);                                // When a Dstore acknowledges storing a specific file.
                 case Protocol.REMOVE_ACK_TOKEN -> dstoreRemoveAck(messageArgs[1]);                              // When a Dstore acknowledges removing a specific file.
                 case Protocol.REBALANCE_COMPLETE_TOKEN -> dstoreRebalanceComplete();                            // When a Dstore acknowledges its has completed its Dstore.
                 case Protocol.ERROR_FILE_DOES_NOT_EXISTS_TOKEN -> dstoreFileNotExist(messageArgs[1]);           // When a Dstore finds out it doesn't contain a given file during a remove process.
-                default -> System.err.println("Error: malformed message [" + String.join(" ", messageArgs) + "] recieved from [Port:" + connectedSocket.getPort() + "]."); // Malformed message is recieved.
+                default -> Log.error("Error: malformed message [" + String.join(" ", messageArgs) + "] recieved from [Port:" + connection.getPort() + "]."); // Malformed message is recieved.
             }
-            System.out.println(controllerSocket.getLocalPort() + " IS DONE");
+            Log.debug(logPrefix, "IS DONE");
         }
 
         /**
          * Function which handles storage of new files into the distributed system.
+         * The STORE_TO ports are in the placement strategies order, so a client storing by chain replication sends the file to the first which forwards it down the rest.
          * @param filename The name of the file the client wants to store.
          * @param filesize The size of the file the client wants to store.
          */
         private void clientStore(String filename, String filesize) {
+            long started = System.nanoTime();
+
             // Checks if the file that wants to be stored is already in the system (and not completed it's removal), if so it sends an error and stops processing.
-            if (indexes.containsKey(filename) && !(indexes.get(filename).equals(Index.REMOVE_COMPLETE_TOKEN))) {
-                System.err.println("File There: (" + indexes.containsKey(filename) + ") File Store: (" + (indexes.get(filename) != Index.STORE_COMPLETE_TOKEN) + ")");
-                try { sendMessage(Protocol.ERROR_FILE_ALREADY_EXISTS_TOKEN, null, connectedSocket); }
-                catch (IOException exception) { System.err.println("Error: unable to send file already exists error to port: " + connectedSocket.getPort()); }
-                finally{ return; }
+            String currentIndex = metadata.getIndex(filename);
+            if (currentIndex != null && !currentIndex.equals(Index.REMOVE_COMPLETE_TOKEN)) {
+                sendFileAlreadyExists(filename);
+                return;
             }
 
-            // Checks if there isn't enough Dstores for the operation to occour, if so it sends an error and stops processing.
-            if (dstores.size() < replicationFactor) {
-                try { sendMessage(Protocol.ERROR_NOT_ENOUGH_DSTORES_TOKEN, null, connectedSocket); }
-                catch (IOException exception) { System.err.println("Error: unable to send not enough dstores error to port: " + connectedSocket.getPort()); }
-                finally{ return; }
+            // Checks if there isn't enough Dstores (that aren't suspected of failing and have space for the file) for the operation to occour, if so it sends an error and stops processing.
+            List<Integer> targets = chooseTargets(filename, filesize);
+            if (dstores.dstoreCount() < replicationFactor || targets.size() < replicationFactor) {
+                STORE_FAILURES.increment();
+                try { sendMessage(Protocol.ERROR_NOT_ENOUGH_DSTORES_TOKEN, null, connection); }
+                catch (IOException exception) { Log.error("Error: unable to send not enough dstores error to port: " + connection.getPort()); }
+                return;
             }
 
-            // Lets system know a store operation has started.
-            currentStoreRemoveCount += 1;
-
-            // Adds the file to the HashMap of indexes with the state of "store in progress" (plus to a filesize HashMap)
-            indexes.put(filename, Index.STORE_PROGRESS_TOKEN);
-            fileSize.put(filename, filesize);
-
-            // Creates a latch for the current file so we can wait for its completion.
-            CountDownLatch currentLatch = new CountDownLatch(replicationFactor);
-            fileLatches.put(filename, currentLatch);
+            // Adds the file to the metadata with the state of "store in progress" and a latch so we can wait for its completion.
+            // This fails if another client began storing the file since it was checked above, if so it sends an error and stops processing.
+            AsyncLatch currentLatch = new AsyncLatch(replicationFactor);
+            MetadataStore.FileRecord record = metadata.beginStore(filename, filesize, currentLatch);
+            if (record == null) {
+                sendFileAlreadyExists(filename);
+                return;
+            }
 
-            // Extracts all the Dstores into an array then creates a message argument containing the first R ports to save to.
-            Set<Integer> setOfDstores = dstores.keySet();
-            Integer[] currentDstores = setOfDstores.stream().toArray(n -> new Integer[n]);
-            String messageArguments = "";
-            for (int i = 0; i < replicationFactor; i++) { messageArguments += (currentDstores[i] + " "); }
+            // Lets system know a store operation has started.
+            rebalanceGate.operationStarted();
 
-            // Sends the Dstores to the client where we want the data to be stored.
-            try { sendMessage(Protocol.STORE_TO_TOKEN, messageArguments, connectedSocket); }
+            // Sends the ports of the R Dstores the file was placed on to the client, where we want the data to be stored.
+            try { sendMessage(Protocol.STORE_TO_TOKEN, targets, connection); }
 
             // Catches issues that occour when the message cant be received by the client (ends operation and removes index/latch/storeCount).
             catch (IOException exception) {
-                System.err.println("Error: (" + exception + "), unable to join controller.");
-                indexes.remove(filename);
-                fileLatches.remove(filename);
-                currentStoreRemoveCount -= 1;
+                Log.error("Error: (" + exception + "), unable to join controller.");
+                STORE_FAILURES.increment();
+                metadata.abortStore(filename, record);
+                rebalanceGate.operationFinished();
                 return;
             }
 
-            // Trys checking if all Dstores have recieved the message
-            try {
-                // If the files are stored in all Dstores in time then store complete is sent and the index is updated to reflect this.
-                if (fileLatches.get(filename).await(timeoutMilliseconds, TimeUnit.MILLISECONDS)) {
-                    indexes.put(filename, Index.STORE_COMPLETE_TOKEN);
-                    sendMessage(Protocol.STORE_COMPLETE_TOKEN, null, connectedSocket);
+            // Waits for all Dstores to recieve the file (then for the completion to be logged) without holding the event loop, the rest of the store runs once the latch completes or times out.
+            CompletableFuture<Boolean> completion = currentLatch.await(timeoutMilliseconds, TimeUnit.MILLISECONDS).thenCompose(stored -> stored ? metadata.completeStore(filename, record) : CompletableFuture.completedFuture(false));
+            completion.thenAccept(completed -> {
+                try {
+                    // If the files are stored in all Dstores in time (and the index is updated to reflect this) then store complete is sent.
+                    if (completed) {
+                        sendMessage(Protocol.STORE_COMPLETE_TOKEN, null, connection);
+                        STORE_SECONDS.recordSince(started);
+                    }
+
+                    // As file is though to have not properly been saved it is removed from the system.
+                    else { STORE_FAILURES.increment(); metadata.abortStore(filename, record); Log.error("Error: unable to complete store operation.");}
                 }
 
-                // As file is though to have not properly been saved it is removed from the system.
-                else { indexes.remove(filename); System.err.println("Error: unable to complete store operation.");}
-            }
+                // Sends error if an error occurs when sending the message to the client.
+                catch (Exception exception) {
+                    STORE_FAILURES.increment();
+                    Log.error("Error: Unable to makesure files are saved (exception: " + exception + ").");
+                    metadata.abortStore(filename, record);
+                }
 
-            // Sends error if an error occurs during either the latching or sending the message to the client.
-            catch (Exception exception) {
-                System.err.println("Error: Unable to makesure files are saved (exception: " + exception + ").");
-                indexes.remove(filename);
-            }
+                // Removes the latch as its no longer needed and removes the store from operation count.
+                finally { metadata.endOperation(filename, record); rebalanceGate.operationFinished();}
+            });
+        }
 
-            // Removes the latch as its no longer needed and removes the store from operation count.
-            finally { fileLatches.remove(filename); currentStoreRemoveCount -= 1;}
+        /**
+         * Sends the client an error that the file it wants to store is already in the system.
+         * @param filename The name of the file the client wants to store.
+         */
+        private void sendFileAlreadyExists(String filename) {
+            Log.warn("File There: (true) File Index: (" + metadata.getIndex(filename) + ")");
+            STORE_FAILURES.increment();
+            try { sendMessage(Protocol.ERROR_FILE_ALREADY_EXISTS_TOKEN, null, connection); }
+            catch (IOException exception) { Log.error("Error: unable to send file already exists error to port: " + connection.getPort()); }
         }
 
         /**
@@ -504,54 +628,126 @@ public class Controller {
             clientReload(filename);
         }
 
+        /**
+         * Function which handles a striped load, where the client loads different ranges of the file from every Dstore which has it at once.
+         * The reply is LOAD_FROM with the cheapest Dstore and the size as usual, followed by the rest of the Dstores (cheapest first).
+         * @param filename The name of the file the client wants to load.
+         */
+        private void clientLoadStriped(String filename) {
+            long started = System.nanoTime();
+
+            // Resets the loaded from ports as its a new load (the client moves ranges between the given Dstores itself if one fails).
+            loadedFromPorts = new ArrayList<>();
+
+            // Checks if the file that the client wants to load doesn't exists (or hasn't completed its store) in the system, if so it sends an error and stops processing.
+            MetadataStore.FileRecord record = metadata.get(filename);
+            if (record == null || !(record.getIndex().equals(Index.STORE_COMPLETE_TOKEN))) {
+                LOAD_FAILURES.increment();
+                try { sendMessage(Protocol.ERROR_FILE_DOES_NOT_EXISTS_TOKEN, null, connection); }
+                catch (IOException exception) { Log.error("Error: unable to send file doesn't exists error to port: " + connection.getPort()); }
+                return;
+            }
+
+            // Checks if there isn't enough Dstores for the operation to occour, if so it sends an error and stops processing.
+            if (dstores.dstoreCount() < replicationFactor) {
+                LOAD_FAILURES.increment();
+                try { sendMessage(Protocol.ERROR_NOT_ENOUGH_DSTORES_TOKEN, null, connection); }
+                catch (IOException exception) { Log.error("Error: unable to send not enough dstores error to port: " + connection.getPort()); }
+                return;
+            }
+
+            // Tries to send the client every Dstore holding the file, if there are none an error is sent instead.
+            try {
+                List<Integer> replicas = replicaSelector.order(withoutSuspects(dstores.getReplicas(filename)));
+                if (replicas.isEmpty()) { LOAD_FAILURES.increment(); sendMessage(Protocol.ERROR_LOAD_TOKEN, null, connection); return; }
+
+                ArrayList<Object> arguments = new ArrayList<>(List.of(replicas.get(0), record.getSize()));
+                arguments.addAll(replicas.subList(1, replicas.size()));
+                sendMessage(Protocol.LOAD_FROM_TOKEN, arguments, connection);
+                LOAD_SECONDS.recordSince(started);
+            }
+
+            // Occours when an exception happens in when sending a message to the client.
+            catch (IOException exception) { Log.error("Error: unable to let the client know which Dstores to load the file from."); }
+        }
+
         /**
          * Function which handles loading the same file from the distributed system but with a different Dstore (as the last lot failed).
          * @param filename The name of the file the client wants to load from a new Dstore.
          */
         private void clientReload(String filename) {
+            long started = System.nanoTime();
+
             // Checks if the file that the client wants to load doesn't exists (or hasn't completed its store) in the system, if so it sends an error and stops processing.
-            if (!indexes.containsKey(filename) || !(indexes.get(filename).equals(Index.STORE_COMPLETE_TOKEN))) {
-                System.err.println("File Not There: (" + !indexes.containsKey(filename) + ") File Store: (" + (indexes.get(filename) != Index.STORE_COMPLETE_TOKEN) + ")");
-                try { sendMessage(Protocol.ERROR_FILE_DOES_NOT_EXISTS_TOKEN, null, connectedSocket); }
-                catch (IOException exception) { System.err.println("Error: unable to send file doesn't exists error to port: " + connectedSocket.getPort()); }
-                finally{ return; }
+            MetadataStore.FileRecord record = metadata.get(filename);
+            if (record == null || !(record.getIndex().equals(Index.STORE_COMPLETE_TOKEN))) {
+                LOAD_FAILURES.increment();
+                Log.warn("File Not There: (" + (record == null) + ") File Index: (" + (record == null ? null : record.getIndex()) + ")");
+                try { sendMessage(Protocol.ERROR_FILE_DOES_NOT_EXISTS_TOKEN, null, connection); }
+                catch (IOException exception) { Log.error("Error: unable to send file doesn't exists error to port: " + connection.getPort()); }
+                return;
             }
 
             // Checks if there isn't enough Dstores for the operation to occour, if so it sends an error and stops processing.
-            if (dstores.size() < replicationFactor) {
-                try { sendMessage(Protocol.ERROR_NOT_ENOUGH_DSTORES_TOKEN, null, connectedSocket); }
-                catch (IOException exception) { System.err.println("Error: unable to send not enough dstores error to port: " + connectedSocket.getPort()); }
-                finally{ return; }
+            if (dstores.dstoreCount() < replicationFactor) {
+                LOAD_FAILURES.increment();
+                try { sendMessage(Protocol.ERROR_NOT_ENOUGH_DSTORES_TOKEN, null, connection); }
+                catch (IOException exception) { Log.error("Error: unable to send not enough dstores error to port: " + connection.getPort()); }
+                return;
             }
 
-            // Creates an ArrayList containing all current Dstores which could contain the file
-            ArrayList<Integer> possibleDstores = new ArrayList<>();
-            dstores.forEach((store,files) -> {
-                if (files.contains(filename) && !loadedFromPorts.contains(store)) {
-                    possibleDstores.add(store);
-                }
-            });
+            // Creates an ArrayList containing all current Dstores which contain the file (and havn't already been loaded from), leaving out any suspected of failing.
+            ArrayList<Integer> untriedDstores = new ArrayList<>();
+            dstores.getReplicas(filename).forEach(store -> { if (!loadedFromPorts.contains(store)) { untriedDstores.add(store); } });
+            ArrayList<Integer> possibleDstores = withoutSuspects(untriedDstores);
 
             // Tries to send the client the correct response for loading the file, if not possible an error is given.
             try {
                 // Checks if there arn't any Dstores left to load files from, if so an error is sent to the client.
                 if (possibleDstores.isEmpty()) {
-                    sendMessage(Protocol.ERROR_LOAD_TOKEN, null, connectedSocket);
-                    System.err.println("Error: Unable to load file (with name '" + filename + "') from any Dstore");
+                    LOAD_FAILURES.increment();
+                    sendMessage(Protocol.ERROR_LOAD_TOKEN, null, connection);
+                    Log.error("Error: Unable to load file (with name '" + filename + "') from any Dstore");
                 }
 
-                // Else it sends a random avalible Dstrore for the client to load the file from (and adds it to loaded from ports).
+                // Else it sends the least busy of two random avalible Dstores for the client to load the file from (and adds it to loaded from ports).
                 else {
-                    int argumentPort = possibleDstores.get((int) Math.random() * possibleDstores.size());
-                    String argumentSize = fileSize.get(filename);
-                    sendMessage(Protocol.LOAD_FROM_TOKEN, (argumentPort + " " + argumentSize), connectedSocket);
+                    Integer argumentPort = replicaSelector.choose(possibleDstores);
+                    String argumentSize = record.getSize();
+                    sendMessage(Protocol.LOAD_FROM_TOKEN, List.of(argumentPort, argumentSize), connection);
+                    LOAD_SECONDS.recordSince(started);
                     loadedFromPorts.add(argumentPort);
+                    startPendingLoad(argumentPort, Long.parseLong(argumentSize));
                 }
 
             }
 
             // Occours when an exception happens in when sending a message to the client.
-            catch (IOException exception) { System.err.println("Error: unable to let the client know the current state of getting the file from the Dstore."); }
+            catch (IOException exception) { Log.error("Error: unable to let the client know the current state of getting the file from the Dstore."); }
+        }
+
+        /**
+         * Records that the client has been told to load from a Dstore.
+         * @param port The port of the Dstore.
+         * @param size The size of the file being loaded.
+         */
+        private synchronized void startPendingLoad(Integer port, long size) {
+            replicaSelector.loadStarted(port);
+            pendingLoadPort = port;
+            pendingLoadStart = System.nanoTime();
+            pendingLoadSize = size;
+        }
+
+        /**
+         * Records that the clients pending load (if it has one) has finished.
+         * @param succeeded If the load worked.
+         */
+        private synchronized void finishPendingLoad(boolean succeeded) {
+            if (pendingLoadPort == null) { return; }
+            long elapsed = System.nanoTime() - pendingLoadStart;
+            replicaSelector.loadFinished(pendingLoadPort, elapsed, pendingLoadSize, succeeded);
+            if (succeeded) { DSTORE_LOADED_BYTES.get(pendingLoadPort).add(pendingLoadSize); DSTORE_LOAD_SECONDS.get(pendingLoadPort).record(elapsed); }
+            pendingLoadPort = null;
         }
 
         /**
@@ -559,92 +755,122 @@ public class Controller {
          * @param filename The name of the file the client wants to remove.
          */
         private void clientRemove(String filename) {
-            // Checks if the file that the client wants to load doesn't exists (or hasn't completed its store) in the system, if so it sends an error and stops processing.
-            if (!indexes.containsKey(filename) || !(indexes.get(filename).equals(Index.STORE_COMPLETE_TOKEN))) {
-                System.err.println("File Not There: (" + !indexes.containsKey(filename) + ") File Store: (" + (indexes.get(filename) != Index.STORE_COMPLETE_TOKEN) + ")");
-                try { sendMessage(Protocol.ERROR_FILE_DOES_NOT_EXISTS_TOKEN, null, connectedSocket); }
-                catch (IOException exception) { System.err.println("Error: unable to send file doesn't exists error to port: " + connectedSocket.getPort()); }
-                finally{ return; }
-            }
+            long started = System.nanoTime();
 
             // Checks if there isn't enough Dstores for the operation to occour, if so it sends an error and stops processing.
-            if (dstores.size() < replicationFactor) {
-                try { sendMessage(Protocol.ERROR_NOT_ENOUGH_DSTORES_TOKEN, null, connectedSocket); }
-                catch (IOException exception) { System.err.println("Error: unable to send not enough dstores error to port: " + connectedSocket.getPort()); }
-                finally{ return; }
+            if (dstores.dstoreCount() < replicationFactor) {
+                REMOVE_FAILURES.increment();
+                try { sendMessage(Protocol.ERROR_NOT_ENOUGH_DSTORES_TOKEN, null, connection); }
+                catch (IOException exception) { Log.error("Error: unable to send not enough dstores error to port: " + connection.getPort()); }
+                return;
             }
 
-            // Lets the system know a remove operation has started.
-            currentStoreRemoveCount += 1;
-
-            // Adds the file to the HashMap of indexes with the state of "store in progress" (plus to a filesize HashMap).
-            indexes.put(filename, Index.REMOVE_PROGRESS_TOKEN);
+            // Changes the files index to "remove in progress" with a latch (counting each Dstore holding the file) so we can wait for its completion.
+            // This fails if the file doesn't exists (or hasn't completed its store) in the system, if so it sends an error and stops processing.
+            Set<Integer> dstoreNameSet = new HashSet<Integer>(dstores.getReplicas(filename));
+            AsyncLatch currentLatch = new AsyncLatch(dstoreNameSet.size());
+            MetadataStore.FileRecord record = metadata.beginRemove(filename, currentLatch);
+            if (record == null) {
+                REMOVE_FAILURES.increment();
+                Log.warn("File Not There: (" + !metadata.filenames().contains(filename) + ") File Index: (" + metadata.getIndex(filename) + ")");
+                try { sendMessage(Protocol.ERROR_FILE_DOES_NOT_EXISTS_TOKEN, null, connection); }
+                catch (IOException exception) { Log.error("Error: unable to send file doesn't exists error to port: " + connection.getPort()); }
+                return;
+            }
 
-            // Creates a latch for the current file so we can wait for its completion.
-            CountDownLatch currentLatch = new CountDownLatch(replicationFactor);
-            fileLatches.put(filename, currentLatch);
+            // Lets the system know a remove operation has started.
+            rebalanceGate.operationStarted();
 
             // Goes through all Dstores that contain the file and sends them a remove command for that file.
-            Set<Integer> dstoreNameSet = new HashSet<Integer>(dstores.keySet());
             for (Integer store : dstoreNameSet) {
-                if (dstores.get(store).contains(filename)) {
-                    // Creates the socket for the Dstore which has the file then sends a message to it letting it know that it should remove said file
-                    try {
-                        sendMessage(Protocol.REMOVE_TOKEN, filename, dstoreSockets.get(store));
-                        System.out.println("Sent to store wanted: " + store + " Actual: " + dstoreSockets.get(store).getPort());
-                    }
+                // Uses the connection for the Dstore which has the file then sends a message to it letting it know that it should remove said file
+                try {
+                    sendMessage(Protocol.REMOVE_TOKEN, List.of(filename), dstoreSockets.get(store));
+                    if (Log.isEnabled(Log.DEBUG)) { Log.debug("Sent to store wanted: ", store, " Actual: ", dstoreSockets.get(store).getPort()); }
+                }
 
-                    // Catches any issue that could occour when connecting to the Dstore.
-                    catch (Exception exception) {
-                        System.err.println("Error: (" + exception + "), unable to join controller.");
-                        dstores.remove(store);
-                        //dstoreSockets.remove(store);
-                        fileLatches.get(filename).countDown();
-                    }
+                // Catches any issue that could occour when connecting to the Dstore.
+                catch (Exception exception) {
+                    Log.error("Error: (" + exception + "), unable to join controller.");
+                    forgetDstore(store);
+                    currentLatch.countDown();
                 }
             }
 
-            // Trys checking if all Dstores have recieved the message
-            try {
-                // If the files are removed from all Dstores in time then remove complete is sent and the index is updated to reflect this.
-                if (fileLatches.get(filename).await(timeoutMilliseconds, TimeUnit.MILLISECONDS)) {
-                    indexes.put(filename, Index.REMOVE_COMPLETE_TOKEN);
-                    fileSize.remove(filename);
-                    sendMessage(Protocol.REMOVE_COMPLETE_TOKEN, null, connectedSocket);
+            // Waits for all Dstores to remove the file (then for the completion to be logged) without holding the event loop, the rest of the remove runs once the latch completes or times out.
+            CompletableFuture<Boolean> completion = currentLatch.await(timeoutMilliseconds, TimeUnit.MILLISECONDS).thenCompose(removed -> removed ? metadata.completeRemove(filename, record) : CompletableFuture.completedFuture(false));
+            completion.thenAccept(completed -> {
+                try {
+                    // If the files are removed from all Dstores in time (and the index is updated to reflect this) then remove complete is sent.
+                    if (completed) {
+                        sendMessage(Protocol.REMOVE_COMPLETE_TOKEN, null, connection);
+                        REMOVE_SECONDS.recordSince(started);
+                    }
+                    else { REMOVE_FAILURES.increment(); }
                 }
-            }
 
-            // Sends error if an error occurs during either the latching or sending the message to the client.
-            catch (Exception exception) {
-                System.err.println("Error: Unable to makesure files are removed (exception: " + exception + ").");
-            }
+                // Sends error if an error occurs when sending the message to the client.
+                catch (Exception exception) {
+                    REMOVE_FAILURES.increment();
+                    Log.error("Error: Unable to makesure files are removed (exception: " + exception + ").");
+                }
 
-            // Removes the latch as its no longer needed.
-            finally { fileLatches.remove(filename); currentStoreRemoveCount -= 1;}
+                // Removes the latch as its no longer needed.
+                finally { metadata.endOperation(filename, record); rebalanceGate.operationFinished();}
+            });
         }
 
         /**
          * Function which handles the listing of files in the distributed system.
          */
         private void clientList() {
+            long started = System.nanoTime();
+
             // Checks if there isn't enough Dstores for the operation to occour, if so it sends an error and stops processing.
-            if (dstores.size() < replicationFactor) {
-                try { sendMessage(Protocol.ERROR_NOT_ENOUGH_DSTORES_TOKEN, null, connectedSocket); }
-                catch (IOException exception) { System.err.println("Error: unable to send not enough dstores error to port: " + connectedSocket.getPort()); }
-                finally{ return; }
+            if (dstores.dstoreCount() < replicationFactor) {
+                LIST_FAILURES.increment();
+                try { sendMessage(Protocol.ERROR_NOT_ENOUGH_DSTORES_TOKEN, null, connection); }
+                catch (IOException exception) { Log.error("Error: unable to send not enough dstores error to port: " + connection.getPort()); }
+                return;
             }
 
-            // Extracts all the files that exist in the indexes Hashmap that are fully stored in the system.
+            // Extracts all the files that exist in the metadata that are fully stored in the system (in sorted order).
             ArrayList<String> allFiles = new ArrayList<>();
-            indexes.forEach((file,context) -> { if(context == Index.STORE_COMPLETE_TOKEN) {allFiles.add(file);} });
+            metadata.filenames().forEach(file -> { if(Index.STORE_COMPLETE_TOKEN.equals(metadata.getIndex(file))) {allFiles.add(file);} });
 
-            // Creates the arguement which includes all the files previously extracted.
-            String argument = "";
-            for (String file : allFiles) { argument += file + " "; }
+            // Trys to send the client the list of all files in the system (one argument per file).
+            try { sendMessage(Protocol.LIST_TOKEN, allFiles, connection); LIST_SECONDS.recordSince(started); }
+            catch (IOException exception) { LIST_FAILURES.increment(); Log.error("Error: unable to send client list of avalible files in the system."); }
+        }
+
+        /**
+         * Function which handles listing a single page of the files in the distributed system, so a client can walk a large namespace in bounded messages.
+         * The message is the page size, then optionally a prefix the names must start with (empty for all) and the last name of the previous page.
+         * @param message The message which contains the page size and optionally the prefix and cursor.
+         */
+        private void clientListPage(String[] message) {
+            long started = System.nanoTime();
 
-            // Trys to send the client the list of all files in the system.
-            try { sendMessage(Protocol.LIST_TOKEN, argument, connectedSocket); }
-            catch (IOException exception) { System.err.println("Error: unable to send client list of avalible files in the system."); }
+            // Checks if there isn't enough Dstores for the operation to occour, if so it sends an error and stops processing.
+            if (dstores.dstoreCount() < replicationFactor) {
+                LIST_FAILURES.increment();
+                try { sendMessage(Protocol.ERROR_NOT_ENOUGH_DSTORES_TOKEN, null, connection); }
+                catch (IOException exception) { Log.error("Error: unable to send not enough dstores error to port: " + connection.getPort()); }
+                return;
+            }
+
+            // Reads the page from the sorted index, never giving more than the page limits however many the client asked for.
+            int pageSize = Math.max(1, Math.min(Integer.parseInt(message[1]), MAX_LIST_PAGE_FILES));
+            String prefix = message.length > 2 ? message[2] : "";
+            String cursor = message.length > 3 && !message[3].isEmpty() ? message[3] : null;
+            MetadataStore.Page page = metadata.completedPage(prefix, cursor, pageSize, MAX_LIST_PAGE_CHARS);
+
+            // Trys to send the client the page, with if there are more after it (the last name is the cursor for the next page).
+            ArrayList<String> arguments = new ArrayList<>();
+            arguments.add(page.more() ? Protocol.LIST_PAGE_MORE : Protocol.LIST_PAGE_END);
+            arguments.addAll(page.files());
+            try { sendMessage(Protocol.LIST_PAGE_TOKEN, arguments, connection); LIST_SECONDS.recordSince(started); }
+            catch (IOException exception) { LIST_FAILURES.increment(); Log.error("Error: unable to send client a page of the files in the system."); }
         }
 
         /**
@@ -655,13 +881,22 @@ public class Controller {
             isDstore = true;
             dstorePort = Integer.parseInt(port);
 
-            // Adds it to the HashMap of Dstores ready to be updated when files are added.
-            dstores.put(dstorePort, new ArrayList<String>());
-            try { dstoreSockets.put(dstorePort, new Socket(InetAddress.getLocalHost(), dstorePort)); }
-            catch (Exception exception) {System.err.println("Error: can't create socket for port.");}
-
-            // Rebalances the storage system as a new Dstore has joined.
-            //synchronized (this) {storageRebalanceOperation();};
+            // Trys connecting back to the Dstore off the event loop, the rest of the join then runs back on this connections event loop (so it can't pass the Dstore leaving).
+            InetSocketAddress address;
+            try { address = new InetSocketAddress(InetAddress.getLocalHost(), dstorePort); }
+            catch (IOException exception) { Log.error("Error: can't create socket for port."); return; }
+            reactor.connect(address, ConnectionHandler::new, timeoutMilliseconds).whenCompleteAsync((dstoreConnection, exception) -> {
+                if (exception != null) { Log.error("Error: (" + exception.getCause() + "), can't create socket for port " + dstorePort + "."); return; }
+                if (connection.isClosed()) { dstoreConnection.close(); return; }
+
+                // Adds it to the HashMap of Dstores ready to be updated when files are added, now that it can be messaged.
+                dstoreSockets.put(dstorePort, dstoreConnection);
+                dstores.addDstore(dstorePort);
+                placementStrategy.addDstore(dstorePort);
+
+                // Rebalances the storage system as a new Dstore has joined (on the rebalance thread so the event loop isn't held).
+                rebalanceScheduler.execute(Controller::storageRebalanceOperation);
+            }, connection::execute);
         }
 
         /**
@@ -669,25 +904,21 @@ public class Controller {
          * @param filename The name of the file the particular Dstore want's stored.
          */
         private void dstoreStoreAck(String filename) {
-            // Check if the file is supposed to be getting stored (if not, it exits, giving us an error message in the console).
-            try {
-                if (!indexes.get(filename).equals(Index.STORE_PROGRESS_TOKEN)) {
-                    System.err.println("Error: acknowledging storage of file which has the incorrect index (its '" + indexes.get(filename) + "').");
-                    return;
-                }
-            }
-
-            // Incase the file isn't in the system (causing an exception for the if statement).
-            catch (NullPointerException exception) {
-                System.err.println("Error: file " + filename + " is not even in the system so shouldn't be stored to.");
+            // Counts down the files latch to show are client operation that this Dstore has the file, only if the file is supposed to be getting stored (if not, it gives us an error message in the console).
+            // Only then is the file known to be stored at this Dstore, so it is added to the placement index logging such fact (before the latch so the client can load it straight away).
+            String currentIndex = metadata.acknowledge(filename, Index.STORE_PROGRESS_TOKEN, () -> dstores.addReplica(filename, dstorePort));
+            if (currentIndex != null) {
+                if (currentIndex.isEmpty()) { Log.error("Error: file " + filename + " is not even in the system so shouldn't be stored to."); }
+                else { Log.error("Error: acknowledging storage of file which has the incorrect index (its '" + currentIndex + "')."); }
                 return;
             }
 
-            // Counts down the latch to show are client thread that this Dstore has the file.
-            fileLatches.get(filename).countDown();
-
-            // As the file is now known to be stored at this Dstore it is added to the Controllers HashMap logging such fact.
-            dstores.get(dstorePort).add(filename);
+            // Records the bytes this Dstore stored and how long after the start of the store it acknowledged them.
+            MetadataStore.FileRecord record = metadata.get(filename);
+            if (record != null) {
+                DSTORE_STORED_BYTES.get(dstorePort).add(Long.parseLong(record.getSize()));
+                DSTORE_STORE_SECONDS.get(dstorePort).recordSince(record.getCreatedNanos());
+            }
         }
 
         /**
@@ -695,25 +926,15 @@ public class Controller {
          * @param filename The name of the file the particular Dstore want's removed.
          */
         private void dstoreRemoveAck(String filename) {
-            // Check if the file is supposed to be getting removed (if not, it exits, giving us an error message in the console).
-            try {
-                if (!indexes.get(filename).equals(Index.REMOVE_PROGRESS_TOKEN)) {
-                    System.err.println("Error: acknowledging removal of file which has the incorrect index (its '" + indexes.get(filename) + "').");
-                    return;
-                }
+            // As the file is now known to be removed at this Dstore it is removed from the placement index logging such fact.
+            dstores.removeReplica(filename, dstorePort);
+
+            // Counts down the files latch to show are client operation that this Dstore has removed the file, only if the file is supposed to be getting removed (if not, it gives us an error message in the console).
+            String currentIndex = metadata.acknowledge(filename, Index.REMOVE_PROGRESS_TOKEN, () -> { });
+            if (currentIndex != null) {
+                if (currentIndex.isEmpty()) { Log.error("Error: file " + filename + " is not even in the system so shouldn't be trying to remove it."); }
+                else { Log.error("Error: acknowledging removal of file which has the incorrect index (its '" + currentIndex + "')."); }
             }
-
-            // Incase the file isn't in the system (causing an exception for the if statement).
-            catch (NullPointerException exception) {
-                System.err.println("Error: file " + filename + " is not even in the system so shouldn't be trying to remove it.");
-                return;
-            }
-
-            // Counts down the latch to show are client thread that this Dstore has removed the file.
-            fileLatches.get(filename).countDown();
-
-            // As the file is now known to be removed at this Dstore it is removed from the Controllers HashMap logging such fact.
-            dstores.get(dstorePort).remove(filename);
         }
 
         /**
@@ -721,15 +942,33 @@ public class Controller {
          * @param arguments The initial message sent by the dstore which must have data extracted to give the controller its new files.
          */
         private void dstoreListAck(String[] arguments) {
-            // Counts down the latch to show the controller that a Dstore has returned a list of its files.
+            // Replaces the old value for files in the dstore with the new ones which where just retrieved, along with any parts streamed before (removing the token from the arguments as its not needed).
+            listedFiles.addAll(Arrays.asList(arguments).subList(1, arguments.length));
+            dstores.replaceFiles(dstorePort, listedFiles);
+            listedFiles = new ArrayList<>();
+
+            // Counts down the latch to show the controller that a Dstore has returned a list of its files (after the files are in place so the rebalance sees them).
             rebalanceList.countDown();
+        }
 
-            // Converts the arguments to an ArrayList removing the token from it as its not needed
-            ArrayList<String> files = new ArrayList<String>(Arrays.asList(arguments));
-            files.remove(0);
+        /**
+         * Function which handles part of a Dstores list of files, held until the final LIST arrives.
+         * @param arguments The part of the list (with the token first).
+         */
+        private void dstoreListPart(String[] arguments) {
+            listedFiles.addAll(Arrays.asList(arguments).subList(1, arguments.length));
+        }
 
-            // Replaces the old value for files in the dstore with the new ones which where just retrieved.
-            dstores.put(dstorePort, files);
+        /**
+         * Function which handles a heartbeat from a Dstore, recording when it arrived with the free space and requests in flight the Dstore reported.
+         * @param arguments The heartbeat (with the token first).
+         */
+        private void dstoreHeartbeat(String[] arguments) {
+            try {
+                failureDetector.heartbeat(dstorePort, Long.parseLong(arguments[1]));
+                replicaSelector.reportInFlight(dstorePort, Integer.parseInt(arguments[2]));
+            }
+            catch (RuntimeException exception) { Log.error("Error: malformed heartbeat [" + String.join(" ", arguments) + "] from dstore " + dstorePort + "."); }
         }
 
         /**
@@ -746,7 +985,7 @@ public class Controller {
          */
         private void dstoreFileNotExist(String filename) {
             //Lets the sysyem know the file was never there before acknowledging it like if the file needed to be removed.
-            System.err.println("Error: tried to remove file '" + filename + "' from Dstore with port '" + connectedSocket.getPort() +"' while file doesn't exists there.");
+            Log.error("Error: tried to remove file '" + filename + "' from Dstore with port '" + connection.getPort() +"' while file doesn't exists there.");
             dstoreRemoveAck(filename);
         }
     }
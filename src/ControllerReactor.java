@@ -0,0 +1,447 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Non-blocking networking for the controller, accepts sockets on one thread then spreads them over a small pool of selector event loops which decode newline framed messages.
+ * A connection which starts with a PROTOCOL line is switched to {@link BinaryProtocol} frames once the line is agreed to, every other connection stays on text lines.
+ */
+public class ControllerReactor {
+
+    /**
+     * The charset used for all messages (same as the {@link java.io.PrintWriter} used by clients and Dstores).
+     */
+    private final static Charset CHARSET = Charset.defaultCharset();
+
+    /**
+     * The longest a text line can get before its line ending arrives (the same as the largest binary frame), the connection is closed if a line gets any longer.
+     */
+    private final static int MAX_LINE_BYTES = BinaryProtocol.MAX_FRAME_BYTES;
+
+    /**
+     * The server channel which accepts new connections for the controller.
+     */
+    private final ServerSocketChannel serverChannel;
+
+    /**
+     * The event loops which handle all the accepted (and outgoing) connections.
+     */
+    private final EventLoop[] eventLoops;
+
+    /**
+     * Used to pick the next event loop a connection is given to (round robin).
+     */
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    /**
+     * Makes outgoing connections (and waits for them to agree to binary frames) off the event loops, as both block.
+     */
+    private final ExecutorService connector = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "controller-connect");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Binds the server channel and starts all of the event loops.
+     * @param port The port which the controller listens on.
+     * @param loopCount The number of event loops (and threads) which handle connections.
+     * @throws IOException Occours when the port can't be bound or a selector can't be opened.
+     */
+    public ControllerReactor(int port, int loopCount) throws IOException {
+        serverChannel = ServerSocketChannel.open().bind(new InetSocketAddress(port));
+        eventLoops = new EventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            eventLoops[i] = new EventLoop();
+            Thread thread = new Thread(eventLoops[i], "controller-loop-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Gets the port which the controller is listening on.
+     * @return The local port of the server channel.
+     */
+    public int getLocalPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Accepts connections until the server channel is closed, each is handed to an event loop with its own handler.
+     * @param handlerFactory Creates the handler for each new connection.
+     * @throws IOException Occours when the server channel fails.
+     */
+    public void acceptLoop(Function<Connection, Handler> handlerFactory) throws IOException {
+        while (serverChannel.isOpen()) {
+            // Trys accepting the new socket before giving it to the next event loop.
+            try {
+                SocketChannel channel = serverChannel.accept();
+                nextEventLoop().register(channel, handlerFactory, false);
+            }
+
+            // Catches any errors that occour with the IO of a single connection (the server channel itself failing ends the loop).
+            catch (IOException exception) {
+                if (!serverChannel.isOpen()) { throw exception; }
+                Log.error("Error: (" + exception + "), happend while accepting a connection.");
+            }
+        }
+    }
+
+    /**
+     * Opens an outgoing connection which is then handled by one of the event loops, asking the other side to use binary frames first.
+     * The connect and the wait for the other side happen on a connector thread, so the caller (usually an event loop) is never held.
+     * @param address The address which is being connected to.
+     * @param handlerFactory Creates the handler for the connection.
+     * @param timeoutMilliseconds How long to wait for the connection to be made, and then for the other side to agree to binary frames before staying on text lines.
+     * @return Completes with the new connection (messages can be sent on it straight away), or exceptionally when the connection can't be made.
+     */
+    public CompletableFuture<Connection> connect(InetSocketAddress address, Function<Connection, Handler> handlerFactory, int timeoutMilliseconds) {
+        return CompletableFuture.supplyAsync(() -> {
+            // Trys connecting and agreeing on binary frames before handing the channel to an event loop, closing it if either fails.
+            SocketChannel channel = null;
+            try {
+                channel = SocketChannel.open();
+                channel.socket().connect(address, timeoutMilliseconds);
+                boolean binary = negotiate(channel, timeoutMilliseconds);
+                return nextEventLoop().register(channel, handlerFactory, binary);
+            }
+            catch (IOException exception) {
+                if (channel != null) { try { channel.close(); } catch (IOException closeException) {} }
+                throw new CompletionException(exception);
+            }
+        }, connector);
+    }
+
+    /**
+     * Sends the PROTOCOL line on a new (still blocking) channel and waits for it to be sent back.
+     * @param channel The channel of the new connection.
+     * @param timeoutMilliseconds How long to wait for the reply.
+     * @return If the other side agreed to binary frames (an older peer never replies, so it times out and stays on text lines).
+     * @throws IOException Occours when the line can't be sent.
+     */
+    private static boolean negotiate(SocketChannel channel, int timeoutMilliseconds) throws IOException {
+        channel.write(ByteBuffer.wrap((BinaryProtocol.negotiationLine() + System.lineSeparator()).getBytes(CHARSET)));
+        Socket socket = channel.socket();
+        socket.setSoTimeout(timeoutMilliseconds);
+        try { return BinaryProtocol.negotiationLine().equals(FileTransfer.readLine(socket.getInputStream())); }
+        catch (SocketTimeoutException exception) { Log.error("Error: port '" + socket.getPort() + "' didn't agree to binary frames, staying on text lines."); return false; }
+        finally { socket.setSoTimeout(0); }
+    }
+
+    /**
+     * Closes the server channel, which stops the accept loop.
+     */
+    public void close() {
+        connector.shutdownNow();
+        try { serverChannel.close(); }
+        catch (IOException exception) { Log.error("Error: (" + exception + "), couldn't close port."); }
+    }
+
+    /**
+     * Gets the next event loop a connection should be handled by.
+     * @return The chosen event loop.
+     */
+    private EventLoop nextEventLoop() {
+        return eventLoops[Math.floorMod(nextLoop.getAndIncrement(), eventLoops.length)];
+    }
+
+    /**
+     * Handles the messages which arrive on a connection, called on the connections event loop so it must not block.
+     */
+    public interface Handler {
+
+        /**
+         * Called for each full message recieved on the connection (a text line split on spaces, or a decoded binary frame).
+         * @param messageArgs The token of the message followed by its arguments.
+         */
+        void onMessage(String[] messageArgs);
+
+        /**
+         * Called once the connection has closed (either side).
+         */
+        void onClose();
+    }
+
+    /**
+     * A single selector and the thread which runs it, reads and writes for all of its connections.
+     */
+    static class EventLoop implements Runnable {
+
+        /**
+         * The selector which watches all the connections of this loop.
+         */
+        private final Selector selector;
+
+        /**
+         * Tasks given to the loop by other threads (registrations and writes), ran before each select.
+         */
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Buffer which every read of this loop goes through (only ever used by the loop thread).
+         */
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(16 * 1024);
+
+        /**
+         * Opens the selector for the loop.
+         * @throws IOException Occours when the selector can't be opened.
+         */
+        EventLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        /**
+         * Runs a task on the loop thread, waking the selector so it isn't delayed.
+         * @param task The task which should be ran.
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Creates a connection for the channel and registers it with this loop.
+         * @param channel The channel of the connection.
+         * @param handlerFactory Creates the handler for the connection.
+         * @param binary If the connection has already agreed to binary frames.
+         * @return The new connection.
+         * @throws IOException Occours when the channel can't be made non-blocking.
+         */
+        Connection register(SocketChannel channel, Function<Connection, Handler> handlerFactory, boolean binary) throws IOException {
+            channel.configureBlocking(false);
+            Connection connection = new Connection(channel, this);
+            connection.binary = binary;
+            connection.handler = handlerFactory.apply(connection);
+            execute(() -> {
+                try { connection.key = channel.register(selector, SelectionKey.OP_READ, connection); connection.flush(); }
+                catch (IOException exception) { connection.close(); }
+            });
+            return connection;
+        }
+
+        /**
+         * Main loop, runs queued tasks then handles all the connections which are ready.
+         */
+        public void run() {
+            while (true) {
+                try {
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) { task.run(); }
+
+                    selector.select();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        if (!key.isValid()) { continue; }
+                        if (key.isWritable()) { connection.flush(); }
+                        if (key.isValid() && key.isReadable()) { connection.read(readBuffer); }
+                    }
+                }
+
+                // A failure of one task or connection shouldn't stop every other connection on the loop.
+                catch (Exception exception) {
+                    Log.error("Error: (" + exception + "), happend on an event loop.", exception);
+                }
+            }
+        }
+    }
+
+    /**
+     * A single connection to the controller, buffers partial lines on read and queued messages on write.
+     */
+    public static class Connection {
+
+        /**
+         * The channel of the connection.
+         */
+        private final SocketChannel channel;
+
+        /**
+         * The event loop which the connection belongs to.
+         */
+        private final EventLoop eventLoop;
+
+        /**
+         * The handler for all the messages recieved on this connection.
+         */
+        private Handler handler;
+
+        /**
+         * The key for the channel in the selector (set once registered).
+         */
+        private SelectionKey key;
+
+        /**
+         * Holds the start of a line until its line ending arrives.
+         */
+        private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+
+        /**
+         * If the connection has switched to binary frames (both ways).
+         */
+        private volatile boolean binary = false;
+
+        /**
+         * Decodes the binary frames recieved once the connection has switched to them.
+         */
+        private final BinaryProtocol.Decoder decoder = new BinaryProtocol.Decoder();
+
+        /**
+         * Messages waiting to be written to the channel.
+         */
+        private final Queue<ByteBuffer> pendingWrites = new ConcurrentLinkedQueue<>();
+
+        /**
+         * The ports of the connection, kept so they can be logged after it closes.
+         */
+        private final int port, localPort;
+
+        /**
+         * Lets other threads know if the connection has closed.
+         */
+        private volatile boolean closed = false;
+
+        /**
+         * Creates the connection for a given channel.
+         * @param channel The channel of the connection.
+         * @param eventLoop The event loop which the connection belongs to.
+         */
+        Connection(SocketChannel channel, EventLoop eventLoop) {
+            this.channel = channel;
+            this.eventLoop = eventLoop;
+            port = channel.socket().getPort();
+            localPort = channel.socket().getLocalPort();
+        }
+
+        /**
+         * Gets the remote port of the connection.
+         * @return The remote port.
+         */
+        public int getPort() {
+            return port;
+        }
+
+        /**
+         * Gets the local port of the connection.
+         * @return The local port.
+         */
+        public int getLocalPort() {
+            return localPort;
+        }
+
+        /**
+         * Checks if the connection has closed.
+         * @return If the connection has closed.
+         */
+        public boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * Runs a task on the connections event loop, so it is ordered with the handling of the connections messages (and its close).
+         * @param task The task which should be ran.
+         */
+        public void execute(Runnable task) {
+            eventLoop.execute(task);
+        }
+
+        /**
+         * Queues a message to be sent on the connection (as a binary frame or a text line depending on the connection), can be called from any thread.
+         * @param messageArgs The token of the message followed by its arguments.
+         * @throws IOException Occours when the connection has already closed.
+         */
+        public void send(String[] messageArgs) throws IOException {
+            if (closed) { throw new ClosedChannelException(); }
+            pendingWrites.add(binary ? BinaryProtocol.encode(messageArgs) : ByteBuffer.wrap((String.join(" ", messageArgs) + System.lineSeparator()).getBytes(CHARSET)));
+            eventLoop.execute(this::flush);
+        }
+
+        /**
+         * Writes as many of the queued messages as the channel will take, asks for write events if any are left.
+         */
+        private void flush() {
+            if (key == null || !key.isValid()) { return; }
+            try {
+                ByteBuffer buffer;
+                while ((buffer = pendingWrites.peek()) != null) {
+                    channel.write(buffer);
+                    if (buffer.hasRemaining()) { break; }
+                    pendingWrites.poll();
+                }
+                key.interestOps(pendingWrites.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+            catch (IOException exception) { close(); }
+        }
+
+        /**
+         * Reads what is avalible on the channel and passes every full message to the handler.
+         * @param readBuffer The buffer of the event loop used for reading.
+         */
+        private void read(ByteBuffer readBuffer) {
+            try {
+                readBuffer.clear();
+                int bytesRead = channel.read(readBuffer);
+                if (bytesRead == -1) { close(); return; }
+                readBuffer.flip();
+                if (binary) { decoder.feed(readBuffer, handler::onMessage); return; }
+
+                // Splits the data on line endings, keeping the end which hasn't finished yet.
+                byte[] data = readBuffer.array();
+                int lineStart = 0;
+                for (int i = 0; i < bytesRead; i++) {
+                    if (data[i] != '\n') { continue; }
+                    partialLine.write(data, lineStart, i - lineStart);
+                    lineStart = i + 1;
+
+                    String line = partialLine.toString(CHARSET);
+                    partialLine.reset();
+                    if (line.endsWith("\r")) { line = line.substring(0, line.length() - 1); }
+
+                    // Agrees to binary frames by sending the PROTOCOL line back, everything after it (including the rest of this read) is then frames.
+                    if (line.equals(BinaryProtocol.negotiationLine())) {
+                        pendingWrites.add(ByteBuffer.wrap((line + System.lineSeparator()).getBytes(CHARSET)));
+                        binary = true;
+                        flush();
+                        decoder.feed(readBuffer.position(lineStart), handler::onMessage);
+                        return;
+                    }
+                    handler.onMessage(line.split(" "));
+                }
+                partialLine.write(data, lineStart, bytesRead - lineStart);
+
+                // Closes a connection whose line never ends rather than holding on to it forever.
+                if (partialLine.size() > MAX_LINE_BYTES) { Log.error("Error: port '" + port + "' sent over " + MAX_LINE_BYTES + " bytes without a line ending, closing its connection."); close(); }
+            }
+            catch (IOException exception) { close(); }
+        }
+
+        /**
+         * Closes the connection and lets its handler know (only happens once).
+         */
+        public void close() {
+            if (closed) { return; }
+            closed = true;
+            if (key != null) { key.cancel(); }
+            try { channel.close(); }
+            catch (IOException exception) { Log.error("Error: (" + exception + "), couldn't close connection."); }
+            handler.onClose();
+        }
+    }
+}
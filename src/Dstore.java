@@ -1,12 +1,15 @@
 import java.io.*;
 import java.lang.reflect.Array;import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Arrays;import java.util.HashMap;import java.util.List;
-import java.util.concurrent.CountDownLatch;import java.util.concurrent.TimeUnit;import java.util.stream.Collectors;
+import java.util.Arrays;import java.util.Collection;import java.util.HashMap;import java.util.Set;import java.util.concurrent.ConcurrentHashMap;import java.util.LinkedHashMap;import java.util.List;
+import java.util.concurrent.CompletableFuture;import java.util.concurrent.ExecutorService;import java.util.concurrent.Executors;import java.util.stream.Collectors;
+import java.util.concurrent.ScheduledExecutorService;import java.util.concurrent.TimeUnit;import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
-import java.util.ArrayList;import static java.util.stream.Collectors.toCollection;
+import java.util.ArrayList;import java.util.Iterator;import static java.util.stream.Collectors.toCollection;
 
 /**
  * Used for storing data in the distributed system, works with the main controller to make sure files are balanced around the given replication factor.
@@ -34,9 +37,124 @@ public class Dstore {
     private static String fileFolder;
 
     /**
-     * Stores all the latches used in rebalance operations when waiting for an ack from another Dstore.
+     * The command line value which turns on virtual threads for handling connections.
      */
-    private static CountDownLatch rebalanceLatch;
+    private final static String VIRTUAL_THREAD_MODE = "virtual";
+
+    /**
+     * Runs each connection on its own virtual thread when in virtual thread mode (null when each connection gets a platform thread).
+     */
+    private static ExecutorService connectionExecutor;
+
+    /**
+     * The most rebalance transfers which can run at once in total, set with -Ddstore.rebalance.transfers (defaults to 8).
+     */
+    private final static int REBALANCE_TRANSFER_LIMIT = Integer.getInteger("dstore.rebalance.transfers", 8);
+
+    /**
+     * The most rebalance transfers which can run to a single other Dstore at once, set with -Ddstore.rebalance.peerTransfers (defaults to 4).
+     * Also the most idle connections kept open to each other Dstore.
+     */
+    private final static int REBALANCE_PEER_TRANSFER_LIMIT = Integer.getInteger("dstore.rebalance.peerTransfers", 4);
+
+    /**
+     * Runs the transfers of a rebalance in parallel within the limits.
+     */
+    private static TransferScheduler transferScheduler;
+
+    /**
+     * The connections to other Dstores which are reused between rebalance transfers.
+     */
+    private static PeerConnectionPool peerPool;
+
+    /**
+     * The storage engine which should be used, set with -Ddstore.storage ("file" for whole files, the default, or "chunked" for deduplicated chunks).
+     * Every Dstore in the system should use the same engine as rebalance transfers depend on it.
+     */
+    private final static String STORAGE_ENGINE = System.getProperty("dstore.storage", "file");
+
+    /**
+     * The size from which files are sent from a shared memory mapping, set with -Ddstore.mmap.threshold (defaults to 0, which never maps files).
+     * Only used by the whole file engine as chunks are small.
+     */
+    private final static long MMAP_THRESHOLD_BYTES = Long.getLong("dstore.mmap.threshold", 0L);
+
+    /**
+     * The most bytes of files kept in the read cache, set with -Ddstore.cache.bytes (defaults to 64MB, 0 turns the cache off).
+     */
+    private final static long READ_CACHE_BYTES = Long.getLong("dstore.cache.bytes", 64L * 1024 * 1024);
+
+    /**
+     * The largest file kept in the read cache, set with -Ddstore.cache.maxFile (defaults to 4MB).
+     */
+    private final static long READ_CACHE_MAX_FILE_BYTES = Long.getLong("dstore.cache.maxFile", 4L * 1024 * 1024);
+
+    /**
+     * If a restarted Dstore keeps the files its manifest lists (rejoining with them), else its folder is cleared on every start.
+     */
+    private final static boolean KEEP_FILES = Boolean.parseBoolean(System.getProperty("dstore.keepFiles", "true"));
+
+    /**
+     * The time between the heartbeats sent to the controller (0 to send none).
+     */
+    private final static long HEARTBEAT_MILLISECONDS = Long.getLong("dstore.heartbeat.ms", 100L);
+
+    /**
+     * The number of requests (from clients, the controller and other Dstores) being handled right now, sent in each heartbeat.
+     */
+    private final static AtomicInteger inFlightRequests = new AtomicInteger();
+
+    /**
+     * The port the metrics are served on over HTTP, they aren't served when this isn't set (each Dstore on a machine needs its own).
+     */
+    private final static Integer METRICS_PORT = Integer.getInteger("dstore.metrics.port");
+
+    /**
+     * The time each successful operation takes at the Dstore, from its message arriving to the Dstore finishing with it (a STORE includes receiving the file and a LOAD sending it).
+     */
+    private final static Metrics.Histogram STORE_SECONDS = Metrics.histogram("dfs_dstore_operation_seconds", "Time the dstore took to handle a request.", "op", "STORE");
+    private final static Metrics.Histogram LOAD_SECONDS = Metrics.histogram("dfs_dstore_operation_seconds", "Time the dstore took to handle a request.", "op", "LOAD");
+    private final static Metrics.Histogram REMOVE_SECONDS = Metrics.histogram("dfs_dstore_operation_seconds", "Time the dstore took to handle a request.", "op", "REMOVE");
+    private final static Metrics.Histogram LIST_SECONDS = Metrics.histogram("dfs_dstore_operation_seconds", "Time the dstore took to handle a request.", "op", "LIST");
+    private final static Metrics.Histogram REBALANCE_SECONDS = Metrics.histogram("dfs_dstore_operation_seconds", "Time the dstore took to handle a request.", "op", "REBALANCE");
+
+    /**
+     * The number of operations which failed at the Dstore.
+     */
+    private final static Metrics.Counter STORE_FAILURES = Metrics.counter("dfs_dstore_operation_failures_total", "Requests the dstore couldn't handle.", "op", "STORE");
+    private final static Metrics.Counter LOAD_FAILURES = Metrics.counter("dfs_dstore_operation_failures_total", "Requests the dstore couldn't handle.", "op", "LOAD");
+    private final static Metrics.Counter REMOVE_FAILURES = Metrics.counter("dfs_dstore_operation_failures_total", "Requests the dstore couldn't handle.", "op", "REMOVE");
+    private final static Metrics.Counter LIST_FAILURES = Metrics.counter("dfs_dstore_operation_failures_total", "Requests the dstore couldn't handle.", "op", "LIST");
+    private final static Metrics.Counter REBALANCE_FAILURES = Metrics.counter("dfs_dstore_operation_failures_total", "Requests the dstore couldn't handle.", "op", "REBALANCE");
+
+    /**
+     * The bytes clients have stored at and loaded from the Dstore, and the bytes of whole files other Dstores have sent it during rebalances.
+     */
+    private final static Metrics.Counter STORED_BYTES = Metrics.counter("dfs_dstore_stored_bytes_total", "Bytes clients stored at the dstore.");
+    private final static Metrics.Counter LOADED_BYTES = Metrics.counter("dfs_dstore_loaded_bytes_total", "Bytes clients loaded from the dstore.");
+    private final static Metrics.Counter REBALANCE_RECEIVED_BYTES = Metrics.counter("dfs_dstore_rebalance_received_bytes_total", "Bytes of whole files other dstores sent during rebalances.");
+
+    /**
+     * The bytes of the files sent to each other Dstore during rebalances (with chunked storage only the missing chunks of them go over the wire), with the time each batch took and the batches which failed.
+     */
+    private final static Metrics.Family<Metrics.Counter> PEER_SENT_BYTES = Metrics.counterFamily("dfs_dstore_peer_sent_bytes_total", "Bytes of the files sent to each dstore during rebalances.", "peer");
+    private final static Metrics.Family<Metrics.Histogram> PEER_SEND_SECONDS = Metrics.histogramFamily("dfs_dstore_peer_send_seconds", "Time to send a rebalance batch to each dstore and have it acknowledged.", "peer");
+    private final static Metrics.Family<Metrics.Counter> PEER_SEND_FAILURES = Metrics.counterFamily("dfs_dstore_peer_send_failures_total", "Rebalance batches each dstore didn't acknowledge.", "peer");
+
+    /**
+     * The number of files sent to the controller in each LIST_PART when listing the Dstore.
+     */
+    private final static int LIST_PART_FILES = 1000;
+
+    /**
+     * How the Dstore keeps its files on disk (with the read cache in front of it when the cache is on).
+     */
+    private static StorageEngine storage;
+
+    /**
+     * The sockets which have switched to binary frames, every message sent on them is then a frame instead of a line.
+     */
+    private final static Set<Socket> binarySockets = ConcurrentHashMap.newKeySet();
 
     /**
      * Main setup of the Dstore, setups up its main values then stats the programs main loop.
@@ -53,51 +171,133 @@ public class Dstore {
             controllerPort = Integer.parseInt(args[1]);
             timeoutMilliseconds = Integer.parseInt(args[2]);
             fileFolder = args[3];
+            peerPool = new PeerConnectionPool(REBALANCE_PEER_TRANSFER_LIMIT, timeoutMilliseconds);
+            transferScheduler = new TransferScheduler(REBALANCE_TRANSFER_LIMIT, REBALANCE_PEER_TRANSFER_LIMIT);
+            if (args.length > 4 && args[4].equals(VIRTUAL_THREAD_MODE)) { connectionExecutor = newVirtualThreadExecutor(); }
         }
 
         // Returns when incorrect arguements are inputted on the command line.
         catch (Exception exception) {
-            System.err.println("Error: (" + exception + "), arguments are either of wrong type or not inputted at all.");
+            Log.error("Error: (" + exception + "), arguments are either of wrong type or not inputted at all.");
             return;
         }
 
-        // If succesful in generating the values for the Dstore then all its old data is removed (if the folder exists).
+        // If succesful in generating the values for the Dstore then its old data is kept when its engine left a manifest of it, else it is all removed (if the folder exists).
         File folder = new File(fileFolder);
+        boolean chunked = STORAGE_ENGINE.equals("chunked");
+        boolean keepFiles = KEEP_FILES && new File(folder, chunked ? ChunkStorage.MANIFEST_FOLDER : FileManifest.MANIFEST_FILE).exists();
         if (!folder.exists()) { folder.mkdirs(); } //MAYBE CHECK FOR IF WE CAN'T MAKE PATH???
-        else { clearFileFolder(folder); }
+        else if (!keepFiles) { clearFileFolder(folder); }
+
+        // Creates the storage engine for the folder, starting again from an empty folder if what was kept can't be read.
+        try {
+            try { storage = newStorageEngine(chunked); }
+            catch (IOException exception) {
+                if (!keepFiles) { throw exception; }
+                Log.error("Error: (" + exception + "), unable to read the kept files, clearing the folder instead.");
+                clearFileFolder(folder);
+                storage = newStorageEngine(chunked);
+            }
+            if (keepFiles) { try (Stream<String> files = storage.list()) { Log.info("Kept " + files.count() + " files from before the restart."); } }
+            if (READ_CACHE_BYTES > 0) { storage = new CachingStorage(storage, READ_CACHE_BYTES, READ_CACHE_MAX_FILE_BYTES); }
+        }
+        catch (IOException exception) {
+            Log.error("Error: (" + exception + "), unable to setup storage.");
+            return;
+        }
+
+        // Trys serving the metrics (if a port has been given), the Dstore carries on without them if the port can't be bound.
+        if (METRICS_PORT != null) {
+            Metrics.gauge("dfs_dstore_requests_in_flight", "Requests being handled right now.", () -> inFlightRequests.get());
+            if (storage instanceof CachingStorage caching) {
+                ReadCache cache = caching.getCache();
+                Metrics.counter("dfs_dstore_cache_hits_total", "Loads served from the read cache.", cache::getHits);
+                Metrics.counter("dfs_dstore_cache_misses_total", "Loads which missed the read cache.", cache::getMisses);
+                Metrics.counter("dfs_dstore_cache_evictions_total", "Files evicted from the read cache.", cache::getEvictions);
+                Metrics.gauge("dfs_dstore_cache_bytes", "Bytes held in the read cache.", cache::getCachedBytes);
+            }
+            try { Metrics.serve(METRICS_PORT); }
+            catch (IOException exception) { Log.error("Error: (" + exception + "), unable to serve metrics on port " + METRICS_PORT + "."); }
+        }
+
+        // Trys binding the server socket to the port before joining, as the controller connects back to it as soon as the join arrives (opened as a channel so accepted sockets can use zero-copy transfers).
+        try { dstoreSocket = ServerSocketChannel.open().bind(new InetSocketAddress(dstorePort)).socket(); }
+        catch (IOException exception) {
+            Log.error("Error: (" + exception + "), unable to bind the port.");
+            return;
+        }
 
         // Creates the socket for the controller then connects the Dstore to the controller via said socket.
         try {
             controllerSocket = new Socket(InetAddress.getLoopbackAddress(), controllerPort);
-            sendMessage("JOIN", String.valueOf(dstorePort), controllerSocket);
+            negotiateBinary(controllerSocket);
+            sendMessage("JOIN", List.of(dstorePort), controllerSocket);
+            startHeartbeats();
         }
 
         // Catches any issue that could occour when connecting to the controller. (MAYBE PUT ME INSIDE OF LOOP TRY CATCH TO CLOSE SOCKET AT END).
         catch (IOException exception) {
-            System.err.println("Error: (" + exception + "), unable to join controller.");
+            Log.error("Error: (" + exception + "), unable to join controller.");
+            try { dstoreSocket.close(); } catch (IOException closeException) { Log.error("Error: (" + closeException + "), couldn't close port."); }
             return;
         }
 
-        // Trys binding the server socket to the port before starting the dstoress main loop.
+        // Runs the dstores main loop until the server socket fails.
         try {
-            dstoreSocket = new ServerSocket(dstorePort);
             while(true) { socketLoop(); }
         }
 
-        // Returns an error if a problem happens trying to bind the port before the loop.
-        catch (IOException exception) {
-            System.err.println("Error: (" + exception + "), unable to bind the port.");
+        // Returns an error if a problem stops the main loop.
+        catch (Exception exception) {
+            Log.error("Error: (" + exception + "), main loop stopped.");
         }
 
         // Clean up code which runs after the final try catch to close the port.
         finally{
             if (!dstoreSocket.isClosed()) {
                 try {dstoreSocket.close();}
-                catch(IOException exception) {System.err.println("Error: (" + exception + "), couldn't close port.");}
+                catch(IOException exception) {Log.error("Error: (" + exception + "), couldn't close port.");}
             }
         }
     }
 
+    /**
+     * Creates the storage engine for the file folder.
+     * @param chunked If the files are stored as chunks, else each is stored whole.
+     * @return The engine.
+     * @throws IOException Occours when the engine can't be setup in the folder.
+     */
+    private static StorageEngine newStorageEngine(boolean chunked) throws IOException {
+        return chunked ? new ChunkStorage(fileFolder) : new FileStorage(fileFolder, MMAP_THRESHOLD_BYTES);
+    }
+
+    /**
+     * Starts sending the controller a heartbeat with the Dstores free space and requests in flight, on its own thread so a busy or stuck request never delays one.
+     */
+    private static void startHeartbeats() {
+        if (HEARTBEAT_MILLISECONDS <= 0) { return; }
+        File folder = new File(fileFolder);
+        ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(task -> { Thread thread = new Thread(task, "heartbeat"); thread.setDaemon(true); return thread; });
+        heartbeats.scheduleAtFixedRate(() -> {
+            // Try's sending the heartbeat, stopping them once the controller has gone (the main loop carries on as before).
+            try { sendMessage(Protocol.HEARTBEAT_TOKEN, List.of(folder.getUsableSpace(), inFlightRequests.get()), controllerSocket); }
+            catch (IOException exception) { Log.error("Error: (" + exception + "), unable to send heartbeat, stopping them."); heartbeats.shutdown(); }
+        }, 0, HEARTBEAT_MILLISECONDS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates an executor which starts a new virtual thread for each connection.
+     * Looked up at runtime so the Dstore still runs on Java versions without virtual threads (where it keeps using platform threads).
+     * @return The executor, or null if virtual threads aren't supported.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try { return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null); }
+        catch (ReflectiveOperationException exception) {
+            Log.error("Error: virtual threads need Java 21 or newer, using a platform thread per connection instead.");
+            return null;
+        }
+    }
+
     /**
      * Clears the file folder removing all of its current contents.
      * @param folder The folder the contents we want to remove are in.
@@ -118,35 +318,48 @@ public class Dstore {
     /**
      * Function which is used to send a particular message to a given socket.
      * @param protocol The type of message which is being sent.
-     * @param parameters The values which are contained in the message.
+     * @param parameters The arguments which are contained in the message, one per item (null when it has none).
      * @param socket The socket we are trying to send said message on.
-     * @throws IOException Occours when an error occours with the {@link PrintWriter}.
+     * @throws IOException Occours when an error occours writing to the socket.
      */
-    private static void sendMessage(String protocol, Object parameters, Socket socket) throws IOException {
-        // Creates a new print writer for the given socket which auto flushes its inputs.
-        PrintWriter socketOut = new PrintWriter(socket.getOutputStream(), true);
-
-        // Creates the standard output, if its parameter is not null then its modified.
-        String output = protocol;
-        if (parameters != null) {output = protocol + " " + parameters;}
+    private static void sendMessage(String protocol, Collection<?> parameters, Socket socket) throws IOException {
+        // Creates the standard output, if its parameters are not null then each one is added after the protocol as its own argument (so a filename is never broken up in a frame).
+        ArrayList<String> output = new ArrayList<>();
+        output.add(protocol);
+        if (parameters != null) { parameters.forEach(item -> output.add(String.valueOf(item))); }
+
+        // Sends the whole line (or frame) in a single write, the socket's own write lock then stops messages from threads sharing the controller socket mixing (without a synchronized writer pinning virtual threads).
+        if (binarySockets.contains(socket)) { socket.getOutputStream().write(BinaryProtocol.encode(output.toArray(new String[0])).array()); }
+        else { socket.getOutputStream().write((String.join(" ", output) + System.lineSeparator()).getBytes()); }
+    }
 
-        // Sends the message then terminates the line before automatically flushing it so it gets to its destination.
-        socketOut.println(output);
+    /**
+     * Asks the other side of a new socket to switch to binary frames, staying on text lines if it doesn't agree in time (e.g. an older controller).
+     * @param socket The socket which was just connected.
+     * @throws IOException Occours when the PROTOCOL line can't be sent.
+     */
+    private static void negotiateBinary(Socket socket) throws IOException {
+        socket.getOutputStream().write((BinaryProtocol.negotiationLine() + System.lineSeparator()).getBytes());
+        socket.setSoTimeout(timeoutMilliseconds);
+        try { if (BinaryProtocol.negotiationLine().equals(FileTransfer.readLine(socket.getInputStream()))) { binarySockets.add(socket); } }
+        catch (SocketTimeoutException exception) { Log.error("Error: controller didn't agree to binary frames, staying on text lines."); }
+        finally { socket.setSoTimeout(0); }
     }
 
     /**
-     * Main loop for the dstore, trys to connect new sockets to the system then starts there own thread.
+     * Main loop for the dstore, trys to connect new sockets to the system then starts there own thread (virtual when in virtual thread mode).
      */
     private static void socketLoop() {
         // Trys accepting the new socket before running its own thread.
         try {
             Socket newConnection = dstoreSocket.accept();
-            new Thread(new DstoreThread(newConnection)).start();
+            if (connectionExecutor != null) { connectionExecutor.execute(new DstoreThread(newConnection)); }
+            else { new Thread(new DstoreThread(newConnection)).start(); }
         }
 
         // Catches any errors that occour with the IO during the connection.
         catch (IOException exception){
-            System.err.println("Error: (" + exception + "), happend on the current thread with its IO.");
+            Log.error("Error: (" + exception + "), happend on the current thread with its IO.");
         }
     }
 
@@ -160,51 +373,92 @@ public class Dstore {
          */
         private Socket connectedSocket;
 
+        /**
+         * Buffered input for the socket, lines are read from it a byte at a time so file data sent after a line is left in it.
+         */
+        private FileTransfer.SocketInput connectedInput;
+
+        /**
+         * Decodes the messages once the socket has switched to binary frames (null while it is on text lines).
+         */
+        private BinaryProtocol.Decoder decoder = null;
+
+        /**
+         * Put before each line logged about the socket, built once so logging a message doesn't build it again.
+         */
+        private final String logPrefix;
+
         /**
          * Used when initilising the thread, sets the socket before the threads main loop starts in run.
          * @param inputtedSocket The socket which the thread is connected to.
          */
         DstoreThread(Socket inputtedSocket) {
             connectedSocket = inputtedSocket;
+            logPrefix = dstoreSocket.getLocalPort() + " " + connectedSocket.getLocalPort() + ") ";
         }
 
         /**
          * Main loop which is ran until the connection to the port is lost or the dstore fails.
          */
         public void run(){
-            // Trys to create a reader for the input stream and then parse the messages its recieves from the socket.
+            // Trys to create a buffered input for the socket and then parse the messages its recieves from it.
             try {
-                BufferedReader reader = new BufferedReader(new InputStreamReader(connectedSocket.getInputStream()));
-                String currentMessage;
-                while((currentMessage = reader.readLine()) != null){ messageParser(currentMessage); }
+                connectedInput = new FileTransfer.SocketInput(connectedSocket);
+                String[] currentMessage;
+                while((currentMessage = nextMessage()) != null){
+                    inFlightRequests.incrementAndGet();
+                    try { messageParser(currentMessage); }
+                    finally { inFlightRequests.decrementAndGet(); }
+                }
                 connectedSocket.close();
             }
             // If the program encounters an excpetion an error is flagged.
-            catch(Exception e) { System.err.println("Error: -----" + e); }
-            System.out.println(dstoreSocket.getLocalPort() + " PARSE DONE");
+            catch(Exception e) { Log.error("Error: -----" + e); }
+            finally { binarySockets.remove(connectedSocket); }
+            Log.debug(logPrefix, "PARSE DONE");
+        }
+
+        /**
+         * Reads the next message from the socket, switching to binary frames if the other side asks for them with a PROTOCOL line.
+         * @return The message split into its arguments, or null once the socket has closed.
+         * @throws IOException Occours when the socket fails or a frame is malformed.
+         */
+        private String[] nextMessage() throws IOException {
+            if (decoder != null) { return decoder.read(connectedInput); }
+            String line = FileTransfer.readLine(connectedInput);
+            if (line == null) { return null; }
+
+            // Agrees to binary frames by sending the PROTOCOL line back, every message after it is then a frame (both ways).
+            if (line.equals(BinaryProtocol.negotiationLine())) {
+                connectedSocket.getOutputStream().write((line + System.lineSeparator()).getBytes());
+                binarySockets.add(connectedSocket);
+                decoder = new BinaryProtocol.Decoder();
+                return decoder.read(connectedInput);
+            }
+            return line.split(" ");
         }
 
         /**
          * Function which is used to parse the messages sent by a Client or the Controller.
-         * @param message The message which is being sent by the Client or Controller.
+         * @param messageArgs The message which is being sent by the Client or Controller, split into its arguments.
          */
-        private void messageParser(String message) {
-            // Splits the inputted message into an array.
-            String messageArgs[] = message.split(" ");
-            System.out.println(dstoreSocket.getLocalPort() + " " + connectedSocket.getLocalPort() + ") " + String.join(" ", messageArgs));
+        private void messageParser(String[] messageArgs) {
+            Log.debug(logPrefix, messageArgs);
 
             // Uses switch to check which message the port sent and run the required function.
             switch(messageArgs[0]) {
                 case Protocol.STORE_TOKEN -> clientStore(messageArgs[1], messageArgs[2]);                    // When the client wants to store a file at the particular Dstore.
-                case Protocol.LOAD_DATA_TOKEN -> clientLoadData(messageArgs[1]);                             // When the client wants particular data from the Dstore.
+                case Protocol.STORE_CHAIN_TOKEN -> clientStoreChain(messageArgs);                            // When the client (or the Dstore before it in a chain) wants to store a file here and down the rest of the chain.
+                case Protocol.LOAD_DATA_TOKEN -> clientLoadData(messageArgs);                                // When the client wants particular data (or a range of it) from the Dstore.
                 case Protocol.REMOVE_TOKEN -> clientRemove(messageArgs[1]);                                  // When the controller wants the Dstore to remove a particular file.
                 case Protocol.LIST_TOKEN -> controllerList();                                                // When the controller wants to get all the files stored in the current Dstore.
                 case Protocol.REBALANCE_TOKEN -> controllerRebalance(messageArgs);                           // When the Dstore is to be changed by sending file to other Dstores and removing its own files.
                 case Protocol.REBALANCE_STORE_TOKEN -> dstoreRebalanceStore(messageArgs[1], messageArgs[2]); // When another Dstore is sending a file to the current Dstore.
-                case Protocol.ACK_TOKEN -> dstoreRebalanceAck();                                             // When another Dstore has acknowledged its connection with us.
-                default -> System.err.println("Error: malformed message [" + String.join(" ", messageArgs) + "] recieved from [Port:" + connectedSocket.getPort() + "]."); // Malformed message is recieved.
+                case Protocol.REBALANCE_STORE_BATCH_TOKEN -> dstoreRebalanceStoreBatch(messageArgs[1]);      // When another Dstore is sending many files to the current Dstore on a pooled connection.
+                case Protocol.REBALANCE_CHUNK_BATCH_TOKEN -> dstoreRebalanceChunkBatch(messageArgs[1]);      // When another Dstore is sending many files as chunks, asking for only the chunks the current Dstore is missing.
+                default -> Log.error("Error: malformed message [" + String.join(" ", messageArgs) + "] recieved from [Port:" + connectedSocket.getPort() + "]."); // Malformed message is recieved.
             }
-            System.out.println(dstoreSocket.getLocalPort() + " IS DONE");
+            Log.debug(logPrefix, "IS DONE");
         }
 
         /**
@@ -213,84 +467,148 @@ public class Dstore {
          * @param filesize The size of the file the client wants to store.
          */
         private void clientStore(String filename, String filesize) {
+            long started = System.nanoTime();
+
+            // Refuses a file named like the Dstores own files before the client is told to send it.
+            if (StorageEngine.isReserved(filename)) { refuseReserved(filename); return; }
+
             // Try's sending an acknowledgement message to the client, if not possible it ends the operation.
             try{ sendMessage(Protocol.ACK_TOKEN, null, connectedSocket); }
-            catch (IOException exception) { System.err.println("Error: unable to tell client it got the message"); return; }
+            catch (IOException exception) { Log.error("Error: unable to tell client it got the message"); return; }
 
             // Try's to setup a timeout for reading information from the clients stream.
             try { connectedSocket.setSoTimeout(timeoutMilliseconds); }
-            catch (SocketException exception) { System.err.println("Error: unable to setup timeout for client"); return; }
+            catch (SocketException exception) { Log.error("Error: unable to setup timeout for client"); return; }
 
             // Used for getting the file from the client and storing it in the system before letting the controller know that it worked.
             try {
-                // Gets the input and output for the file.
-                InputStream reader = connectedSocket.getInputStream();
-                OutputStream fileWriter = new BufferedOutputStream(new FileOutputStream(fileFolder + File.separator + filename));
-
-                // Transfers the file from the input stream to the file.
-                byte[] buf = new byte[2048]; // Does this need to be file size??
-                int bytesRead;
-                while((bytesRead = reader.read(buf)) != -1) {
-                    fileWriter.write(buf, 0, bytesRead);
-                }
-
-                //Closes the internal connections before values removed by garbage collection.
-                reader.close();
-                fileWriter.close();
+                // Transfers the file from the clients socket straight into storage.
+                Path incoming = storage.incoming(filename);
+                FileTransfer.receive(connectedSocket, incoming, Long.parseLong(filesize), timeoutMilliseconds);
+                storage.commit(filename, incoming);
+                STORED_BYTES.add(Long.parseLong(filesize));
+                STORE_SECONDS.recordSince(started);
 
                 // Try's sending acknowledgement message to controller that we stored a file, if not possible it ends the operation.
-                try{ sendMessage(Protocol.STORE_ACK_TOKEN, filename, controllerSocket); }
-                catch (IOException exception) { System.err.println("Error: unable to tell controller that we stored the file"); }
+                try{ sendMessage(Protocol.STORE_ACK_TOKEN, List.of(filename), controllerSocket); }
+                catch (IOException exception) { Log.error("Error: unable to tell controller that we stored the file"); }
             }
 
             //Lets the user know if the Dstore can't save the file.
-            catch (IOException exception) {
-                System.err.println("Error: unable to load and or save file (exception: " + exception + ").");
+            catch (IOException | NumberFormatException exception) {
+                STORE_FAILURES.increment();
+                Log.error("Error: unable to load and or save file (exception: " + exception + ").");
             }
 
             // Try's to reset timeout for reading information from the clients stream as its no longer needed.
             finally{
                 try { connectedSocket.setSoTimeout(0); }
-                catch (SocketException exception) { System.err.println("Error: unable to remove timeout for client"); }
+                catch (SocketException exception) { Log.error("Error: unable to remove timeout for client"); }
+            }
+        }
+
+        /**
+         * Function which handles storage of a new file by chain replication, the file is stored here while being forwarded to the next Dstore in the chain as it arrives.
+         * @param message The message holding the filename, filesize and the ports of the rest of the chain in order.
+         */
+        private void clientStoreChain(String[] message) {
+            long started = System.nanoTime();
+            String filename = message[1];
+            String filesize = message[2];
+
+            // Refuses a file named like the Dstores own files before it is passed down the chain or the client is told to send it.
+            if (StorageEngine.isReserved(filename)) { refuseReserved(filename); return; }
+
+            // Trys passing the store down to the next Dstore in the chain (with the rest of the chain) and waits for it to be ready, storing here only if it can't.
+            PeerConnectionPool.PeerConnection next = null;
+            if (message.length > 3) {
+                ArrayList<String> chainArguments = new ArrayList<>(List.of(filename, filesize));
+                chainArguments.addAll(Arrays.asList(message).subList(4, message.length));
+                try {
+                    next = peerPool.borrow(Integer.parseInt(message[3]));
+                    sendMessage(Protocol.STORE_CHAIN_TOKEN, chainArguments, next.getSocket());
+                    String reply = next.readLine();
+                    if (!Protocol.ACK_TOKEN.equals(reply)) { throw new IOException("reply was '" + reply + "'"); }
+                }
+                catch (IOException | NumberFormatException exception) {
+                    Log.error("Error: unable to forward store down the chain, storing only at this Dstore (exception: " + exception + ").");
+                    if (next != null) { next.close(); next = null; }
+                }
             }
+
+            // Try's sending an acknowledgement message to the client (or previous Dstore), if not possible it ends the operation.
+            try{ sendMessage(Protocol.ACK_TOKEN, null, connectedSocket); }
+            catch (IOException exception) { Log.error("Error: unable to tell client it got the message"); if (next != null) { next.close(); } return; }
+
+            // Receives the file while forwarding it, then lets the controller know this Dstore has it (the others in the chain tell it themselves).
+            // The rest of the chain failing part way only stops the forwarding, so this Dstore (and the ones before it) still keep the file.
+            try {
+                Path incoming = storage.incoming(filename);
+                boolean forwarded = FileTransfer.relay(connectedSocket, incoming, Long.parseLong(filesize), timeoutMilliseconds, next == null ? null : next.getSocket());
+                storage.commit(filename, incoming);
+                STORED_BYTES.add(Long.parseLong(filesize));
+                STORE_SECONDS.recordSince(started);
+                if (next != null) { if (forwarded) { peerPool.release(next); } else { next.close(); } next = null; }
+
+                try{ sendMessage(Protocol.STORE_ACK_TOKEN, List.of(filename), controllerSocket); }
+                catch (IOException exception) { Log.error("Error: unable to tell controller that we stored the file"); }
+            }
+
+            //Lets the user know if the Dstore can't save (or forward) the file.
+            catch (IOException | NumberFormatException exception) {
+                STORE_FAILURES.increment();
+                Log.error("Error: unable to load and or save file (exception: " + exception + ").");
+                if (next != null) { next.close(); }
+            }
+        }
+
+        /**
+         * Refuses to store a file whose name is reserved for the Dstores own files, closing the connection so the client isn't left waiting for an acknowledgement.
+         * @param filename The name of the file the client wants to store.
+         */
+        private void refuseReserved(String filename) {
+            STORE_FAILURES.increment();
+            Log.error("Error: refusing to store '" + filename + "' as the name is reserved for the Dstores own files.");
+            try { connectedSocket.close(); } catch (IOException exception) { Log.error("Error: unable to close socket with client."); }
         }
 
         /**
-         * Function which handles loading of a file from the particular Dstore.
-         * @param filename The name of the file the client wants to load.
+         * Function which handles loading of a file (or a byte range of it) from the particular Dstore.
+         * The message is either just the filename, the filename and an offset (sending to the end of the file) or the filename, an offset and a length.
+         * @param message The message which contains the filename and optionally the offset and length.
          */
-        private void clientLoadData(String filename) {
+        private void clientLoadData(String[] message) {
+            long started = System.nanoTime();
+            String filename = message[1];
+
             // Try's to setup a timeout for sending information to the client.
             try { connectedSocket.setSoTimeout(timeoutMilliseconds); }
-            catch (SocketException exception) { System.err.println("Error: unable to setup timeout for client"); return; }
+            catch (SocketException exception) { Log.error("Error: unable to setup timeout for client"); return; }
 
             // Try's to load data from the given file and send it to the client.
             try {
-                // Get the file from the input and gets the connection to send it on.
-                InputStream fileReader = new FileInputStream(fileFolder + File.separator + filename);
-                OutputStream writer = connectedSocket.getOutputStream();
-
-                // Transfers the file to the client via the output stream.
-                byte[] buf = new byte[2048]; // Does this need to be file size??
-                int bytesRead;
-                while((bytesRead = fileReader.read(buf)) != -1) {
-                    writer.write(buf, 0, bytesRead);
+                // Transfers the file (or only the asked for range, so a client can resume or split a load) to the client then closes the connection as the client is done with it.
+                if (message.length > 2) {
+                    long offset = Long.parseLong(message[2]);
+                    long length = message.length > 3 ? Long.parseLong(message[3]) : Long.MAX_VALUE;
+                    if (length < 0) { throw new NumberFormatException("negative length " + length); }
+                    LOADED_BYTES.add(storage.send(filename, offset, length, connectedSocket));
                 }
-
-                //Closes the internal connections before values removed by garbage collection.
-                fileReader.close();
-                writer.close();
+                else { LOADED_BYTES.add(storage.send(filename, connectedSocket)); }
+                connectedSocket.close();
+                LOAD_SECONDS.recordSince(started);
             }
 
-            // Try's to remove the connection of the socket as the file doesn't exitst/cant be loaded from the Dstore.
-            catch (IOException exception) {
-                System.err.println("Error: unable to load file from Dstore with exception '" + exception + "'.");
+            // Try's to remove the connection of the socket as the file doesn't exitst/cant be loaded from the Dstore (or the range isn't valid).
+            catch (IOException | NumberFormatException exception) {
+                LOAD_FAILURES.increment();
+                Log.error("Error: unable to load file from Dstore with exception '" + exception + "'.");
             }
 
             // Try's to reset timeout for sending information to the clients stream as its no longer needed.
             finally{
                 try { connectedSocket.setSoTimeout(0); }
-                catch (SocketException exception) { System.err.println("Error: unable to remove timeout for sending data to client."); }
+                catch (SocketException exception) { Log.error("Error: unable to remove timeout for sending data to client."); }
             }
         }
 
@@ -299,26 +617,27 @@ public class Dstore {
          * @param filename The name of the file the client wants to remove.
          */
         private void clientRemove(String filename) {
-            // Creates a new File object in reference to the file we are trying to remove from the Dstore.
-            File newFile = new File(fileFolder + "/" + filename);
-            System.out.println(fileFolder + "/" + filename);
+            long started = System.nanoTime();
+            Log.debug(fileFolder, "/", filename);
 
             //Checks if the file exits in the system, if so it trys to delete it.
-            if (newFile.exists()) {
+            if (storage.exists(filename)) {
                 // File tries to get deleted, if so acknoledgement is sent to the Controller.
-                if (newFile.delete()) {
-                    try{ sendMessage(Protocol.REMOVE_ACK_TOKEN, filename, controllerSocket); }
-                    catch (IOException exception) { System.err.println("Error: unable to tell controller that we removed the file."); }
+                if (storage.delete(filename)) {
+                    REMOVE_SECONDS.recordSince(started);
+                    try{ sendMessage(Protocol.REMOVE_ACK_TOKEN, List.of(filename), controllerSocket); }
+                    catch (IOException exception) { Log.error("Error: unable to tell controller that we removed the file."); }
                 }
 
                 // If the file can't be deleted it logs an error as the file could still exist in the Dstore.
-                else { System.err.println("Error: unable to remove the file from the system."); }
+                else { REMOVE_FAILURES.increment(); Log.error("Error: unable to remove the file from the system."); }
             }
 
             // Try's to tell the controller that the Dstore doesn't have the file.
             else {
-                try{ sendMessage(Protocol.ERROR_FILE_DOES_NOT_EXISTS_TOKEN, filename, controllerSocket); }
-                catch (IOException exception) { System.err.println("Error: unable to tell controller that the file doesn't exists at the Dstore."); }
+                REMOVE_FAILURES.increment();
+                try{ sendMessage(Protocol.ERROR_FILE_DOES_NOT_EXISTS_TOKEN, List.of(filename), controllerSocket); }
+                catch (IOException exception) { Log.error("Error: unable to tell controller that the file doesn't exists at the Dstore."); }
             }
         }
 
@@ -326,43 +645,28 @@ public class Dstore {
          * Function which is used when the controller wants to find out all the files that are stored at this given dstore.
          */
         private void controllerList(){
-            // Trys to get all the files in the dstore and send them to the controller to help in rebalance.
-            try {
-                // Gets all the files in the dstores directory relative to it (should allow sub directories if the files name includes them).
-                File[] filesList = new File(fileFolder).listFiles();
-                ArrayList<String> files = getFiles(filesList, null);
+            long started = System.nanoTime();
 
-                // Converts the ArrayList of all the files to an easy to send single String.
-                String argument = "";
-                for (String file : files) { argument += file + " "; }
+            // Trys to get all the files in the dstore and send them to the controller to help in rebalance.
+            try (Stream<String> files = storage.list()) {
+                // Streams the files in the dstores storage (with paths if they have them) in parts, so a huge store is never held or sent as one message.
+                ArrayList<String> part = new ArrayList<>();
+                Iterator<String> iterator = files.iterator();
+                while (iterator.hasNext()) {
+                    part.add(iterator.next());
+                    if (part.size() == LIST_PART_FILES && iterator.hasNext()) { sendMessage(Protocol.LIST_PART_TOKEN, part, controllerSocket); part.clear(); }
+                }
 
-                // Sends the files the dstore has stored (with paths if they have them.
-                sendMessage(Protocol.LIST_TOKEN, argument, controllerSocket);
+                // Sends the last of the files as the final LIST, which the controller waits for before using the list.
+                sendMessage(Protocol.LIST_TOKEN, part, controllerSocket);
+                LIST_SECONDS.recordSince(started);
             }
 
             // When either the Dstore can't get the files which its trying to store or can't send a message to the controller.
-            catch (IOException exception) {
-                System.err.println("Error: unable to send controller list of avalible files in the dstore (Exception: " + exception + " ).");
-            }
-        }
-
-        /**
-         * Gets all the files in the dstores folders.
-         * @param filesList The current file list for the directory we are reading.
-         * @param foldername The name of the folder.
-         * @return All the files the Dstore has.
-         */
-        private ArrayList<String> getFiles(File[] filesList, String foldername) {
-            // Gets and returns all the files in the folder.
-            ArrayList<String> files = new ArrayList<>();
-            if(filesList != null) {
-                for(File f: filesList) {
-                    if(f.isDirectory()) {files.addAll(getFiles(f.listFiles(), (f.getName() + "/")));}
-                    if(foldername == null) { files.add(f.getName()); }
-                    else { files.add(foldername + f.getName()); }
-                }
+            catch (IOException | UncheckedIOException exception) {
+                LIST_FAILURES.increment();
+                Log.error("Error: unable to send controller list of avalible files in the dstore (Exception: " + exception + " ).");
             }
-            return files;
         }
 
         /**
@@ -370,6 +674,8 @@ public class Dstore {
          * @param message The unaltered orginal message so it can be read properly for future function.
          */
         private void controllerRebalance(String[] message) {
+            long started = System.nanoTime();
+
             // Turns the inital message into an easier to manipulate ArrayList (removing from it the unneeded protocol string).
             ArrayList<String> messageArgs = new ArrayList<>(Arrays.asList(message));
             messageArgs.remove(0);
@@ -382,95 +688,139 @@ public class Dstore {
             for (int i = 0; i < moveCount; i++){
                 String file = messageArgs.remove(0);
                 moveMap.put(file,new ArrayList<>());
-                for (int j = 0; j < Integer.parseInt(messageArgs.remove(0)); j++){moveMap.get(file).add(Integer.parseInt(messageArgs.remove(0)));}
+                int portCount = Integer.parseInt(messageArgs.remove(0));
+                for (int j = 0; j < portCount; j++){moveMap.get(file).add(Integer.parseInt(messageArgs.remove(0)));}
             }
 
             // Creates an ArrayList storing all the files that need to be removed from the system.
             Integer removeCount = Integer.parseInt(messageArgs.remove(0));
-            if (removeCount != messageArgs.size()) { System.err.println("Error: remove count '"+ removeCount +"' and number files to remove '"+ messageArgs.size() +"' are not equal (Store may not be correct)."); }
+            if (removeCount != messageArgs.size()) { Log.error("Error: remove count '"+ removeCount +"' and number files to remove '"+ messageArgs.size() +"' are not equal (Store may not be correct)."); }
             ArrayList<String> removeList = new ArrayList<>(messageArgs);
 
-            // Goes through each file sending said file to all the Dstores that need it.
-            moveMap.keySet().forEach(filename -> {
-                // Gets the file size of this given file.
-                File thisFile = new File(fileFolder + "/" + filename);
-                String fileSize = Integer.toString(Math.toIntExact(thisFile.length()));
-
-                // Trys to load the files from this Dstore to all the ones that require said file.
-                moveMap.get(filename).forEach(storePort -> {
-                    try {
-                        Socket socket = new Socket(InetAddress.getLocalHost(),storePort);;
-                        dstoreRebalanceLoad(filename,fileSize,socket);
-                    }
-                    catch (Exception exception) {
-                        System.err.println("Error: unable to create socket for sending files during rebalance.");
-                    }
-                });
+            // Groups the files by the Dstore they are going to, so each Dstore gets all of its files in one batch.
+            LinkedHashMap<Integer, ArrayList<String>> peerFiles = new LinkedHashMap<>();
+            moveMap.forEach((filename, storePorts) -> storePorts.forEach(storePort -> peerFiles.computeIfAbsent(storePort, port -> new ArrayList<>()).add(filename)));
+
+            // Splits each Dstores files into batches which are sent in parallel, each with its own future completed once that batch is acknowledged.
+            ArrayList<CompletableFuture<Boolean>> acknowledgements = new ArrayList<>();
+            peerFiles.forEach((storePort, filenames) -> {
+                for (List<String> batch : splitBatches(filenames, transferScheduler.getPerPeerLimit())) {
+                    acknowledgements.add(transferScheduler.schedule(storePort, () -> dstoreRebalanceSend(storePort, batch)));
+                }
             });
 
+            // Waits for every transfer to finish before removing any files (a file being moved away may still be getting sent).
+            CompletableFuture.allOf(acknowledgements.toArray(new CompletableFuture<?>[0])).join();
+            long failedTransfers = acknowledgements.stream().filter(acknowledgement -> !acknowledgement.join()).count();
+            if (failedTransfers > 0) { REBALANCE_FAILURES.increment(); Log.error("Error: " + failedTransfers + " of " + acknowledgements.size() + " rebalance transfers weren't acknowledged."); }
+
             // Removes all the files from the Dstore.
             removeList.forEach(filename -> dstoreRebalanceRemove(filename));
 
             // Tells the controller that the rebalance is complete.
-            try{ sendMessage(Protocol.REBALANCE_COMPLETE_TOKEN, null, controllerSocket); System.out.println("REBALANCE TOKEN IS SENT");}
-            catch (IOException exception) { System.err.println("Error: unable to tell controller that we completed the rebalance."); }
+            REBALANCE_SECONDS.recordSince(started);
+            try{ sendMessage(Protocol.REBALANCE_COMPLETE_TOKEN, null, controllerSocket); Log.debug(logPrefix, "REBALANCE TOKEN IS SENT");}
+            catch (IOException exception) { Log.error("Error: unable to tell controller that we completed the rebalance."); }
         }
 
         /**
-         * Used during a rebalance to send files to another Dstore.
-         * @param filename The name of the file we want to send.
-         * @param filesize The size of the file we want to send.
-         * @param socket The socket we are trying to send the file on.
+         * Splits files into a number of batches with about the same number of bytes in each, so the batches take about as long as each other to send.
+         * @param filenames The names of the files being split.
+         * @param batchCount The most batches to split the files into.
+         * @return The batches (none of them empty).
          */
-        private void dstoreRebalanceLoad(String filename, String filesize, Socket socket) {
-            // Adds a new latch for the current instance of the file at this Dstore.
-            rebalanceLatch = new CountDownLatch(1);
-
-            // Sets up the socket and sends the store command to the other Dstore
-            try { sendMessage(Protocol.REBALANCE_STORE_TOKEN, (filename + " " + filesize), socket); }
-
-            // Lets the user know if a rebalance store isn't possible.
-            catch (Exception exception) {System.err.println("Error: unable to send ack for store of rebalance at port '" + socket.getPort() +"'.");}
-
-            // Trys checking if all Dstores have recieved the message, if so it log's it (If not the rebalance store process still continues but an error is logged).
-            try { if (rebalanceLatch.await(timeoutMilliseconds, TimeUnit.MILLISECONDS)) { System.out.println("Successfully got storaage confirmation at port '" + socket.getPort() +"'.");} }
-
-            // Sends error if not all dstore hasn't acknowledged its store to this dstore
-            catch (Exception exception) { System.err.println("Error: Unable to get storage ack from dstore at port '" + socket.getPort() +"', resume regardless (exception: " + exception + ")."); }
+        private List<List<String>> splitBatches(List<String> filenames, int batchCount) {
+            // Adds each file to the batch with the fewest bytes so far.
+            int count = Math.max(1, Math.min(batchCount, filenames.size()));
+            List<List<String>> batches = new ArrayList<>();
+            long[] batchBytes = new long[count];
+            for (int i = 0; i < count; i++) { batches.add(new ArrayList<>()); }
+            for (String filename : filenames) {
+                int smallest = 0;
+                for (int i = 1; i < count; i++) { if (batchBytes[i] < batchBytes[smallest]) { smallest = i; } }
+                batches.get(smallest).add(filename);
+                try { batchBytes[smallest] += storage.size(filename); }
+                catch (IOException exception) { /* Missing files are skipped when the batch is sent. */ }
+            }
+            return batches;
+        }
 
-            // Try's to setup a timeout for sending information to the the other dstore.
-            try { socket.setSoTimeout(timeoutMilliseconds); }
-            catch (SocketException exception) { System.err.println("Error: unable to setup timeout for other dstore"); return; }
+        /**
+         * Used during a rebalance to send a batch of files to another Dstore over a pooled connection (retried once on a new connection if a reused one has gone stale).
+         * @param storePort The port of the Dstore the files are sent to.
+         * @param filenames The names of the files being sent.
+         * @return If the other Dstore acknowledged storing the batch.
+         */
+        private boolean dstoreRebalanceSend(Integer storePort, List<String> filenames) {
+            long started = System.nanoTime();
 
-            // Try's to load data from the given file and send it to the other dstore.
-            try {
-                // Get the file from the input and gets the connection to send it on.
-                InputStream fileReader = new FileInputStream(fileFolder + File.separator + filename);
-                OutputStream writer = socket.getOutputStream();
-
-                // Transfers the file to the other dstore via the output stream.
-                byte[] buf = new byte[2048]; // Does this need to be file size??
-                int bytesRead;
-                while((bytesRead = fileReader.read(buf)) != -1) {
-                    writer.write(buf, 0, bytesRead);
+            // Only sends the files which still exist, as the count has to be sent before any of them.
+            ArrayList<String> files = new ArrayList<>();
+            long bytes = 0;
+            for (String filename : filenames) {
+                if (storage.exists(filename)) {
+                    files.add(filename);
+                    try { bytes += storage.size(filename); }
+                    catch (IOException exception) { /* A file removed since is caught when the batch is sent. */ }
                 }
-
-                //Closes the internal connections before values removed by garbage collection.
-                fileReader.close();
-                writer.close();
+                else { Log.error("Error: the file '" + filename + "' didn't exists at this Dstore so can't be sent."); }
             }
 
-            // Try's to remove the connection of the socket as the file doesn't exitst/cant be loaded from the Dstore.
-            catch (IOException exception) {
-                System.err.println("Error: unable to load file from Dstore with exception '" + exception + "'.");
-            }
+            for (int attempt = 0; attempt < 2; attempt++) {
+                // Trys getting a connection to the other Dstore from the pool.
+                PeerConnectionPool.PeerConnection peer;
+                try { peer = peerPool.borrow(storePort); }
+                catch (IOException exception) { PEER_SEND_FAILURES.get(storePort).increment(); Log.error("Error: unable to create socket for sending files during rebalance (exception: " + exception + ")."); return false; }
+
+                // Sends every file (only the missing chunks when storing chunks) then waits for the other Dstore to acknowledge it has stored all of them, giving the connection back for the next rebalance.
+                try {
+                    if (storage.unwrap() instanceof ChunkStorage chunkStorage) {
+                        int chunksSent = chunkStorage.sendBatch(peer.getSocket(), peer.getInput(), files);
+                        Log.info("Sent " + chunksSent + " chunks the Dstore at port '" + storePort + "' was missing.");
+                    }
+                    else { sendRebalanceBatch(peer.getSocket(), files); }
+                    String reply = peer.readLine();
+                    if (Protocol.ACK_TOKEN.equals(reply)) {
+                        Log.info("Successfully got storaage confirmation for " + files.size() + " files at port '" + storePort +"'.");
+                        PEER_SENT_BYTES.get(storePort).add(bytes);
+                        PEER_SEND_SECONDS.get(storePort).recordSince(started);
+                        peerPool.release(peer);
+                        return true;
+                    }
+                    Log.error("Error: Unable to get storage ack from dstore at port '" + storePort +"' (reply: " + reply + ").");
+                    PEER_SEND_FAILURES.get(storePort).increment();
+                    peer.close();
+                    return false;
+                }
 
-            // Try's to reset timeout for sending information to the dstore then closes its socket.
-            finally{
-                try { socket.setSoTimeout(0); }
-                catch (Exception exception) { System.err.println("Error: unable to remove timeout from/close socket with other Dstore."); }
+                // A reused connection may have been closed by the other Dstore since it was last used, so the pool is cleared and the batch sent again on a new one.
+                catch (IOException exception) {
+                    peer.close();
+                    peerPool.closePeer(storePort);
+                    if (!peer.isReused()) { PEER_SEND_FAILURES.get(storePort).increment(); Log.error("Error: unable to send files to Dstore at port '" + storePort + "' (exception: " + exception + ")."); return false; }
+                }
             }
+            return false;
+        }
 
+        /**
+         * Writes a batch of files to a socket, each file is framed by its name and size before its data is sent with a zero-copy transfer.
+         * @param socket The socket the files are written to.
+         * @param files The names of the files being sent.
+         * @throws IOException Occours when a file can't be read or the socket can't be written to.
+         */
+        private void sendRebalanceBatch(Socket socket, List<String> files) throws IOException {
+            sendMessage(Protocol.REBALANCE_STORE_BATCH_TOKEN, List.of(files.size()), socket);
+            for (String filename : files) {
+                // Builds the frame header in memory so it goes out in one write.
+                ByteArrayOutputStream header = new ByteArrayOutputStream();
+                DataOutputStream headerData = new DataOutputStream(header);
+                headerData.writeUTF(filename);
+                headerData.writeLong(storage.size(filename));
+                socket.getOutputStream().write(header.toByteArray());
+
+                storage.unwrap().send(filename, socket); // Sent past the read cache, as files being moved away shouldn't push out the ones clients are reading.
+            }
         }
 
         /**
@@ -478,17 +828,15 @@ public class Dstore {
          * @param filename The name of the file the controller wants to remove.
          */
         private void dstoreRebalanceRemove(String filename) {
-            // Creates a new File object in reference to the file we are trying to remove from the Dstore.
-            File newFile = new File(fileFolder + "/" + filename);
-            System.out.println(fileFolder + "/" + filename);
+            Log.debug(fileFolder, "/", filename);
 
             //Checks if the file exits in the system, if so it trys to delete it (if it can't delete it an error is returned).
-            if (newFile.exists()) {
-                if (!newFile.delete()) {System.err.println("Error: unable to remove the file '" + filename + "' from the system.");}
+            if (storage.exists(filename)) {
+                if (!storage.delete(filename)) {Log.error("Error: unable to remove the file '" + filename + "' from the system.");}
             }
 
             // Logs the the file didn't exist to begin with.
-            else {System.err.println("Error: the file '" + filename + "' didn't exists at this Dstore."); }
+            else {Log.error("Error: the file '" + filename + "' didn't exists at this Dstore."); }
         }
 
         /**
@@ -499,46 +847,101 @@ public class Dstore {
         private void dstoreRebalanceStore(String filename, String filesize) {
             // Try's sending an acknowledgement message to the other dstore.
             try{ sendMessage(Protocol.ACK_TOKEN, null, connectedSocket); }
-            catch (IOException exception) { System.err.println("Error: unable to tell other dstore it got the message.");}
+            catch (IOException exception) { Log.error("Error: unable to tell other dstore it got the message.");}
 
             // Try's to setup a timeout for reading information from the controller stream.
             try { connectedSocket.setSoTimeout(timeoutMilliseconds); }
-            catch (SocketException exception) { System.err.println("Error: unable to setup timeout for other dstore."); return; }
+            catch (SocketException exception) { Log.error("Error: unable to setup timeout for other dstore."); return; }
 
             // Used for getting the file from the other dstore and stores it in the system.
             try {
-                // Gets the input and output for the file.
-                InputStream reader = connectedSocket.getInputStream();
-                OutputStream fileWriter = new BufferedOutputStream(new FileOutputStream(fileFolder + File.separator + filename));
-
-                // Transfers the file from the input stream to the file.
-                byte[] buf = new byte[2048]; // Does this need to be file size??
-                int bytesRead;
-                while((bytesRead = reader.read(buf)) != -1) {
-                    fileWriter.write(buf, 0, bytesRead);
-                }
-
-                // Closes the internal connections before values removed by garbage collection.
-                reader.close();
-                fileWriter.close();
+                // Transfers the file from the other dstores socket straight into storage.
+                Path incoming = storage.incoming(filename);
+                FileTransfer.receive(connectedSocket, incoming, Long.parseLong(filesize), timeoutMilliseconds);
+                storage.commit(filename, incoming);
+                REBALANCE_RECEIVED_BYTES.add(Long.parseLong(filesize));
             }
 
             // Lets the user know if the Dstore can't save the file.
-            catch (IOException exception) { System.err.println("Error: unable to load and or save file (exception: " + exception + ")."); }
+            catch (IOException | NumberFormatException exception) { Log.error("Error: unable to load and or save file (exception: " + exception + ")."); }
+
+            // Try's to reset timeout for reading information from the other dstores stream as its no longer needed.
+            finally{
+                try { connectedSocket.setSoTimeout(0); }
+                catch (SocketException exception) { Log.error("Error: unable to remove timeout for client"); }
+            }
+        }
+
+        /**
+         * Function which is used when another Dstore sends this specific Dstore a batch of files, each framed by its name and size.
+         * @param fileCount The number of files in the batch.
+         */
+        private void dstoreRebalanceStoreBatch(String fileCount) {
+            // Try's to setup a timeout for reading the batch from the other dstore.
+            try { connectedSocket.setSoTimeout(timeoutMilliseconds); }
+            catch (SocketException exception) { Log.error("Error: unable to setup timeout for other dstore."); return; }
+
+            // Reads every file from the buffered input (data may already be buffered behind the batch line) then straight from the socket channel, then acknowledges the whole batch.
+            try {
+                DataInputStream input = new DataInputStream(connectedInput);
+                int count = Integer.parseInt(fileCount);
+                for (int i = 0; i < count; i++) {
+                    String filename = input.readUTF();
+                    long filesize = input.readLong();
+                    Path incoming = storage.incoming(filename);
+                    FileTransfer.receive(connectedInput, connectedSocket, incoming, filesize, timeoutMilliseconds);
+                    storage.commit(filename, incoming);
+                    REBALANCE_RECEIVED_BYTES.add(filesize);
+                }
+                sendMessage(Protocol.ACK_TOKEN, null, connectedSocket);
+            }
+
+            // Lets the user know if the Dstore can't save the files (the connection is closed as the rest of the batch can't be found in the stream).
+            catch (IOException | NumberFormatException exception) {
+                Log.error("Error: unable to load and or save batch of files (exception: " + exception + ").");
+                try { connectedSocket.close(); } catch (IOException closeException) { Log.error("Error: unable to close socket with other Dstore."); }
+            }
 
             // Try's to reset timeout for reading information from the other dstores stream as its no longer needed.
             finally{
                 try { connectedSocket.setSoTimeout(0); }
-                catch (SocketException exception) { System.err.println("Error: unable to remove timeout for client"); }
+                catch (SocketException exception) { Log.error("Error: unable to remove timeout for other dstore."); }
             }
         }
 
         /**
-         * Function which handles when a particular Dstore has acknowledged its connection to the current one.
+         * Function which is used when another Dstore sends this specific Dstore a batch of files as chunks, only the chunks this Dstore doesn't have are asked for.
+         * @param fileCount The number of files in the batch.
          */
-        private void dstoreRebalanceAck() {
-            // Counts down the latch to show the other dstore that a it sees the connection.
-            rebalanceLatch.countDown();
+        private void dstoreRebalanceChunkBatch(String fileCount) {
+            // Chunks can only be taken when this Dstore stores chunks too, the connection is closed so the other Dstore isn't left waiting.
+            if (!(storage.unwrap() instanceof ChunkStorage chunkStorage)) {
+                Log.error("Error: recieved a chunk batch but this Dstore isn't storing chunks (every Dstore should use the same storage).");
+                try { connectedSocket.close(); } catch (IOException closeException) { Log.error("Error: unable to close socket with other Dstore."); }
+                return;
+            }
+
+            // Try's to setup a timeout for reading the batch from the other dstore.
+            try { connectedSocket.setSoTimeout(timeoutMilliseconds); }
+            catch (SocketException exception) { Log.error("Error: unable to setup timeout for other dstore."); return; }
+
+            // Reads the manifests, asks for the missing chunks and stores them, then acknowledges the whole batch.
+            try {
+                chunkStorage.receiveBatch(connectedInput, connectedSocket, Integer.parseInt(fileCount));
+                sendMessage(Protocol.ACK_TOKEN, null, connectedSocket);
+            }
+
+            // Lets the user know if the Dstore can't save the files (the connection is closed as the rest of the batch can't be found in the stream).
+            catch (IOException | NumberFormatException exception) {
+                Log.error("Error: unable to load and or save batch of chunks (exception: " + exception + ").");
+                try { connectedSocket.close(); } catch (IOException closeException) { Log.error("Error: unable to close socket with other Dstore."); }
+            }
+
+            // Try's to reset timeout for reading information from the other dstores stream as its no longer needed.
+            finally{
+                try { connectedSocket.setSoTimeout(0); }
+                catch (SocketException exception) { Log.error("Error: unable to remove timeout for other dstore."); }
+            }
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,148 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Works out how likely it is that each Dstore has failed from the gaps between its heartbeats (a phi accrual failure detector).
+ * Phi is how unlikely the current silence is given the recent gaps (phi of 8 is a one in a hundred million chance), so a Dstore is suspected as soon as its heartbeats are late rather than once its socket closes.
+ * A Dstore which has never sent a heartbeat (e.g. an older Dstore) is never suspected, as there is nothing to judge it by.
+ */
+public class FailureDetector {
+
+    /**
+     * The number of recent gaps between heartbeats which are remembered for each Dstore.
+     */
+    private final static int WINDOW_SIZE = 100;
+
+    /**
+     * The smallest standard deviation the gaps are taken to have, so a Dstore with very regular heartbeats isn't suspected after a tiny delay (e.g. a short GC pause).
+     */
+    private final static double MIN_STANDARD_DEVIATION_MILLIS = 50;
+
+    /**
+     * The phi above which a Dstore is suspected.
+     */
+    private final double threshold;
+
+    /**
+     * The heartbeat history of every Dstore which has sent one.
+     * HashMap paring goes as follows [DSTORE_PORT, HISTORY].
+     */
+    private final ConcurrentHashMap<Integer, History> histories = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a detector with no heartbeats.
+     * @param threshold The phi above which a Dstore is suspected.
+     */
+    public FailureDetector(double threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Records a heartbeat from a Dstore.
+     * @param port The port of the Dstore.
+     * @param freeBytes The free space the Dstore has for files.
+     */
+    public void heartbeat(Integer port, long freeBytes) {
+        histories.computeIfAbsent(port, store -> new History()).record(System.nanoTime(), freeBytes);
+    }
+
+    /**
+     * Checks if a Dstore is suspected of having failed.
+     * @param port The port of the Dstore.
+     * @return If the Dstores phi is above the threshold.
+     */
+    public boolean isSuspect(Integer port) {
+        return phi(port) > threshold;
+    }
+
+    /**
+     * Works out the phi of a Dstore right now.
+     * @param port The port of the Dstore.
+     * @return The phi, 0 for a Dstore which hasn't sent at least two heartbeats.
+     */
+    public double phi(Integer port) {
+        History history = histories.get(port);
+        return history == null ? 0 : history.phi(System.nanoTime());
+    }
+
+    /**
+     * Gets the free space a Dstore last reported.
+     * @param port The port of the Dstore.
+     * @return The free bytes, or the largest long if the Dstore hasn't reported any.
+     */
+    public long getFreeBytes(Integer port) {
+        History history = histories.get(port);
+        return history == null ? Long.MAX_VALUE : history.freeBytes;
+    }
+
+    /**
+     * Drops the history of a Dstore which has left.
+     * @param port The port of the Dstore.
+     */
+    public void removeDstore(Integer port) {
+        histories.remove(port);
+    }
+
+    /**
+     * The recent gaps between a single Dstores heartbeats, kept with their running sum and sum of squares so phi is cheap to work out.
+     */
+    private static class History {
+
+        /**
+         * The recent gaps in milliseconds, used as a ring.
+         */
+        private final double[] gaps = new double[WINDOW_SIZE];
+
+        /**
+         * The number of gaps recorded (up to the window size) and the position the next goes in.
+         */
+        private int count = 0, next = 0;
+
+        /**
+         * The sum and sum of squares of the recorded gaps.
+         */
+        private double sum = 0, sumOfSquares = 0;
+
+        /**
+         * The time the last heartbeat arrived (0 before the first).
+         */
+        private long lastNanos = 0;
+
+        /**
+         * The free space the Dstore last reported.
+         */
+        private volatile long freeBytes = Long.MAX_VALUE;
+
+        /**
+         * Records a heartbeat, adding the gap since the last one (replacing the oldest gap once the window is full).
+         * @param nowNanos The time the heartbeat arrived.
+         * @param reportedFreeBytes The free space the Dstore reported.
+         */
+        private synchronized void record(long nowNanos, long reportedFreeBytes) {
+            freeBytes = reportedFreeBytes;
+            if (lastNanos != 0) {
+                double gap = (nowNanos - lastNanos) / 1_000_000.0;
+                if (count == WINDOW_SIZE) { sum -= gaps[next]; sumOfSquares -= gaps[next] * gaps[next]; }
+                else { count++; }
+                gaps[next] = gap;
+                sum += gap;
+                sumOfSquares += gap * gap;
+                next = (next + 1) % WINDOW_SIZE;
+            }
+            lastNanos = nowNanos;
+        }
+
+        /**
+         * Works out phi for the silence since the last heartbeat, taking the gaps as normally distributed (using the logistic approximation of its CDF).
+         * @param nowNanos The current time.
+         * @return The phi, 0 when there are no gaps yet.
+         */
+        private synchronized double phi(long nowNanos) {
+            if (count == 0) { return 0; }
+            double mean = sum / count;
+            double deviation = Math.max(Math.sqrt(Math.max(sumOfSquares / count - mean * mean, 0)), MIN_STANDARD_DEVIATION_MILLIS);
+            double y = ((nowNanos - lastNanos) / 1_000_000.0 - mean) / deviation;
+            double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+            return y > 0 ? -Math.log10(e / (1 + e)) : -Math.log10(1 - 1 / (1 + e));
+        }
+    }
+}
@@ -0,0 +1,189 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The list of files a {@link FileStorage} holds, with the size and modified time of each, kept on disk so a restarted Dstore knows what it has without walking its folder.
+ * The manifest is rewritten to a temporary file which is synced then moved over the old one, so after a crash it is always a whole (if slightly old) manifest.
+ * Changes close together share a single rewrite, a file stored or removed just before a crash is then only missing from (or left in) the manifest, which the controller repairs like any other missing replica.
+ */
+public class FileManifest {
+
+    /**
+     * The name of the manifest in the Dstores folder.
+     */
+    public final static String MANIFEST_FILE = ".manifest";
+
+    /**
+     * The time changes are collected for before the manifest is rewritten.
+     */
+    private final static long WRITE_DELAY_MILLISECONDS = 100;
+
+    /**
+     * The first int of a manifest.
+     */
+    private final static int MANIFEST_MAGIC = 0x4D414E49;
+
+    /**
+     * The folder the files are stored in.
+     */
+    private final Path folder;
+
+    /**
+     * The path of the manifest.
+     */
+    private final Path manifestPath;
+
+    /**
+     * Every file which is stored with its size and modified time.
+     * HashMap paring goes as follows [FILE, ENTRY].
+     */
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * If a rewrite has been scheduled which hasn't started yet.
+     */
+    private final AtomicBoolean writePending = new AtomicBoolean(false);
+
+    /**
+     * Runs the rewrites, one at a time.
+     */
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "file-manifest");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Loads the manifest of a folder (if it has one), keeping only the files which are still on disk with the same size and modified time.
+     * @param folder The folder the files are stored in.
+     * @throws IOException Occours when the manifest is there but can't be read or is corrupt.
+     */
+    public FileManifest(Path folder) throws IOException {
+        this.folder = folder;
+        manifestPath = folder.resolve(MANIFEST_FILE);
+        if (Files.exists(manifestPath)) { load(); }
+
+        // Writes any changes which haven't been written yet when the Dstore is shut down.
+        Runtime.getRuntime().addShutdownHook(new Thread(this::write));
+    }
+
+    /**
+     * Records a file which has just been stored (or replaced).
+     * @param filename The name of the file.
+     * @param file The path of the file.
+     * @throws IOException Occours when the files size and modified time can't be read.
+     */
+    public void put(String filename, Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        entries.put(filename, new Entry(attributes.size(), attributes.lastModifiedTime().toMillis()));
+        changed();
+    }
+
+    /**
+     * Records a file which has been removed.
+     * @param filename The name of the file.
+     */
+    public void remove(String filename) {
+        if (entries.remove(filename) != null) { changed(); }
+    }
+
+    /**
+     * Gets the names of every file which is stored.
+     * @return The filenames, in no particular order.
+     */
+    public Stream<String> filenames() {
+        return entries.keySet().stream();
+    }
+
+    /**
+     * Gets the number of files which are stored.
+     * @return The number of files.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Schedules a rewrite of the manifest, unless one is already waiting (which then picks up this change too).
+     */
+    private void changed() {
+        if (writePending.compareAndSet(false, true)) { writer.schedule(this::write, WRITE_DELAY_MILLISECONDS, TimeUnit.MILLISECONDS); }
+    }
+
+    /**
+     * Rewrites the manifest, each entry is the filename, size and modified time, with a checksum of everything before it at the end.
+     * A change made while this is running schedules another rewrite, so the last change is always written.
+     */
+    private synchronized void write() {
+        writePending.set(false);
+        Path temporary = folder.resolve(MANIFEST_FILE + ".tmp");
+        try {
+            try (FileOutputStream fileOutput = new FileOutputStream(temporary.toFile())) {
+                CRC32C checksum = new CRC32C();
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fileOutput, checksum), 1 << 16));
+                output.writeInt(MANIFEST_MAGIC);
+                for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                    byte[] filename = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                    output.writeInt(filename.length);
+                    output.write(filename);
+                    output.writeLong(entry.getValue().size);
+                    output.writeLong(entry.getValue().modified);
+                }
+                output.writeInt(-1);
+                output.flush();
+                fileOutput.write(ByteBuffer.allocate(4).putInt((int) checksum.getValue()).array());
+                fileOutput.getFD().sync();
+            }
+            Files.move(temporary, manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException exception) { Log.error("Error: (" + exception + "), unable to write the file manifest."); }
+    }
+
+    /**
+     * Reads the manifest, checking its checksum then dropping any file which is missing or has changed since it was recorded.
+     * @throws IOException Occours when the manifest can't be read or is corrupt.
+     */
+    private void load() throws IOException {
+        byte[] data = Files.readAllBytes(manifestPath);
+        CRC32C checksum = new CRC32C();
+        checksum.update(data, 0, Math.max(data.length - 4, 0));
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+        if (data.length < 12 || input.readInt() != MANIFEST_MAGIC) { throw new IOException("'" + manifestPath + "' isn't a file manifest"); }
+        if ((int) checksum.getValue() != ByteBuffer.wrap(data, data.length - 4, 4).getInt()) { throw new IOException("'" + manifestPath + "' is corrupt"); }
+
+        // Checks each file with a single stat rather than reading it, a file which was replaced or removed behind the manifest is left for the controller to repair.
+        int dropped = 0;
+        for (int length = input.readInt(); length >= 0; length = input.readInt()) {
+            byte[] filename = new byte[length];
+            input.readFully(filename);
+            Entry entry = new Entry(input.readLong(), input.readLong());
+            String name = new String(filename, StandardCharsets.UTF_8);
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(folder.resolve(name), BasicFileAttributes.class);
+                if (attributes.isRegularFile() && attributes.size() == entry.size && attributes.lastModifiedTime().toMillis() == entry.modified) { entries.put(name, entry); continue; }
+            }
+            catch (NoSuchFileException exception) {}
+            dropped++;
+        }
+        if (dropped > 0) { Log.error("Error: " + dropped + " files in the manifest were missing or changed, so they aren't listed."); changed(); }
+    }
+
+    /**
+     * The size and modified time a file had when it was stored.
+     * @param size The size of the file.
+     * @param modified The time the file was last modified in milliseconds.
+     */
+    private record Entry(long size, long modified) {}
+}
@@ -0,0 +1,165 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+
+/**
+ * Stores each file whole at its own path in the Dstores folder (the default engine).
+ * Incoming data is written to a temporary file then moved over the files path, so a file which is being read (or is memory mapped) is never changed in place.
+ * Every stored file is recorded in a {@link FileManifest}, so listing (and restarting) never has to walk the folder.
+ */
+public class FileStorage implements StorageEngine {
+
+    /**
+     * The folder the files are stored in.
+     */
+    private final String fileFolder;
+
+    /**
+     * The folder incoming data is written to before it is committed.
+     */
+    private final Path incomingFolder;
+
+    /**
+     * The size from which files are sent from a memory mapping (0 when files are never mapped).
+     */
+    private final long mapThresholdBytes;
+
+    /**
+     * The mappings of the large files currently being sent.
+     */
+    private final MappedFiles mappedFiles = new MappedFiles();
+
+    /**
+     * The manifest of every file which is stored.
+     */
+    private final FileManifest manifest;
+
+    /**
+     * Creates the engine for a folder, picking up the files its manifest lists if it already has one.
+     * @param fileFolder The folder the files are stored in.
+     * @param mapThresholdBytes The size from which files are sent from a memory mapping (0 to never map them).
+     * @throws IOException Occours when the incoming folder can't be made or the manifest can't be read.
+     */
+    public FileStorage(String fileFolder, long mapThresholdBytes) throws IOException {
+        this.fileFolder = fileFolder;
+        this.mapThresholdBytes = mapThresholdBytes;
+        incomingFolder = Files.createDirectories(Paths.get(fileFolder, ".incoming"));
+
+        // Removes data which was still arriving when the Dstore last stopped, then loads the manifest.
+        try (Stream<Path> leftovers = Files.list(incomingFolder)) { for (Path leftover : (Iterable<Path>) leftovers::iterator) { Files.deleteIfExists(leftover); } }
+        manifest = new FileManifest(Paths.get(fileFolder));
+    }
+
+    /**
+     * Gets a new path in the incoming folder for the data of a file.
+     * @param filename The name of the file.
+     * @return The path to write to.
+     * @throws IOException Occours when the path can't be made or the name is reserved for the engines own files.
+     */
+    public Path incoming(String filename) throws IOException {
+        if (StorageEngine.isReserved(filename)) { throw new IOException("'" + filename + "' is reserved for the Dstores own files"); }
+        return Files.createTempFile(incomingFolder, "incoming", ".data");
+    }
+
+    /**
+     * Moves the data over the files path (replacing any older version, which anyone still reading it keeps until they are done).
+     * @param filename The name of the file.
+     * @param incoming The path the data was written to.
+     * @throws IOException Occours when the data can't be moved.
+     */
+    public void commit(String filename, Path incoming) throws IOException {
+        Path file = Paths.get(fileFolder, filename);
+        if (file.getParent() != null) { Files.createDirectories(file.getParent()); }
+        Files.move(incoming, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        mappedFiles.invalidate(file);
+        manifest.put(filename, file);
+    }
+
+    /**
+     * Sends the file with a zero-copy transfer.
+     * @param filename The name of the file.
+     * @param socket The socket which the file is being sent on.
+     * @return The number of bytes which were sent.
+     * @throws IOException Occours when the file doesn't exist, can't be read or the socket can't be written to.
+     */
+    public long send(String filename, Socket socket) throws IOException {
+        return FileTransfer.send(Paths.get(fileFolder, filename), socket);
+    }
+
+    /**
+     * Sends a range of the file with a zero-copy transfer starting at the offset (or from its memory mapping if it is large and mapping is turned on).
+     * @param filename The name of the file.
+     * @param offset The byte of the file the range starts at.
+     * @param length The most bytes to send (the range stops early at the end of the file).
+     * @param socket The socket which the range is being sent on.
+     * @return The number of bytes which were sent.
+     * @throws IOException Occours when the file doesn't exist, the offset is past its end, it can't be read or the socket can't be written to.
+     */
+    public long send(String filename, long offset, long length, Socket socket) throws IOException {
+        // Large files are sent from a shared memory mapping when that is turned on (and the socket has a channel to write the mapping to).
+        Path file = Paths.get(fileFolder, filename);
+        if (mapThresholdBytes > 0 && socket.getChannel() != null && size(filename) >= mapThresholdBytes) { return mappedFiles.send(file, offset, length, socket.getChannel()); }
+        return FileTransfer.send(file, offset, length, socket);
+    }
+
+    /**
+     * Opens the file at its path.
+     * @param filename The name of the file.
+     * @return A channel of the file.
+     * @throws IOException Occours when the file doesn't exist or can't be read.
+     */
+    public ReadableByteChannel open(String filename) throws IOException {
+        return FileChannel.open(Paths.get(fileFolder, filename), StandardOpenOption.READ);
+    }
+
+    /**
+     * Checks if the file is at its path.
+     * @param filename The name of the file.
+     * @return If the file is stored.
+     */
+    public boolean exists(String filename) {
+        return Files.isRegularFile(Paths.get(fileFolder, filename));
+    }
+
+    /**
+     * Gets the size of the file at its path.
+     * @param filename The name of the file.
+     * @return The size in bytes.
+     * @throws IOException Occours when the file doesn't exist.
+     */
+    public long size(String filename) throws IOException {
+        Path file = Paths.get(fileFolder, filename);
+        if (!Files.isRegularFile(file)) { throw new NoSuchFileException(file.toString()); }
+        return Files.size(file);
+    }
+
+    /**
+     * Deletes the file at its path.
+     * @param filename The name of the file.
+     * @return If the file existed and was deleted.
+     */
+    public boolean delete(String filename) {
+        File file = new File(fileFolder + "/" + filename);
+        boolean deleted = file.exists() && file.delete();
+        mappedFiles.invalidate(file.toPath());
+        manifest.remove(filename);
+        return deleted;
+    }
+
+    /**
+     * Lists every file in the manifest (including ones in sub directories if the files name includes them).
+     * @return The filenames relative to the folder, with '/' between folders.
+     */
+    public Stream<String> list() {
+        return manifest.filenames();
+    }
+}
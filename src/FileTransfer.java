@@ -0,0 +1,396 @@
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * Moves file data between sockets and the disk, uses zero-copy channel transfers when the socket has a channel (else it falls back to a heap buffer copy).
+ * Receiving reads the socket channel through a direct buffer, as the JDK only transfers into a file without a copy from another file (from a socket it copies through a small temporary buffer).
+ */
+public abstract class FileTransfer {
+
+    /**
+     * The size of the heap buffer used when a socket doesn't have a channel which can be used for transfers.
+     */
+    public final static int FALLBACK_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The largest direct buffer a file is received through from a socket channel.
+     */
+    private final static int RECEIVE_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Sends all of a file to the given socket.
+     * @param file The path of the file which is being sent.
+     * @param socket The socket which the file is being sent on.
+     * @return The number of bytes which were sent.
+     * @throws IOException Occours when the file can't be read or the socket can't be written to.
+     */
+    public static long send(Path file, Socket socket) throws IOException {
+        return send(file, 0, Long.MAX_VALUE, socket);
+    }
+
+    /**
+     * Sends a range of a file to the given socket, reading from the offset without moving through the bytes before it.
+     * @param file The path of the file which is being sent.
+     * @param offset The byte of the file the range starts at.
+     * @param length The most bytes to send (the range stops early at the end of the file).
+     * @param socket The socket which the range is being sent on.
+     * @return The number of bytes which were sent.
+     * @throws IOException Occours when the offset is past the end of the file, the file can't be read or the socket can't be written to.
+     */
+    public static long send(Path file, long offset, long length, Socket socket) throws IOException {
+        // Opens the file as a channel, if the socket has a channel then the kernel copies the range straight to it (else the heap path is used).
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = fileChannel.size();
+            if (offset < 0 || offset > size) { throw new EOFException("offset " + offset + " is outside of " + file + " (" + size + " bytes)"); }
+            long end = offset + Math.min(length, size - offset);
+
+            SocketChannel socketChannel = socket.getChannel();
+            if (socketChannel == null) { return copyStream(Channels.newInputStream(fileChannel.position(offset)), socket.getOutputStream(), end - offset); }
+
+            // Loops as transferTo can send less than asked for (e.g. when the socket buffer is full).
+            long position = offset;
+            while (position < end) { position += fileChannel.transferTo(position, end - position, socketChannel); }
+            return position - offset;
+        }
+    }
+
+    /**
+     * Sends part of a buffer which is held in memory, the buffer itself is shared so only a duplicate of it is moved through.
+     * @param data The buffer holding the data (its position and limit are left alone).
+     * @param offset The index in the buffer the part starts at.
+     * @param length The number of bytes to send.
+     * @param socket The socket which the data is being sent on (must have a channel).
+     * @return The number of bytes which were sent.
+     * @throws IOException Occours when the socket can't be written to.
+     */
+    public static long send(ByteBuffer data, int offset, int length, Socket socket) throws IOException {
+        ByteBuffer view = data.duplicate();
+        view.limit(offset + length).position(offset);
+        SocketChannel socketChannel = socket.getChannel();
+        while (view.hasRemaining()) { socketChannel.write(view); }
+        return length;
+    }
+
+    /**
+     * Receives a file of a given size from the socket and stores it at the given path (replacing any older version).
+     * @param socket The socket which the file is being received on.
+     * @param file The path the file should be stored at.
+     * @param size The number of bytes which should be received.
+     * @param timeoutMilliseconds The longest time which can be spent waiting for new data before the transfer fails (the socket's own timeout is used on the heap path).
+     * @return The number of bytes which were received.
+     * @throws IOException Occours when the socket closes early, times out or the file can't be written.
+     */
+    public static long receive(Socket socket, Path file, long size, int timeoutMilliseconds) throws IOException {
+        // Opens the file as a channel so data can be pulled straight from the socket channel into it.
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            SocketChannel socketChannel = socket.getChannel();
+            if (socketChannel == null) { return copyStream(socket.getInputStream(), Channels.newOutputStream(fileChannel), size); }
+            return receiveChannel(socketChannel, fileChannel, 0, size, timeoutMilliseconds);
+        }
+    }
+
+    /**
+     * Receives a file of a given size which follows a message read from a buffered input of the socket (e.g. a file in a rebalance batch).
+     * The bytes of the file already in the inputs buffer are written first, then the rest is read straight from the socket channel.
+     * @param input The buffered input the message was read from.
+     * @param socket The socket which the file is being received on.
+     * @param file The path the file should be stored at.
+     * @param size The number of bytes which should be received.
+     * @param timeoutMilliseconds The longest time which can be spent waiting for new data before the transfer fails (the socket's own timeout is used on the heap path).
+     * @return The number of bytes which were received.
+     * @throws IOException Occours when the socket closes early, times out or the file can't be written.
+     */
+    public static long receive(SocketInput input, Socket socket, Path file, long size, int timeoutMilliseconds) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            SocketChannel socketChannel = socket.getChannel();
+            if (socketChannel == null) { return copyStream(input, Channels.newOutputStream(fileChannel), size); }
+
+            // Takes what is already buffered (never more than the file), the buffer is then empty so the rest of the file is next on the socket.
+            byte[] buffered = new byte[(int) Math.min(input.buffered(), size)];
+            if (input.read(buffered) != buffered.length) { throw new EOFException("buffered data ended early"); }
+            ByteBuffer piece = ByteBuffer.wrap(buffered);
+            while (piece.hasRemaining()) { fileChannel.write(piece, piece.position()); }
+            return receiveChannel(socketChannel, fileChannel, buffered.length, size, timeoutMilliseconds);
+        }
+    }
+
+    /**
+     * Receives a file of a given size from the socket, storing it at the given path while forwarding each piece to the next socket as it arrives (used for chain replication).
+     * The next socket failing (or taking no data for the timeout) only stops the forwarding, the rest of the file is still received and stored here.
+     * @param socket The socket which the file is being received on.
+     * @param file The path the file should be stored at.
+     * @param size The number of bytes which should be received.
+     * @param timeoutMilliseconds The longest time which can be spent waiting for new data (or for the next socket to take data) before that side fails.
+     * @param next The socket the data is forwarded to (null to only store it).
+     * @return If the whole file was forwarded to the next socket (true when there is no next socket), the next socket should be closed if it wasn't.
+     * @throws IOException Occours when the socket closes early, times out or the file can't be written.
+     */
+    public static boolean relay(Socket socket, Path file, long size, int timeoutMilliseconds, Socket next) throws IOException {
+        SocketChannel socketChannel = socket.getChannel();
+        SocketChannel nextChannel = next == null ? null : next.getChannel();
+        if (nextChannel == null || socketChannel == null) {
+            // Without channels (or anywhere to forward to) the file is stored first then sent on whole.
+            receive(socket, file, size, timeoutMilliseconds);
+            if (next == null) { return true; }
+            try { send(file, next); return true; }
+            catch (IOException exception) { Log.error("Error: (" + exception + "), unable to forward the file down the chain, it is only stored here."); return false; }
+        }
+
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            ByteBuffer buffer = ByteBuffer.allocateDirect(FALLBACK_BUFFER_SIZE);
+            boolean forwarding = true;
+
+            // Switches both sockets to non-blocking for the transfer so the timeout applies to reading and to forwarding (each selector is closed before its socket is switched back).
+            socketChannel.configureBlocking(false);
+            nextChannel.configureBlocking(false);
+            try (Selector selector = Selector.open(); Selector nextSelector = Selector.open()) {
+                socketChannel.register(selector, SelectionKey.OP_READ);
+                nextChannel.register(nextSelector, SelectionKey.OP_WRITE);
+                while (position < size) {
+                    buffer.clear().limit((int) Math.min(buffer.capacity(), size - position));
+                    int bytesRead = socketChannel.read(buffer);
+                    if (bytesRead == -1) { throw new EOFException("socket closed after " + position + " of " + size + " bytes"); }
+                    if (bytesRead > 0) {
+                        // Writes the piece to the file at its position then forwards the same bytes down the chain (until the next socket fails).
+                        buffer.flip();
+                        long writePosition = position;
+                        while (buffer.hasRemaining()) { writePosition += fileChannel.write(buffer, writePosition); }
+                        if (forwarding) {
+                            buffer.rewind();
+                            try { forward(buffer, nextChannel, nextSelector, timeoutMilliseconds); }
+                            catch (IOException exception) {
+                                Log.error("Error: (" + exception + "), the next Dstore in the chain failed after " + position + " of " + size + " bytes, the file is only stored here.");
+                                forwarding = false;
+                            }
+                        }
+                        position += bytesRead;
+                        continue;
+                    }
+
+                    // Waits for more data until the timeout (the end of the socket shows up as a read of -1).
+                    if (selector.select(timeoutMilliseconds) == 0) { throw new SocketTimeoutException("no data for " + timeoutMilliseconds + "ms after " + position + " of " + size + " bytes"); }
+                    selector.selectedKeys().clear();
+                }
+            }
+            finally {
+                socketChannel.configureBlocking(true);
+                if (nextChannel.isOpen()) { nextChannel.configureBlocking(true); }
+            }
+            return forwarding;
+        }
+    }
+
+    /**
+     * Writes all of a buffer to a non-blocking socket, waiting for it to take more data until the timeout (as a blocking write would wait forever on a stalled peer).
+     * @param buffer The data being written.
+     * @param channel The socket being written to.
+     * @param selector A selector the socket is registered with for writes.
+     * @param timeoutMilliseconds The longest time which can be spent waiting for the socket to take more data.
+     * @throws IOException Occours when the socket fails or takes no data for the timeout.
+     */
+    private static void forward(ByteBuffer buffer, SocketChannel channel, Selector selector, int timeoutMilliseconds) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.write(buffer) > 0) { continue; }
+            if (selector.select(timeoutMilliseconds) == 0) { throw new SocketTimeoutException("next socket took no data for " + timeoutMilliseconds + "ms"); }
+            selector.selectedKeys().clear();
+        }
+    }
+
+    /**
+     * Pulls data from the socket channel into the file channel through a direct buffer, uses a selector so the timeout still applies (as blocking channels ignore SO_TIMEOUT).
+     * @param socketChannel The channel data is being read from.
+     * @param fileChannel The channel data is being written to.
+     * @param start The position in the file to start writing at (the bytes before it have already been received).
+     * @param size The number of bytes which should be in the file once it is received.
+     * @param timeoutMilliseconds The longest time which can be spent waiting for new data before the transfer fails.
+     * @return The number of bytes in the file (including those before the start).
+     * @throws IOException Occours when the socket closes early, times out or the file can't be written.
+     */
+    private static long receiveChannel(SocketChannel socketChannel, FileChannel fileChannel, long start, long size, int timeoutMilliseconds) throws IOException {
+        long position = start;
+
+        // Switches the socket to non-blocking for the transfer (selector is closed before it is switched back as a registered channel can't block).
+        socketChannel.configureBlocking(false);
+        try {
+            try (Selector selector = Selector.open()) {
+                socketChannel.register(selector, SelectionKey.OP_READ);
+                ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.max(1, Math.min(RECEIVE_BUFFER_SIZE, size - start)));
+                while (position < size) {
+                    buffer.clear().limit((int) Math.min(buffer.capacity(), size - position));
+                    int bytesRead = socketChannel.read(buffer);
+                    if (bytesRead == -1) { throw new EOFException("socket closed after " + position + " of " + size + " bytes"); }
+                    if (bytesRead > 0) {
+                        buffer.flip();
+                        while (buffer.hasRemaining()) { position += fileChannel.write(buffer, position); }
+                        continue;
+                    }
+
+                    // Waits for more data until the timeout (the end of the socket shows up as a read of -1).
+                    if (selector.select(timeoutMilliseconds) == 0) { throw new SocketTimeoutException("no data for " + timeoutMilliseconds + "ms after " + position + " of " + size + " bytes"); }
+                    selector.selectedKeys().clear();
+                }
+            }
+        }
+        finally { socketChannel.configureBlocking(true); }
+        return position;
+    }
+
+    /**
+     * Reads a single line from a stream one byte at a time, so none of the data after the line is taken from the stream (e.g. a file which follows it).
+     * @param input The stream the line is read from (should be buffered as each byte is read on its own).
+     * @return The line without its line ending, or null if the stream ended before any of it.
+     * @throws IOException Occours when the stream fails.
+     */
+    public static String readLine(InputStream input) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int nextByte;
+        while ((nextByte = input.read()) != -1 && nextByte != '\n') { line.write(nextByte); }
+        if (nextByte == -1 && line.size() == 0) { return null; }
+
+        String text = line.toString();
+        return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+    }
+
+    /**
+     * Copies a given number of bytes between streams through a heap buffer, used when a channel transfer isn't possible.
+     * @param input The stream data is being read from.
+     * @param output The stream data is being written to.
+     * @param size The number of bytes which should be copied.
+     * @return The number of bytes which were copied.
+     * @throws IOException Occours when the input ends early or either stream fails.
+     */
+    public static long copyStream(InputStream input, OutputStream output, long size) throws IOException {
+        byte[] buf = new byte[(int) Math.min(FALLBACK_BUFFER_SIZE, Math.max(size, 1))];
+        long position = 0;
+        while (position < size) {
+            int bytesRead = input.read(buf, 0, (int) Math.min(buf.length, size - position));
+            if (bytesRead == -1) { throw new EOFException("stream ended after " + position + " of " + size + " bytes"); }
+            output.write(buf, 0, bytesRead);
+            position += bytesRead;
+        }
+        output.flush();
+        return position;
+    }
+
+    /**
+     * A buffered input of a socket which can tell how many bytes it has buffered, so a file following a message can be taken from the buffer then straight from the socket channel.
+     * Only the thread handling the connection reads it, so unlike a BufferedInputStream (whose subclasses lock every read with synchronized, pinning a virtual thread while it waits on the socket) it takes no lock at all.
+     */
+    public static class SocketInput extends InputStream {
+
+        /**
+         * The size of the buffer (the same as a BufferedInputStream's).
+         */
+        private final static int BUFFER_SIZE = 8192;
+
+        /**
+         * The sockets own input which is read from.
+         */
+        private final InputStream socketInput;
+
+        /**
+         * Holds bytes read from the socket but not yet from this input.
+         */
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+
+        /**
+         * The index of the next byte in the buffer to be read.
+         */
+        private int position = 0;
+
+        /**
+         * The number of bytes in the buffer which were read from the socket.
+         */
+        private int count = 0;
+
+        /**
+         * Creates the buffered input for a socket.
+         * @param socket The socket which is read from.
+         * @throws IOException Occours when the sockets input can't be got.
+         */
+        public SocketInput(Socket socket) throws IOException {
+            socketInput = socket.getInputStream();
+        }
+
+        /**
+         * Reads the next byte, filling the buffer from the socket if it is empty.
+         * @return The byte, or -1 if the socket has ended.
+         * @throws IOException Occours when the socket fails.
+         */
+        public int read() throws IOException {
+            if (position == count && !fill()) { return -1; }
+            return buffer[position++] & 0xFF;
+        }
+
+        /**
+         * Reads up to a number of bytes, from the buffer if it has any else from the socket.
+         * @param bytes The array the bytes are read into.
+         * @param offset The index in the array the bytes start at.
+         * @param length The most bytes to read.
+         * @return The number of bytes read, or -1 if the socket has ended.
+         * @throws IOException Occours when the socket fails.
+         */
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            Objects.checkFromIndexSize(offset, length, bytes.length);
+            if (length == 0) { return 0; }
+
+            // An empty buffer is refilled, unless the read is at least as large as it, then it goes straight to the socket.
+            if (position == count) {
+                if (length >= buffer.length) { return socketInput.read(bytes, offset, length); }
+                if (!fill()) { return -1; }
+            }
+            int taken = Math.min(length, count - position);
+            System.arraycopy(buffer, position, bytes, offset, taken);
+            position += taken;
+            return taken;
+        }
+
+        /**
+         * Gets the number of bytes which can be read without waiting on the socket.
+         * @return The number of buffered bytes plus those the socket has ready.
+         * @throws IOException Occours when the socket fails.
+         */
+        public int available() throws IOException {
+            return (count - position) + socketInput.available();
+        }
+
+        /**
+         * Closes the sockets input (which closes the socket).
+         * @throws IOException Occours when the socket can't be closed.
+         */
+        public void close() throws IOException {
+            socketInput.close();
+        }
+
+        /**
+         * Gets the number of bytes which have been read from the socket but not from this input.
+         * @return The number of buffered bytes.
+         */
+        public int buffered() {
+            return count - position;
+        }
+
+        /**
+         * Refills the empty buffer with whatever the socket has (waiting for at least one byte).
+         * @return If any bytes were read, false if the socket has ended.
+         * @throws IOException Occours when the socket fails.
+         */
+        private boolean fill() throws IOException {
+            int bytesRead = socketInput.read(buffer, 0, buffer.length);
+            position = 0;
+            count = Math.max(bytesRead, 0);
+            return bytesRead > 0;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The log of a Controller or Dstore, lines are put in a lock free ring and written out by a single background thread so a slow terminal or file never holds up a request.
+ * A line is given as up to four parts which are only joined on the writer thread (a string array part is joined with spaces), so a line whose level is off costs a single check and one which is on doesn't build a string on the calling thread.
+ * When the ring is full lines are dropped (and counted) rather than waited for, apart from errors which wait for space.
+ */
+public abstract class Log {
+
+    /**
+     * The levels of a line, from the most to the least important.
+     */
+    public final static int ERROR = 0, WARN = 1, INFO = 2, DEBUG = 3;
+
+    /**
+     * The name of each level as it is written.
+     */
+    private final static String[] LEVEL_NAMES = {"ERROR", "WARN", "INFO", "DEBUG"};
+
+    /**
+     * The least important level which is logged, lines below it are skipped before anything is done with them.
+     */
+    private final static int LEVEL = parseLevel(System.getProperty("log.level", "INFO"));
+
+    /**
+     * The number of lines the ring holds (a power of two so a sequence maps to its slot with a mask).
+     */
+    private final static int CAPACITY = Integer.highestOneBit(Math.max(Integer.getInteger("log.bufferSize", 1 << 16), 2));
+
+    /**
+     * The number of parts each line has room for.
+     */
+    private final static int PARTS = 4;
+
+    /**
+     * The level, time and parts of the line in each slot, only read once the slot is published.
+     */
+    private final static int[] levels = new int[CAPACITY];
+    private final static long[] times = new long[CAPACITY];
+    private final static Object[] parts = new Object[CAPACITY * PARTS];
+
+    /**
+     * The sequence (plus one) of the line each slot holds, set once the line is in the slot so the writer never reads half a line.
+     */
+    private final static AtomicLongArray published = new AtomicLongArray(CAPACITY);
+
+    /**
+     * The sequence the next line will take, and the sequence the writer reads next (every slot before it is free).
+     */
+    private final static AtomicLong claimed = new AtomicLong(), consumed = new AtomicLong();
+
+    /**
+     * The number of lines dropped as the ring was full.
+     */
+    private final static LongAdder dropped = new LongAdder();
+
+    /**
+     * The number of characters the writer collects for an output before writing them.
+     */
+    private final static int BATCH_CHARS = 1 << 16;
+
+    /**
+     * The standard output and error, used directly so writing never takes the lock of System.out or System.err.
+     */
+    private final static Writer out = new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8);
+    private final static Writer err = new OutputStreamWriter(new FileOutputStream(FileDescriptor.err), StandardCharsets.UTF_8);
+
+    /**
+     * If the program is exiting, the writer then stops once every line has been written.
+     */
+    private static volatile boolean stopping = false;
+
+    /**
+     * The thread which writes out every line.
+     */
+    private final static Thread writer = new Thread(Log::writeLoop, "log-writer");
+
+    static {
+        writer.setDaemon(true);
+        writer.start();
+
+        // Writes out the lines still in the ring when the program exits.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            stopping = true;
+            LockSupport.unpark(writer);
+            try { writer.join(1000); }
+            catch (InterruptedException exception) { Thread.currentThread().interrupt(); }
+        }));
+    }
+
+    /**
+     * Checks if lines of a level are logged, for callers which would have to do work to get the parts of a line.
+     * @param level The level.
+     * @return If lines of the level are logged.
+     */
+    public static boolean isEnabled(int level) {
+        return level <= LEVEL;
+    }
+
+    /**
+     * Logs an error.
+     * @param a The line.
+     */
+    public static void error(Object a) { append(ERROR, a, null, null, null); }
+
+    /**
+     * Logs an error with the stack trace of the exception which caused it.
+     * @param a The line.
+     * @param exception The exception.
+     */
+    public static void error(Object a, Throwable exception) { append(ERROR, a, exception, null, null); }
+
+    /**
+     * Logs a warning.
+     * @param a The line.
+     */
+    public static void warn(Object a) { append(WARN, a, null, null, null); }
+
+    /**
+     * Logs information about what the program is doing.
+     * @param a The line.
+     */
+    public static void info(Object a) { append(INFO, a, null, null, null); }
+
+    /**
+     * Logs a line to help with debugging, made of parts joined when it is written.
+     * @param a The first part.
+     * @param b The second part.
+     */
+    public static void debug(Object a, Object b) { append(DEBUG, a, b, null, null); }
+
+    /**
+     * Logs a line to help with debugging, made of parts joined when it is written.
+     * @param a The first part.
+     * @param b The second part.
+     * @param c The third part.
+     */
+    public static void debug(Object a, Object b, Object c) { append(DEBUG, a, b, c, null); }
+
+    /**
+     * Logs a line to help with debugging, made of parts joined when it is written.
+     * @param a The first part.
+     * @param b The second part.
+     * @param c The third part.
+     * @param d The fourth part.
+     */
+    public static void debug(Object a, Object b, Object c, Object d) { append(DEBUG, a, b, c, d); }
+
+    /**
+     * Puts a line in the next free slot of the ring, dropping it if the ring is full (errors wait for a slot instead).
+     * @param level The level of the line.
+     * @param a The first part.
+     * @param b The second part (or null).
+     * @param c The third part (or null).
+     * @param d The fourth part (or null).
+     */
+    private static void append(int level, Object a, Object b, Object c, Object d) {
+        if (level > LEVEL) { return; }
+
+        // Claims the next sequence, only once its slot has been written out.
+        long sequence;
+        while (true) {
+            sequence = claimed.get();
+            if (sequence - consumed.get() >= CAPACITY) {
+                if (level != ERROR) { dropped.increment(); return; }
+                LockSupport.unpark(writer);
+                Thread.onSpinWait();
+            }
+            else if (claimed.compareAndSet(sequence, sequence + 1)) { break; }
+        }
+
+        // Fills the slot then publishes it (the volatile set makes the rest of the slot visible to the writer).
+        int slot = (int) sequence & (CAPACITY - 1);
+        levels[slot] = level;
+        times[slot] = System.currentTimeMillis();
+        parts[slot * PARTS] = a;
+        parts[slot * PARTS + 1] = b;
+        parts[slot * PARTS + 2] = c;
+        parts[slot * PARTS + 3] = d;
+        published.set(slot, sequence + 1);
+    }
+
+    /**
+     * Writes out lines in order as they are published, collecting them into a batch for each output which is written whenever it catches up (or the batch is full).
+     * Checks for new lines every millisecond when there is nothing to write.
+     */
+    private static void writeLoop() {
+        StringBuilder outBatch = new StringBuilder(BATCH_CHARS), errBatch = new StringBuilder(BATCH_CHARS);
+        char[] chars = new char[BATCH_CHARS];
+        long lastMillis = -1;
+        String lastTime = "";
+        long next = consumed.get();
+        while (true) {
+            int slot = (int) next & (CAPACITY - 1);
+
+            // Writes out the batches once it catches up (noting any lines dropped), then waits for more (or stops once the program is exiting).
+            if (published.get(slot) != next + 1) {
+                long lost = dropped.sumThenReset();
+                if (lost > 0) { errBatch.append("WARN ").append(lost).append(" log lines were dropped as the log couldn't keep up.").append(System.lineSeparator()); }
+                if (outBatch.length() > 0 || errBatch.length() > 0) { write(outBatch, out, chars); write(errBatch, err, chars); }
+                if (stopping && claimed.get() == next) { return; }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                continue;
+            }
+
+            // Formats the line from its slot onto its batch (errors and warnings go to the standard error), then frees the slot (clearing its parts so they can be collected).
+            StringBuilder line = levels[slot] <= WARN ? errBatch : outBatch;
+            if (times[slot] != lastMillis) { lastMillis = times[slot]; lastTime = Instant.ofEpochMilli(lastMillis).toString(); }
+            line.append(lastTime).append(' ').append(LEVEL_NAMES[levels[slot]]).append(' ');
+            Throwable exception = null;
+            for (int i = 0; i < PARTS; i++) {
+                Object part = parts[slot * PARTS + i];
+                parts[slot * PARTS + i] = null;
+                if (part instanceof Throwable throwable) { exception = throwable; }
+                else if (part instanceof String[] words) { for (int w = 0; w < words.length; w++) { if (w > 0) { line.append(' '); } line.append(words[w]); } }
+                else if (part != null) { line.append(part); }
+            }
+            line.append(System.lineSeparator());
+            if (exception != null) { StringWriter trace = new StringWriter(); exception.printStackTrace(new PrintWriter(trace)); line.append(trace); }
+            consumed.lazySet(++next);
+            if (line.length() >= BATCH_CHARS) { write(line, line == errBatch ? err : out, chars); }
+        }
+    }
+
+    /**
+     * Writes a batch to an output then empties it.
+     * @param batch The lines.
+     * @param output The output.
+     * @param chars Room to copy the lines into (grown if the batch doesn't fit).
+     */
+    private static void write(StringBuilder batch, Writer output, char[] chars) {
+        // Try's writing the batch, if the output has gone there is nowhere left to report it so the lines are lost.
+        try {
+            for (int start = 0; start < batch.length(); start += chars.length) {
+                int end = Math.min(batch.length(), start + chars.length);
+                batch.getChars(start, end, chars, 0);
+                output.write(chars, 0, end - start);
+            }
+            output.flush();
+        }
+        catch (IOException exception) {}
+        batch.setLength(0);
+    }
+
+    /**
+     * Reads a level from its name.
+     * @param name The name of the level (in any case).
+     * @return The level, INFO if the name isn't one.
+     */
+    private static int parseLevel(String name) {
+        for (int i = 0; i < LEVEL_NAMES.length; i++) { if (LEVEL_NAMES[i].equalsIgnoreCase(name)) { return i; } }
+        return INFO;
+    }
+}
@@ -0,0 +1,155 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Memory maps large files for sending, a file being sent to many clients at once is only mapped once and shared between them.
+ * A mapping is dropped from the table once its last reader is done or its file is removed or replaced, the memory itself is only unmapped by the garbage collector once no reader can still be using it.
+ */
+public class MappedFiles {
+
+    /**
+     * The most bytes mapped by a single buffer (a mapping can't be more than 2GB, so bigger files are mapped in segments).
+     */
+    private final static long SEGMENT_BYTES = 1L << 30;
+
+    /**
+     * The most bytes handed to the socket in a single write.
+     */
+    private final static int WRITE_SLICE_BYTES = 8 * 1024 * 1024;
+
+    /**
+     * The mappings currently being read from.
+     * HashMap paring goes as follows [FILE_PATH, MAPPING].
+     */
+    private final ConcurrentHashMap<Path, Mapping> mappings = new ConcurrentHashMap<>();
+
+    /**
+     * Sends a range of a file from its shared mapping, mapping it first if no one else is reading it.
+     * @param file The path of the file.
+     * @param offset The byte of the file the range starts at.
+     * @param length The most bytes to send (the range stops early at the end of the file).
+     * @param socketChannel The channel which the range is being sent on.
+     * @return The number of bytes which were sent.
+     * @throws IOException Occours when the file can't be mapped, the offset is past its end or the socket can't be written to.
+     */
+    public long send(Path file, long offset, long length, SocketChannel socketChannel) throws IOException {
+        Mapping mapping = acquire(file);
+        try {
+            if (offset < 0 || offset > mapping.size) { throw new EOFException("offset " + offset + " is outside of " + file + " (" + mapping.size + " bytes)"); }
+            long end = offset + Math.min(length, mapping.size - offset);
+
+            // Writes the range segment by segment in large slices, each through its own view so other readers of the mapping aren't affected.
+            long position = offset;
+            while (position < end) {
+                MappedByteBuffer segment = mapping.segments[(int) (position / SEGMENT_BYTES)];
+                int segmentStart = (int) (position % SEGMENT_BYTES);
+                int sliceLength = (int) Math.min(Math.min(end - position, segment.capacity() - segmentStart), WRITE_SLICE_BYTES);
+                ByteBuffer slice = segment.slice(segmentStart, sliceLength);
+                while (slice.hasRemaining()) { socketChannel.write(slice); }
+                position += sliceLength;
+            }
+            return end - offset;
+        }
+        finally { release(mapping); }
+    }
+
+    /**
+     * Drops the mapping of a file which has been removed or replaced, so new readers map the new version (readers still using the old one carry on safely).
+     * @param file The path of the file.
+     */
+    public void invalidate(Path file) {
+        mappings.remove(file);
+    }
+
+    /**
+     * Takes a use of the files mapping, mapping it if there isn't one.
+     * @param file The path of the file.
+     * @return The mapping, which must be given back with {@link #release}.
+     * @throws IOException Occours when the file can't be mapped.
+     */
+    private Mapping acquire(Path file) throws IOException {
+        try {
+            return mappings.compute(file, (path, mapping) -> {
+                if (mapping == null) { mapping = map(path); }
+                mapping.users++;
+                return mapping;
+            });
+        }
+        catch (UncheckedIOException exception) { throw exception.getCause(); }
+    }
+
+    /**
+     * Gives back a use of a mapping, dropping it from the table if it was the last one (a mapping already dropped by an invalidation is left alone).
+     * @param mapping The mapping being given back.
+     */
+    private void release(Mapping mapping) {
+        mappings.computeIfPresent(mapping.path, (path, current) -> {
+            if (current != mapping) { return current; }
+            return --current.users == 0 ? null : current;
+        });
+    }
+
+    /**
+     * Maps a whole file read only, in as many segments as it needs.
+     * @param file The path of the file.
+     * @return The mapping with no users.
+     */
+    private static Mapping map(Path file) {
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = fileChannel.size();
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) Math.max(1, (size + SEGMENT_BYTES - 1) / SEGMENT_BYTES)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = i * SEGMENT_BYTES;
+                segments[i] = fileChannel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_BYTES, size - start));
+            }
+            return new Mapping(file, size, segments);
+        }
+        catch (IOException exception) { throw new UncheckedIOException(exception); }
+    }
+
+    /**
+     * A files mapping and how many readers are using it.
+     */
+    private static class Mapping {
+
+        /**
+         * The path of the file which is mapped.
+         */
+        private final Path path;
+
+        /**
+         * The size of the file when it was mapped.
+         */
+        private final long size;
+
+        /**
+         * The mapped segments of the file in order.
+         */
+        private final MappedByteBuffer[] segments;
+
+        /**
+         * The number of readers using the mapping (only changed while computing its entry in the table).
+         */
+        private int users = 0;
+
+        /**
+         * Creates a mapping with no users.
+         * @param path The path of the file which is mapped.
+         * @param size The size of the file.
+         * @param segments The mapped segments of the file.
+         */
+        private Mapping(Path path, long size, MappedByteBuffer[] segments) {
+            this.path = path;
+            this.size = size;
+            this.segments = segments;
+        }
+    }
+}
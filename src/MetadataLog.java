@@ -0,0 +1,484 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * A write ahead log of every change to the controllers metadata, so the namespace survives the controller restarting.
+ * Changes are queued by whoever makes them and written by a single thread, which writes everything queued since its last write then syncs it once (a group commit), so concurrent operations share the cost of each sync.
+ * Once the log gets big it is rolled over and a snapshot of the fully stored files is written beside it, so starting up only replays the snapshot and the log written since.
+ */
+public class MetadataLog implements Closeable {
+
+    // Types of change which are logged.
+    public final static byte STORE_PROGRESS = 0;
+    public final static byte STORE_COMPLETE = 1;
+    public final static byte REMOVE_PROGRESS = 2;
+    public final static byte REMOVE_COMPLETE = 3;
+    public final static byte DROP = 4; // The files record was removed without a client removal (an aborted store or a rebalance).
+
+    /**
+     * Marks a queued request for a snapshot rather than a change.
+     */
+    private final static byte SNAPSHOT = -1;
+
+    /**
+     * Marks the queued request which stops the writer.
+     */
+    private final static byte CLOSE = -2;
+
+    /**
+     * The most changes written by a single group commit.
+     */
+    private final static int MAX_BATCH_ENTRIES = 4096;
+
+    /**
+     * The bytes of log after which it is rolled over into a snapshot.
+     */
+    private final static long SNAPSHOT_THRESHOLD_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * The first int of a snapshot file.
+     */
+    private final static int SNAPSHOT_MAGIC = 0x4D455441;
+
+    /**
+     * The name of the current snapshot in the folder (a new one is written beside it then moved over it).
+     */
+    private final static String SNAPSHOT_FILE = "snapshot";
+
+    /**
+     * The start and end of a log files name, the log number goes between them.
+     */
+    private final static String LOG_PREFIX = "wal-";
+    private final static String LOG_SUFFIX = ".log";
+
+    /**
+     * The folder the log and snapshot are kept in.
+     */
+    private final Path folder;
+
+    /**
+     * If changes are synced in groups, else each change is written and synced on its own.
+     */
+    private final boolean groupCommit;
+
+    /**
+     * The changes waiting to be written, in the order they were made.
+     */
+    private final LinkedBlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+
+    /**
+     * The thread which writes and syncs the log.
+     */
+    private Thread writer;
+
+    /**
+     * Gives every fully stored file (with its size) to the consumer it is passed, used to write snapshots.
+     */
+    private Consumer<BiConsumer<String, String>> snapshotSource;
+
+    /**
+     * The number of the log which is being written to, the highest numbered log is always the newest.
+     */
+    private long logNumber = 0;
+
+    /**
+     * The log which is being written to (only used by the writer).
+     */
+    private FileChannel logChannel;
+
+    /**
+     * The bytes written to the current log.
+     */
+    private long logBytes = 0;
+
+    /**
+     * If the log can no longer be written (a failed write couldn't be cut from it and no new log could be made), every change after is reported as not written.
+     */
+    private boolean failed = false;
+
+    /**
+     * Reused by the writer to encode each batch.
+     */
+    private ByteBuffer batchBuffer = ByteBuffer.allocate(64 * 1024);
+
+    /**
+     * The snapshot which is being written (or the last one written).
+     */
+    private volatile CompletableFuture<Boolean> snapshotting = CompletableFuture.completedFuture(true);
+
+    /**
+     * Creates a log kept in a folder, nothing is read or written until it is recovered and started.
+     * @param folder The folder the log and snapshot are kept in (made if it doesn't exist).
+     * @param groupCommit If changes are synced in groups.
+     * @throws IOException Occours when the folder can't be made.
+     */
+    public MetadataLog(Path folder, boolean groupCommit) throws IOException {
+        this.folder = Files.createDirectories(folder);
+        this.groupCommit = groupCommit;
+    }
+
+    /**
+     * Replays the snapshot then every log written since it, giving each file which had completed its store.
+     * Files which were part way through a store or removal are left out, as the client was never told that operation completed.
+     * @param completedFile Given the name and size of each fully stored file.
+     * @return The number of files given.
+     * @throws IOException Occours when the snapshot or a log can't be read.
+     */
+    public int recover(BiConsumer<String, String> completedFile) throws IOException {
+        HashMap<String, String> files = new HashMap<>();
+
+        // Reads the snapshot (if one has been written), which names the first log that isn't part of it.
+        long firstLog = 0;
+        Path snapshot = folder.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshot)) {
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot), 1 << 16))) {
+                if (input.readInt() != SNAPSHOT_MAGIC) { throw new IOException("'" + snapshot + "' isn't a metadata snapshot"); }
+                firstLog = input.readLong();
+                logNumber = firstLog;
+                for (int length = input.readInt(); length >= 0; length = input.readInt()) {
+                    String filename = readString(input, length);
+                    files.put(filename, readString(input, input.readInt()));
+                }
+            }
+        }
+
+        // Replays every log from the snapshot onwards in order, each stops at its first torn or corrupt entry (where the controller stopped part way through a write).
+        for (var log : logs().tailMap(firstLog, true).entrySet()) {
+            ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(log.getValue()));
+            CRC32C checksum = new CRC32C();
+            while (data.remaining() >= 8) {
+                int length = data.getInt();
+                int expected = data.getInt();
+                if (length < 9 || length > data.remaining()) { break; }
+                checksum.reset();
+                checksum.update(data.array(), data.position(), length);
+                if ((int) checksum.getValue() != expected) { break; }
+
+                byte type = data.get();
+                String filename = getString(data);
+                String size = getString(data);
+                switch (type) {
+                    case STORE_COMPLETE -> files.put(filename, size);
+                    case REMOVE_PROGRESS, REMOVE_COMPLETE, DROP -> files.remove(filename);
+                    default -> {}
+                }
+            }
+            logNumber = log.getKey();
+        }
+
+        files.forEach(completedFile);
+        return files.size();
+    }
+
+    /**
+     * Starts a new log (after the ones which were recovered) and the thread which writes it.
+     * @param snapshotSource Gives every fully stored file (with its size) to the consumer it is passed, used to write snapshots.
+     * @throws IOException Occours when the new log can't be made.
+     */
+    public void start(Consumer<BiConsumer<String, String>> snapshotSource) throws IOException {
+        this.snapshotSource = snapshotSource;
+        openLog(logNumber + 1);
+        writer = new Thread(this::writeLoop, "metadata-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues a change to be logged.
+     * Must be called while the files record is locked, so changes to the same file are logged in the order they were made.
+     * @param type The type of change.
+     * @param filename The name of the file which changed.
+     * @param size The size of the file (or null if the change doesn't need it).
+     * @return Completed with true once the change (and every change queued before it) is synced to disk, or false if it couldn't be written.
+     */
+    public CompletableFuture<Boolean> append(byte type, String filename, String size) {
+        Entry entry = new Entry(type, filename, size == null ? "" : size);
+        queue.add(entry);
+        return entry.durable;
+    }
+
+    /**
+     * Rolls the log over and writes a snapshot of the current files, after which the older logs are deleted.
+     * @return Completed with if the snapshot was written.
+     */
+    public CompletableFuture<Boolean> snapshot() {
+        Entry entry = new Entry(SNAPSHOT, "", "");
+        queue.add(entry);
+        return entry.durable.thenCompose(rolled -> rolled ? snapshotting : CompletableFuture.completedFuture(false));
+    }
+
+    /**
+     * Writes every change queued so far then stops the writer and closes the log (any snapshot being written is let finish).
+     */
+    public void close() {
+        if (writer == null) { return; }
+        queue.add(new Entry(CLOSE, "", ""));
+        try { writer.join(); snapshotting.join(); }
+        catch (InterruptedException exception) { Thread.currentThread().interrupt(); }
+    }
+
+    /**
+     * Main loop of the writer, takes every change which has been queued then writes and syncs them together.
+     */
+    private void writeLoop() {
+        ArrayList<Entry> batch = new ArrayList<>();
+        while (true) {
+            // Waits for a change then takes every other one which is already waiting (only the one when group commit is off).
+            try { batch.add(queue.take()); }
+            catch (InterruptedException exception) { return; }
+            if (groupCommit) { queue.drainTo(batch, MAX_BATCH_ENTRIES - 1); }
+
+            // Trys writing and syncing the batch, cutting off whatever part of it reached the log if it fails (so later batches aren't written after a torn entry, where replay would stop).
+            boolean closing = false;
+            boolean snapshotAsked = false;
+            batchBuffer.clear();
+            for (Entry entry : batch) {
+                if (entry.type == CLOSE) { closing = true; }
+                else if (entry.type == SNAPSHOT) { snapshotAsked = true; }
+                else { encode(entry); }
+            }
+            batchBuffer.flip();
+            boolean written = !failed;
+            if (written) {
+                long logStart = logBytes;
+                try {
+                    while (batchBuffer.hasRemaining()) { logChannel.write(batchBuffer); }
+                    logChannel.force(false);
+                    logBytes = logStart + batchBuffer.limit();
+                }
+                catch (IOException exception) {
+                    Log.error("Error: (" + exception + "), unable to write " + batch.size() + " changes to the metadata log.");
+                    discardFailedBatch(logStart);
+                    written = false;
+                }
+            }
+
+            // Trys starting a snapshot when asked or once the log is big enough (unless one is still being written), then lets every change in the batch know if it made it to disk.
+            boolean rolledOver = false;
+            if (written && (snapshotAsked || logBytes >= SNAPSHOT_THRESHOLD_BYTES) && snapshotting.isDone()) {
+                try { rolledOver = startSnapshot(); }
+                catch (IOException exception) { Log.error("Error: (" + exception + "), unable to roll over the metadata log for a snapshot."); }
+            }
+            for (Entry entry : batch) { entry.durable.complete(written && (entry.type != SNAPSHOT || rolledOver)); }
+            batch.clear();
+
+            // Closes the log once every change before the close has been written.
+            if (closing) {
+                try { logChannel.close(); }
+                catch (IOException exception) { Log.error("Error: unable to close the metadata log."); }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Cuts the log back to where a failed batch started, or rolls over to a new log if it can't be cut (replay stops at the torn entry then carries on with the next log).
+     * If neither works the log stops taking changes, rather than writing them where they would never be replayed.
+     * @param logStart The length of the log before the batch.
+     */
+    private void discardFailedBatch(long logStart) {
+        try {
+            logChannel.truncate(logStart);
+            logChannel.force(false);
+            logBytes = logStart;
+            return;
+        }
+        catch (IOException exception) { Log.error("Error: (" + exception + "), unable to cut a failed write from the metadata log, rolling over to a new log."); }
+
+        try { openLog(logNumber + 1); }
+        catch (IOException exception) {
+            Log.error("Error: (" + exception + "), unable to roll over the metadata log, no more changes will be logged.");
+            failed = true;
+        }
+    }
+
+    /**
+     * Adds an entry to the batch buffer (growing it if needed), each entry is its length, a checksum, its type then its filename and size.
+     * @param entry The change being written.
+     */
+    private void encode(Entry entry) {
+        byte[] filename = entry.filename.getBytes(StandardCharsets.UTF_8);
+        byte[] size = entry.size.getBytes(StandardCharsets.UTF_8);
+        int length = 1 + 4 + filename.length + 4 + size.length;
+        if (batchBuffer.remaining() < 8 + length) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(batchBuffer.capacity() * 2, batchBuffer.position() + 8 + length));
+            batchBuffer.flip();
+            batchBuffer = larger.put(batchBuffer);
+        }
+
+        // Writes the body after leaving space for the header, then checksums the body into the header.
+        int start = batchBuffer.position();
+        batchBuffer.position(start + 8);
+        batchBuffer.put(entry.type).putInt(filename.length).put(filename).putInt(size.length).put(size);
+        CRC32C checksum = new CRC32C();
+        checksum.update(batchBuffer.array(), start + 8, length);
+        batchBuffer.putInt(start, length).putInt(start + 4, (int) checksum.getValue());
+    }
+
+    /**
+     * Rolls over to a new log then writes the snapshot on another thread, everything logged from now on is replayed on top of it.
+     * The snapshot is read while changes carry on, so it can have changes from after the roll over in it (replaying them again gives the same result).
+     * @return If the log was rolled over.
+     * @throws IOException Occours when the new log can't be made.
+     */
+    private boolean startSnapshot() throws IOException {
+        long firstLog = logNumber + 1;
+        openLog(firstLog);
+        snapshotting = CompletableFuture.supplyAsync(() -> writeSnapshot(firstLog));
+        return true;
+    }
+
+    /**
+     * Writes a snapshot to a temporary file, syncs it and moves it over the old one, then deletes the logs it covers.
+     * @param firstLog The first log which isn't part of the snapshot.
+     * @return If the snapshot was written.
+     */
+    private boolean writeSnapshot(long firstLog) {
+        Path temporary = folder.resolve(SNAPSHOT_FILE + ".tmp");
+        try {
+            try (FileOutputStream fileOutput = new FileOutputStream(temporary.toFile());
+                 DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput, 1 << 16))) {
+                output.writeInt(SNAPSHOT_MAGIC);
+                output.writeLong(firstLog);
+                snapshotSource.accept((filename, size) -> {
+                    try { writeString(output, filename); writeString(output, size); }
+                    catch (IOException exception) { throw new UncheckedIOException(exception); }
+                });
+                output.writeInt(-1);
+                output.flush();
+                fileOutput.getFD().sync();
+            }
+            Files.move(temporary, folder.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            // Once the snapshot is in place the logs before it are no longer needed.
+            for (Path log : logs().headMap(firstLog, false).values()) { Files.deleteIfExists(log); }
+            return true;
+        }
+        catch (IOException | UncheckedIOException exception) {
+            Log.error("Error: (" + exception + "), unable to write a snapshot of the metadata.");
+            return false;
+        }
+    }
+
+    /**
+     * Starts writing to a new log, then closes the current one (if there is one).
+     * @param number The number of the new log.
+     * @throws IOException Occours when the new log can't be made.
+     */
+    private void openLog(long number) throws IOException {
+        FileChannel newLog = FileChannel.open(folder.resolve(LOG_PREFIX + number + LOG_SUFFIX), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        FileChannel oldLog = logChannel;
+        logChannel = newLog;
+        logNumber = number;
+        logBytes = newLog.size();
+
+        // Trys closing the old log, which has already been synced so nothing is lost if it can't be.
+        if (oldLog != null) {
+            try { oldLog.close(); }
+            catch (IOException exception) { Log.error("Error: (" + exception + "), unable to close the old metadata log."); }
+        }
+    }
+
+    /**
+     * Finds every log in the folder.
+     * @return The logs by their number.
+     * @throws IOException Occours when the folder can't be read.
+     */
+    private TreeMap<Long, Path> logs() throws IOException {
+        TreeMap<Long, Path> logs = new TreeMap<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(folder, LOG_PREFIX + "*" + LOG_SUFFIX)) {
+            for (Path path : paths) {
+                String name = path.getFileName().toString();
+                try { logs.put(Long.parseLong(name.substring(LOG_PREFIX.length(), name.length() - LOG_SUFFIX.length())), path); }
+                catch (NumberFormatException exception) { Log.error("Error: '" + path + "' isn't a metadata log, so it is ignored."); }
+            }
+        }
+        return logs;
+    }
+
+    /**
+     * Writes a string as its UTF-8 length then bytes.
+     * @param output The stream being written to.
+     * @param value The string.
+     * @throws IOException Occours when the stream can't be written to.
+     */
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString}.
+     * @param input The stream being read from.
+     * @param length The length of the string, which has already been read.
+     * @return The string.
+     * @throws IOException Occours when the stream ends first.
+     */
+    private static String readString(DataInputStream input, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets a string from a log entry (its length then its UTF-8 bytes).
+     * @param data The entry, positioned at the string.
+     * @return The string.
+     */
+    private static String getString(ByteBuffer data) {
+        int length = data.getInt();
+        String value = new String(data.array(), data.position(), length, StandardCharsets.UTF_8);
+        data.position(data.position() + length);
+        return value;
+    }
+
+    /**
+     * A change waiting to be written, with the future which is completed once it is on disk.
+     */
+    private static class Entry {
+
+        /**
+         * The type of change.
+         */
+        private final byte type;
+
+        /**
+         * The name of the file which changed.
+         */
+        private final String filename;
+
+        /**
+         * The size of the file ("" if the change doesn't need it).
+         */
+        private final String size;
+
+        /**
+         * Completed with if the change made it to disk.
+         */
+        private final CompletableFuture<Boolean> durable = new CompletableFuture<>();
+
+        /**
+         * Creates a change.
+         * @param type The type of change.
+         * @param filename The name of the file which changed.
+         * @param size The size of the file.
+         */
+        private Entry(byte type, String filename, String size) {
+            this.type = type;
+            this.filename = filename;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,362 @@
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+
+/**
+ * Contains the metadata of every file in the system, each file has a single record holding its index, size and pending latch (which Dstores hold it is kept by the {@link PlacementIndex}).
+ * Every change to a record happens atomically on its own key (the map locks per bin), so operations on different files never wait on each other.
+ * When given a {@link MetadataLog} every change is logged while its key is locked, and the files which had completed their store are recovered from it.
+ */
+public class MetadataStore {
+
+    /**
+     * Given for changes when there is no log, as they are then as durable as they will ever be.
+     */
+    private final static CompletableFuture<Boolean> NOT_LOGGED = CompletableFuture.completedFuture(true);
+
+    /**
+     * Contains all the current files in the system and their record.
+     * HashMap paring goes as follows [FILE, RECORD].
+     */
+    private final ConcurrentHashMap<String, FileRecord> records = new ConcurrentHashMap<>();
+
+    /**
+     * The name of every file which has a record, kept in sorted order so listings can be paged from a cursor.
+     * Only changed inside the compute of the files own record, so it always matches the records map.
+     */
+    private final ConcurrentSkipListSet<String> sortedNames = new ConcurrentSkipListSet<>();
+
+    /**
+     * The log every change is written to (null when the metadata only lives in memory).
+     */
+    private final MetadataLog log;
+
+    /**
+     * The number of files which were recovered from the log.
+     */
+    private final int recoveredCount;
+
+    /**
+     * Creates an empty metadata store which only lives in memory.
+     */
+    public MetadataStore() {
+        log = null;
+        recoveredCount = 0;
+    }
+
+    /**
+     * Creates a metadata store holding every file recovered from a log, then starts logging every change to it.
+     * @param log The log to recover from and write to.
+     * @throws IOException Occours when the log can't be read or started.
+     */
+    public MetadataStore(MetadataLog log) throws IOException {
+        this.log = log;
+        recoveredCount = log.recover((file, size) -> { records.put(file, new FileRecord(Index.STORE_COMPLETE_TOKEN, size, null)); sortedNames.add(file); });
+        log.start(this::forEachCompleted);
+    }
+
+    /**
+     * Gets the number of files which were recovered from the log when the store was created.
+     * @return The number of files (0 when there is no log).
+     */
+    public int getRecoveredCount() {
+        return recoveredCount;
+    }
+
+    /**
+     * Starts the store of a file, only possible when the file isn't in the system (or has completed its removal).
+     * @param filename The name of the file being stored.
+     * @param filesize The size of the file being stored.
+     * @param latch The latch counted down as Dstores acknowledge the store.
+     * @return The new record for the file, or null if the file already exists.
+     */
+    public FileRecord beginStore(String filename, String filesize, AsyncLatch latch) {
+        FileRecord newRecord = new FileRecord(Index.STORE_PROGRESS_TOKEN, filesize, latch);
+        FileRecord current = records.compute(filename, (file, record) -> {
+            if (record != null && !record.index.equals(Index.REMOVE_COMPLETE_TOKEN)) { return record; }
+            sortedNames.add(file);
+            log(MetadataLog.STORE_PROGRESS, file, filesize);
+            return newRecord;
+        });
+        return current == newRecord ? newRecord : null;
+    }
+
+    /**
+     * Completes the store of a file, marking it as stored and dropping its latch.
+     * @param filename The name of the file which was stored.
+     * @param record The record which was given when the store began.
+     * @return Completed with if the store was still in progress (and so has now completed), once the completion is on disk.
+     */
+    public CompletableFuture<Boolean> completeStore(String filename, FileRecord record) {
+        return transition(filename, record, Index.STORE_PROGRESS_TOKEN, Index.STORE_COMPLETE_TOKEN, MetadataLog.STORE_COMPLETE);
+    }
+
+    /**
+     * Abandons the store of a file, removing it from the system if the record is still the one the store began with.
+     * @param filename The name of the file which wasn't stored.
+     * @param record The record which was given when the store began.
+     */
+    public void abortStore(String filename, FileRecord record) {
+        records.computeIfPresent(filename, (file, current) -> current == record ? drop(file) : current);
+    }
+
+    /**
+     * Starts the removal of a file, only possible when the file has completed its store.
+     * @param filename The name of the file being removed.
+     * @param latch The latch counted down as Dstores acknowledge the removal.
+     * @return The record of the file, or null if the file isn't stored in the system.
+     */
+    public FileRecord beginRemove(String filename, AsyncLatch latch) {
+        boolean[] started = {false};
+        FileRecord current = records.computeIfPresent(filename, (file, record) -> {
+            if (!record.index.equals(Index.STORE_COMPLETE_TOKEN)) { return record; }
+            record.index = Index.REMOVE_PROGRESS_TOKEN;
+            record.latch = latch;
+            started[0] = true;
+            log(MetadataLog.REMOVE_PROGRESS, file, null);
+            return record;
+        });
+        return started[0] ? current : null;
+    }
+
+    /**
+     * Completes the removal of a file, marking it as removed.
+     * @param filename The name of the file which was removed.
+     * @param record The record which was given when the removal began.
+     * @return Completed with if the removal was still in progress (and so has now completed), once the completion is on disk.
+     */
+    public CompletableFuture<Boolean> completeRemove(String filename, FileRecord record) {
+        return transition(filename, record, Index.REMOVE_PROGRESS_TOKEN, Index.REMOVE_COMPLETE_TOKEN, MetadataLog.REMOVE_COMPLETE);
+    }
+
+    /**
+     * Drops the latch of a record once its operation has finished (leaving its index as it is).
+     * @param filename The name of the file the operation was on.
+     * @param record The record which was given when the operation began.
+     */
+    public void endOperation(String filename, FileRecord record) {
+        records.computeIfPresent(filename, (file, current) -> { if (current == record) { current.latch = null; } return current; });
+    }
+
+    /**
+     * Moves a record from one index to another if it is still the given record in the expected index.
+     * @param filename The name of the file being changed.
+     * @param record The record which is expected.
+     * @param from The index the record should currently have.
+     * @param to The index the record should move to.
+     * @param logType The type of change which is logged if the record moves.
+     * @return Completed with if the record was moved, once the move is on disk (false if it couldn't be logged).
+     */
+    private CompletableFuture<Boolean> transition(String filename, FileRecord record, String from, String to, byte logType) {
+        AtomicReference<CompletableFuture<Boolean>> moved = new AtomicReference<>(CompletableFuture.completedFuture(false));
+        records.computeIfPresent(filename, (file, current) -> {
+            if (current == record && current.index.equals(from)) { current.index = to; current.latch = null; moved.set(log(logType, file, current.size)); }
+            return current;
+        });
+        return moved.get();
+    }
+
+    /**
+     * Acknowledges that a Dstore has completed its part of the operation a file is going under.
+     * @param filename The name of the file which was acknowledged.
+     * @param expectedIndex The index the file must have for the acknowledgement to count.
+     * @param onAcknowledged Run when the acknowledgement counts, just before the latch is counted down (so whoever waits on the latch sees what it did).
+     * @return Null if the acknowledgement counted, else the files current index ("" if the file isn't in the system).
+     */
+    public String acknowledge(String filename, String expectedIndex, Runnable onAcknowledged) {
+        String[] result = {""};
+        records.computeIfPresent(filename, (file, record) -> {
+            // Stops the acknowledgement when the file isn't going under the operation (or has already finished it).
+            if (!record.index.equals(expectedIndex) || record.latch == null) { result[0] = record.index; return record; }
+
+            onAcknowledged.run();
+            record.latch.countDown();
+            result[0] = null;
+            return record;
+        });
+        return result[0];
+    }
+
+    /**
+     * Gets the record of a file.
+     * @param filename The name of the file.
+     * @return The record, or null if the file isn't in the system.
+     */
+    public FileRecord get(String filename) {
+        return records.get(filename);
+    }
+
+    /**
+     * Gets the index of a file.
+     * @param filename The name of the file.
+     * @return The index, or null if the file isn't in the system.
+     */
+    public String getIndex(String filename) {
+        FileRecord record = records.get(filename);
+        return record == null ? null : record.index;
+    }
+
+    /**
+     * Gets a read only view of the names of all files in the system, in sorted order.
+     * @return The set of filenames.
+     */
+    public Set<String> filenames() {
+        return Collections.unmodifiableSet(sortedNames);
+    }
+
+    /**
+     * Gets the number of files which have a record (in any state).
+     * @return The number of files.
+     */
+    public int size() {
+        return records.size();
+    }
+
+    /**
+     * Removes every file which matches a condition.
+     * @param condition The condition which is checked against each file and its record.
+     */
+    public void removeIf(BiPredicate<String, FileRecord> condition) {
+        for (String filename : sortedNames) {
+            records.computeIfPresent(filename, (file, record) -> condition.test(file, record) ? drop(file) : record);
+        }
+    }
+
+    /**
+     * Gets a page of the fully stored files whose names start with a prefix, in sorted order.
+     * @param prefix The start every name must have (empty for every file).
+     * @param cursor The last name of the previous page, the page starts after it (null for the first page).
+     * @param maxFiles The most names in the page.
+     * @param maxChars The most characters of names in the page (always at least one name, so a page never stalls).
+     * @return The page, and if there are more names after it.
+     */
+    public Page completedPage(String prefix, String cursor, int maxFiles, int maxChars) {
+        // Walks the sorted names from the cursor (or the prefix) until it leaves the prefix, skipping files which aren't fully stored.
+        NavigableSet<String> names = cursor == null ? sortedNames.tailSet(prefix, true) : sortedNames.tailSet(cursor, false);
+        ArrayList<String> files = new ArrayList<>();
+        int chars = 0;
+        for (String filename : names) {
+            if (!filename.startsWith(prefix)) { break; }
+            if (!Index.STORE_COMPLETE_TOKEN.equals(getIndex(filename))) { continue; }
+            if (files.size() >= maxFiles || (!files.isEmpty() && chars + filename.length() > maxChars)) { return new Page(files, true); }
+            files.add(filename);
+            chars += filename.length();
+        }
+        return new Page(files, false);
+    }
+
+    /**
+     * Removes a files name from the sorted names and logs its removal, called from within the compute of its record.
+     * @param filename The name of the file.
+     * @return Null, so the compute removes the record too.
+     */
+    private FileRecord drop(String filename) {
+        sortedNames.remove(filename);
+        log(MetadataLog.DROP, filename, null);
+        return null;
+    }
+
+    /**
+     * Logs a change, called from within the compute of the files record so changes to the same file are logged in order.
+     * @param type The type of change.
+     * @param filename The name of the file.
+     * @param size The size of the file (or null if the change doesn't need it).
+     * @return Completed with if the change is on disk.
+     */
+    private CompletableFuture<Boolean> log(byte type, String filename, String size) {
+        return log == null ? NOT_LOGGED : log.append(type, filename, size);
+    }
+
+    /**
+     * Gives every fully stored file with its size, used to write snapshots of the log while changes carry on.
+     * Each record is read while its key is locked, so a change which was logged before the snapshot began is always seen.
+     * @param action Given the name and size of each fully stored file.
+     */
+    private void forEachCompleted(BiConsumer<String, String> action) {
+        String[] size = new String[1];
+        for (String filename : sortedNames) {
+            size[0] = null;
+            records.computeIfPresent(filename, (file, record) -> { if (record.index.equals(Index.STORE_COMPLETE_TOKEN)) { size[0] = record.size; } return record; });
+            if (size[0] != null) { action.accept(filename, size[0]); }
+        }
+    }
+
+    /**
+     * Writes every change logged so far and stops the log (if there is one).
+     */
+    public void close() {
+        if (log != null) { log.close(); }
+    }
+
+    /**
+     * A page of a listing.
+     * @param files The names in the page, in sorted order.
+     * @param more If there are more names after the page.
+     */
+    public record Page(List<String> files, boolean more) {}
+
+    /**
+     * Marks every file which exists in the system as having a completed store (used once a rebalance has finished).
+     */
+    public void completeAll() {
+        for (String filename : sortedNames) {
+            records.computeIfPresent(filename, (file, record) -> {
+                if (!record.index.equals(Index.STORE_COMPLETE_TOKEN)) { log(MetadataLog.STORE_COMPLETE, file, record.size); }
+                record.index = Index.STORE_COMPLETE_TOKEN;
+                record.latch = null;
+                return record;
+            });
+        }
+    }
+
+    /**
+     * The metadata for a single file, only changed inside the metadata store while its key is locked.
+     */
+    public static class FileRecord {
+
+        /**
+         * The current operation the file is going under (one of the {@link Index} tokens).
+         */
+        private volatile String index;
+
+        /**
+         * The size of the file.
+         */
+        private final String size;
+
+        /**
+         * The latch of the operation the file is going under (null when there isn't one).
+         */
+        private volatile AsyncLatch latch;
+
+        /**
+         * The time the record was created (when its store began), from {@link System#nanoTime()}.
+         */
+        private final long createdNanos = System.nanoTime();
+
+        /**
+         * Creates a record for a file.
+         * @param index The starting index of the file.
+         * @param size The size of the file.
+         * @param latch The latch of the operation the file is going under.
+         */
+        FileRecord(String index, String size, AsyncLatch latch) {
+            this.index = index;
+            this.size = size;
+            this.latch = latch;
+        }
+
+        public String getIndex() { return index; }
+
+        public String getSize() { return size; }
+
+        public AsyncLatch getLatch() { return latch; }
+
+        public long getCreatedNanos() { return createdNanos; }
+    }
+}
@@ -0,0 +1,367 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * The counters, gauges and latency histograms of a Controller or Dstore, which can be scraped as plain text (in the Prometheus format) over HTTP.
+ * Metrics are registered once and kept by whoever records to them, recording is then only adds to striped counters and atomic arrays (nothing is allocated or locked).
+ */
+public abstract class Metrics {
+
+    /**
+     * Every registered metric, in the order they were registered.
+     */
+    private final static CopyOnWriteArrayList<Registered> registry = new CopyOnWriteArrayList<>();
+
+    /**
+     * The quantiles each histogram is scraped at.
+     */
+    private final static double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /**
+     * Registers a counter.
+     * @param name The name of the counter.
+     * @param help What the counter counts.
+     * @param labels Pairs of label names and values.
+     * @return The counter.
+     */
+    public static Counter counter(String name, String help, String... labels) {
+        Counter counter = new Counter();
+        registry.add(new Registered(name, help, "counter", renderLabels(labels), counter));
+        return counter;
+    }
+
+    /**
+     * Registers a counter which is kept elsewhere, whose value is read when it is scraped.
+     * @param name The name of the counter.
+     * @param help What the counter counts.
+     * @param value Gives the current count.
+     * @param labels Pairs of label names and values.
+     */
+    public static void counter(String name, String help, LongSupplier value, String... labels) {
+        registry.add(new Registered(name, help, "counter", renderLabels(labels), value));
+    }
+
+    /**
+     * Registers a latency histogram, which is scraped in seconds.
+     * @param name The name of the histogram.
+     * @param help What the histogram times.
+     * @param labels Pairs of label names and values.
+     * @return The histogram.
+     */
+    public static Histogram histogram(String name, String help, String... labels) {
+        Histogram histogram = new Histogram();
+        registry.add(new Registered(name, help, "summary", renderLabels(labels), histogram));
+        return histogram;
+    }
+
+    /**
+     * Registers a gauge, whose value is read when it is scraped.
+     * @param name The name of the gauge.
+     * @param help What the gauge measures.
+     * @param value Gives the current value.
+     * @param labels Pairs of label names and values.
+     */
+    public static void gauge(String name, String help, LongSupplier value, String... labels) {
+        registry.add(new Registered(name, help, "gauge", renderLabels(labels), value));
+    }
+
+    /**
+     * Creates a family of counters told apart by a single label (e.g. one per Dstore), each registered the first time its key is used.
+     * @param name The name of the counters.
+     * @param help What the counters count.
+     * @param label The name of the label.
+     * @return The family.
+     */
+    public static Family<Counter> counterFamily(String name, String help, String label) {
+        return new Family<>(key -> counter(name, help, label, String.valueOf(key)));
+    }
+
+    /**
+     * Creates a family of histograms told apart by a single label (e.g. one per Dstore), each registered the first time its key is used.
+     * @param name The name of the histograms.
+     * @param help What the histograms time.
+     * @param label The name of the label.
+     * @return The family.
+     */
+    public static Family<Histogram> histogramFamily(String name, String help, String label) {
+        return new Family<>(key -> histogram(name, help, label, String.valueOf(key)));
+    }
+
+    /**
+     * Writes every metric as plain text, grouped by name.
+     * @return The text.
+     */
+    public static String scrape() {
+        ArrayList<Registered> metrics = new ArrayList<>(registry);
+        metrics.sort(Comparator.comparing(Registered::name));
+        StringBuilder text = new StringBuilder();
+        String lastName = null;
+        for (Registered metric : metrics) {
+            if (!metric.name.equals(lastName)) {
+                text.append("# HELP ").append(metric.name).append(' ').append(metric.help).append('\n');
+                text.append("# TYPE ").append(metric.name).append(' ').append(metric.type).append('\n');
+                lastName = metric.name;
+            }
+            if (metric.value instanceof Counter counter) { line(text, metric.name, metric.labels, null, counter.get()); }
+            else if (metric.value instanceof LongSupplier gauge) { line(text, metric.name, metric.labels, null, gauge.getAsLong()); }
+            else if (metric.value instanceof Histogram histogram) { histogram.write(text, metric.name, metric.labels); }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Starts serving the metrics over HTTP (on any path) from a single daemon thread, so it never keeps a stopped Controller or Dstore running.
+     * Scrapes are rare and tiny, so each connection is answered then closed in turn rather than pulling in a full HTTP server.
+     * @param port The port to serve on.
+     * @throws IOException Occours when the port can't be bound.
+     */
+    public static void serve(int port) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(port);
+        Thread server = new Thread(() -> {
+            while (!serverSocket.isClosed()) {
+                // Try's answering the next scrape, a scraper which goes away part way only loses its own response.
+                try (Socket socket = serverSocket.accept()) {
+                    socket.setSoTimeout(5000);
+                    BufferedReader request = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                    for (String line = request.readLine(); line != null && !line.isEmpty(); line = request.readLine()) {}
+
+                    byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+                    String header = "HTTP/1.1 200 OK\r\nContent-Type: text/plain; version=0.0.4; charset=utf-8\r\nContent-Length: " + body.length + "\r\nConnection: close\r\n\r\n";
+                    OutputStream output = socket.getOutputStream();
+                    output.write(header.getBytes(StandardCharsets.US_ASCII));
+                    output.write(body);
+                    output.flush();
+                }
+                catch (IOException exception) { Log.error("Error: (" + exception + "), unable to answer a metrics scrape."); }
+            }
+        }, "metrics");
+        server.setDaemon(true);
+        server.start();
+    }
+
+    /**
+     * Adds a single sample line.
+     * @param text The text being written.
+     * @param name The name of the metric (with any suffix).
+     * @param labels The rendered labels of the metric (empty for none).
+     * @param extraLabel An extra rendered label to add to them (or null).
+     * @param value The value.
+     */
+    private static void line(StringBuilder text, String name, String labels, String extraLabel, Object value) {
+        text.append(name);
+        if (!labels.isEmpty() || extraLabel != null) {
+            text.append('{').append(labels);
+            if (extraLabel != null) { text.append(labels.isEmpty() ? "" : ",").append(extraLabel); }
+            text.append('}');
+        }
+        text.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Renders label pairs as they appear between the braces.
+     * @param labels Pairs of label names and values.
+     * @return The rendered labels (empty for none).
+     */
+    private static String renderLabels(String[] labels) {
+        StringBuilder rendered = new StringBuilder();
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (i > 0) { rendered.append(','); }
+            rendered.append(labels[i]).append("=\"").append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        return rendered.toString();
+    }
+
+    /**
+     * A registered metric.
+     * @param name The name of the metric.
+     * @param help What the metric measures.
+     * @param type The type which is scraped (counter, gauge or summary).
+     * @param labels The rendered labels of the metric.
+     * @param value The counter, supplier of the value or histogram.
+     */
+    private record Registered(String name, String help, String type, String labels, Object value) {}
+
+    /**
+     * A count which only goes up, striped so threads adding to it at once don't contend.
+     */
+    public static class Counter {
+
+        /**
+         * The count.
+         */
+        private final LongAdder count = new LongAdder();
+
+        /**
+         * Adds one to the count.
+         */
+        public void increment() { count.increment(); }
+
+        /**
+         * Adds to the count.
+         * @param amount The amount to add.
+         */
+        public void add(long amount) { count.add(amount); }
+
+        /**
+         * Gets the count.
+         * @return The count.
+         */
+        public long get() { return count.sum(); }
+    }
+
+    /**
+     * A histogram of durations with log-linear buckets (HDR style), each power of two is split into 16 buckets so any quantile is within about 6% of the truth.
+     */
+    public static class Histogram {
+
+        /**
+         * The number of bits of each value below its highest bit which pick its bucket.
+         */
+        private final static int SUB_BUCKET_BITS = 4;
+
+        /**
+         * The number of buckets in each power of two.
+         */
+        private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        /**
+         * The number of values in each bucket.
+         */
+        private final AtomicLongArray buckets = new AtomicLongArray((64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+
+        /**
+         * The number of values and their sum in nanoseconds.
+         */
+        private final LongAdder count = new LongAdder(), sumNanos = new LongAdder();
+
+        /**
+         * The largest value in nanoseconds.
+         */
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        /**
+         * Records a duration.
+         * @param nanos The duration in nanoseconds.
+         */
+        public void record(long nanos) {
+            if (nanos < 0) { nanos = 0; }
+            buckets.incrementAndGet(bucket(nanos));
+            count.increment();
+            sumNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        /**
+         * Records the time since a start time.
+         * @param startNanos The start time from {@link System#nanoTime()}.
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        /**
+         * Gets the number of durations recorded.
+         * @return The count.
+         */
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * Finds the bucket of a value, small values get a bucket each and larger ones are bucketed by their highest bit and the bits below it.
+         * @param value The value (not negative).
+         * @return The index of the bucket.
+         */
+        private static int bucket(long value) {
+            if (value < SUB_BUCKETS) { return (int) value; }
+            int highestBit = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (highestBit - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (highestBit - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        /**
+         * Gets the middle of the range of values a bucket holds.
+         * @param index The index of the bucket.
+         * @return The value in nanoseconds.
+         */
+        private static double middle(int index) {
+            if (index < SUB_BUCKETS) { return index; }
+            int shift = index / SUB_BUCKETS - 1;
+            long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+            return lowest + ((1L << shift) - 1) / 2.0;
+        }
+
+        /**
+         * Adds the quantiles, max, count and sum of the histogram in seconds.
+         * @param text The text being written.
+         * @param name The name of the histogram.
+         * @param labels The rendered labels of the histogram.
+         */
+        private void write(StringBuilder text, String name, String labels) {
+            // Copies the buckets first so every quantile comes from the same counts (values recorded while copying may be partly left out).
+            long[] counts = new long[buckets.length()];
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) { counts[i] = buckets.get(i); total += counts[i]; }
+
+            int index = 0;
+            long seen = 0;
+            for (double quantile : QUANTILES) {
+                long rank = (long) Math.ceil(quantile * total);
+                while (index < counts.length - 1 && seen + counts[index] < rank) { seen += counts[index++]; }
+                line(text, name, labels, "quantile=\"" + quantile + "\"", total == 0 ? 0.0 : Math.min(middle(index), maxNanos.get()) / 1e9);
+            }
+            line(text, name, labels, "quantile=\"1.0\"", maxNanos.get() / 1e9);
+            line(text, name + "_count", labels, null, count.sum());
+            line(text, name + "_sum", labels, null, sumNanos.sum() / 1e9);
+        }
+    }
+
+    /**
+     * Metrics of the same name told apart by a single label, each is registered the first time its key is used then found again without allocating.
+     * @param <T> The type of metric.
+     */
+    public static class Family<T> {
+
+        /**
+         * The metric for each key.
+         */
+        private final ConcurrentHashMap<Object, T> members = new ConcurrentHashMap<>();
+
+        /**
+         * Registers the metric for a new key.
+         */
+        private final Function<Object, T> factory;
+
+        /**
+         * Creates an empty family.
+         * @param factory Registers the metric for a new key.
+         */
+        private Family(Function<Object, T> factory) {
+            this.factory = factory;
+        }
+
+        /**
+         * Gets the metric for a key, registering it if this is the first use.
+         * @param key The key (its string is the labels value).
+         * @return The metric.
+         */
+        public T get(Object key) {
+            T member = members.get(key);
+            return member != null ? member : members.computeIfAbsent(key, factory);
+        }
+    }
+}
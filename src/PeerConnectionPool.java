@@ -0,0 +1,145 @@
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Keeps connections to other Dstores open between rebalance transfers, so moving many files to a peer reuses a few long-lived sockets instead of a new handshake per file.
+ */
+public class PeerConnectionPool {
+
+    /**
+     * The most idle connections kept open to a single peer (any more are closed when returned).
+     */
+    private final int maxIdlePerPeer;
+
+    /**
+     * The timeout set on every connection for reads.
+     */
+    private final int timeoutMilliseconds;
+
+    /**
+     * The idle connections to each peer, most recently used first.
+     * HashMap paring goes as follows [DSTORE_PORT, CONNECTIONS].
+     */
+    private final ConcurrentHashMap<Integer, Deque<PeerConnection>> idleConnections = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an empty pool.
+     * @param maxIdlePerPeer The most idle connections kept open to a single peer.
+     * @param timeoutMilliseconds The timeout set on every connection for reads.
+     */
+    public PeerConnectionPool(int maxIdlePerPeer, int timeoutMilliseconds) {
+        this.maxIdlePerPeer = maxIdlePerPeer;
+        this.timeoutMilliseconds = timeoutMilliseconds;
+    }
+
+    /**
+     * Takes an idle connection to a peer, opening a new one if there are none.
+     * @param port The port of the peer.
+     * @return The connection, which must be given back with {@link #release} or closed.
+     * @throws IOException Occours when a new connection can't be made.
+     */
+    public PeerConnection borrow(Integer port) throws IOException {
+        // Reuses the most recently returned connection if there is one which is still open.
+        Deque<PeerConnection> idle = idleConnections.get(port);
+        PeerConnection connection;
+        while (idle != null && (connection = idle.pollFirst()) != null) {
+            if (!connection.socket.isClosed()) { connection.reused = true; return connection; }
+        }
+
+        // Opens a channel backed socket so files can be sent to the peer with zero-copy transfers.
+        Socket socket = SocketChannel.open(new InetSocketAddress(InetAddress.getLocalHost(), port)).socket();
+        socket.setSoTimeout(timeoutMilliseconds);
+        return new PeerConnection(port, socket);
+    }
+
+    /**
+     * Gives a connection back to the pool once a transfer on it has fully finished.
+     * @param connection The connection being given back.
+     */
+    public void release(PeerConnection connection) {
+        if (connection.socket.isClosed()) { return; }
+        Deque<PeerConnection> idle = idleConnections.computeIfAbsent(connection.port, port -> new ConcurrentLinkedDeque<>());
+        if (idle.size() < maxIdlePerPeer) { idle.offerFirst(connection); }
+        else { connection.close(); }
+    }
+
+    /**
+     * Closes every idle connection to a peer (e.g. after one of them turned out to be broken).
+     * @param port The port of the peer.
+     */
+    public void closePeer(Integer port) {
+        Deque<PeerConnection> idle = idleConnections.remove(port);
+        if (idle != null) { idle.forEach(PeerConnection::close); }
+    }
+
+    /**
+     * A single connection to another Dstore.
+     */
+    public static class PeerConnection {
+
+        /**
+         * The port of the peer the connection is to.
+         */
+        private final Integer port;
+
+        /**
+         * The socket of the connection.
+         */
+        private final Socket socket;
+
+        /**
+         * Buffered input for the replies from the peer.
+         */
+        private final InputStream input;
+
+        /**
+         * If the connection had already been used before it was last borrowed (so it may have been closed by the peer since).
+         */
+        private boolean reused = false;
+
+        /**
+         * Creates the connection for a socket.
+         * @param port The port of the peer.
+         * @param socket The socket which is connected to the peer.
+         * @throws IOException Occours when the sockets input can't be got.
+         */
+        PeerConnection(Integer port, Socket socket) throws IOException {
+            this.port = port;
+            this.socket = socket;
+            input = new BufferedInputStream(socket.getInputStream());
+        }
+
+        public Integer getPort() { return port; }
+
+        public Socket getSocket() { return socket; }
+
+        public InputStream getInput() { return input; }
+
+        public boolean isReused() { return reused; }
+
+        /**
+         * Reads the next reply line from the peer.
+         * @return The line, or null if the peer closed the connection.
+         * @throws IOException Occours when the read fails or times out.
+         */
+        public String readLine() throws IOException {
+            return FileTransfer.readLine(input);
+        }
+
+        /**
+         * Closes the connection so it is never used again.
+         */
+        public void close() {
+            try { socket.close(); }
+            catch (IOException exception) { Log.error("Error: (" + exception + "), couldn't close connection to Dstore at port '" + port + "'."); }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of which Dstores hold which files in both directions, so finding a files replicas or a Dstores files never needs a scan.
+ * Changes are made while the Dstores entry is locked, so the two directions can't disagree about a Dstore which is joining or leaving.
+ */
+public class PlacementIndex {
+
+    /**
+     * Contains all the ports for the connected Dstore's and the files each Dstore has.
+     * HashMap paring goes as follows [DSTORE_PORT, FILES].
+     */
+    private final ConcurrentHashMap<Integer, Set<String>> dstoreFiles = new ConcurrentHashMap<>();
+
+    /**
+     * Contains all the files held by any Dstore and the ports of the Dstores which hold them.
+     * HashMap paring goes as follows [FILE, DSTORE_PORTS].
+     */
+    private final ConcurrentHashMap<String, Set<Integer>> fileReplicas = new ConcurrentHashMap<>();
+
+    /**
+     * Adds a Dstore which doesn't hold any files yet (replaces any files a Dstore with the same port was thought to hold).
+     * @param port The port of the Dstore.
+     */
+    public void addDstore(Integer port) {
+        replaceFiles(port, Collections.emptySet());
+    }
+
+    /**
+     * Removes a Dstore and takes it off the replicas of every file it held.
+     * @param port The port of the Dstore.
+     */
+    public void removeDstore(Integer port) {
+        dstoreFiles.computeIfPresent(port, (store, files) -> {
+            files.forEach(file -> unlinkReplica(file, store));
+            return null;
+        });
+    }
+
+    /**
+     * Records that a Dstore holds a file (ignored if the Dstore isn't connected).
+     * @param file The name of the file.
+     * @param port The port of the Dstore.
+     */
+    public void addReplica(String file, Integer port) {
+        dstoreFiles.computeIfPresent(port, (store, files) -> {
+            if (files.add(file)) { fileReplicas.computeIfAbsent(file, key -> ConcurrentHashMap.newKeySet()).add(store); }
+            return files;
+        });
+    }
+
+    /**
+     * Records that a Dstore no longer holds a file.
+     * @param file The name of the file.
+     * @param port The port of the Dstore.
+     */
+    public void removeReplica(String file, Integer port) {
+        dstoreFiles.computeIfPresent(port, (store, files) -> {
+            if (files.remove(file)) { unlinkReplica(file, store); }
+            return files;
+        });
+    }
+
+    /**
+     * Replaces all the files a Dstore is known to hold (e.g. with the list it sent during a rebalance), only the differences are applied to the files replicas.
+     * @param port The port of the Dstore.
+     * @param newFiles The files the Dstore now holds.
+     */
+    public void replaceFiles(Integer port, Collection<String> newFiles) {
+        dstoreFiles.compute(port, (store, files) -> {
+            Set<String> updatedFiles = ConcurrentHashMap.newKeySet();
+            updatedFiles.addAll(newFiles);
+            if (files != null) { files.forEach(file -> { if (!updatedFiles.contains(file)) { unlinkReplica(file, store); } }); }
+            updatedFiles.forEach(file -> { if (files == null || !files.contains(file)) { fileReplicas.computeIfAbsent(file, key -> ConcurrentHashMap.newKeySet()).add(store); } });
+            return updatedFiles;
+        });
+    }
+
+    /**
+     * Takes a Dstore off a files replicas, dropping the file from the index once no Dstore holds it.
+     * @param file The name of the file.
+     * @param port The port of the Dstore.
+     */
+    private void unlinkReplica(String file, Integer port) {
+        fileReplicas.computeIfPresent(file, (key, replicas) -> { replicas.remove(port); return replicas.isEmpty() ? null : replicas; });
+    }
+
+    /**
+     * Gets the Dstores which hold a file.
+     * @param file The name of the file.
+     * @return An unmodifiable view of the ports (empty if no Dstore holds it).
+     */
+    public Set<Integer> getReplicas(String file) {
+        Set<Integer> replicas = fileReplicas.get(file);
+        return replicas == null ? Collections.emptySet() : Collections.unmodifiableSet(replicas);
+    }
+
+    /**
+     * Gets the files which a Dstore holds.
+     * @param port The port of the Dstore.
+     * @return An unmodifiable view of the files (empty if the Dstore isn't connected).
+     */
+    public Set<String> getFiles(Integer port) {
+        Set<String> files = dstoreFiles.get(port);
+        return files == null ? Collections.emptySet() : Collections.unmodifiableSet(files);
+    }
+
+    /**
+     * Gets a copy of the files which a Dstore holds.
+     * @param port The port of the Dstore.
+     * @return A new set of the files.
+     */
+    public Set<String> copyFiles(Integer port) {
+        return new HashSet<>(getFiles(port));
+    }
+
+    /**
+     * Checks if a Dstore is connected.
+     * @param port The port of the Dstore.
+     * @return If the Dstore is in the index.
+     */
+    public boolean hasDstore(Integer port) {
+        return dstoreFiles.containsKey(port);
+    }
+
+    /**
+     * Gets a live view of the ports of every connected Dstore.
+     * @return An unmodifiable view of the ports.
+     */
+    public Set<Integer> dstorePorts() {
+        return Collections.unmodifiableSet(dstoreFiles.keySet());
+    }
+
+    /**
+     * Gets the number of connected Dstores.
+     * @return The number of Dstores.
+     */
+    public int dstoreCount() {
+        return dstoreFiles.size();
+    }
+
+    /**
+     * Gets a live view of every file held by at least one Dstore.
+     * @return An unmodifiable view of the files.
+     */
+    public Set<String> storedFiles() {
+        return Collections.unmodifiableSet(fileReplicas.keySet());
+    }
+}
@@ -0,0 +1,35 @@
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Decides which Dstores a file belongs on, used by the controller when storing new files and when rebalancing.
+ */
+public interface PlacementStrategy {
+
+    /**
+     * Adds a Dstore which files can be placed on.
+     * @param port The port of the Dstore.
+     */
+    void addDstore(Integer port);
+
+    /**
+     * Removes a Dstore so no more files are placed on it.
+     * @param port The port of the Dstore.
+     */
+    void removeDstore(Integer port);
+
+    /**
+     * Gets the Dstores a file should be stored on.
+     * @param filename The name of the file.
+     * @param count The number of Dstores wanted (usually the replication factor).
+     * @return Up to count distinct Dstore ports, most preferred first.
+     */
+    List<Integer> choose(String filename, int count);
+
+    /**
+     * Goes through every Dstore in the order a file prefers them (the first ones being those {@link #choose} gives).
+     * @param filename The name of the file.
+     * @return An iterator over the distinct Dstore ports, worked out lazily so stopping early is cheap.
+     */
+    Iterator<Integer> preferenceOrder(String filename);
+}
@@ -5,12 +5,17 @@ public abstract class Protocol {
 
     //CLient protocol messages
     public final static String LIST_TOKEN = "LIST"; // Also for Controller and DStore.
+    public final static String LIST_PAGE_TOKEN = "LIST_PAGE"; // Also for Controller (asked for with a page size then optionally a prefix and the last name of the previous page, answered with MORE or END then the names).
     public final static String STORE_TOKEN = "STORE"; // Also for DStore.
+    public final static String STORE_CHAIN_TOKEN = "STORE_CHAIN"; // Also for DStore (followed by the ports the Dstore forwards the file down).
     public final static String LOAD_TOKEN = "LOAD";
-    public final static String LOAD_DATA_TOKEN = "LOAD_DATA";
-    public final static String RELOAD_TOKEN = "RELOAD";
+    public final static String LOAD_DATA_TOKEN = "LOAD_DATA"; // Optionally followed by a byte offset and length, so a load can be resumed or split (LOAD_FROM gives the size to plan with).
+    public final static String LOAD_STRIPED_TOKEN = "LOAD_STRIPED"; // Answered with LOAD_FROM followed by every other replica after the size, so ranges can be loaded from all of them at once.
+    public final static String RELOAD_TOKEN = "RELOAD"; // The client can continue from the last byte it got with a ranged LOAD_DATA to the new Dstore.
     public final static String REMOVE_TOKEN = "REMOVE"; // Also for Controller.
 
+    public final static String PROTOCOL_TOKEN = "PROTOCOL"; // Also for Controller and DStore (followed by the binary framing version, the other side agrees by sending the same line back then both switch to BinaryProtocol frames).
+
     //Controller protocol messages
     public final static String STORE_TO_TOKEN = "STORE_TO";
     public final static String STORE_COMPLETE_TOKEN = "STORE_COMPLETE";
@@ -21,6 +26,8 @@ public abstract class Protocol {
     public final static String ERROR_FILE_ALREADY_EXISTS_TOKEN = "ERROR_FILE_ALREADY_EXISTS";
     public final static String ERROR_NOT_ENOUGH_DSTORES_TOKEN = "ERROR_NOT_ENOUGH_DSTORES";
     public final static String ERROR_LOAD_TOKEN = "ERROR_LOAD";
+    public final static String LIST_PAGE_MORE = "MORE"; // First argument of a LIST_PAGE reply when there are more names after it.
+    public final static String LIST_PAGE_END = "END"; // First argument of a LIST_PAGE reply which is the last page.
 
     //DStore protocol messages
     public final static String ACK_TOKEN = "ACK";
@@ -28,5 +35,9 @@ public abstract class Protocol {
     public final static String REMOVE_ACK_TOKEN = "REMOVE_ACK";
     public final static String JOIN_TOKEN = "JOIN";
     public final static String REBALANCE_STORE_TOKEN = "REBALANCE_STORE";
+    public final static String REBALANCE_STORE_BATCH_TOKEN = "REBALANCE_STORE_BATCH"; // Followed by length prefixed files on a pooled connection between Dstores.
+    public final static String REBALANCE_CHUNK_BATCH_TOKEN = "REBALANCE_CHUNK_BATCH"; // Followed by file manifests, only the chunks the receiving Dstore is missing are then sent.
+    public final static String LIST_PART_TOKEN = "LIST_PART"; // Part of a Dstores file list, sent before the final LIST so a large list is streamed.
     public final static String REBALANCE_COMPLETE_TOKEN = "REBALANCE_COMPLETE";
+    public final static String HEARTBEAT_TOKEN = "HEARTBEAT"; // Sent regularly on the JOIN connection, followed by the Dstores free bytes and the requests it is handling.
 }
\ No newline at end of file
@@ -0,0 +1,167 @@
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size bounded cache of whole files held in direct (off heap) buffers, evicting with a segmented LRU.
+ * New files go into the probation segment and are only moved to the protected segment when read again, so a burst of files read once can't push out the hot ones.
+ */
+public class ReadCache {
+
+    /**
+     * The share of the capacity the protected segment can use (the rest is left for probation).
+     */
+    private final static double PROTECTED_SHARE = 0.8;
+
+    /**
+     * The most bytes of files which can be cached in total.
+     */
+    private final long capacityBytes;
+
+    /**
+     * The most bytes the protected segment can hold.
+     */
+    private final long protectedCapacityBytes;
+
+    /**
+     * Files which have been read once since they were cached, least recently used first.
+     */
+    private final LinkedHashMap<String, ByteBuffer> probation = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Files which have been read more than once since they were cached, least recently used first.
+     */
+    private final LinkedHashMap<String, ByteBuffer> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The bytes held in the probation segment.
+     */
+    private long probationBytes = 0;
+
+    /**
+     * The bytes held in the protected segment.
+     */
+    private long protectedBytes = 0;
+
+    /**
+     * Counts every invalidation, a file read before an invalidation isn't cached after it (as it may be the old version).
+     */
+    private long generation = 0;
+
+    /**
+     * The number of reads which were served from the cache.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * The number of reads which weren't in the cache.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * The number of files which were dropped to make space.
+     */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates an empty cache.
+     * @param capacityBytes The most bytes of files which can be cached in total.
+     */
+    public ReadCache(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+        protectedCapacityBytes = (long) (capacityBytes * PROTECTED_SHARE);
+    }
+
+    /**
+     * Gets a cached file, moving it to the protected segment if it was in probation.
+     * @param filename The name of the file.
+     * @return The files data (shared, so it must only be read through a duplicate) or null if it isn't cached.
+     */
+    public synchronized ByteBuffer get(String filename) {
+        ByteBuffer data = protectedSegment.get(filename);
+        if (data != null) { hits.incrementAndGet(); return data; }
+
+        // A second read promotes the file, demoting the least recently used protected files back to probation if the segment is full.
+        data = probation.remove(filename);
+        if (data == null) { misses.incrementAndGet(); return null; }
+        hits.incrementAndGet();
+        probationBytes -= data.capacity();
+        protectedSegment.put(filename, data);
+        protectedBytes += data.capacity();
+        Iterator<Map.Entry<String, ByteBuffer>> eldest = protectedSegment.entrySet().iterator();
+        while (protectedBytes > protectedCapacityBytes && eldest.hasNext()) {
+            Map.Entry<String, ByteBuffer> demoted = eldest.next();
+            if (demoted.getKey().equals(filename)) { continue; }
+            eldest.remove();
+            protectedBytes -= demoted.getValue().capacity();
+            probation.put(demoted.getKey(), demoted.getValue());
+            probationBytes += demoted.getValue().capacity();
+        }
+        evict();
+        return data;
+    }
+
+    /**
+     * Gets the current generation, which should be taken before reading a file that is going to be cached.
+     * @return The generation.
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Adds a file to the probation segment, evicting the least recently used files until it fits.
+     * @param filename The name of the file.
+     * @param data The files data (not changed after this).
+     * @param readGeneration The generation from before the file was read, it isn't cached if anything was invalidated since.
+     */
+    public synchronized void put(String filename, ByteBuffer data, long readGeneration) {
+        if (readGeneration != generation || data.capacity() > capacityBytes) { return; }
+        if (protectedSegment.containsKey(filename) || probation.containsKey(filename)) { return; }
+        probation.put(filename, data);
+        probationBytes += data.capacity();
+        evict();
+    }
+
+    /**
+     * Drops a file from the cache (used when it is removed or replaced).
+     * @param filename The name of the file.
+     */
+    public synchronized void invalidate(String filename) {
+        generation++;
+        ByteBuffer data = probation.remove(filename);
+        if (data != null) { probationBytes -= data.capacity(); }
+        data = protectedSegment.remove(filename);
+        if (data != null) { protectedBytes -= data.capacity(); }
+    }
+
+    /**
+     * Evicts the least recently used files (probation first) until the cache is within its capacity.
+     */
+    private void evict() {
+        while (probationBytes + protectedBytes > capacityBytes) {
+            boolean fromProbation = !probation.isEmpty();
+            Iterator<Map.Entry<String, ByteBuffer>> eldest = (fromProbation ? probation : protectedSegment).entrySet().iterator();
+            long freed = eldest.next().getValue().capacity();
+            eldest.remove();
+            if (fromProbation) { probationBytes -= freed; } else { protectedBytes -= freed; }
+            evictions.incrementAndGet();
+        }
+    }
+
+    public long getHits() { return hits.get(); }
+
+    public long getMisses() { return misses.get(); }
+
+    public long getEvictions() { return evictions.get(); }
+
+    /**
+     * Gets the bytes currently cached.
+     * @return The bytes in both segments.
+     */
+    public synchronized long getCachedBytes() {
+        return probationBytes + protectedBytes;
+    }
+}
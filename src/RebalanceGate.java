@@ -0,0 +1,151 @@
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Coordinates client operations with rebalances, a rebalance waits (parked) until every in-flight operation has finished and client operations which arrive during it are held back until it ends.
+ */
+public class RebalanceGate {
+
+    /**
+     * The number of operations which are currently running (including ones waiting on Dstore acknowledgements).
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * Lets operations know a rebalance is running (or waiting to run) so they should be held back.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Guards the held back operations and is used by the rebalance to wait for in-flight operations.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled when the last in-flight operation finishes while the gate is closed.
+     */
+    private final Condition drained = lock.newCondition();
+
+    /**
+     * Operations which arrived while the gate was closed, ran in order once it opens.
+     */
+    private final Queue<HeldOperation> heldOperations = new ArrayDeque<>();
+
+    /**
+     * Statistics on how long operations were held back by a rebalance.
+     */
+    private final LongAdder heldCount = new LongAdder(), heldNanos = new LongAdder();
+    private final AtomicLong maxHeldNanos = new AtomicLong();
+
+    /**
+     * Statistics on how long rebalances waited for in-flight operations to finish.
+     */
+    private final LongAdder closeCount = new LongAdder(), closeNanos = new LongAdder();
+
+    /**
+     * Runs an operation straight away if no rebalance is happening, else holds it back until the rebalance ends.
+     * @param operation The operation which should be ran.
+     */
+    public void execute(Runnable operation) {
+        // Counts the operation as in-flight before checking the gate, so a rebalance closing at the same time either sees it or is seen by it.
+        inFlight.incrementAndGet();
+        if (!closed) {
+            try { operation.run(); }
+            finally { operationFinished(); }
+            return;
+        }
+        operationFinished();
+
+        // Holds the operation back if the gate is still closed, else it opened in between so the operation is tried again.
+        lock.lock();
+        try {
+            if (closed) { heldOperations.add(new HeldOperation(operation, System.nanoTime())); return; }
+        }
+        finally { lock.unlock(); }
+        execute(operation);
+    }
+
+    /**
+     * Marks an operation as in-flight past the end of its {@link #execute} call (e.g. while waiting for acknowledgements), must be matched by {@link #operationFinished}.
+     */
+    public void operationStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Marks an in-flight operation as finished, waking a waiting rebalance if it was the last one.
+     */
+    public void operationFinished() {
+        if (inFlight.decrementAndGet() == 0 && closed) {
+            lock.lock();
+            try { drained.signalAll(); }
+            finally { lock.unlock(); }
+        }
+    }
+
+    /**
+     * Closes the gate for a rebalance, parks until every in-flight operation has finished.
+     */
+    public void close() {
+        long startTime = System.nanoTime();
+        lock.lock();
+        try {
+            closed = true;
+            while (inFlight.get() > 0) { drained.awaitUninterruptibly(); }
+        }
+        finally { lock.unlock(); }
+        closeCount.increment();
+        closeNanos.add(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Opens the gate after a rebalance, runs all the held back operations in the order they arrived before letting new ones straight through.
+     */
+    public void open() {
+        while (true) {
+            // Takes the next held operation, if there are none left the gate opens (new operations queue behind held ones until then so order is kept).
+            HeldOperation held;
+            lock.lock();
+            try {
+                held = heldOperations.poll();
+                if (held == null) { closed = false; return; }
+            }
+            finally { lock.unlock(); }
+
+            // Records how long the operation was held for before running it.
+            long heldFor = System.nanoTime() - held.heldAt;
+            heldCount.increment();
+            heldNanos.add(heldFor);
+            maxHeldNanos.accumulateAndGet(heldFor, Math::max);
+
+            inFlight.incrementAndGet();
+            try { held.operation.run(); }
+            catch (Exception exception) { Log.error("Error: (" + exception + "), happend running an operation held back by a rebalance."); }
+            finally { operationFinished(); }
+        }
+    }
+
+    /**
+     * Gets a summary of how long operations and rebalances have waited on the gate.
+     * @return The summary as a single line.
+     */
+    public String getStatistics() {
+        long held = heldCount.sum();
+        long closes = closeCount.sum();
+        return "operations held: " + held
+                + ", mean held ms: " + (held == 0 ? 0 : heldNanos.sum() / held / 1_000_000.0)
+                + ", max held ms: " + maxHeldNanos.get() / 1_000_000.0
+                + ", rebalances: " + closes
+                + ", mean rebalance wait ms: " + (closes == 0 ? 0 : closeNanos.sum() / closes / 1_000_000.0);
+    }
+
+    /**
+     * An operation which was held back by the gate and the time it arrived.
+     */
+    private record HeldOperation(Runnable operation, long heldAt) {}
+}
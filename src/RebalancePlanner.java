@@ -0,0 +1,333 @@
+import java.util.*;
+
+/**
+ * Works out the smallest set of file moves and removals which gives every file its replication factor and leaves every Dstore within one file of the others.
+ * Files are only moved when they are missing replicas or sit on an overloaded Dstore, so a Dstore joining only pulls the files it needs to reach its share.
+ * Where a file goes is decided by the {@link PlacementStrategy} first, so the files which move are the ones the strategy now places elsewhere (for a hash ring just those next to the Dstore which joined or left).
+ * Runs in linear time over the number of stored replicas (plus a sort over the Dstores).
+ */
+public class RebalancePlanner {
+
+    /**
+     * The placement the plan starts from.
+     */
+    private final PlacementIndex placement;
+
+    /**
+     * The number of Dstores each file should be stored on.
+     */
+    private final int replicationFactor;
+
+    /**
+     * Decides which Dstores each file prefers to be on.
+     */
+    private final PlacementStrategy strategy;
+
+    /**
+     * The number of files each Dstore currently holds in the plan, and the number it should end with.
+     * HashMap paring goes as follows [DSTORE_PORT, COUNT].
+     */
+    private final HashMap<Integer, Integer> counts = new HashMap<>(), targets = new HashMap<>();
+
+    /**
+     * The Dstores which each file will be on once the plan has been carried out (a list as each file only has a few).
+     * HashMap paring goes as follows [FILE, DSTORE_PORTS].
+     */
+    private final HashMap<String, ArrayList<Integer>> holders;
+
+    /**
+     * The Dstores which are below their target, kept in order so each one is filled before moving onto the next.
+     */
+    private final ArrayList<Integer> underloaded = new ArrayList<>();
+
+    /**
+     * The position in underloaded before which every Dstore has reached its target.
+     */
+    private int underloadedPosition = 0;
+
+    /**
+     * The plan which is being built.
+     */
+    private final Plan plan = new Plan();
+
+    /**
+     * Creates a planner for a given placement.
+     * @param placement The current placement of files on Dstores.
+     * @param replicationFactor The number of Dstores each file should be stored on.
+     * @param strategy Decides which Dstores each file prefers to be on.
+     * @param fileCount The number of files being planned, used to size the maps up front.
+     */
+    private RebalancePlanner(PlacementIndex placement, int replicationFactor, PlacementStrategy strategy, int fileCount) {
+        this.placement = placement;
+        this.replicationFactor = replicationFactor;
+        this.strategy = strategy;
+        this.holders = new HashMap<>(fileCount * 4 / 3 + 1);
+    }
+
+    /**
+     * Plans a rebalance of the given files across every Dstore in the placement.
+     * @param placement The current placement of files on Dstores.
+     * @param files The files which should be kept in the system (every other file a Dstore holds is removed).
+     * @param replicationFactor The number of Dstores each file should be stored on.
+     * @param strategy Decides which Dstores each file prefers to be on (must hold the same Dstores as the placement).
+     * @return The plan of what each Dstore needs to send and remove.
+     */
+    public static Plan plan(PlacementIndex placement, Set<String> files, int replicationFactor, PlacementStrategy strategy) {
+        RebalancePlanner planner = new RebalancePlanner(placement, replicationFactor, strategy, files.size());
+        planner.keepReplicas(files);
+        planner.setTargets(files.size());
+        planner.addMissingReplicas(files);
+        planner.shedOverloaded();
+        planner.buildPlacement();
+        return planner.plan;
+    }
+
+    /**
+     * Keeps every replica of the files which is still wanted (up to the replication factor), every other file a Dstore holds is marked for removal.
+     * @param files The files which should be kept in the system.
+     */
+    private void keepReplicas(Set<String> files) {
+        // Starts each Dstore with nothing, then removes any file from it which isn't wanted anymore.
+        for (Integer store : placement.dstorePorts()) {
+            counts.put(store, 0);
+            for (String file : placement.getFiles(store)) {
+                if (!files.contains(file)) { plan.remove(store, file); }
+            }
+        }
+
+        // Keeps the current replicas of each file, dropping any above the replication factor from the Dstores the file doesn't prefer (then those with the most files).
+        for (String file : files) {
+            ArrayList<Integer> currentHolders = new ArrayList<>();
+            placement.getReplicas(file).forEach(store -> { if (counts.containsKey(store)) { currentHolders.add(store); } });
+            if (currentHolders.size() > replicationFactor) {
+                List<Integer> owners = strategy.choose(file, replicationFactor);
+                currentHolders.sort(Comparator.comparing((Integer store) -> !owners.contains(store)).thenComparingInt(store -> placement.getFiles(store).size()));
+                for (Integer store : currentHolders.subList(replicationFactor, currentHolders.size())) { plan.remove(store, file); }
+                currentHolders.subList(replicationFactor, currentHolders.size()).clear();
+            }
+
+            currentHolders.forEach(store -> counts.merge(store, 1, Integer::sum));
+            holders.put(file, currentHolders);
+        }
+    }
+
+    /**
+     * Sets the number of files each Dstore should end with, the Dstores which already have the most get the rounded up targets so the fewest files move.
+     * @param fileCount The number of files in the system.
+     */
+    private void setTargets(int fileCount) {
+        int storeCount = counts.size();
+        if (storeCount == 0) { return; }
+
+        // Splits every replica between the Dstores as evenly as possible.
+        long totalReplicas = (long) fileCount * Math.min(replicationFactor, storeCount);
+        int floor = (int) (totalReplicas / storeCount);
+        int remainder = (int) (totalReplicas % storeCount);
+
+        ArrayList<Integer> stores = new ArrayList<>(counts.keySet());
+        stores.sort(Comparator.comparingInt(store -> -counts.get(store)));
+        for (int i = 0; i < stores.size(); i++) { targets.put(stores.get(i), floor + (i < remainder ? 1 : 0)); }
+
+        // Notes the Dstores which need more files (least loaded first so they are filled in the order that helps most).
+        for (int i = stores.size() - 1; i >= 0; i--) {
+            if (counts.get(stores.get(i)) < targets.get(stores.get(i))) { underloaded.add(stores.get(i)); }
+        }
+    }
+
+    /**
+     * Adds a new replica for every file below the replication factor, sent from one of the Dstores which still has it.
+     * @param files The files which should be kept in the system.
+     */
+    private void addMissingReplicas(Set<String> files) {
+        int wanted = Math.min(replicationFactor, counts.size());
+        for (String file : files) {
+            ArrayList<Integer> fileHolders = holders.get(file);
+            if (fileHolders.size() >= wanted) { continue; }
+
+            // A file which no Dstore holds can't be brought back, so it is left for the controller to drop.
+            if (fileHolders.isEmpty()) { Log.error("Error: file '" + file + "' isn't held by any Dstore so can't be replicated."); continue; }
+
+            Integer source = fileHolders.iterator().next();
+            while (fileHolders.size() < wanted) {
+                Integer target = chooseTarget(file, fileHolders, true);
+                if (target == null) { break; }
+                plan.send(source, file, target);
+                fileHolders.add(target);
+                counts.merge(target, 1, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * Moves files off every Dstore above its target onto ones below their target.
+     * The first pass only moves files the strategy no longer places on the Dstore (onto a Dstore it does place them on), the second moves whatever is needed to reach the targets.
+     */
+    private void shedOverloaded() {
+        for (boolean preferredOnly : new boolean[] {true, false}) {
+            for (Integer store : counts.keySet()) {
+                int excess = counts.get(store) - targets.get(store);
+                if (excess <= 0) { continue; }
+
+                // Goes through the Dstores current files moving them until it reaches its target (files it was only just given are never moved again, and nothing else is moved onto it).
+                for (String file : placement.getFiles(store)) {
+                    if (excess <= 0) { break; }
+                    ArrayList<Integer> fileHolders = holders.get(file);
+                    if (fileHolders == null || !fileHolders.contains(store)) { continue; }
+
+                    Integer target = preferredOnly ? choosePreferredTarget(file, fileHolders, store) : chooseTarget(file, fileHolders, false);
+                    if (target == null) { continue; }
+                    plan.send(store, file, target);
+                    plan.remove(store, file);
+                    fileHolders.remove(store);
+                    fileHolders.add(target);
+                    counts.merge(store, -1, Integer::sum);
+                    counts.merge(target, 1, Integer::sum);
+                    excess--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Chooses one of the Dstores the strategy places a file on which is below its target and doesn't hold the file.
+     * @param file The name of the file.
+     * @param fileHolders The Dstores which will hold the file.
+     * @param source The Dstore the file would be moved off (null when adding a replica), nothing is chosen if the strategy places the file there.
+     * @return The chosen Dstore, or null if there isn't one.
+     */
+    private Integer choosePreferredTarget(String file, List<Integer> fileHolders, Integer source) {
+        List<Integer> owners = strategy.choose(file, Math.min(replicationFactor, counts.size()));
+        if (source != null && owners.contains(source)) { return null; }
+        for (Integer store : owners) {
+            if (!fileHolders.contains(store) && counts.getOrDefault(store, 0) < targets.getOrDefault(store, 0)) { return store; }
+        }
+        return null;
+    }
+
+    /**
+     * Chooses a Dstore below its target which doesn't hold the file (preferring those the strategy places it on), can fall back to the least loaded Dstore which doesn't hold it.
+     * @param file The name of the file.
+     * @param fileHolders The Dstores which will hold the file.
+     * @param allowFallback If a Dstore which has reached its target can be chosen (only when replicas are missing).
+     * @return The chosen Dstore, or null if there isn't one.
+     */
+    private Integer chooseTarget(String file, List<Integer> fileHolders, boolean allowFallback) {
+        Integer preferred = choosePreferredTarget(file, fileHolders, null);
+        if (preferred != null) { return preferred; }
+
+        // Skips Dstores which have reached their target, then checks the next few for one which doesn't hold the file (at most one per holder can be skipped).
+        while (underloadedPosition < underloaded.size() && counts.get(underloaded.get(underloadedPosition)) >= targets.get(underloaded.get(underloadedPosition))) { underloadedPosition++; }
+        for (int i = underloadedPosition; i < underloaded.size() && i <= underloadedPosition + fileHolders.size(); i++) {
+            Integer store = underloaded.get(i);
+            if (counts.get(store) < targets.get(store) && !fileHolders.contains(store)) { return store; }
+        }
+
+        // Only happens when every Dstore below its target already has the file.
+        if (!allowFallback) { return null; }
+        Integer leastLoaded = null;
+        for (Integer store : counts.keySet()) {
+            if (!fileHolders.contains(store) && (leastLoaded == null || counts.get(store) < counts.get(leastLoaded))) { leastLoaded = store; }
+        }
+        return leastLoaded;
+    }
+
+    /**
+     * Works out which files each Dstore will hold once the plan has been carried out.
+     */
+    private void buildPlacement() {
+        counts.keySet().forEach(store -> plan.newPlacement.put(store, new ArrayList<>()));
+        holders.forEach((file, fileHolders) -> fileHolders.forEach(store -> plan.newPlacement.get(store).add(file)));
+    }
+
+    /**
+     * The files each Dstore needs to send and remove in a rebalance, plus the placement which results from it.
+     */
+    public static class Plan {
+
+        /**
+         * The files each Dstore needs to send and the Dstores it sends them to.
+         * HashMap paring goes as follows [DSTORE_PORT, [FILE, DSTORE_PORTS]].
+         */
+        private final HashMap<Integer, LinkedHashMap<String, ArrayList<Integer>>> sends = new HashMap<>();
+
+        /**
+         * The files each Dstore needs to remove.
+         * HashMap paring goes as follows [DSTORE_PORT, FILES].
+         */
+        private final HashMap<Integer, ArrayList<String>> removals = new HashMap<>();
+
+        /**
+         * The files each Dstore will hold once the plan has been carried out.
+         * HashMap paring goes as follows [DSTORE_PORT, FILES].
+         */
+        private final HashMap<Integer, ArrayList<String>> newPlacement = new HashMap<>();
+
+        /**
+         * Adds a file a Dstore needs to send to another.
+         * @param source The Dstore sending the file.
+         * @param file The file being sent.
+         * @param target The Dstore the file is sent to.
+         */
+        void send(Integer source, String file, Integer target) {
+            sends.computeIfAbsent(source, store -> new LinkedHashMap<>()).computeIfAbsent(file, key -> new ArrayList<>()).add(target);
+        }
+
+        /**
+         * Adds a file a Dstore needs to remove.
+         * @param store The Dstore removing the file.
+         * @param file The file being removed.
+         */
+        void remove(Integer store, String file) {
+            removals.computeIfAbsent(store, key -> new ArrayList<>()).add(file);
+        }
+
+        /**
+         * Gets the Dstores which have something to do in the rebalance.
+         * @return The ports of the Dstores.
+         */
+        public Set<Integer> getDstores() {
+            Set<Integer> stores = new HashSet<>(sends.keySet());
+            stores.addAll(removals.keySet());
+            return stores;
+        }
+
+        /**
+         * Gets the files each Dstore will hold once the plan has been carried out.
+         * @return The placement, HashMap paring goes as follows [DSTORE_PORT, FILES].
+         */
+        public HashMap<Integer, ArrayList<String>> getNewPlacement() {
+            return newPlacement;
+        }
+
+        /**
+         * Gets the total number of file transfers in the plan.
+         * @return The number of transfers.
+         */
+        public int getTransferCount() {
+            int transfers = 0;
+            for (LinkedHashMap<String, ArrayList<Integer>> files : sends.values()) { for (ArrayList<Integer> targets : files.values()) { transfers += targets.size(); } }
+            return transfers;
+        }
+
+        /**
+         * Builds the arguments of the rebalance message for a Dstore (files to send followed by files to remove).
+         * @param store The port of the Dstore.
+         * @return The arguments in order, laid out as "SEND_COUNT FILE PORT_COUNT PORTS... REMOVE_COUNT FILES..." (one argument per item).
+         */
+        public ArrayList<String> toArguments(Integer store) {
+            ArrayList<String> arguments = new ArrayList<>();
+            LinkedHashMap<String, ArrayList<Integer>> files = sends.getOrDefault(store, new LinkedHashMap<>());
+            arguments.add(String.valueOf(files.size()));
+            files.forEach((file, targets) -> {
+                arguments.add(file);
+                arguments.add(String.valueOf(targets.size()));
+                targets.forEach(target -> arguments.add(String.valueOf(target)));
+            });
+
+            ArrayList<String> removeFiles = removals.getOrDefault(store, new ArrayList<>());
+            arguments.add(String.valueOf(removeFiles.size()));
+            arguments.addAll(removeFiles);
+            return arguments;
+        }
+    }
+}
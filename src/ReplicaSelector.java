@@ -0,0 +1,145 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chooses which replica a client should load a file from, spreading reads by how busy and how slow each Dstore currently is.
+ * Uses the power of two choices, two random replicas are compared and the one with the lower expected cost (loads in flight times recent time per byte) is picked.
+ * Loads in flight can only be estimated as clients never say when they finish, a load is taken to have finished when the client sends its next message or disconnects.
+ * Dstores also report the requests they are handling in their heartbeats, the higher of the two counts is used.
+ */
+public class ReplicaSelector {
+
+    /**
+     * How much each new sample moves the average time per byte (the rest being kept from older samples).
+     */
+    private final static double SMOOTHING = 0.2;
+
+    /**
+     * The time a failed load counts as taking, so a Dstore which fails loads is avoided for a while.
+     */
+    private final long failurePenaltyNanos;
+
+    /**
+     * The load statistics for every Dstore which has been loaded from.
+     * HashMap paring goes as follows [DSTORE_PORT, LOAD].
+     */
+    private final ConcurrentHashMap<Integer, DstoreLoad> loads = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a selector with no statistics.
+     * @param failurePenaltyMillis The time a failed load counts as taking (usually the timeout).
+     */
+    public ReplicaSelector(long failurePenaltyMillis) {
+        failurePenaltyNanos = failurePenaltyMillis * 1_000_000;
+    }
+
+    /**
+     * Chooses a replica to load from, comparing two at random.
+     * @param candidates The Dstores which can be loaded from (must not be empty).
+     * @return The chosen Dstore.
+     */
+    public Integer choose(List<Integer> candidates) {
+        if (candidates.size() == 1) { return candidates.get(0); }
+
+        // Picks two different candidates at random then keeps the cheaper one (the first on ties).
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(candidates.size());
+        int second = random.nextInt(candidates.size() - 1);
+        if (second >= first) { second++; }
+        return cost(candidates.get(second)) < cost(candidates.get(first)) ? candidates.get(second) : candidates.get(first);
+    }
+
+    /**
+     * Orders every replica from the cheapest to the most expensive to load from (used for striped loads, which read from all of them).
+     * @param candidates The Dstores which can be loaded from.
+     * @return A new list of the Dstores, cheapest first.
+     */
+    public List<Integer> order(List<Integer> candidates) {
+        List<Integer> ordered = new ArrayList<>(candidates);
+        ordered.sort(Comparator.comparingDouble(this::cost));
+        return ordered;
+    }
+
+    /**
+     * Records that a client has been told to load from a Dstore.
+     * @param port The port of the Dstore.
+     */
+    public void loadStarted(Integer port) {
+        loads.computeIfAbsent(port, store -> new DstoreLoad()).inFlight.incrementAndGet();
+    }
+
+    /**
+     * Records the number of requests a Dstore reported it is handling.
+     * @param port The port of the Dstore.
+     * @param requests The number of requests.
+     */
+    public void reportInFlight(Integer port, int requests) {
+        loads.computeIfAbsent(port, store -> new DstoreLoad()).reportedInFlight = requests;
+    }
+
+    /**
+     * Records that a load from a Dstore has finished.
+     * @param port The port of the Dstore.
+     * @param elapsedNanos The time between the client being told to load and the load finishing.
+     * @param size The size of the file which was loaded.
+     * @param succeeded If the load worked (a failed one is recorded as taking at least the failure penalty).
+     */
+    public void loadFinished(Integer port, long elapsedNanos, long size, boolean succeeded) {
+        DstoreLoad load = loads.get(port);
+        if (load == null) { return; }
+        load.inFlight.updateAndGet(count -> Math.max(count - 1, 0));
+        load.record((double) (succeeded ? elapsedNanos : Math.max(elapsedNanos, failurePenaltyNanos)) / Math.max(size, 1));
+    }
+
+    /**
+     * Drops the statistics of a Dstore which has left.
+     * @param port The port of the Dstore.
+     */
+    public void removeDstore(Integer port) {
+        loads.remove(port);
+    }
+
+    /**
+     * Gets the expected cost of sending another load to a Dstore.
+     * @param port The port of the Dstore.
+     * @return The cost, Dstores with no statistics yet cost the least.
+     */
+    private double cost(Integer port) {
+        DstoreLoad load = loads.get(port);
+        if (load == null) { return 0; }
+        return (Math.max(load.inFlight.get(), load.reportedInFlight) + 1) * (load.nanosPerByte + 1);
+    }
+
+    /**
+     * The loads in flight and the recent time per byte of a single Dstore.
+     */
+    private static class DstoreLoad {
+
+        /**
+         * The number of loads which are thought to still be happening.
+         */
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        /**
+         * The number of requests the Dstore last reported it is handling.
+         */
+        private volatile int reportedInFlight = 0;
+
+        /**
+         * The moving average of the time each load took per byte of file.
+         */
+        private volatile double nanosPerByte = 0;
+
+        /**
+         * Adds a sample to the moving average (the first sample is taken as it is).
+         * @param sample The time per byte of the load.
+         */
+        private synchronized void record(double sample) {
+            nanosPerByte = nanosPerByte == 0 ? sample : nanosPerByte + SMOOTHING * (sample - nanosPerByte);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * How a Dstore keeps its files on disk, every read, write, removal and listing of a stored file goes through it.
+ * New data is first written to an incoming path (straight off the socket) then committed, so an engine can change how the data is laid out once it has all arrived.
+ */
+public interface StorageEngine {
+
+    /**
+     * The names the engines keep their own files under in the Dstores folder, which no stored file (or folder of one) can be called.
+     */
+    Set<String> RESERVED_NAMES = Set.of(FileManifest.MANIFEST_FILE, FileManifest.MANIFEST_FILE + ".tmp", ".incoming", ".chunks", ChunkStorage.MANIFEST_FOLDER);
+
+    /**
+     * Checks if a filename would land on the engines own files, so storing it could overwrite the manifest or incoming data.
+     * @param filename The name of the file (with any folders it is in, separated by '/').
+     * @return If the name (or its first folder) is reserved.
+     */
+    static boolean isReserved(String filename) {
+        return RESERVED_NAMES.contains(filename.split("/", 2)[0]);
+    }
+
+    /**
+     * Gets the path new data for a file should be written to before it is committed.
+     * @param filename The name of the file.
+     * @return The path to write to.
+     * @throws IOException Occours when the path can't be made.
+     */
+    Path incoming(String filename) throws IOException;
+
+    /**
+     * Makes data which has been written to an incoming path the stored version of a file (replacing any older version).
+     * @param filename The name of the file.
+     * @param incoming The path the data was written to.
+     * @throws IOException Occours when the data can't be stored.
+     */
+    void commit(String filename, Path incoming) throws IOException;
+
+    /**
+     * Sends all of a file to the given socket.
+     * @param filename The name of the file.
+     * @param socket The socket which the file is being sent on.
+     * @return The number of bytes which were sent.
+     * @throws IOException Occours when the file doesn't exist, can't be read or the socket can't be written to.
+     */
+    long send(String filename, Socket socket) throws IOException;
+
+    /**
+     * Sends a byte range of a file to the given socket (used for partial and resumed loads).
+     * @param filename The name of the file.
+     * @param offset The byte of the file the range starts at.
+     * @param length The most bytes to send (the range stops early at the end of the file).
+     * @param socket The socket which the range is being sent on.
+     * @return The number of bytes which were sent.
+     * @throws IOException Occours when the file doesn't exist, the offset is past its end, it can't be read or the socket can't be written to.
+     */
+    long send(String filename, long offset, long length, Socket socket) throws IOException;
+
+    /**
+     * Opens a file for reading from its start.
+     * @param filename The name of the file.
+     * @return A channel giving the files bytes in order, which must be closed.
+     * @throws IOException Occours when the file doesn't exist or can't be read.
+     */
+    ReadableByteChannel open(String filename) throws IOException;
+
+    /**
+     * Checks if a file is stored.
+     * @param filename The name of the file.
+     * @return If the file is stored.
+     */
+    boolean exists(String filename);
+
+    /**
+     * Gets the size of a stored file.
+     * @param filename The name of the file.
+     * @return The size in bytes.
+     * @throws IOException Occours when the file doesn't exist.
+     */
+    long size(String filename) throws IOException;
+
+    /**
+     * Removes a stored file.
+     * @param filename The name of the file.
+     * @return If the file existed and was removed.
+     */
+    boolean delete(String filename);
+
+    /**
+     * Streams the names of every stored file, so a large Dstore can be listed without holding every name at once.
+     * @return The filenames (with any folders they are in), the stream must be closed.
+     * @throws IOException Occours when the files can't be listed.
+     */
+    Stream<String> list() throws IOException;
+
+    /**
+     * Gets the engine which actually lays the files out on disk (itself unless it wraps another engine).
+     * @return The innermost engine.
+     */
+    default StorageEngine unwrap() {
+        return this;
+    }
+}
@@ -0,0 +1,186 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reference client for striped loads, the file is split into one range per replica and every range is loaded at once from a different Dstore (with ranged LOAD_DATA).
+ * Each range is written straight to its place in the output file, a range which fails part way carries on from its last byte on the next replica.
+ */
+public class StripedLoader {
+
+    /**
+     * The size below which a range isn't worth its own connection (small files are loaded from fewer Dstores).
+     */
+    public final static long DEFAULT_MIN_STRIPE_SIZE = 1024 * 1024;
+
+    /**
+     * The port the controller is listening on.
+     */
+    private final int controllerPort;
+
+    /**
+     * The timeout used for every connection.
+     */
+    private final int timeoutMilliseconds;
+
+    /**
+     * The smallest range which is given its own Dstore.
+     */
+    private final long minStripeSize;
+
+    /**
+     * Creates a loader for a controller.
+     * @param controllerPort The port the controller is listening on.
+     * @param timeoutMilliseconds The timeout used for every connection.
+     * @param minStripeSize The smallest range which is given its own Dstore.
+     */
+    public StripedLoader(int controllerPort, int timeoutMilliseconds, long minStripeSize) {
+        this.controllerPort = controllerPort;
+        this.timeoutMilliseconds = timeoutMilliseconds;
+        this.minStripeSize = Math.max(minStripeSize, 1);
+    }
+
+    /**
+     * Asks the controller for every replica of a file then loads it from all of them at once.
+     * @param filename The name of the file.
+     * @param destination The path the file is written to.
+     * @return The size of the file.
+     * @throws IOException Occours when the controller gives an error or any range can't be loaded from any replica.
+     */
+    public long load(String filename, Path destination) throws IOException {
+        Replicas replicas = locate(filename);
+        return fetch(filename, replicas.size, replicas.ports, destination);
+    }
+
+    /**
+     * Asks the controller which Dstores hold a file with LOAD_STRIPED.
+     * @param filename The name of the file.
+     * @return The size of the file and every Dstore holding it (cheapest first).
+     * @throws IOException Occours when the controller can't be reached or replies with an error.
+     */
+    public Replicas locate(String filename) throws IOException {
+        try (Socket controller = new Socket(InetAddress.getLocalHost(), controllerPort)) {
+            controller.setSoTimeout(timeoutMilliseconds);
+            PrintWriter output = new PrintWriter(controller.getOutputStream(), true);
+            BufferedReader input = new BufferedReader(new InputStreamReader(controller.getInputStream()));
+            output.println(Protocol.LOAD_STRIPED_TOKEN + " " + filename);
+
+            // The reply is LOAD_FROM, the first port, the size then the rest of the ports.
+            String reply = input.readLine();
+            if (reply == null) { throw new EOFException("controller closed the connection"); }
+            String[] replyArgs = reply.split(" ");
+            if (!replyArgs[0].equals(Protocol.LOAD_FROM_TOKEN) || replyArgs.length < 3) { throw new IOException("controller replied '" + reply + "'"); }
+
+            List<Integer> ports = new ArrayList<>();
+            ports.add(Integer.parseInt(replyArgs[1]));
+            for (int i = 3; i < replyArgs.length; i++) { ports.add(Integer.parseInt(replyArgs[i])); }
+            return new Replicas(Long.parseLong(replyArgs[2]), ports);
+        }
+    }
+
+    /**
+     * Loads a file from the given Dstores, one range per Dstore (or fewer if the ranges would be smaller than the minimum stripe size).
+     * @param filename The name of the file.
+     * @param size The size of the file.
+     * @param ports The Dstores holding the file, the first range goes to the first Dstore and so on.
+     * @param destination The path the file is written to.
+     * @return The number of bytes which were loaded.
+     * @throws IOException Occours when any range can't be loaded from any of the Dstores or the file can't be written.
+     */
+    public long fetch(String filename, long size, List<Integer> ports, Path destination) throws IOException {
+        int stripeCount = (int) Math.max(1, Math.min(ports.size(), size / minStripeSize));
+        ExecutorService executor = Executors.newFixedThreadPool(stripeCount);
+        try (FileChannel file = FileChannel.open(destination, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // Splits the file into ranges which differ in size by at most a byte and starts loading them all.
+            List<Future<Long>> stripes = new ArrayList<>();
+            for (int i = 0; i < stripeCount; i++) {
+                long start = size * i / stripeCount;
+                long end = size * (i + 1) / stripeCount;
+                int first = i;
+                stripes.add(executor.submit(() -> fetchStripe(filename, start, end, ports, first, file)));
+            }
+
+            // Waits for every range, any failure fails the whole load.
+            long loaded = 0;
+            for (Future<Long> stripe : stripes) {
+                try { loaded += stripe.get(); }
+                catch (InterruptedException exception) { Thread.currentThread().interrupt(); throw new InterruptedIOException("interrupted while loading " + filename); }
+                catch (ExecutionException exception) {
+                    if (exception.getCause() instanceof IOException ioException) { throw ioException; }
+                    throw new IOException(exception.getCause());
+                }
+            }
+            return loaded;
+        }
+        finally { executor.shutdownNow(); }
+    }
+
+    /**
+     * Loads a single range, starting with one Dstore and moving on to the next (from the last byte received) each time one fails.
+     * @param filename The name of the file.
+     * @param start The first byte of the range.
+     * @param end The byte after the end of the range.
+     * @param ports The Dstores holding the file.
+     * @param first The index of the Dstore the range is loaded from first.
+     * @param file The file the range is written to.
+     * @return The number of bytes in the range.
+     * @throws IOException Occours when every Dstore failed before the range was complete.
+     */
+    private long fetchStripe(String filename, long start, long end, List<Integer> ports, int first, FileChannel file) throws IOException {
+        long position = start;
+        for (int attempt = 0; attempt < ports.size() && position < end; attempt++) {
+            position = fetchRange(ports.get((first + attempt) % ports.size()), filename, position, end, file);
+        }
+        if (position < end) { throw new IOException("unable to load bytes " + position + " to " + end + " of '" + filename + "' from any Dstore"); }
+        return end - start;
+    }
+
+    /**
+     * Loads as much of a range as a single Dstore gives, writing each piece to its position in the file.
+     * @param port The port of the Dstore.
+     * @param filename The name of the file.
+     * @param start The first byte to load.
+     * @param end The byte after the last one to load.
+     * @param file The file the range is written to.
+     * @return The byte after the last one which was written (the end if the whole range was loaded).
+     */
+    private long fetchRange(int port, String filename, long start, long end, FileChannel file) {
+        long position = start;
+        try (Socket dstore = new Socket(InetAddress.getLocalHost(), port)) {
+            dstore.setSoTimeout(timeoutMilliseconds);
+            PrintWriter output = new PrintWriter(dstore.getOutputStream(), true);
+            output.println(Protocol.LOAD_DATA_TOKEN + " " + filename + " " + start + " " + (end - start));
+
+            // Reads the range through a heap buffer, writing each piece at its position (so ranges from other threads can be written at once).
+            InputStream input = dstore.getInputStream();
+            byte[] buf = new byte[FileTransfer.FALLBACK_BUFFER_SIZE];
+            while (position < end) {
+                int bytesRead = input.read(buf, 0, (int) Math.min(buf.length, end - position));
+                if (bytesRead == -1) { throw new EOFException("Dstore closed the connection after " + (position - start) + " of " + (end - start) + " bytes"); }
+                ByteBuffer piece = ByteBuffer.wrap(buf, 0, bytesRead);
+                while (piece.hasRemaining()) { position += file.write(piece, position); }
+            }
+        }
+
+        // Lets the user know the Dstore failed, the rest of the range is then loaded from another one.
+        catch (IOException exception) { Log.error("Error: (" + exception + "), loading range of '" + filename + "' from port '" + port + "'."); }
+        return position;
+    }
+
+    /**
+     * The size of a file and every Dstore holding it.
+     * @param size The size of the file.
+     * @param ports The Dstores holding the file, cheapest first.
+     */
+    public record Replicas(long size, List<Integer> ports) {}
+}
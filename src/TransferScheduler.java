@@ -0,0 +1,115 @@
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Runs rebalance transfers in parallel, with limits on how many run at once in total and to any single peer.
+ * Transfers over a peers limit wait in a queue for that peer instead of holding one of the shared threads, so a slow peer never stops the others.
+ */
+public class TransferScheduler {
+
+    /**
+     * The threads which run the transfers, one per transfer which can run at once.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The most transfers which can run to a single peer at once.
+     */
+    private final int perPeerLimit;
+
+    /**
+     * The running count and waiting transfers of each peer (only used while holding the lock on the map).
+     * HashMap paring goes as follows [DSTORE_PORT, QUEUE].
+     */
+    private final HashMap<Integer, PeerQueue> peerQueues = new HashMap<>();
+
+    /**
+     * Creates a scheduler and its threads.
+     * @param globalLimit The most transfers which can run at once in total.
+     * @param perPeerLimit The most transfers which can run to a single peer at once.
+     */
+    public TransferScheduler(int globalLimit, int perPeerLimit) {
+        this.perPeerLimit = perPeerLimit;
+        executor = Executors.newFixedThreadPool(globalLimit, runnable -> {
+            Thread thread = new Thread(runnable, "rebalance-transfer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Gets the most transfers which can run to a single peer at once.
+     * @return The per peer limit.
+     */
+    public int getPerPeerLimit() {
+        return perPeerLimit;
+    }
+
+    /**
+     * Schedules a transfer to a peer, it starts once both the peer and the scheduler are under their limits.
+     * @param peer The port of the peer the transfer is to.
+     * @param transfer The transfer, giving if the peer acknowledged it.
+     * @return A future completed with the result of the transfer (false if it threw).
+     */
+    public CompletableFuture<Boolean> schedule(Integer peer, Supplier<Boolean> transfer) {
+        ScheduledTransfer scheduled = new ScheduledTransfer(peer, transfer, new CompletableFuture<>());
+        synchronized (peerQueues) {
+            PeerQueue queue = peerQueues.computeIfAbsent(peer, port -> new PeerQueue());
+            if (queue.running >= perPeerLimit) { queue.waiting.add(scheduled); return scheduled.acknowledged; }
+            queue.running++;
+        }
+        start(scheduled);
+        return scheduled.acknowledged;
+    }
+
+    /**
+     * Runs a transfer on the executor, starting the peers next waiting transfer once it finishes.
+     * @param scheduled The transfer being started.
+     */
+    private void start(ScheduledTransfer scheduled) {
+        executor.execute(() -> {
+            boolean acknowledged = false;
+            try { acknowledged = scheduled.transfer.get(); }
+            catch (Exception exception) { Log.error("Error: (" + exception + "), happend during a transfer to port '" + scheduled.peer + "'."); }
+
+            // Hands the peers slot to its next waiting transfer (or frees it) before completing, so callers waking on the future see the slot released.
+            ScheduledTransfer next;
+            synchronized (peerQueues) {
+                PeerQueue queue = peerQueues.get(scheduled.peer);
+                next = queue.waiting.poll();
+                if (next == null && --queue.running == 0) { peerQueues.remove(scheduled.peer); }
+            }
+            if (next != null) { start(next); }
+            scheduled.acknowledged.complete(acknowledged);
+        });
+    }
+
+    /**
+     * The transfers running and waiting for a single peer.
+     */
+    private static class PeerQueue {
+
+        /**
+         * The number of transfers to the peer currently running.
+         */
+        private int running = 0;
+
+        /**
+         * The transfers waiting for one of the peers slots, in the order they were scheduled.
+         */
+        private final Queue<ScheduledTransfer> waiting = new ArrayDeque<>();
+    }
+
+    /**
+     * A transfer and the future which is completed once the peer has acknowledged it.
+     * @param peer The port of the peer the transfer is to.
+     * @param transfer The transfer, giving if the peer acknowledged it.
+     * @param acknowledged Completed with the result of the transfer.
+     */
+    private record ScheduledTransfer(Integer peer, Supplier<Boolean> transfer, CompletableFuture<Boolean> acknowledged) {}
+}